@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.bench;
+
+import fr.litarvan.craftix.update.FileIndex;
+import fr.litarvan.craftix.util.Hashing;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Hashing Benchmark
+ *
+ *
+ * Measures how a game file is checked by the updater : hashing
+ * it whole (the first time, or after a change), and verifying it
+ * against the {@link FileIndex} when it didn't change. The file
+ * stays in the page cache, so the hashing time is the CPU one.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashingBenchmark
+{
+    /**
+     * The file size (in bytes)
+     */
+    @Param({"65536", "4194304"})
+    private int size;
+
+    /**
+     * The hash algorithm
+     */
+    @Param({"SHA-1", "SHA-256"})
+    private String algorithm;
+
+    private File gameDir;
+    private File file;
+    private FileIndex index;
+
+    /**
+     * The expected hash of the file
+     */
+    private String hash;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        gameDir = Files.createTempDirectory("craftix-bench").toFile();
+        file = new File(gameDir, "mods/example.jar");
+        file.getParentFile().mkdirs();
+
+        byte[] content = new byte[size];
+        new Random(42).nextBytes(content);
+        Files.write(file.toPath(), content);
+
+        hash = Hashing.hash(file, algorithm);
+        index = FileIndex.of(gameDir);
+        index.put("mods/example.jar", file, algorithm, hash);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        index.close();
+
+        file.delete();
+        file.getParentFile().delete();
+        gameDir.delete();
+        FileIndex.getFile(gameDir).delete();
+    }
+
+    @Benchmark
+    public boolean hashFile() throws IOException
+    {
+        return Hashing.hash(file, algorithm).equals(hash);
+    }
+
+    @Benchmark
+    public boolean verifyIndexed() throws IOException
+    {
+        return hash.equals(index.hash("mods/example.jar", FileIndex.stat(file), file, algorithm));
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.bench;
+
+import fr.litarvan.craftix.auth.AuthResult;
+import fr.litarvan.craftix.net.JsonReader;
+import fr.litarvan.craftix.net.JsonWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The JSON Codec Benchmark
+ *
+ *
+ * Compares the org.json tree with the {@link JsonReader} and
+ * {@link JsonWriter} on what the server does for every message :
+ * reading a command envelope, writing an event, and writing a
+ * typed response (reflected, built by hand, or written). Run it
+ * with the GC profiler to see the allocations
+ * (./gradlew jmh -PjmhArgs='JsonCodec').
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonCodecBenchmark
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * A launch command, as sent by the launchers
+     */
+    private String command;
+
+    /**
+     * The data of a progress event
+     */
+    private JSONObject progress;
+
+    /**
+     * An authentication response
+     */
+    private AuthResult auth;
+
+    @Setup
+    public void setup()
+    {
+        command = "{\"id\":\"42\",\"command\":\"launch\",\"params\":{\"name\":\"my-server\",\"version\":\"1.12.2\",\"tweaks\":[\"forge\"],\"vmArgs\":[\"-Xmx2G\"],\"wait\":false}}";
+        progress = new JSONObject("{\"phase\":\"download\",\"files\":1234,\"totalFiles\":5678,\"bytes\":123456789,\"speed\":1234567,\"file\":\"mods/example-mod-1.2.3.jar\"}");
+        auth = new AuthResult("Player", "069a79f444e94726a5befca90e38aaf5", "0123456789abcdef0123456789abcdef", "fedcba9876543210");
+    }
+
+    @Benchmark
+    public String decodeTree()
+    {
+        JSONObject object = new JSONObject(command);
+        object.getJSONObject("params");
+
+        return object.getString("command");
+    }
+
+    @Benchmark
+    public String decodeEnvelope()
+    {
+        JsonReader reader = new JsonReader(command);
+        String result = null;
+
+        reader.beginObject();
+
+        while (reader.hasNext())
+        {
+            if (reader.nextName().equals("command"))
+            {
+                result = reader.nextString();
+            }
+            else
+            {
+                reader.skipValue();
+            }
+        }
+
+        reader.endObject();
+
+        return result;
+    }
+
+    @Benchmark
+    public ByteBuffer encodeEventTree()
+    {
+        JSONObject object = new JSONObject();
+        object.put("id", "42");
+        object.put("event", "progress");
+        object.put("data", progress);
+
+        return ByteBuffer.wrap((object.toString() + "\n").getBytes(UTF_8));
+    }
+
+    @Benchmark
+    public ByteBuffer encodeEventWriter()
+    {
+        JsonWriter writer = JsonWriter.get();
+        writer.beginObject().name("id").value("42").name("event").value("progress").name("data").value(progress).endObject();
+
+        return writer.toBuffer();
+    }
+
+    @Benchmark
+    public ByteBuffer encodeResultReflection()
+    {
+        return ByteBuffer.wrap((new JSONObject(auth).toString() + "\n").getBytes(UTF_8));
+    }
+
+    @Benchmark
+    public ByteBuffer encodeResultTree()
+    {
+        JSONObject object = new JSONObject();
+        object.put("id", "42");
+        object.put("response", auth.toJSON());
+
+        return ByteBuffer.wrap((object.toString() + "\n").getBytes(UTF_8));
+    }
+
+    @Benchmark
+    public ByteBuffer encodeResultWriter()
+    {
+        JsonWriter writer = JsonWriter.get();
+        auth.write(writer);
+
+        return writer.toBuffer();
+    }
+}
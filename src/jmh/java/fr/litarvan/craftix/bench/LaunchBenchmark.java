@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.bench;
+
+import fr.litarvan.craftix.command.LaunchCommand;
+import fr.litarvan.craftix.launch.LaunchConfig;
+import fr.litarvan.craftix.launch.OpenLauncherLibLauncher;
+import fr.theshark34.openlauncherlib.minecraft.GameTweak;
+import fr.theshark34.openlauncherlib.minecraft.GameType;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Launch Benchmark
+ *
+ *
+ * Measures what a launch does before starting the game : reading
+ * the launch config from the command params (with
+ * {@link LaunchCommand#toArray(JSONArray)}), then resolving the game
+ * type and the tweaks of the version.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LaunchBenchmark
+{
+    /**
+     * The launched version
+     */
+    @Param({"1.5.2", "1.7.10", "1.8", "1.12.2"})
+    private String version;
+
+    private Command command;
+    private OpenLauncherLibLauncher launcher;
+
+    /**
+     * The launch command params
+     */
+    private JSONObject params;
+
+    /**
+     * The launch config read from the params
+     */
+    private LaunchConfig config;
+
+    @Setup
+    public void setup()
+    {
+        command = new Command();
+        launcher = new OpenLauncherLibLauncher();
+
+        params = new JSONObject("{\"name\":\"my-server\",\"version\":\"" + version + "\",\"params\":[\"--width\",\"1280\",\"--height\",\"720\"],"
+                                + "\"vmParams\":[\"-Xmx2G\",\"-XX:+UseG1GC\",\"-XX:MaxGCPauseMillis=50\"],\"tweaks\":[\"forge\",\"optifine\"]}");
+        config = command.getConfig(params);
+    }
+
+    @Benchmark
+    public String[] toArray()
+    {
+        return command.toArray(params.getJSONArray("vmParams"));
+    }
+
+    @Benchmark
+    public LaunchConfig getConfig()
+    {
+        return command.getConfig(params);
+    }
+
+    @Benchmark
+    public GameType getGameType()
+    {
+        return launcher.getGameType(config);
+    }
+
+    @Benchmark
+    public GameTweak[] getTweaks()
+    {
+        return launcher.getTweaks(config);
+    }
+
+    /**
+     * Gives access to the launch command helpers
+     */
+    private static class Command extends LaunchCommand
+    {
+        @Override
+        protected String[] toArray(JSONArray array)
+        {
+            return super.toArray(array);
+        }
+
+        @Override
+        protected LaunchConfig getConfig(JSONObject params)
+        {
+            return super.getConfig(params);
+        }
+    }
+}
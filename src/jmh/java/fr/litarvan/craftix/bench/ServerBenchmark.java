@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.bench;
+
+import fr.litarvan.craftix.CraftixServer;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Server Benchmark
+ *
+ *
+ * Sends commands to a running {@link CraftixServer} over a loopback
+ * connection and waits for their response : the time covers the
+ * message decode in {@link CraftixServer#onMessage(fr.litarvan.craftix.CraftixConnection, String)},
+ * the dispatch to a worker thread, the command and the response
+ * encoding. The commands are chosen to do almost nothing
+ * themselves, an unknown one measuring the error path.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServerBenchmark
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The sent command
+     */
+    @Param({"list", "metrics", "unknown"})
+    private String command;
+
+    private CraftixServer server;
+    private Thread loop;
+
+    private Socket socket;
+    private OutputStream out;
+    private BufferedReader in;
+
+    /**
+     * The request, sent as is (the id is the same for every request)
+     */
+    private byte[] request;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        int port;
+
+        try (ServerSocket free = new ServerSocket(0))
+        {
+            port = free.getLocalPort();
+        }
+
+        server = new CraftixServer(new InetSocketAddress("127.0.0.1", port), File.createTempFile("craftix-bench", ".log"));
+        loop = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    server.start();
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        }, "Craftix Server");
+        loop.start();
+
+        socket = new Socket("127.0.0.1", port);
+        socket.setTcpNoDelay(true);
+
+        out = socket.getOutputStream();
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
+
+        // Server status
+        in.readLine();
+
+        request = ("{\"id\":\"1\",\"command\":\"" + command + "\",\"params\":{}}\n").getBytes(UTF_8);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        socket.close();
+        server.stop();
+        loop.join();
+    }
+
+    @Benchmark
+    public String roundTrip() throws IOException
+    {
+        out.write(request);
+        return in.readLine();
+    }
+}
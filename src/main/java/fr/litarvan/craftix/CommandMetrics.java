@@ -0,0 +1,208 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix;
+
+import fr.litarvan.craftix.util.Histogram;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONObject;
+
+/**
+ * The Command Metrics
+ *
+ *
+ * A command registered in the server, with how its executions
+ * went : their duration (in a {@link Histogram}), the number of
+ * failed and cancelled ones, and the number of running ones.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class CommandMetrics
+{
+    /**
+     * The measured command
+     */
+    private final CraftixCommand command;
+
+    /**
+     * Duration of the executions (in microseconds)
+     */
+    private final Histogram latency = new Histogram();
+
+    /**
+     * Number of executions that threw an error
+     */
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * Number of executions cancelled by the launcher
+     */
+    private final AtomicLong cancelled = new AtomicLong();
+
+    /**
+     * Number of running executions
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * Command metrics
+     *
+     * @param command The measured command
+     */
+    public CommandMetrics(CraftixCommand command)
+    {
+        this.command = command;
+    }
+
+    /**
+     * Count an execution as running
+     *
+     * @return The execution start time, to give to {@link #end(long)}
+     */
+    public long start()
+    {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the end of an execution
+     *
+     * @param start The value returned by {@link #start()}
+     */
+    public void end(long start)
+    {
+        latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Count an execution that threw an error
+     */
+    public void error()
+    {
+        errors.incrementAndGet();
+    }
+
+    /**
+     * Count an execution cancelled by the launcher
+     */
+    public void cancel()
+    {
+        cancelled.incrementAndGet();
+    }
+
+    /**
+     * @return The metrics, durations being in milliseconds :
+     *
+     * <code>
+     *     {
+     *         "calls": 12,
+     *         "errors": 1,
+     *         "cancelled": 0,
+     *         "inFlight": 0,
+     *         "latency": {
+     *             "mean": 105.2,
+     *             "p50": 98.6,
+     *             "p90": 150.1,
+     *             "p99": 301.5,
+     *             "p999": 301.5,
+     *             "max": 301.2
+     *         }
+     *     }
+     * </code>
+     */
+    public JSONObject toJSON()
+    {
+        JSONObject object = new JSONObject();
+
+        object.put("calls", latency.getCount());
+        object.put("errors", errors.get());
+        object.put("cancelled", cancelled.get());
+        object.put("inFlight", inFlight.get());
+
+        JSONObject durations = new JSONObject();
+        durations.put("mean", millis(latency.getMean()));
+        durations.put("p50", millis(latency.getPercentile(50)));
+        durations.put("p90", millis(latency.getPercentile(90)));
+        durations.put("p99", millis(latency.getPercentile(99)));
+        durations.put("p999", millis(latency.getPercentile(99.9)));
+        durations.put("max", millis(latency.getMax()));
+        object.put("latency", durations);
+
+        return object;
+    }
+
+    private static double millis(double micros)
+    {
+        return Math.round(micros) / 1000.0;
+    }
+
+    /**
+     * @return The measured command
+     */
+    public CraftixCommand getCommand()
+    {
+        return command;
+    }
+
+    /**
+     * @return The duration of the executions (in microseconds)
+     */
+    public Histogram getLatency()
+    {
+        return latency;
+    }
+
+    /**
+     * @return The number of executions that threw an error
+     */
+    public long getErrors()
+    {
+        return errors.get();
+    }
+
+    /**
+     * @return The number of executions cancelled by the launcher
+     */
+    public long getCancelled()
+    {
+        return cancelled.get();
+    }
+
+    /**
+     * @return The number of running executions
+     */
+    public int getInFlight()
+    {
+        return inFlight.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "'" + command.getIdentifier() + "' : " + latency.getCount() + " calls, " + errors.get() + " errors, "
+               + cancelled.get() + " cancelled, " + inFlight.get() + " running, mean " + millis(latency.getMean())
+               + " ms, p50 " + millis(latency.getPercentile(50)) + " ms, p99 " + millis(latency.getPercentile(99))
+               + " ms, max " + millis(latency.getMax()) + " ms";
+    }
+}
@@ -29,7 +29,8 @@ import org.json.JSONObject;
  *
  * <code>
  *     {
- *         "id": "(command identifier)",
+ *         "id": "(request id, optional)",
+ *         "command": "(command identifier)",
  *         "params": {
  *             (command params)
  *         }
@@ -40,11 +41,22 @@ import org.json.JSONObject;
  *
  * <code>
  *     {
- *         "id": "(command indentifier)",
+ *         "id": "(request id)",
  *         "response": (command json object response)
  *     }
  * </code>
  *
+ * (or only the response if the request has no id, see
+ * {@link CraftixRequest})
+ *
+ * The messages are written in JSON, or in MessagePack once the
+ * launcher switched protocol (see {@link fr.litarvan.craftix.net.Protocol}).
+ *
+ * Before returning, a command can send events to the client with
+ * {@link CraftixRequest#emit(String, JSONObject)}, or its progress
+ * with {@link CraftixRequest#getProgress()} (both also reachable
+ * from the managers using {@link CraftixRequest#current()}).
+ *
  * @author Litarvan
  * @version 1.0.0
  * @since 1.0.0
@@ -64,4 +76,18 @@ public abstract class CraftixCommand
      * @return A JSONObject that will be sent to the client
      */
     public abstract JSONObject call(CraftixServer server, JSONObject params) throws Exception;
+
+    /**
+     * Do the command job for the given request, override it to
+     * access the connection or to check if the request was
+     * cancelled (default calls {@link #call(CraftixServer, JSONObject)})
+     *
+     * @param request The request sent by the client
+     *
+     * @return A JSONObject that will be sent to the client
+     */
+    public JSONObject call(CraftixServer server, CraftixRequest request) throws Exception
+    {
+        return call(server, request.getParams());
+    }
 }
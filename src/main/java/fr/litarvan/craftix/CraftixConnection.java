@@ -0,0 +1,787 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix;
+
+import fr.litarvan.craftix.auth.AuthResult;
+import fr.litarvan.craftix.net.FrameDecoder;
+import fr.litarvan.craftix.net.JsonReader;
+import fr.litarvan.craftix.net.JsonWritable;
+import fr.litarvan.craftix.net.JsonWriter;
+import fr.litarvan.craftix.net.LineDecoder;
+import fr.litarvan.craftix.net.MessagePack;
+import fr.litarvan.craftix.net.Protocol;
+import fr.litarvan.craftix.net.WebSocket;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A Craftix Connection
+ *
+ *
+ * A launcher connected to the server. Messages sent to it are
+ * queued and written by the server I/O thread, so it can be
+ * used from any thread. The requests it sends with an id are
+ * executed concurrently on the server worker threads, the others
+ * one after the other.
+ *
+ * The messages are JSON texts followed by a line break, until the
+ * launcher switches to another {@link Protocol} with the "protocol"
+ * command. A launcher starting with an HTTP upgrade request uses a
+ * {@link WebSocket} instead : JSON texts are sent in text messages,
+ * MessagePack documents in binary messages.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class CraftixConnection
+{
+    /**
+     * Maximum size of a message received from a launcher (1 MB)
+     */
+    public static final int MAX_MESSAGE_LENGTH = 1024 * 1024;
+
+    private static final AtomicInteger counter = new AtomicInteger(1);
+
+    /**
+     * The connection number (used in the logs)
+     */
+    private final int id = counter.getAndIncrement();
+
+    /**
+     * The server that accepted the connection
+     */
+    private final CraftixServer server;
+
+    /**
+     * The launcher socket
+     */
+    private final SocketChannel channel;
+
+    /**
+     * The key of the channel in the server selector
+     */
+    private SelectionKey key;
+
+    /**
+     * Splits the received bytes into messages
+     */
+    private final LineDecoder decoder = new LineDecoder(MAX_MESSAGE_LENGTH);
+
+    /**
+     * Splits the received bytes into frames, with a binary protocol
+     */
+    private final FrameDecoder frames = new FrameDecoder(MAX_MESSAGE_LENGTH);
+
+    /**
+     * The WebSocket of the connection (null with a raw socket)
+     */
+    private volatile WebSocket webSocket;
+
+    /**
+     * If the launcher transport is known and the status message sent (I/O thread only)
+     */
+    private boolean established;
+
+    /**
+     * When the connection was accepted (see {@link System#nanoTime()})
+     */
+    private final long acceptTime = System.nanoTime();
+
+    /**
+     * If the connection is closed once the queued messages are written
+     */
+    private volatile boolean closing;
+
+    /**
+     * The protocol of the sent messages
+     */
+    private Protocol protocol = Protocol.JSON;
+
+    /**
+     * The protocol of the received messages (I/O thread only)
+     */
+    private Protocol inbound = Protocol.JSON;
+
+    /**
+     * Encoded messages waiting to be written
+     */
+    private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    /**
+     * Size of the queued messages (in bytes)
+     */
+    private final AtomicLong pending = new AtomicLong();
+
+    /**
+     * Received messages waiting to be executed
+     */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+    /**
+     * The requests with an id that are being executed
+     */
+    private final ConcurrentMap<String, CraftixRequest> requests = new ConcurrentHashMap<String, CraftixRequest>();
+
+    /**
+     * If a worker thread is currently executing the tasks
+     */
+    private final AtomicBoolean executing = new AtomicBoolean();
+
+    /**
+     * The authentication result of this launcher (null if it didn't authenticate)
+     */
+    private volatile AuthResult authResult;
+
+    private final Runnable drain = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            Runnable task;
+
+            while ((task = tasks.poll()) != null)
+            {
+                task.run();
+            }
+
+            executing.set(false);
+
+            if (!tasks.isEmpty())
+            {
+                schedule();
+            }
+        }
+    };
+
+    /**
+     * Craftix connection
+     *
+     * @param server The server that accepted the connection
+     * @param channel The launcher socket
+     */
+    public CraftixConnection(CraftixServer server, SocketChannel channel)
+    {
+        this.server = server;
+        this.channel = channel;
+    }
+
+    /**
+     * Send a message to the launcher, using the connection protocol
+     *
+     * @param message The message to send
+     */
+    public void send(JSONObject message)
+    {
+        sendValue(message);
+    }
+
+    /**
+     * Send a message to the launcher, using the connection protocol
+     *
+     * @param message The message to send
+     */
+    public void send(JsonWritable message)
+    {
+        sendValue(message);
+    }
+
+    private void sendValue(Object message)
+    {
+        if (!isOpen())
+        {
+            return;
+        }
+
+        synchronized (this)
+        {
+            queue(protocol == Protocol.MSGPACK ? MessagePack.frame(message) : JsonWriter.get().value(message).toBuffer());
+        }
+    }
+
+    /**
+     * Send a raw message to the launcher, followed by a line break
+     * (like the received ones). With another protocol than JSON,
+     * the message is parsed and sent like {@link #send(JSONObject)}.
+     *
+     * @param message The message to send
+     */
+    public void send(String message)
+    {
+        if (!isOpen())
+        {
+            return;
+        }
+
+        synchronized (this)
+        {
+            if (protocol != Protocol.JSON)
+            {
+                send(new JsonReader(message).nextObject());
+                return;
+            }
+
+            queue(text(message));
+        }
+    }
+
+    private static ByteBuffer text(String message)
+    {
+        return ByteBuffer.wrap((message + "\n").getBytes(LineDecoder.UTF_8));
+    }
+
+    private void queue(ByteBuffer buffer)
+    {
+        if (closing || !isOpen())
+        {
+            return;
+        }
+
+        if (webSocket != null)
+        {
+            // The frames delimit the messages, without the line break or the length prefix
+            if (protocol == Protocol.MSGPACK)
+            {
+                buffer.position(FrameDecoder.HEADER_LENGTH);
+            }
+            else
+            {
+                buffer.limit(buffer.limit() - 1);
+            }
+
+            buffer = webSocket.frame(protocol == Protocol.MSGPACK ? WebSocket.BINARY : WebSocket.TEXT, buffer);
+        }
+
+        enqueue(buffer);
+    }
+
+    private void enqueue(ByteBuffer buffer)
+    {
+        pending.addAndGet(buffer.limit());
+        outbound.add(buffer);
+        server.requestFlush(this);
+    }
+
+    /**
+     * Switch the connection to another protocol (I/O thread only). The
+     * next received bytes are read with it, while the response of the
+     * given request is the last message sent with the current one.
+     *
+     * @param protocol The new protocol
+     * @param request The request asking for the switch
+     * @param response The response to send before switching
+     */
+    public void switchProtocol(Protocol protocol, CraftixRequest request, JSONObject response)
+    {
+        synchronized (this)
+        {
+            request.respond(response);
+            this.protocol = protocol;
+        }
+
+        this.inbound = protocol;
+    }
+
+    /**
+     * Send an event to the launcher :
+     *
+     * <code>
+     *     {
+     *         "id": "(request id, if given)",
+     *         "event": "(event name)",
+     *         "data": (event data)
+     *     }
+     * </code>
+     *
+     * @param requestId The id of the request the event is about (can be null)
+     * @param event The event name
+     * @param data The event data
+     */
+    public void emit(String requestId, String event, JSONObject data)
+    {
+        if (!isOpen())
+        {
+            return;
+        }
+
+        synchronized (this)
+        {
+            if (protocol == Protocol.JSON)
+            {
+                // Written directly, without building the message object
+                JsonWriter writer = JsonWriter.get().beginObject();
+
+                if (requestId != null)
+                {
+                    writer.name("id").value(requestId);
+                }
+
+                queue(writer.name("event").value(event).name("data").value(data).endObject().toBuffer());
+                return;
+            }
+
+            JSONObject object = new JSONObject();
+
+            if (requestId != null)
+            {
+                object.put("id", requestId);
+            }
+
+            object.put("event", event);
+            object.put("data", data);
+
+            queue(MessagePack.frame(object));
+        }
+    }
+
+    /**
+     * Send the response of a request to the launcher :
+     *
+     * <code>
+     *     {
+     *         "id": "(request id)",
+     *         "response": (command response)
+     *     }
+     * </code>
+     *
+     * (or only the response if the request has no id)
+     *
+     * @param requestId The request id (can be null)
+     * @param response The command response ({@link JSONObject} or {@link JsonWritable})
+     */
+    public void respond(String requestId, Object response)
+    {
+        if (requestId == null)
+        {
+            sendValue(response);
+            return;
+        }
+
+        if (!isOpen())
+        {
+            return;
+        }
+
+        synchronized (this)
+        {
+            if (protocol == Protocol.JSON)
+            {
+                queue(JsonWriter.get().beginObject().name("id").value(requestId).name("response").value(response).endObject().toBuffer());
+                return;
+            }
+
+            JSONObject object = new JSONObject();
+
+            object.put("id", requestId);
+            object.put("response", response);
+
+            queue(MessagePack.frame(object));
+        }
+    }
+
+    /**
+     * Execute a task after all the tasks previously given to this
+     * connection, on a server worker thread
+     *
+     * @param task The task to execute
+     */
+    public void execute(Runnable task)
+    {
+        tasks.add(task);
+        schedule();
+    }
+
+    private void schedule()
+    {
+        if (executing.compareAndSet(false, true))
+        {
+            server.getExecutor().execute(drain);
+        }
+    }
+
+    /**
+     * @param id A request id
+     *
+     * @return The running request with the given id, or null
+     */
+    public CraftixRequest getRequest(String id)
+    {
+        return requests.get(id);
+    }
+
+    /**
+     * @return The requests with an id that are being executed
+     */
+    public CraftixRequest[] getRequests()
+    {
+        return requests.values().toArray(new CraftixRequest[0]);
+    }
+
+    boolean addRequest(CraftixRequest request)
+    {
+        return requests.putIfAbsent(request.getId(), request) == null;
+    }
+
+    void removeRequest(CraftixRequest request)
+    {
+        requests.remove(request.getId(), request);
+    }
+
+    void register(SelectionKey key)
+    {
+        this.key = key;
+    }
+
+    /**
+     * Read the received bytes until a message is completed (I/O thread
+     * only). It must be handled before reading the next one, since it
+     * can switch the protocol.
+     *
+     * @param in The received bytes (flipped)
+     *
+     * @return The next message (the JSON text, or the decoded object with a binary
+     *         protocol), or null if every byte was read without completing one
+     *
+     * @throws IOException If the bytes are not valid for the protocol
+     * @throws JSONException If a received message is not an object (the next messages can still be read)
+     */
+    Object next(ByteBuffer in) throws IOException
+    {
+        if (webSocket != null)
+        {
+            return nextWebSocket(in);
+        }
+
+        if (inbound == Protocol.JSON)
+        {
+            return decoder.next(in);
+        }
+
+        ByteBuffer frame;
+
+        while ((frame = frames.next(in)) != null)
+        {
+            // Empty frames can be used to keep the connection alive
+            if (frame.hasRemaining())
+            {
+                return decode(frame);
+            }
+        }
+
+        return null;
+    }
+
+    private Object nextWebSocket(ByteBuffer in) throws IOException
+    {
+        ByteBuffer message;
+
+        try
+        {
+            while ((message = webSocket.next(in)) != null)
+            {
+                switch (webSocket.getOpcode())
+                {
+                    case WebSocket.TEXT:
+                        return webSocket.text(message);
+                    case WebSocket.BINARY:
+                        return decode(message);
+                    case WebSocket.PING:
+                        synchronized (this)
+                        {
+                            if (!closing)
+                            {
+                                enqueue(webSocket.frame(WebSocket.PONG, message));
+                            }
+                        }
+                        break;
+                    case WebSocket.CLOSE:
+                        // The close code is sent back, then the server closes the socket
+                        shutdown(webSocket.frame(WebSocket.CLOSE, message));
+                        return null;
+                    default:
+                        break;
+                }
+            }
+        }
+        catch (ProtocolException e)
+        {
+            shutdown(webSocket.close(WebSocket.PROTOCOL_ERROR));
+            throw e;
+        }
+
+        return null;
+    }
+
+    private static JSONObject decode(ByteBuffer frame) throws IOException
+    {
+        Object message = MessagePack.decode(frame);
+
+        if (!(message instanceof JSONObject))
+        {
+            throw new JSONException("A message must be a map");
+        }
+
+        return (JSONObject) message;
+    }
+
+    private void shutdown(ByteBuffer last)
+    {
+        synchronized (this)
+        {
+            if (!closing)
+            {
+                enqueue(last);
+                closing = true;
+            }
+        }
+    }
+
+    /**
+     * Read the first bytes received from the launcher (I/O thread only) : a
+     * launcher starting with an HTTP request is upgraded to a {@link WebSocket},
+     * the others use the raw socket.
+     *
+     * @param in The received bytes (flipped)
+     *
+     * @return If the connection is established, the remaining bytes being messages
+     */
+    boolean handshake(ByteBuffer in)
+    {
+        if (webSocket == null)
+        {
+            if (!in.hasRemaining())
+            {
+                return false;
+            }
+
+            if (in.get(in.position()) != 'G')
+            {
+                established = true;
+                return true;
+            }
+
+            webSocket = new WebSocket(MAX_MESSAGE_LENGTH);
+        }
+
+        ByteBuffer response = webSocket.handshake(in);
+
+        if (response == null)
+        {
+            return false;
+        }
+
+        if (!webSocket.isOpen())
+        {
+            shutdown(response);
+            return false;
+        }
+
+        enqueue(response);
+        established = true;
+
+        return true;
+    }
+
+    /**
+     * Establish the connection with the raw socket, when the launcher
+     * didn't send anything after being accepted (I/O thread only)
+     *
+     * @return If the connection was not established yet
+     */
+    boolean establish()
+    {
+        if (established || webSocket != null)
+        {
+            return false;
+        }
+
+        established = true;
+
+        return true;
+    }
+
+    /**
+     * Write as much queued messages as the socket accepts (I/O thread only)
+     *
+     * @return If every queued message was written
+     */
+    boolean flush() throws IOException
+    {
+        ByteBuffer buffer;
+
+        while ((buffer = outbound.peek()) != null)
+        {
+            channel.write(buffer);
+
+            if (buffer.hasRemaining())
+            {
+                return false;
+            }
+
+            outbound.poll();
+            pending.addAndGet(-buffer.limit());
+        }
+
+        if (closing)
+        {
+            close();
+        }
+
+        return true;
+    }
+
+    /**
+     * Close the connection, the queued messages are dropped
+     */
+    public void close()
+    {
+        if (key != null)
+        {
+            key.cancel();
+        }
+
+        try
+        {
+            channel.close();
+        }
+        catch (IOException ignored)
+        {
+        }
+
+        outbound.clear();
+        pending.set(0);
+
+        if (webSocket != null)
+        {
+            synchronized (this)
+            {
+                webSocket.end();
+            }
+        }
+    }
+
+    /**
+     * @return The size of the messages queued but not yet written to the
+     *         launcher (in bytes), large when it doesn't read fast enough
+     */
+    public long getPendingBytes()
+    {
+        return pending.get();
+    }
+
+    /**
+     * @return If the launcher is still connected
+     */
+    public boolean isOpen()
+    {
+        return channel.isOpen();
+    }
+
+    /**
+     * @return If the connection is closed once the queued messages are written,
+     *         the next received messages are ignored
+     */
+    public boolean isClosing()
+    {
+        return closing;
+    }
+
+    /**
+     * @return If the launcher is connected with a WebSocket
+     */
+    public boolean isWebSocket()
+    {
+        return webSocket != null;
+    }
+
+    /**
+     * @return The launcher address
+     */
+    public SocketAddress getAddress()
+    {
+        return channel.socket().getRemoteSocketAddress();
+    }
+
+    /**
+     * @return The authentication result of this launcher, or null if it didn't authenticate
+     */
+    public AuthResult getAuthResult()
+    {
+        return authResult;
+    }
+
+    /**
+     * Set the authentication result of this launcher (called by the
+     * {@link fr.litarvan.craftix.command.AuthenticateCommand}), so several
+     * launchers can launch the game with different accounts
+     *
+     * @param authResult The result of the Authentication
+     */
+    public void setAuthResult(AuthResult authResult)
+    {
+        this.authResult = authResult;
+    }
+
+    /**
+     * @return The server that accepted the connection
+     */
+    public CraftixServer getServer()
+    {
+        return server;
+    }
+
+    SocketChannel getChannel()
+    {
+        return channel;
+    }
+
+    SelectionKey getKey()
+    {
+        return key;
+    }
+
+    boolean isEstablished()
+    {
+        return established;
+    }
+
+    long getAcceptTime()
+    {
+        return acceptTime;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "#" + id + " (" + getAddress() + ")";
+    }
+}
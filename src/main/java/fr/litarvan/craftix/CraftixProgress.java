@@ -0,0 +1,305 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONObject;
+
+/**
+ * A Craftix Progress
+ *
+ *
+ * The progress of a long command (like an update), sent to the
+ * launcher as events. The counters are only updated by the command
+ * threads, the server sends them periodically (and only if they
+ * changed) so even a big update doesn't flood the launcher :
+ *
+ * <code>
+ *     {
+ *         "id": "(request id, if given)",
+ *         "event": "progress",
+ *         "data": {
+ *             "phase": "(current phase)",
+ *             "files": (done files), "totalFiles": (phase files),
+ *             "bytes": (done bytes), "totalBytes": (phase bytes),
+ *             "downloaded": (transferred bytes),
+ *             "speed": (bytes per second), "eta": (seconds left, or -1),
+ *             "file": "(last done file)"
+ *         }
+ *     }
+ * </code>
+ *
+ * Each phase change is sent immediately as a "phase" event.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class CraftixProgress
+{
+    /**
+     * Weight of the last measure in the sent speed
+     */
+    private static final double SPEED_SMOOTHING = 0.3;
+
+    /**
+     * The connection the events are sent to (null if detached)
+     */
+    private final CraftixConnection connection;
+
+    /**
+     * The id of the request (can be null)
+     */
+    private final String requestId;
+
+    private volatile String phase;
+    private volatile String file;
+
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong downloaded = new AtomicLong();
+
+    private volatile long totalFiles;
+    private volatile long totalBytes;
+
+    /**
+     * The transferred bytes when the phase started
+     */
+    private volatile long phaseDownloaded;
+
+    /**
+     * If {@link #finish()} was called
+     */
+    private volatile boolean finished;
+
+    // Last sent state, only used while holding the lock
+    private String sentPhase;
+    private long sentFiles = -1;
+    private long sentBytes = -1;
+    private long sentDownloaded;
+    private long sentTime = System.nanoTime();
+    private double speed;
+
+    /**
+     * Craftix progress, sent to the given connection until finished
+     *
+     * @param connection The connection the events are sent to (can be null to send nothing)
+     * @param requestId The id of the request (can be null)
+     */
+    public CraftixProgress(CraftixConnection connection, String requestId)
+    {
+        this.connection = connection;
+        this.requestId = requestId;
+
+        if (connection != null)
+        {
+            connection.getServer().track(this);
+        }
+    }
+
+    /**
+     * @return The progress of the request executed by the current thread, or
+     *         a progress sending nothing if it isn't executing a request
+     */
+    public static CraftixProgress current()
+    {
+        CraftixRequest request = CraftixRequest.current();
+        return request != null ? request.getProgress() : new CraftixProgress(null, null);
+    }
+
+    /**
+     * Start a new phase, sending the progress of the previous one
+     *
+     * @param phase The phase name
+     * @param totalFiles The number of files of the phase
+     * @param totalBytes The number of bytes of the phase
+     */
+    public void phase(String phase, long totalFiles, long totalBytes)
+    {
+        flush();
+
+        synchronized (this)
+        {
+            this.phase = phase;
+            this.file = null;
+            this.totalFiles = totalFiles;
+            this.totalBytes = totalBytes;
+            this.phaseDownloaded = downloaded.get();
+
+            files.set(0);
+            bytes.set(0);
+        }
+
+        JSONObject data = new JSONObject();
+
+        data.put("phase", phase);
+        data.put("totalFiles", totalFiles);
+        data.put("totalBytes", totalBytes);
+
+        emit("phase", data);
+    }
+
+    /**
+     * Count transferred bytes, used to compute the speed
+     *
+     * @param count The number of transferred bytes
+     */
+    public void transferred(long count)
+    {
+        downloaded.addAndGet(count);
+    }
+
+    /**
+     * Count a done file
+     *
+     * @param path The file path
+     * @param size The file size
+     */
+    public void done(String path, long size)
+    {
+        file = path;
+
+        bytes.addAndGet(size);
+        files.incrementAndGet();
+    }
+
+    /**
+     * Send the progress if it changed since the last time
+     */
+    public synchronized void flush()
+    {
+        if (connection == null || phase == null)
+        {
+            return;
+        }
+
+        long now = System.nanoTime();
+        long files = this.files.get();
+        long bytes = this.bytes.get();
+        long downloaded = this.downloaded.get();
+
+        double elapsed = (double) (now - sentTime) / TimeUnit.SECONDS.toNanos(1);
+
+        if (elapsed > 0)
+        {
+            double measure = (downloaded - sentDownloaded) / elapsed;
+            speed = sentPhase == null ? measure : speed + SPEED_SMOOTHING * (measure - speed);
+        }
+
+        boolean changed = !phase.equals(sentPhase) || files != sentFiles || bytes != sentBytes || downloaded != sentDownloaded;
+
+        sentTime = now;
+        sentDownloaded = downloaded;
+
+        if (!changed)
+        {
+            return;
+        }
+
+        sentPhase = phase;
+        sentFiles = files;
+        sentBytes = bytes;
+
+        JSONObject data = new JSONObject();
+
+        data.put("phase", phase);
+        data.put("files", files);
+        data.put("totalFiles", totalFiles);
+        data.put("bytes", bytes);
+        data.put("totalBytes", totalBytes);
+        data.put("downloaded", downloaded);
+        data.put("speed", (long) speed);
+        // Counting the files being downloaded too (delta downloads transfer less than their size)
+        long remaining = Math.max(0, totalBytes - Math.max(bytes, downloaded - phaseDownloaded));
+        data.put("eta", speed >= 1 ? (long) Math.ceil(remaining / speed) : -1);
+
+        if (file != null)
+        {
+            data.put("file", file);
+        }
+
+        emit("progress", data);
+    }
+
+    /**
+     * Send the last progress and stop sending it
+     */
+    public void finish()
+    {
+        if (finished)
+        {
+            return;
+        }
+
+        finished = true;
+        flush();
+
+        if (connection != null)
+        {
+            connection.getServer().untrack(this);
+        }
+    }
+
+    /**
+     * Send an event to the launcher, with the id of the request
+     *
+     * @param event The event name
+     * @param data The event data
+     */
+    public void emit(String event, JSONObject data)
+    {
+        if (connection != null)
+        {
+            connection.emit(requestId, event, data);
+        }
+    }
+
+    /**
+     * @return If {@link #finish()} was called, or the launcher disconnected
+     */
+    public boolean isFinished()
+    {
+        return finished || connection == null || !connection.isOpen();
+    }
+
+    /**
+     * @return The connection the events are sent to (null if detached)
+     */
+    public CraftixConnection getConnection()
+    {
+        return connection;
+    }
+
+    /**
+     * @return The id of the request (can be null)
+     */
+    public String getRequestId()
+    {
+        return requestId;
+    }
+
+    /**
+     * @return The current phase (null if not started)
+     */
+    public String getPhase()
+    {
+        return phase;
+    }
+}
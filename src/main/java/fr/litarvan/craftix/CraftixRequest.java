@@ -0,0 +1,342 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix;
+
+import fr.litarvan.craftix.net.JsonReader;
+import fr.litarvan.craftix.net.JsonWritable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.json.JSONObject;
+
+/**
+ * A Craftix Request
+ *
+ *
+ * A command call received from a launcher. When the launcher
+ * gives a request id, the request is executed concurrently with
+ * the others and its response is sent as soon as it is done,
+ * with the same id :
+ *
+ * <code>
+ *     {
+ *         "id": "(request id)",
+ *         "response": (command json object response)
+ *     }
+ * </code>
+ *
+ * Requests without id are executed one after the other and
+ * their response is sent as is, like before.
+ *
+ * While running, a command can send events about the request
+ * (see {@link #emit(String, JSONObject)} and {@link CraftixProgress}),
+ * they are always sent before the response.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class CraftixRequest
+{
+    /**
+     * The request executed by each worker thread
+     */
+    private static final ThreadLocal<CraftixRequest> current = new ThreadLocal<CraftixRequest>();
+
+    /**
+     * The connection that sent the request
+     */
+    private final CraftixConnection connection;
+
+    /**
+     * The request id given by the launcher (can be null)
+     */
+    private final String id;
+
+    /**
+     * The identifier of the called command
+     */
+    private final String command;
+
+    /**
+     * The parameters sent by the launcher (null until parsed)
+     */
+    private volatile JSONObject params;
+
+    /**
+     * The received message, when the parameters are parsed on first use
+     */
+    private final String source;
+
+    /**
+     * The position of the parameters in the received message
+     */
+    private final int paramsStart;
+    private final int paramsEnd;
+
+    /**
+     * If a response (or an error) was already sent
+     */
+    private final AtomicBoolean completed = new AtomicBoolean();
+
+    /**
+     * The task executing the request, when executed concurrently
+     */
+    private volatile Future<?> task;
+
+    /**
+     * The request progress, created when first used
+     */
+    private volatile CraftixProgress progress;
+
+    /**
+     * Craftix request
+     *
+     * @param connection The connection that sent the request
+     * @param id The request id given by the launcher (can be null)
+     * @param command The identifier of the called command
+     * @param params The parameters sent by the launcher
+     */
+    public CraftixRequest(CraftixConnection connection, String id, String command, JSONObject params)
+    {
+        this.connection = connection;
+        this.id = id;
+        this.command = command;
+        this.params = params;
+        this.source = null;
+        this.paramsStart = this.paramsEnd = -1;
+    }
+
+    /**
+     * Craftix request, with its parameters parsed when first used
+     * (so a rejected request never parses them)
+     *
+     * @param connection The connection that sent the request
+     * @param id The request id given by the launcher (can be null)
+     * @param command The identifier of the called command
+     * @param source The received JSON message
+     * @param paramsStart The start of the parameters in the message
+     * @param paramsEnd The end of the parameters in the message
+     */
+    public CraftixRequest(CraftixConnection connection, String id, String command, String source, int paramsStart, int paramsEnd)
+    {
+        this.connection = connection;
+        this.id = id;
+        this.command = command;
+        this.source = source;
+        this.paramsStart = paramsStart;
+        this.paramsEnd = paramsEnd;
+    }
+
+    /**
+     * Send the command response to the launcher, does nothing
+     * if the request was already answered or cancelled
+     *
+     * @param response The command response
+     */
+    public void respond(JSONObject response)
+    {
+        send(response);
+    }
+
+    /**
+     * Send a typed command response to the launcher, written without
+     * converting it to a JSONObject. Does nothing if the request was
+     * already answered or cancelled.
+     *
+     * @param response The command response
+     */
+    public void respond(JsonWritable response)
+    {
+        send(response);
+    }
+
+    private void send(Object response)
+    {
+        if (!completed.compareAndSet(false, true))
+        {
+            return;
+        }
+
+        finishProgress();
+        connection.respond(id, response);
+    }
+
+    /**
+     * Send an error to the launcher, does nothing if the request
+     * was already answered or cancelled
+     *
+     * @param ex The error
+     */
+    public void fail(Exception ex)
+    {
+        if (completed.compareAndSet(false, true))
+        {
+            finishProgress();
+            connection.getServer().onError(connection, id, ex);
+        }
+    }
+
+    /**
+     * Send an event about this request to the launcher
+     *
+     * @param event The event name
+     * @param data The event data
+     *
+     * @see CraftixConnection#emit(String, String, JSONObject)
+     */
+    public void emit(String event, JSONObject data)
+    {
+        connection.emit(id, event, data);
+    }
+
+    /**
+     * @return The request progress, sent to the launcher until the response
+     */
+    public CraftixProgress getProgress()
+    {
+        if (progress == null)
+        {
+            synchronized (this)
+            {
+                if (progress == null)
+                {
+                    progress = new CraftixProgress(connection, id);
+                }
+            }
+        }
+
+        return progress;
+    }
+
+    private void finishProgress()
+    {
+        CraftixProgress progress = this.progress;
+
+        if (progress != null)
+        {
+            progress.finish();
+        }
+    }
+
+    /**
+     * @return The request executed by the current thread, or null if it
+     *         isn't executing a command
+     */
+    public static CraftixRequest current()
+    {
+        return current.get();
+    }
+
+    static void setCurrent(CraftixRequest request)
+    {
+        if (request == null)
+        {
+            current.remove();
+        }
+        else
+        {
+            current.set(request);
+        }
+    }
+
+    /**
+     * Cancel the request, interrupting its command if it is running
+     *
+     * @return If the request was cancelled (false if it was already answered)
+     */
+    public boolean cancel()
+    {
+        Future<?> task = this.task;
+
+        if (task == null || !task.cancel(true))
+        {
+            return false;
+        }
+
+        fail(new CancellationException("Request '" + id + "' was cancelled"));
+        return true;
+    }
+
+    void setTask(Future<?> task)
+    {
+        this.task = task;
+    }
+
+    /**
+     * @return If the request was cancelled by the launcher
+     */
+    public boolean isCancelled()
+    {
+        Future<?> task = this.task;
+        return task != null && task.isCancelled();
+    }
+
+    /**
+     * @return If a response (or an error) was already sent
+     */
+    public boolean isCompleted()
+    {
+        return completed.get();
+    }
+
+    /**
+     * @return The connection that sent the request
+     */
+    public CraftixConnection getConnection()
+    {
+        return connection;
+    }
+
+    /**
+     * @return The request id given by the launcher (can be null)
+     */
+    public String getId()
+    {
+        return id;
+    }
+
+    /**
+     * @return The identifier of the called command
+     */
+    public String getCommand()
+    {
+        return command;
+    }
+
+    /**
+     * @return The parameters sent by the launcher
+     */
+    public JSONObject getParams()
+    {
+        JSONObject params = this.params;
+
+        if (params == null)
+        {
+            JsonReader reader = new JsonReader(source, paramsStart, paramsEnd);
+
+            params = reader.nextObject();
+            reader.close();
+
+            this.params = params;
+        }
+
+        return params;
+    }
+}
@@ -20,27 +20,66 @@ package fr.litarvan.craftix;
 
 import fr.litarvan.craftix.auth.AuthManager;
 import fr.litarvan.craftix.auth.AuthResult;
-import fr.litarvan.craftix.auth.OpenAuthManager;
+import fr.litarvan.craftix.auth.CachingAuthManager;
+import fr.litarvan.craftix.auth.CoalescingAuthManager;
+import fr.litarvan.craftix.auth.YggdrasilAuthManager;
 import fr.litarvan.craftix.command.AuthenticateCommand;
+import fr.litarvan.craftix.command.CancelCommand;
+import fr.litarvan.craftix.command.KillCommand;
 import fr.litarvan.craftix.command.LaunchCommand;
+import fr.litarvan.craftix.command.ListCommand;
+import fr.litarvan.craftix.command.LogoutCommand;
+import fr.litarvan.craftix.command.MetricsCommand;
+import fr.litarvan.craftix.command.LogsCommand;
+import fr.litarvan.craftix.command.ProtocolCommand;
+import fr.litarvan.craftix.command.RefreshCommand;
+import fr.litarvan.craftix.command.StandbyCommand;
+import fr.litarvan.craftix.command.StatsCommand;
+import fr.litarvan.craftix.command.StatusCommand;
 import fr.litarvan.craftix.command.UpdateCommand;
 import fr.litarvan.craftix.launch.CraftixLauncher;
+import fr.litarvan.craftix.launch.MetricsSampler;
 import fr.litarvan.craftix.launch.OpenLauncherLibLauncher;
+import fr.litarvan.craftix.launch.ProcessSupervisor;
+import fr.litarvan.craftix.net.JsonReader;
+import fr.litarvan.craftix.net.Protocol;
+import fr.litarvan.craftix.update.ManifestUpdateManager;
 import fr.litarvan.craftix.update.UpdateManager;
-import java.io.BufferedReader;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import fr.litarvan.craftix.util.BufferPool;
+import fr.litarvan.craftix.util.NamedThreadFactory;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import net.wytrem.logging.Logger;
 import net.wytrem.logging.LoggerFactory;
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 /**
@@ -48,8 +87,15 @@ import org.json.JSONObject;
  *
  *
  * WebSocket server launched by the wrapper.
- * The launcher will connect to it for authentication,
- * update, or game launching.
+ * The launchers will connect to it for authentication,
+ * update, or game launching. They can use a WebSocket,
+ * or send the messages directly on the socket : both
+ * are accepted on the same port (see {@link CraftixConnection}).
+ *
+ * A single non-blocking I/O thread handles every connection,
+ * while the commands are executed on a bounded pool of worker
+ * threads so a long command never stops the server from reading
+ * or writing messages (see {@link CraftixRequest}).
  *
  * @author Litarvan
  * @version 1.0.0
@@ -70,10 +116,94 @@ public class CraftixServer
         SUCCESS.put("success", true);
     }
 
+    /**
+     * Size of the buffers used to read from the launchers
+     */
+    public static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Number of threads executing the commands
+     */
+    public static final int WORKER_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    /**
+     * Maximum number of received commands waiting or being executed,
+     * the launchers receive an error when sending more
+     */
+    public static final int MAX_PENDING_COMMANDS = 256;
+
+    /**
+     * Time given to a new launcher to start a WebSocket handshake, before
+     * it is considered a raw one and receives the status message (in milliseconds)
+     */
+    public static final long HANDSHAKE_DELAY = 100;
+
+    /**
+     * Interval between two progress events of a request (in milliseconds)
+     */
+    public static final long PROGRESS_INTERVAL = 250;
+
+    /**
+     * Default interval between two logs of the command metrics (in milliseconds),
+     * can be changed with the craftix.commands.log property (0 to disable them)
+     */
+    public static final long DEFAULT_METRICS_LOG_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * Interval between two checks of the cached sessions expiration (in milliseconds)
+     */
+    public static final long SESSIONS_REFRESH_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
     /**
      * The server
      */
-    private ServerSocket socket;
+    private ServerSocketChannel socket;
+
+    /**
+     * The selector of the I/O thread
+     */
+    private Selector selector;
+
+    /**
+     * If the server is running
+     */
+    private volatile boolean running;
+
+    /**
+     * Buffers used to read from the launchers
+     */
+    private BufferPool bufferPool = new BufferPool(READ_BUFFER_SIZE, 64);
+
+    /**
+     * Executes the commands received from the launchers
+     */
+    private ThreadPoolExecutor executor = new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS, 60L, TimeUnit.SECONDS,
+                                                                 new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("Craftix Worker"));
+
+    /**
+     * Limits the number of commands waiting or being executed
+     */
+    private Semaphore pendingCommands = new Semaphore(MAX_PENDING_COMMANDS);
+
+    /**
+     * Runs the periodic tasks (like sending the progresses)
+     */
+    private ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("Craftix Scheduler"));
+
+    /**
+     * The progresses being sent to the launchers
+     */
+    private Set<CraftixProgress> progresses = Collections.newSetFromMap(new ConcurrentHashMap<CraftixProgress, Boolean>());
+
+    /**
+     * Accepted connections that didn't send anything yet, oldest first (I/O thread only)
+     */
+    private Queue<CraftixConnection> accepted = new ArrayDeque<CraftixConnection>();
+
+    /**
+     * Connections with messages waiting to be written
+     */
+    private Queue<CraftixConnection> pendingFlushes = new ConcurrentLinkedQueue<CraftixConnection>();
 
     /**
      * Server logger
@@ -81,25 +211,41 @@ public class CraftixServer
     private Logger logger;
 
     /**
-     * The commands that the server can receive from the client
+     * The commands that the server can receive from the client, with their
+     * metrics, by identifier (replaced as a whole when a command is registered)
      */
-    private List<CraftixCommand> commands = new ArrayList<CraftixCommand>();
+    private volatile Map<String, CommandMetrics> routes = Collections.emptyMap();
+
+    /**
+     * The total number of executed commands in the last log of the command metrics
+     */
+    private long loggedCalls;
 
     /**
      * The authentication manager
      */
-    private AuthManager authManager = new OpenAuthManager();
+    private AuthManager authManager = CachingAuthManager.wrap(new CoalescingAuthManager(new YggdrasilAuthManager()));
 
     /**
      * The update manager
      */
-    private UpdateManager updateManager;
+    private UpdateManager updateManager = new ManifestUpdateManager();
 
     /**
      * The game launcher
      */
     private CraftixLauncher launcher = new OpenLauncherLibLauncher();
 
+    /**
+     * Follows the launched games
+     */
+    private ProcessSupervisor supervisor = new ProcessSupervisor(scheduler, executor);
+
+    /**
+     * Samples the resource usage of the launched games
+     */
+    private MetricsSampler metrics = new MetricsSampler(supervisor);
+
     /**
      * The authentication result
      */
@@ -113,8 +259,12 @@ public class CraftixServer
      */
     public CraftixServer(InetSocketAddress address, File logFile) throws IOException
     {
-        socket = new ServerSocket();
-        socket.bind(address);
+        socket = ServerSocketChannel.open();
+        socket.socket().bind(address);
+        socket.configureBlocking(false);
+
+        selector = Selector.open();
+        socket.register(selector, SelectionKey.OP_ACCEPT);
 
         try
         {
@@ -131,86 +281,507 @@ public class CraftixServer
         this.registerCommand(new AuthenticateCommand());
         this.registerCommand(new UpdateCommand());
         this.registerCommand(new LaunchCommand());
+        this.registerCommand(new CancelCommand());
+        this.registerCommand(new StandbyCommand());
+        this.registerCommand(new ListCommand());
+        this.registerCommand(new StatusCommand());
+        this.registerCommand(new KillCommand());
+        this.registerCommand(new LogsCommand());
+        this.registerCommand(new StatsCommand());
+        this.registerCommand(new ProtocolCommand());
+        this.registerCommand(new MetricsCommand());
+        this.registerCommand(new RefreshCommand());
+        this.registerCommand(new LogoutCommand());
+
+        executor.allowCoreThreadTimeOut(true);
+        scheduler.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                flushProgresses();
+            }
+        }, PROGRESS_INTERVAL, PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(metrics, metrics.getInterval(), metrics.getInterval(), TimeUnit.MILLISECONDS);
+
+        long metricsLogInterval = Long.getLong("craftix.commands.log", DEFAULT_METRICS_LOG_INTERVAL);
+
+        if (metricsLogInterval > 0)
+        {
+            scheduler.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    logCommandMetrics();
+                }
+            }, metricsLogInterval, metricsLogInterval, TimeUnit.MILLISECONDS);
+        }
+
+        scheduler.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                refreshSessions(Long.MAX_VALUE);
+            }
+        }, SESSIONS_REFRESH_INTERVAL, SESSIONS_REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
     }
 
-    public void start()
+    /**
+     * Run the server I/O loop on the current thread, until
+     * {@link #stop()} is called
+     *
+     * @throws IOException If the server crashed
+     */
+    public void start() throws IOException
     {
-        int result = 0;
-
-        PrintWriter out = null;
-        BufferedReader in = null;
-        Socket client = null;
+        running = true;
 
         try
         {
-            logger.info("Listening on craftix://" + socket.getInetAddress().getHostAddress() + ":" + socket.getLocalPort());
-            client = socket.accept();
+            String address = socket.socket().getInetAddress().getHostAddress() + ":" + socket.socket().getLocalPort();
+            logger.info("Listening on craftix://" + address + " and ws://" + address);
+
+            while (running)
+            {
+                selector.select(establishTimeout());
+                establishAccepted();
+
+                CraftixConnection pending;
+                while ((pending = pendingFlushes.poll()) != null)
+                {
+                    flush(pending);
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
 
-            logger.info("Launched conneced");
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid())
+                    {
+                        continue;
+                    }
+
+                    if (key.isAcceptable())
+                    {
+                        accept();
+                        continue;
+                    }
+
+                    CraftixConnection connection = (CraftixConnection) key.attachment();
 
-            out = new PrintWriter(new DataOutputStream(client.getOutputStream()));
-            in = new BufferedReader(new InputStreamReader(new DataInputStream(client.getInputStream())));
+                    if (key.isReadable())
+                    {
+                        read(connection);
+                    }
 
-            onOpen(out);
+                    if (key.isValid() && key.isWritable())
+                    {
+                        flush(connection);
+                    }
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Server crashed !", e);
+            throw e;
+        }
+        finally
+        {
+            for (SelectionKey key : selector.keys())
+            {
+                if (key.attachment() instanceof CraftixConnection)
+                {
+                    ((CraftixConnection) key.attachment()).close();
+                }
+            }
 
-            logger.info("Listening for commands...");
-            String line;
+            selector.close();
+            socket.close();
+            supervisor.killAll();
+            executor.shutdownNow();
+            scheduler.shutdownNow();
 
-            while ((line = in.readLine()) != null)
+            if (updateManager instanceof Closeable)
             {
                 try
                 {
-                    onMessage(out, line);
+                    ((Closeable) updateManager).close();
                 }
-                catch (Exception e)
+                catch (IOException e)
                 {
-                    onError(out, e);
+                    logger.error("Couldn't close the update manager", e);
                 }
             }
 
-            logger.info("Launcher closed connection, closing server");
+            logger.info("Closing...");
         }
-        catch (IOException e)
+    }
+
+    /**
+     * Stop the server, closing every connection
+     */
+    public void stop()
+    {
+        running = false;
+        selector.wakeup();
+    }
+
+    protected void accept() throws IOException
+    {
+        SocketChannel channel = socket.accept();
+
+        if (channel == null)
         {
-            logger.info("Server crashed !", e);
-            result = 1;
+            return;
         }
-        finally
+
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+
+        CraftixConnection connection = new CraftixConnection(this, channel);
+        connection.register(channel.register(selector, SelectionKey.OP_READ, connection));
+
+        // A WebSocket launcher speaks first, a raw one waits for the status message
+        accepted.add(connection);
+    }
+
+    /**
+     * @return The time until the oldest accepted connection must be established, or 0 if there is none
+     */
+    protected long establishTimeout()
+    {
+        CraftixConnection connection = accepted.peek();
+
+        if (connection == null)
+        {
+            return 0;
+        }
+
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connection.getAcceptTime());
+
+        return Math.max(1, HANDSHAKE_DELAY - elapsed);
+    }
+
+    protected void establishAccepted()
+    {
+        CraftixConnection connection;
+
+        while ((connection = accepted.peek()) != null)
+        {
+            if (connection.isOpen() && !connection.isEstablished() && System.nanoTime() - connection.getAcceptTime() < TimeUnit.MILLISECONDS.toNanos(HANDSHAKE_DELAY))
+            {
+                break;
+            }
+
+            accepted.poll();
+
+            if (connection.isOpen() && connection.establish())
+            {
+                open(connection);
+            }
+        }
+    }
+
+    protected void open(CraftixConnection connection)
+    {
+        logger.info("Launcher connected " + connection + (connection.isWebSocket() ? " (WebSocket)" : ""));
+
+        onOpen(connection);
+    }
+
+    protected void read(final CraftixConnection connection)
+    {
+        ByteBuffer buffer = bufferPool.acquire();
+
+        try
         {
-            if (out != null)
+            if (connection.getChannel().read(buffer) == -1)
+            {
+                logger.info("Launcher " + connection + " closed connection");
+                connection.close();
+
+                return;
+            }
+
+            buffer.flip();
+
+            if (connection.isClosing())
+            {
+                return;
+            }
+
+            if (!connection.isEstablished())
             {
-                out.close();
+                if (!connection.handshake(buffer))
+                {
+                    return;
+                }
+
+                open(connection);
             }
 
-            if (client != null)
+            // Each message is handled before reading the next one, as it can switch the protocol
+            while (connection.isOpen())
             {
+                Object message;
+
+                try
+                {
+                    message = connection.next(buffer);
+                }
+                catch (JSONException e)
+                {
+                    onError(connection, e);
+                    continue;
+                }
+
+                if (message == null)
+                {
+                    break;
+                }
+
                 try
                 {
-                    client.close();
+                    if (message instanceof String)
+                    {
+                        onMessage(connection, (String) message);
+                    }
+                    else
+                    {
+                        onMessage(connection, (JSONObject) message);
+                    }
                 }
-                catch (IOException ignored)
+                catch (Exception e)
                 {
+                    onError(connection, e);
                 }
             }
         }
+        catch (IOException e)
+        {
+            logger.error("Couldn't read from " + connection + ", closing it", e);
+
+            // A WebSocket is closed once its close frame is sent
+            if (!connection.isClosing())
+            {
+                connection.close();
+            }
+        }
+        finally
+        {
+            bufferPool.release(buffer);
+        }
+    }
+
+    protected void flush(CraftixConnection connection)
+    {
+        if (!connection.isOpen() || !connection.getKey().isValid())
+        {
+            return;
+        }
+
+        try
+        {
+            int ops = connection.flush() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+
+            // Closed after writing its last message
+            if (!connection.isOpen())
+            {
+                return;
+            }
+
+            connection.getKey().interestOps(ops);
+        }
+        catch (IOException e)
+        {
+            logger.error("Couldn't write to " + connection + ", closing it", e);
+            connection.close();
+        }
+    }
+
+    /**
+     * Ask the I/O thread to write the queued messages of the given connection
+     *
+     * @param connection The connection with messages to write
+     */
+    void requestFlush(CraftixConnection connection)
+    {
+        pendingFlushes.add(connection);
+        selector.wakeup();
+    }
 
-        logger.info("Closing...");
-        System.exit(result);
+    /**
+     * Start sending a progress periodically
+     *
+     * @param progress The progress to send
+     */
+    void track(CraftixProgress progress)
+    {
+        progresses.add(progress);
+    }
+
+    /**
+     * Stop sending a progress
+     *
+     * @param progress The progress to stop sending
+     */
+    void untrack(CraftixProgress progress)
+    {
+        progresses.remove(progress);
     }
 
+    protected void flushProgresses()
+    {
+        for (CraftixProgress progress : progresses)
+        {
+            if (progress.isFinished())
+            {
+                untrack(progress);
+                continue;
+            }
+
+            try
+            {
+                progress.flush();
+            }
+            catch (Exception e)
+            {
+                logger.error("Couldn't send the progress of request '" + progress.getRequestId() + "'", e);
+            }
+        }
+    }
+
+    /**
+     * Refresh the cached sessions close to their expiration, or older
+     * than the given interval, if the auth manager caches them
+     *
+     * @param interval Age after which a session is refreshed anyway (in milliseconds)
+     */
+    protected void refreshSessions(long interval)
+    {
+        if (authManager instanceof CachingAuthManager)
+        {
+            ((CachingAuthManager) authManager).refreshSessions(this, interval);
+        }
+    }
+
+    public void onOpen(CraftixConnection connection)
+    {
+        // Loading the session cache reads the disk, so it never runs on the I/O loop
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                refreshSessions(CachingAuthManager.REVALIDATE_INTERVAL);
+            }
+        });
+
+        connection.send(getStatus());
+
+        logger.info("Connection opened ! Sent status message");
+    }
+
+    /**
+     * Send the status message on a blocking connection
+     *
+     * @param writer The connection writer
+     *
+     * @deprecated The connections are now handled by the server loop, see {@link #onOpen(CraftixConnection)}
+     */
+    @Deprecated
     public void onOpen(PrintWriter writer)
+    {
+        writer.print(getStatus().toString());
+        writer.flush();
+
+        logger.info("Connection opened ! Sent status message");
+    }
+
+    /**
+     * @return The status message sent to the launchers when they connect
+     */
+    protected JSONObject getStatus()
     {
         JSONObject object = new JSONObject();
 
         object.put("status", "ok");
         object.put("version", VERSION);
 
-        writer.print(object.toString());
-        writer.flush();
+        JSONArray protocols = new JSONArray();
 
-        logger.info("Connection opened ! Sent status message");
+        for (Protocol protocol : Protocol.values())
+        {
+            protocols.put(protocol.getName());
+        }
+
+        object.put("protocols", protocols);
+
+        return object;
+    }
+
+    public void onMessage(CraftixConnection connection, String message)
+    {
+        // Only the envelope is read, the params are parsed when the command uses them
+        JsonReader reader = new JsonReader(message);
+        String id = null;
+        String command = null;
+        int paramsStart = -1;
+        int paramsEnd = -1;
+
+        reader.beginObject();
+
+        while (reader.hasNext())
+        {
+            String name = reader.nextName();
+
+            if (name.equals("id"))
+            {
+                id = reader.nextString();
+            }
+            else if (name.equals("command"))
+            {
+                command = reader.nextString();
+            }
+            else if (name.equals("params"))
+            {
+                paramsStart = reader.position();
+                reader.skipValue();
+                paramsEnd = reader.position();
+            }
+            else
+            {
+                reader.skipValue();
+            }
+        }
+
+        reader.endObject();
+        reader.close();
+
+        if (command == null || paramsStart == -1)
+        {
+            throw new JSONException("A command needs a 'command' and 'params'");
+        }
+
+        onRequest(new CraftixRequest(connection, id, command, message, paramsStart, paramsEnd));
     }
 
+    /**
+     * Execute a command on the current thread, and write its response
+     * on a blocking connection
+     *
+     * @param out The connection writer
+     * @param message The received message
+     *
+     * @deprecated The connections are now handled by the server loop, see {@link #onMessage(CraftixConnection, String)}
+     */
+    @Deprecated
     public void onMessage(PrintWriter out, String message)
     {
         JSONObject object = new JSONObject(message);
@@ -220,30 +791,214 @@ public class CraftixServer
 
         logger.info("Command received : '" + id + "'");
 
-        for (CraftixCommand command : commands)
+        CraftixCommand command = getCommand(id);
+
+        if (command == null)
+        {
+            logger.error("Couldn't find the command, sending error message");
+            onError(out, new IllegalArgumentException("Unknown command '" + id + "'"));
+
+            return;
+        }
+
+        try
+        {
+            logger.info("Executing command '" + command.getIdentifier() + "'");
+            out.print(command.call(this, params).toString());
+            out.flush();
+        }
+        catch (Exception e)
+        {
+            logger.error("Command failed !");
+            onError(out, e);
+        }
+    }
+
+    public void onMessage(CraftixConnection connection, JSONObject object)
+    {
+        String id = object.optString("id", null);
+        String command = object.getString("command");
+        JSONObject params = object.getJSONObject("params");
+
+        onRequest(new CraftixRequest(connection, id, command, params));
+    }
+
+    protected void onRequest(CraftixRequest request)
+    {
+        String command = request.getCommand();
+        String id = request.getId();
+
+        logger.info("Command received : '" + command + "'" + (id != null ? " (request '" + id + "')" : ""));
+
+        CraftixCommand handler = getCommand(command);
+
+        if (handler instanceof ProtocolCommand)
+        {
+            // The switch applies to the next received bytes, so it can't wait for a worker thread
+            execute(handler, request);
+            return;
+        }
+
+        dispatch(request);
+    }
+
+    /**
+     * Queue a request for execution on the worker threads
+     *
+     * @param request The request to execute
+     */
+    public void dispatch(final CraftixRequest request)
+    {
+        final CraftixConnection connection = request.getConnection();
+        final CraftixCommand command = getCommand(request.getCommand());
+
+        if (command == null)
+        {
+            logger.error("Couldn't find the command, sending error message");
+            request.fail(new IllegalArgumentException("Unknown command '" + request.getCommand() + "'"));
+
+            return;
+        }
+
+        if (!pendingCommands.tryAcquire())
+        {
+            logger.error("Too many pending commands, rejecting '" + request.getCommand() + "'");
+            request.fail(new RejectedExecutionException("Server is busy (" + MAX_PENDING_COMMANDS + " pending commands)"));
+
+            return;
+        }
+
+        if (request.getId() == null)
         {
-            if (command.getIdentifier().equals(id))
+            connection.execute(new Runnable()
             {
-                try
+                @Override
+                public void run()
                 {
-                    logger.info("Executing command '" + command.getIdentifier() + "'");
-                    out.print(command.call(this, params).toString());
-                    out.flush();
-                }
-                catch (Exception e)
-                {
-                    logger.error("Command failed !");
-                    onError(out, e);
+                    try
+                    {
+                        execute(command, request);
+                    }
+                    finally
+                    {
+                        pendingCommands.release();
+                    }
                 }
+            });
+
+            return;
+        }
+
+        if (!connection.addRequest(request))
+        {
+            pendingCommands.release();
+            request.fail(new IllegalArgumentException("A request with id '" + request.getId() + "' is already running"));
 
+            return;
+        }
+
+        FutureTask<Void> future = new FutureTask<Void>(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                execute(command, request);
+            }
+        }, null)
+        {
+            @Override
+            protected void done()
+            {
+                connection.removeRequest(request);
+                pendingCommands.release();
+            }
+        };
+
+        request.setTask(future);
+        executor.execute(future);
+    }
+
+    protected void execute(CraftixCommand command, CraftixRequest request)
+    {
+        CommandMetrics metrics = routes.get(command.getIdentifier());
+
+        if (metrics == null || metrics.getCommand() != command)
+        {
+            // Not registered, measured apart
+            metrics = new CommandMetrics(command);
+        }
+
+        CraftixRequest.setCurrent(request);
+        long start = metrics.start();
+
+        try
+        {
+            logger.info("Executing command '" + command.getIdentifier() + "'");
+            request.respond(command.call(this, request));
+        }
+        catch (Exception e)
+        {
+            if (request.isCancelled())
+            {
+                metrics.cancel();
+                logger.info("Command '" + command.getIdentifier() + "' (request '" + request.getId() + "') was cancelled");
                 return;
             }
+
+            metrics.error();
+            logger.error("Command failed !");
+            request.fail(e);
+        }
+        finally
+        {
+            metrics.end(start);
+            CraftixRequest.setCurrent(null);
+        }
+    }
+
+    /**
+     * Log the metrics of the executed commands, if some were executed since the last time
+     */
+    protected void logCommandMetrics()
+    {
+        long calls = 0;
+
+        for (CommandMetrics metrics : routes.values())
+        {
+            calls += metrics.getLatency().getCount();
+        }
+
+        if (calls == loggedCalls)
+        {
+            return;
+        }
+
+        loggedCalls = calls;
+        logger.info("Command metrics (" + getPendingCommands() + " pending) :");
+
+        for (CommandMetrics metrics : routes.values())
+        {
+            if (metrics.getLatency().getCount() > 0)
+            {
+                logger.info("    " + metrics);
+            }
         }
+    }
 
-        logger.error("Couldn't find the command, sending error message");
-        onError(out, new IllegalArgumentException("Unknown command '" + id + "'"));
+    public void onError(CraftixConnection connection, Exception ex)
+    {
+        onError(connection, null, ex);
     }
 
+    /**
+     * Write an error on a blocking connection
+     *
+     * @param out The connection writer
+     * @param ex The error
+     *
+     * @deprecated The connections are now handled by the server loop, see {@link #onError(CraftixConnection, Exception)}
+     */
+    @Deprecated
     public void onError(PrintWriter out, Exception ex)
     {
         logger.error("Exception thrown : ", ex);
@@ -258,14 +1013,82 @@ public class CraftixServer
         out.flush();
     }
 
+    public void onError(CraftixConnection connection, String requestId, Exception ex)
+    {
+        logger.error("Exception thrown : ", ex);
+        logger.error("Sending it to the server");
+
+        JSONObject object = new JSONObject();
+
+        if (requestId != null)
+        {
+            object.put("id", requestId);
+        }
+
+        object.put("error", ex.getClass().getName());
+        object.put("message", ex.getMessage());
+
+        connection.send(object);
+    }
+
     /**
-     * Register a command that the server can receive from the client
+     * Register a command that the server can receive from the client,
+     * replacing the one with the same identifier
      *
      * @param command The command to register
      */
-    public void registerCommand(CraftixCommand command)
+    public synchronized void registerCommand(CraftixCommand command)
+    {
+        // The table is copied, so the commands can be found without locking
+        Map<String, CommandMetrics> routes = new LinkedHashMap<String, CommandMetrics>(this.routes);
+        routes.put(command.getIdentifier(), new CommandMetrics(command));
+
+        this.routes = Collections.unmodifiableMap(routes);
+    }
+
+    /**
+     * @param identifier A command identifier
+     *
+     * @return The command with the given identifier, or null
+     */
+    public CraftixCommand getCommand(String identifier)
+    {
+        CommandMetrics metrics = routes.get(identifier);
+        return metrics != null ? metrics.getCommand() : null;
+    }
+
+    /**
+     * @param identifier A command identifier
+     *
+     * @return The metrics of the command with the given identifier, or null
+     */
+    public CommandMetrics getCommandMetrics(String identifier)
+    {
+        return routes.get(identifier);
+    }
+
+    /**
+     * @return The metrics of the registered commands
+     */
+    public Collection<CommandMetrics> getCommandMetrics()
     {
-        this.commands.add(command);
+        return routes.values();
+    }
+
+    /**
+     * @return The number of received commands waiting or being executed
+     */
+    public int getPendingCommands()
+    {
+        return MAX_PENDING_COMMANDS - pendingCommands.availablePermits();
+    }
+
+    /**
+     * @return The executor running the periodic tasks of the server
+     */
+    public ScheduledExecutorService getScheduler()
+    {
+        return scheduler;
     }
 
     /**
@@ -273,7 +1096,32 @@ public class CraftixServer
      */
     public CraftixCommand[] getCommands()
     {
-        return this.commands.toArray(new CraftixCommand[this.commands.size()]);
+        Collection<CommandMetrics> routes = this.routes.values();
+        CraftixCommand[] commands = new CraftixCommand[routes.size()];
+        int i = 0;
+
+        for (CommandMetrics metrics : routes)
+        {
+            commands[i++] = metrics.getCommand();
+        }
+
+        return commands;
+    }
+
+    /**
+     * @return The executor running the commands
+     */
+    public ExecutorService getExecutor()
+    {
+        return executor;
+    }
+
+    /**
+     * @return The pool of the buffers used to read from the launchers
+     */
+    public BufferPool getBufferPool()
+    {
+        return bufferPool;
     }
 
     /**
@@ -352,6 +1200,22 @@ public class CraftixServer
         this.launcher = launcher;
     }
 
+    /**
+     * @return The supervisor following the launched games
+     */
+    public ProcessSupervisor getSupervisor()
+    {
+        return supervisor;
+    }
+
+    /**
+     * @return The sampler of the launched games resource usage
+     */
+    public MetricsSampler getMetrics()
+    {
+        return metrics;
+    }
+
     /**
      * Called by the wrapper to launch the server with default configuration
      * (127.0.0.1:given_port, ./server.log)
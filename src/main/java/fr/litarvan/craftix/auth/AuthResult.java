@@ -18,18 +18,23 @@
  */
 package fr.litarvan.craftix.auth;
 
+import fr.litarvan.craftix.net.JsonWritable;
+import fr.litarvan.craftix.net.JsonWriter;
+import org.json.JSONObject;
+
 /**
  * The Authentication Result
  *
  *
  * This results received from the {@link AuthManager}
- * (player infos).
+ * (player infos). It is written as is to the launchers,
+ * without going through reflection.
  *
  * @author Litarvan
  * @version 1.0.0
  * @since 1.0.0
  */
-public class AuthResult
+public class AuthResult implements JsonWritable
 {
     /**
      * The player username
@@ -98,4 +103,38 @@ public class AuthResult
     {
         return clientToken;
     }
+
+    @Override
+    public void write(JsonWriter writer)
+    {
+        // Like the JSONObject the launchers used to receive, the missing fields are left out
+        writer.beginObject();
+        field(writer, "accessToken", accessToken);
+        field(writer, "clientToken", clientToken);
+        field(writer, "username", username);
+        field(writer, "uuid", uuid);
+        writer.endObject();
+    }
+
+    private static void field(JsonWriter writer, String name, String value)
+    {
+        if (value != null)
+        {
+            writer.name(name).value(value);
+        }
+    }
+
+    /**
+     * @return The result as a JSON object, with the same fields as {@link #write(JsonWriter)}
+     */
+    public JSONObject toJSON()
+    {
+        JSONObject object = new JSONObject();
+        object.put("accessToken", accessToken);
+        object.put("clientToken", clientToken);
+        object.put("username", username);
+        object.put("uuid", uuid);
+
+        return object;
+    }
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.auth;
+
+import fr.litarvan.openauth.AuthenticationException;
+import fr.litarvan.openauth.model.AuthError;
+
+/**
+ * The Auth Server Exception
+ *
+ *
+ * An error answered by an authentication server, with the HTTP
+ * status of the response, or a failure to reach the server
+ * ({@link #NOT_SENT}) or to read its response ({@link #NO_RESPONSE}).
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class AuthServerException extends AuthenticationException
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Status of a request that couldn't be sent (the server couldn't be reached)
+     */
+    public static final int NOT_SENT = -1;
+
+    /**
+     * Status of a request sent without getting a response, the server may have processed it
+     */
+    public static final int NO_RESPONSE = 0;
+
+    /**
+     * The error sent by the server
+     */
+    private final AuthError error;
+
+    /**
+     * The HTTP status of the response, {@link #NOT_SENT} or {@link #NO_RESPONSE}
+     */
+    private final int status;
+
+    /**
+     * The delay asked by the server before trying again (in milliseconds), or -1
+     */
+    private final long retryAfter;
+
+    /**
+     * Auth server exception
+     *
+     * @param error The error sent by the server
+     * @param status The HTTP status of the response, {@link #NOT_SENT} or {@link #NO_RESPONSE}
+     * @param retryAfter The delay asked by the server before trying again (in milliseconds), or -1
+     */
+    public AuthServerException(AuthError error, int status, long retryAfter)
+    {
+        super(error);
+
+        this.error = error;
+        this.status = status;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return If the request could succeed when sent again (the server was unreachable, overloaded or throttling)
+     */
+    public boolean isRetryable()
+    {
+        return status == NOT_SENT || status == NO_RESPONSE || status == 429 || status >= 500;
+    }
+
+    /**
+     * @return If the request wasn't processed by the server (never sent, throttled
+     *         or refused while unavailable), so sending it again can't apply it twice
+     */
+    public boolean isUnprocessed()
+    {
+        return status == NOT_SENT || status == 429 || status == 503;
+    }
+
+    /**
+     * @return If the server refused the request because too many were sent
+     */
+    public boolean isThrottled()
+    {
+        return status == 429;
+    }
+
+    @Override
+    public String getMessage()
+    {
+        return error.getError() + (status > 0 ? " (" + status + ")" : "") + (error.getErrorMessage() != null ? " : " + error.getErrorMessage() : "");
+    }
+
+    /**
+     * @return The HTTP status of the response, {@link #NOT_SENT} or {@link #NO_RESPONSE}
+     */
+    public int getStatus()
+    {
+        return status;
+    }
+
+    /**
+     * @return The delay asked by the server before trying again (in milliseconds), or -1
+     */
+    public long getRetryAfter()
+    {
+        return retryAfter;
+    }
+}
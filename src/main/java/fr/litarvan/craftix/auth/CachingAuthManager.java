@@ -0,0 +1,334 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.auth;
+
+import fr.litarvan.craftix.CraftixServer;
+import fr.litarvan.craftix.launch.GameInstance;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import net.wytrem.logging.Logger;
+import net.wytrem.logging.LoggerFactory;
+
+/**
+ * The Caching Auth Manager
+ *
+ *
+ * Wraps another {@link AuthManager}, keeping the sessions it
+ * returns in a {@link SessionCache}. A launcher authenticating
+ * again without password, with the same client token (and the same
+ * username, or none), gets its cached session at once, without a
+ * network call. A given password is always checked by the wrapped
+ * manager.
+ *
+ * The sessions are refreshed in the background before their
+ * access token expires (see {@link #refreshSessions(CraftixServer, long)}),
+ * except while a game uses it, since refreshing an access token
+ * revokes the previous one. Only an expired session is refreshed
+ * while the launcher waits.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class CachingAuthManager implements AuthManager<Exception>
+{
+    private static final Logger logger = LoggerFactory.getLogger(CachingAuthManager.class);
+
+    /**
+     * Age after which the cached sessions are refreshed when a launcher connects (in milliseconds)
+     */
+    public static final long REVALIDATE_INTERVAL = TimeUnit.MINUTES.toMillis(15);
+
+    /**
+     * A session expiring in less than this is refreshed before being returned (in milliseconds)
+     */
+    public static final long EXPIRATION_MARGIN = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * The wrapped auth manager
+     */
+    private final AuthManager<? extends Exception> delegate;
+
+    /**
+     * The cached sessions
+     */
+    private final SessionCache cache;
+
+    /**
+     * The running refreshes, by client token
+     */
+    private final ConcurrentMap<String, FutureTask<AuthResult>> refreshes = new ConcurrentHashMap<String, FutureTask<AuthResult>>();
+
+    /**
+     * Caching auth manager
+     *
+     * @param delegate The wrapped auth manager
+     * @param cache The cached sessions
+     */
+    public CachingAuthManager(AuthManager<? extends Exception> delegate, SessionCache cache)
+    {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    /**
+     * @param manager An auth manager
+     *
+     * @return The manager wrapped with the default session cache, or itself if the cache is disabled
+     */
+    public static AuthManager<? extends Exception> wrap(AuthManager<? extends Exception> manager)
+    {
+        return SessionCache.isEnabled() ? new CachingAuthManager(manager, new SessionCache(SessionCache.getDefaultRoot())) : manager;
+    }
+
+    /**
+     * Authenticate the player, with the cached session of the client
+     * token if no password is given
+     *
+     * @param username The player email or username, null to use any cached session
+     * @param password The player password, null to only use the cached session
+     */
+    @Override
+    public AuthResult authenticate(CraftixServer server, String username, String password, String clientToken) throws Exception
+    {
+        // A given password is always checked by the server, the cache can't tell if it is the right one
+        if (password != null)
+        {
+            AuthResult result = delegate.authenticate(server, username, password, clientToken);
+            store(Session.of(result, username));
+
+            return result;
+        }
+
+        Session session = cache.get(clientToken);
+
+        if (session == null || (username != null && !username.equalsIgnoreCase(session.getLogin()) && !username.equalsIgnoreCase(session.getResult().getUsername())))
+        {
+            throw new IllegalArgumentException("No cached session for this client token, a password is needed");
+        }
+
+        return fromCache(server, session);
+    }
+
+    protected AuthResult fromCache(CraftixServer server, Session session) throws Exception
+    {
+        long now = System.currentTimeMillis();
+
+        if (session.isExpired(now + EXPIRATION_MARGIN))
+        {
+            logger.info("Cached session of '" + session.getResult().getUsername() + "' expired, refreshing it");
+            return refresh(server, session);
+        }
+
+        if (session.needsRefresh(now))
+        {
+            refreshLater(server, session);
+        }
+
+        logger.info("Using the cached session of '" + session.getResult().getUsername() + "'");
+
+        return session.getResult();
+    }
+
+    @Override
+    public AuthResult refresh(CraftixServer server, String accessToken, String clientToken) throws Exception
+    {
+        AuthResult result = delegate.refresh(server, accessToken, clientToken);
+        Session previous = cache.get(clientToken);
+
+        store(Session.of(result, previous != null ? previous.getLogin() : null));
+
+        return result;
+    }
+
+    @Override
+    public boolean logout(CraftixServer server, String accessToken, String clientToken) throws Exception
+    {
+        try
+        {
+            cache.remove(clientToken);
+        }
+        catch (IOException e)
+        {
+            logger.error("Couldn't remove the cached session", e);
+        }
+
+        return delegate.logout(server, accessToken, clientToken);
+    }
+
+    /**
+     * Refresh a cached session, or wait for its running refresh
+     *
+     * @param server The current Craftix server
+     * @param session The session to refresh
+     *
+     * @return The refreshed session
+     */
+    protected AuthResult refresh(final CraftixServer server, final Session session) throws Exception
+    {
+        final String clientToken = session.getResult().getClientToken();
+        FutureTask<AuthResult> task = new FutureTask<AuthResult>(new Callable<AuthResult>()
+        {
+            @Override
+            public AuthResult call() throws Exception
+            {
+                return refresh(server, session.getResult().getAccessToken(), clientToken);
+            }
+        });
+
+        FutureTask<AuthResult> running = refreshes.putIfAbsent(clientToken, task);
+
+        if (running == null)
+        {
+            try
+            {
+                task.run();
+            }
+            finally
+            {
+                refreshes.remove(clientToken, task);
+            }
+
+            running = task;
+        }
+
+        try
+        {
+            return running.get();
+        }
+        catch (ExecutionException e)
+        {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Refresh a cached session on a server worker thread, unless it is
+     * already being refreshed or used by a running game
+     *
+     * @param server The current Craftix server
+     * @param session The session to refresh
+     */
+    protected void refreshLater(final CraftixServer server, final Session session)
+    {
+        if (refreshes.containsKey(session.getResult().getClientToken()) || isInUse(server, session))
+        {
+            return;
+        }
+
+        server.getExecutor().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    refresh(server, session);
+                }
+                catch (Exception e)
+                {
+                    logger.error("Couldn't refresh the cached session of '" + session.getResult().getUsername() + "'", e);
+
+                    if (session.isExpired(System.currentTimeMillis()))
+                    {
+                        remove(session);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Refresh in the background the cached sessions in the last quarter of
+     * their lifetime, or not refreshed since the given interval
+     *
+     * @param server The current Craftix server
+     * @param interval Age after which a session is refreshed anyway (in milliseconds)
+     */
+    public void refreshSessions(CraftixServer server, long interval)
+    {
+        long now = System.currentTimeMillis();
+
+        for (Session session : cache.getSessions())
+        {
+            if (session.needsRefresh(now) || session.isStale(now, interval))
+            {
+                refreshLater(server, session);
+            }
+        }
+    }
+
+    protected boolean isInUse(CraftixServer server, Session session)
+    {
+        for (GameInstance instance : server.getSupervisor().list())
+        {
+            if (instance.isRunning() && instance.getUsername() != null && instance.getUsername().equals(session.getResult().getUsername()))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    protected void store(Session session)
+    {
+        try
+        {
+            cache.put(session);
+        }
+        catch (IOException e)
+        {
+            logger.error("Couldn't cache the session of '" + session.getResult().getUsername() + "'", e);
+        }
+    }
+
+    protected void remove(Session session)
+    {
+        try
+        {
+            cache.remove(session.getResult().getClientToken());
+        }
+        catch (IOException e)
+        {
+            logger.error("Couldn't remove the cached session of '" + session.getResult().getUsername() + "'", e);
+        }
+    }
+
+    /**
+     * @return The wrapped auth manager
+     */
+    public AuthManager<? extends Exception> getDelegate()
+    {
+        return delegate;
+    }
+
+    /**
+     * @return The cached sessions
+     */
+    public SessionCache getCache()
+    {
+        return cache;
+    }
+}
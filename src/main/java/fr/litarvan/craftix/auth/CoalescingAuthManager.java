@@ -0,0 +1,331 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.auth;
+
+import fr.litarvan.craftix.CraftixServer;
+import fr.litarvan.craftix.util.Hashing;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import net.wytrem.logging.Logger;
+import net.wytrem.logging.LoggerFactory;
+
+/**
+ * The Coalescing Auth Manager
+ *
+ *
+ * Wraps another {@link AuthManager} so identical calls running at
+ * the same time (same account and password, same tokens) are sent
+ * once, every caller getting the same result.
+ *
+ * Calls failing because the server couldn't be reached, was
+ * overloaded or throttled them (see {@link AuthServerException#isRetryable()})
+ * are tried again after an exponential delay with jitter, or the
+ * one asked by the server. A throttled call also holds back every
+ * other call until this delay is over.
+ *
+ * Refresh and logout invalidate the given token, so they are only
+ * tried again when the server can't have processed them : when they
+ * couldn't be sent, or were throttled or refused with a 503 (see
+ * {@link AuthServerException#isUnprocessed()}).
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class CoalescingAuthManager implements AuthManager<Exception>
+{
+    private static final Logger logger = LoggerFactory.getLogger(CoalescingAuthManager.class);
+
+    /**
+     * Default maximum number of tries of a call
+     */
+    public static final int MAX_ATTEMPTS = 4;
+
+    /**
+     * Default delay before the first retry (in milliseconds), doubled for each next one
+     */
+    public static final long BASE_DELAY = 250;
+
+    /**
+     * Default maximum delay between two tries (in milliseconds)
+     */
+    public static final long MAX_DELAY = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * The wrapped auth manager
+     */
+    private final AuthManager<? extends Exception> delegate;
+
+    /**
+     * Maximum number of tries of a call
+     */
+    private final int maxAttempts;
+
+    /**
+     * Delay before the first retry (in milliseconds)
+     */
+    private final long baseDelay;
+
+    /**
+     * Maximum delay between two tries (in milliseconds)
+     */
+    private final long maxDelay;
+
+    /**
+     * The running calls, by key (see {@link #key(String...)})
+     */
+    private final ConcurrentMap<String, FutureTask<Object>> calls = new ConcurrentHashMap<String, FutureTask<Object>>();
+
+    /**
+     * Time before which no call is sent, after the server throttled one (in milliseconds)
+     */
+    private volatile long pausedUntil;
+
+    /**
+     * Coalescing auth manager, with the default retry delays
+     *
+     * @param delegate The wrapped auth manager
+     */
+    public CoalescingAuthManager(AuthManager<? extends Exception> delegate)
+    {
+        this(delegate, MAX_ATTEMPTS, BASE_DELAY, MAX_DELAY);
+    }
+
+    /**
+     * Coalescing auth manager
+     *
+     * @param delegate The wrapped auth manager
+     * @param maxAttempts Maximum number of tries of a call
+     * @param baseDelay Delay before the first retry (in milliseconds), doubled for each next one
+     * @param maxDelay Maximum delay between two tries (in milliseconds)
+     */
+    public CoalescingAuthManager(AuthManager<? extends Exception> delegate, int maxAttempts, long baseDelay, long maxDelay)
+    {
+        this.delegate = delegate;
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    @Override
+    public AuthResult authenticate(final CraftixServer server, final String username, final String password, final String clientToken) throws Exception
+    {
+        return (AuthResult) call(key("authenticate", username, password, clientToken), true, new Callable<Object>()
+        {
+            @Override
+            public Object call() throws Exception
+            {
+                return delegate.authenticate(server, username, password, clientToken);
+            }
+        });
+    }
+
+    @Override
+    public AuthResult refresh(final CraftixServer server, final String accessToken, final String clientToken) throws Exception
+    {
+        return (AuthResult) call(key("refresh", accessToken, clientToken), false, new Callable<Object>()
+        {
+            @Override
+            public Object call() throws Exception
+            {
+                return delegate.refresh(server, accessToken, clientToken);
+            }
+        });
+    }
+
+    @Override
+    public boolean logout(final CraftixServer server, final String accessToken, final String clientToken) throws Exception
+    {
+        return (Boolean) call(key("logout", accessToken, clientToken), false, new Callable<Object>()
+        {
+            @Override
+            public Object call() throws Exception
+            {
+                return delegate.logout(server, accessToken, clientToken);
+            }
+        });
+    }
+
+    /**
+     * Run a call, or wait for the identical one already running
+     *
+     * @param key The call key
+     * @param idempotent If the call can be processed twice by the server
+     * @param call The call to the wrapped manager
+     *
+     * @return The call result
+     */
+    protected Object call(String key, final boolean idempotent, final Callable<Object> call) throws Exception
+    {
+        FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>()
+        {
+            @Override
+            public Object call() throws Exception
+            {
+                return retry(call, idempotent);
+            }
+        });
+
+        FutureTask<Object> running = calls.putIfAbsent(key, task);
+
+        if (running == null)
+        {
+            try
+            {
+                task.run();
+            }
+            finally
+            {
+                calls.remove(key, task);
+            }
+
+            running = task;
+        }
+
+        try
+        {
+            return running.get();
+        }
+        catch (ExecutionException e)
+        {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Run a call, trying it again while it fails with a retryable error
+     *
+     * @param call The call to the wrapped manager
+     * @param idempotent If the call can be processed twice by the server
+     *
+     * @return The call result
+     */
+    protected Object retry(Callable<Object> call, boolean idempotent) throws Exception
+    {
+        for (int attempt = 1; ; attempt++)
+        {
+            long pause = pausedUntil - System.currentTimeMillis();
+
+            if (pause > 0)
+            {
+                Thread.sleep(pause);
+            }
+
+            try
+            {
+                return call.call();
+            }
+            catch (Exception e)
+            {
+                if (attempt == maxAttempts || !isRetryable(e, idempotent))
+                {
+                    throw e;
+                }
+
+                long delay = getDelay(attempt, e);
+
+                if (e instanceof AuthServerException && ((AuthServerException) e).isThrottled())
+                {
+                    pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + delay);
+                }
+
+                logger.error("Auth call failed (try " + attempt + "/" + maxAttempts + "), retrying in " + delay + "ms : " + e.getMessage());
+
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * @param e An exception thrown by the wrapped manager
+     * @param idempotent If the call can be processed twice by the server
+     *
+     * @return If the call could succeed when tried again, without being processed twice if not idempotent
+     */
+    protected boolean isRetryable(Exception e, boolean idempotent)
+    {
+        if (e instanceof AuthServerException)
+        {
+            AuthServerException error = (AuthServerException) e;
+            return idempotent ? error.isRetryable() : error.isUnprocessed();
+        }
+
+        if (idempotent)
+        {
+            return e instanceof IOException;
+        }
+
+        // Other managers only tell when the server couldn't be reached
+        return e instanceof ConnectException || e instanceof UnknownHostException;
+    }
+
+    /**
+     * @param attempt The number of the failed try
+     * @param e Its error
+     *
+     * @return The delay before the next try, between the half and the whole of the
+     * exponential delay, or the one asked by the server if longer (in milliseconds)
+     */
+    protected long getDelay(int attempt, Exception e)
+    {
+        long delay = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 30));
+        delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+
+        if (e instanceof AuthServerException)
+        {
+            delay = Math.max(delay, Math.min(maxDelay, ((AuthServerException) e).getRetryAfter()));
+        }
+
+        return delay;
+    }
+
+    /**
+     * @param parts The call name and arguments
+     *
+     * @return The key identifying identical calls (hashed, to not keep passwords and tokens in memory)
+     */
+    protected static String key(String... parts)
+    {
+        StringBuilder key = new StringBuilder();
+
+        for (String part : parts)
+        {
+            key.append(part == null ? "" : part).append('\0');
+        }
+
+        return Hashing.hex(Hashing.digest("SHA-256").digest(key.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * @return The wrapped auth manager
+     */
+    public AuthManager<? extends Exception> getDelegate()
+    {
+        return delegate;
+    }
+}
@@ -41,10 +41,40 @@ public class OpenAuthManager implements AuthManager<AuthenticationException>
 {
     private static final Logger logger = LoggerFactory.getLogger(OpenAuthManager.class);
 
+    /**
+     * The property setting the authentication server URL (defaults to Mojang's)
+     */
+    public static final String SERVER_PROPERTY = "craftix.auth.server";
+
+    /**
+     * The authentication server URL
+     */
+    private final String authServer;
+
     /**
      * OpenAuth authenticator
      */
-    private Authenticator authenticator = new Authenticator(getAuthServer(), AuthPoints.NORMAL_AUTH_POINTS);
+    private final Authenticator authenticator;
+
+    /**
+     * OpenAuth auth manager, using the default authentication server
+     * (see {@link #getDefaultAuthServer()})
+     */
+    public OpenAuthManager()
+    {
+        this(getDefaultAuthServer());
+    }
+
+    /**
+     * OpenAuth auth manager
+     *
+     * @param authServer The authentication server URL
+     */
+    public OpenAuthManager(String authServer)
+    {
+        this.authServer = authServer.endsWith("/") ? authServer : authServer + "/";
+        this.authenticator = new Authenticator(this.authServer, AuthPoints.NORMAL_AUTH_POINTS);
+    }
 
     @Override
     public AuthResult authenticate(CraftixServer server, String username, String password, String clientToken) throws AuthenticationException
@@ -84,11 +114,19 @@ public class OpenAuthManager implements AuthManager<AuthenticationException>
         return true;
     }
 
+    /**
+     * @return The authentication server set by the craftix.auth.server property, or Mojang's
+     */
+    public static String getDefaultAuthServer()
+    {
+        return System.getProperty(SERVER_PROPERTY, Authenticator.MOJANG_AUTH_URL);
+    }
+
     /**
      * @return The authentication server used
      */
     public String getAuthServer()
     {
-        return Authenticator.MOJANG_AUTH_URL;
+        return authServer;
     }
 }
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.auth;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A Session
+ *
+ *
+ * An {@link AuthResult} kept by the {@link SessionCache}, with
+ * when its access token was obtained and when it expires.
+ *
+ * The expiration is read from the token when it is a JWT (like
+ * the recent Yggdrasil tokens), otherwise the token is assumed
+ * to last {@link #DEFAULT_LIFETIME}.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class Session
+{
+    /**
+     * Lifetime of the access tokens without a known expiration (in milliseconds)
+     */
+    public static final long DEFAULT_LIFETIME = TimeUnit.HOURS.toMillis(24);
+
+    /**
+     * The session
+     */
+    private final AuthResult result;
+
+    /**
+     * The username (or email) given to authenticate, null if unknown
+     */
+    private final String login;
+
+    /**
+     * When the access token was obtained (in milliseconds since the epoch)
+     */
+    private final long obtained;
+
+    /**
+     * When the access token expires (in milliseconds since the epoch)
+     */
+    private final long expires;
+
+    /**
+     * Session
+     *
+     * @param result The session
+     * @param login The username (or email) given to authenticate, null if unknown
+     * @param obtained When the access token was obtained (in milliseconds since the epoch)
+     * @param expires When the access token expires (in milliseconds since the epoch)
+     */
+    public Session(AuthResult result, String login, long obtained, long expires)
+    {
+        this.result = result;
+        this.login = login;
+        this.obtained = obtained;
+        this.expires = expires;
+    }
+
+    /**
+     * @param result A session just received from the authentication server
+     * @param login The username (or email) given to authenticate, null if unknown
+     *
+     * @return The session to cache
+     */
+    public static Session of(AuthResult result, String login)
+    {
+        long now = System.currentTimeMillis();
+        long expires = getExpiration(result.getAccessToken());
+
+        return new Session(result, login, now, expires > now ? expires : now + DEFAULT_LIFETIME);
+    }
+
+    /**
+     * @param now The current time (in milliseconds since the epoch)
+     *
+     * @return If the access token can't be used anymore
+     */
+    public boolean isExpired(long now)
+    {
+        return now >= expires;
+    }
+
+    /**
+     * @param now The current time (in milliseconds since the epoch)
+     *
+     * @return If the last quarter of the token lifetime started, and it should be refreshed
+     */
+    public boolean needsRefresh(long now)
+    {
+        return now >= expires - (expires - obtained) / 4;
+    }
+
+    /**
+     * @param now The current time (in milliseconds since the epoch)
+     * @param interval How long a session is trusted without asking the authentication server (in milliseconds)
+     *
+     * @return If the access token was obtained before the given interval
+     */
+    public boolean isStale(long now, long interval)
+    {
+        return now - obtained >= interval;
+    }
+
+    /**
+     * @param accessToken An access token
+     *
+     * @return Its expiration if it is a JWT with one (in milliseconds since the epoch), 0 otherwise
+     */
+    public static long getExpiration(String accessToken)
+    {
+        String[] parts = accessToken != null ? accessToken.split("\\.") : new String[0];
+
+        if (parts.length != 3)
+        {
+            return 0;
+        }
+
+        try
+        {
+            JSONObject claims = new JSONObject(new String(decodeBase64(parts[1]), StandardCharsets.UTF_8));
+            return claims.optLong("exp", 0) * 1000;
+        }
+        catch (JSONException | IllegalArgumentException e)
+        {
+            return 0;
+        }
+    }
+
+    private static byte[] decodeBase64(String text)
+    {
+        // URL-safe alphabet, without padding
+        byte[] result = new byte[text.length() * 3 / 4];
+        int bits = 0;
+        int count = 0;
+        int length = 0;
+
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            int value = c >= 'A' && c <= 'Z' ? c - 'A' : c >= 'a' && c <= 'z' ? c - 'a' + 26 : c >= '0' && c <= '9' ? c - '0' + 52
+                        : c == '-' || c == '+' ? 62 : c == '_' || c == '/' ? 63 : -1;
+
+            if (value == -1)
+            {
+                if (c == '=')
+                {
+                    break;
+                }
+
+                throw new IllegalArgumentException("Invalid base64 character '" + c + "'");
+            }
+
+            bits = (bits << 6) | value;
+            count += 6;
+
+            if (count >= 8)
+            {
+                count -= 8;
+                result[length++] = (byte) (bits >>> count);
+            }
+        }
+
+        byte[] bytes = new byte[length];
+        System.arraycopy(result, 0, bytes, 0, length);
+
+        return bytes;
+    }
+
+    /**
+     * @return The session as a JSON object, see {@link #fromJSON(JSONObject)}
+     */
+    public JSONObject toJSON()
+    {
+        JSONObject object = result.toJSON();
+
+        object.put("login", login);
+        object.put("obtained", obtained);
+        object.put("expires", expires);
+
+        return object;
+    }
+
+    /**
+     * @param object A session written by {@link #toJSON()}
+     *
+     * @return The session
+     */
+    public static Session fromJSON(JSONObject object)
+    {
+        AuthResult result = new AuthResult(object.optString("username", null), object.optString("uuid", null),
+                                           object.getString("accessToken"), object.getString("clientToken"));
+
+        return new Session(result, object.optString("login", null), object.getLong("obtained"), object.getLong("expires"));
+    }
+
+    /**
+     * @return The session
+     */
+    public AuthResult getResult()
+    {
+        return result;
+    }
+
+    /**
+     * @return The username (or email) given to authenticate, null if unknown
+     */
+    public String getLogin()
+    {
+        return login;
+    }
+
+    /**
+     * @return When the access token was obtained (in milliseconds since the epoch)
+     */
+    public long getObtained()
+    {
+        return obtained;
+    }
+
+    /**
+     * @return When the access token expires (in milliseconds since the epoch)
+     */
+    public long getExpires()
+    {
+        return expires;
+    }
+}
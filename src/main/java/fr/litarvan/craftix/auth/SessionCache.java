@@ -0,0 +1,372 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.auth;
+
+import fr.litarvan.craftix.util.Hashing;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import net.wytrem.logging.Logger;
+import net.wytrem.logging.LoggerFactory;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The Session Cache
+ *
+ *
+ * Keeps the {@link Session} of each client token on the disk, so
+ * a launcher can be authenticated again without a network call
+ * (see {@link CachingAuthManager}).
+ *
+ * Each session is a file named after the hash of its client
+ * token, encrypted with AES then authenticated with an HMAC (bound
+ * to the file name, so the files can't be swapped). The keys
+ * are generated on the first use, in a file only readable by its
+ * owner : a copied session file alone reveals nothing.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class SessionCache
+{
+    private static final Logger logger = LoggerFactory.getLogger(SessionCache.class);
+
+    /**
+     * Name of the file containing the keys, in the cache directory
+     */
+    public static final String KEY_FILE = "session.key";
+
+    /**
+     * Extension of the session files
+     */
+    public static final String EXTENSION = ".session";
+
+    private static final byte VERSION = 1;
+    private static final int CIPHER_KEY_LENGTH = 16;
+    private static final int MAC_KEY_LENGTH = 32;
+    private static final int IV_LENGTH = 16;
+    private static final int MAC_LENGTH = 32;
+
+    /**
+     * The cache directory
+     */
+    private final File directory;
+
+    /**
+     * The sessions read from the disk, by client token
+     */
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+
+    /**
+     * If the session files were read
+     */
+    private volatile boolean loaded;
+
+    private final SecureRandom random = new SecureRandom();
+    private SecretKeySpec cipherKey;
+    private SecretKeySpec macKey;
+
+    /**
+     * Session cache
+     *
+     * @param directory The cache directory
+     */
+    public SessionCache(File directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * @return The default cache directory, ~/.craftix/sessions (or the craftix.sessions property)
+     */
+    public static File getDefaultRoot()
+    {
+        String path = System.getProperty("craftix.sessions");
+        return path != null && !path.equals("false") ? new File(path) : new File(System.getProperty("user.home"), ".craftix" + File.separator + "sessions");
+    }
+
+    /**
+     * @return If the sessions can be cached (disabled by setting the craftix.sessions property to false)
+     */
+    public static boolean isEnabled()
+    {
+        return !"false".equals(System.getProperty("craftix.sessions"));
+    }
+
+    /**
+     * @param clientToken A client token
+     *
+     * @return Its cached session, or null
+     */
+    public Session get(String clientToken)
+    {
+        load();
+        return clientToken != null ? sessions.get(clientToken) : null;
+    }
+
+    /**
+     * @return All the cached sessions
+     */
+    public Collection<Session> getSessions()
+    {
+        load();
+        return sessions.values();
+    }
+
+    /**
+     * Cache a session, replacing the one of the same client token
+     *
+     * @param session The session to cache
+     */
+    public void put(Session session) throws IOException
+    {
+        load();
+
+        String clientToken = session.getResult().getClientToken();
+        sessions.put(clientToken, session);
+
+        byte[] content = encrypt(session.toJSON().toString().getBytes(StandardCharsets.UTF_8), clientToken);
+
+        // Temporary files are only readable by their owner
+        Files.createDirectories(directory.toPath());
+        Path temp = Files.createTempFile(directory.toPath(), "session", ".tmp");
+
+        Files.write(temp, content);
+        Files.move(temp, getFile(clientToken).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Remove the session of a client token
+     *
+     * @param clientToken The client token
+     */
+    public void remove(String clientToken) throws IOException
+    {
+        load();
+
+        sessions.remove(clientToken);
+        Files.deleteIfExists(getFile(clientToken).toPath());
+    }
+
+    protected synchronized void load()
+    {
+        if (loaded)
+        {
+            return;
+        }
+
+        loaded = true;
+
+        File[] files = directory.listFiles();
+
+        if (files == null)
+        {
+            return;
+        }
+
+        for (File file : files)
+        {
+            if (!file.getName().endsWith(EXTENSION))
+            {
+                continue;
+            }
+
+            try
+            {
+                Session session = read(file);
+
+                if (session != null)
+                {
+                    sessions.put(session.getResult().getClientToken(), session);
+                }
+            }
+            catch (IOException | JSONException | GeneralSecurityException e)
+            {
+                logger.error("Couldn't read the cached session " + file.getAbsolutePath() + ", deleting it", e);
+
+                if (!file.delete())
+                {
+                    logger.error("Couldn't delete " + file.getAbsolutePath());
+                }
+            }
+        }
+
+        logger.info("Loaded " + sessions.size() + " cached session(s) from " + directory.getAbsolutePath());
+    }
+
+    protected Session read(File file) throws IOException, GeneralSecurityException
+    {
+        byte[] content = Files.readAllBytes(file.toPath());
+
+        if (content.length < 1 + IV_LENGTH + MAC_LENGTH || content[0] != VERSION)
+        {
+            throw new IOException("Unknown session file format");
+        }
+
+        if (!MessageDigest.isEqual(mac(content, content.length - MAC_LENGTH, file.getName()), tail(content)))
+        {
+            throw new GeneralSecurityException("The session file was modified");
+        }
+
+        Session session = Session.fromJSON(new JSONObject(new String(decrypt(content), StandardCharsets.UTF_8)));
+
+        if (!getFile(session.getResult().getClientToken()).getName().equals(file.getName()))
+        {
+            throw new GeneralSecurityException("The session file doesn't match its client token");
+        }
+
+        return session;
+    }
+
+    protected byte[] encrypt(byte[] plain, String clientToken) throws IOException
+    {
+        try
+        {
+            byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.ENCRYPT_MODE, getCipherKey(), new IvParameterSpec(iv));
+
+            byte[] encrypted = cipher.doFinal(plain);
+            ByteBuffer content = ByteBuffer.allocate(1 + IV_LENGTH + encrypted.length + MAC_LENGTH);
+
+            content.put(VERSION).put(iv).put(encrypted);
+            content.put(mac(content.array(), content.position(), getFile(clientToken).getName()));
+
+            return content.array();
+        }
+        catch (GeneralSecurityException e)
+        {
+            throw new IOException("Couldn't encrypt the session", e);
+        }
+    }
+
+    protected byte[] decrypt(byte[] content) throws IOException, GeneralSecurityException
+    {
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.DECRYPT_MODE, getCipherKey(), new IvParameterSpec(content, 1, IV_LENGTH));
+
+        return cipher.doFinal(content, 1 + IV_LENGTH, content.length - 1 - IV_LENGTH - MAC_LENGTH);
+    }
+
+    private byte[] mac(byte[] content, int length, String fileName) throws IOException, GeneralSecurityException
+    {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(getMacKey());
+        mac.update(content, 0, length);
+
+        return mac.doFinal(fileName.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] tail(byte[] content)
+    {
+        return Arrays.copyOfRange(content, content.length - MAC_LENGTH, content.length);
+    }
+
+    private synchronized SecretKeySpec getCipherKey() throws IOException
+    {
+        loadKeys();
+        return cipherKey;
+    }
+
+    private synchronized SecretKeySpec getMacKey() throws IOException
+    {
+        loadKeys();
+        return macKey;
+    }
+
+    private void loadKeys() throws IOException
+    {
+        if (cipherKey != null)
+        {
+            return;
+        }
+
+        Path path = new File(directory, KEY_FILE).toPath();
+
+        if (!Files.exists(path))
+        {
+            byte[] keys = new byte[CIPHER_KEY_LENGTH + MAC_KEY_LENGTH];
+            random.nextBytes(keys);
+
+            Files.createDirectories(directory.toPath());
+            Path temp = Files.createTempFile(directory.toPath(), "session", ".tmp");
+            Files.write(temp, keys);
+
+            try
+            {
+                // Another server may have created the keys at the same time, the first ones are kept
+                Files.move(temp, path);
+                logger.info("Generated the session cache keys in " + path);
+            }
+            catch (FileAlreadyExistsException e)
+            {
+                Files.delete(temp);
+            }
+        }
+
+        byte[] keys = Files.readAllBytes(path);
+
+        if (keys.length != CIPHER_KEY_LENGTH + MAC_KEY_LENGTH)
+        {
+            throw new IOException("Invalid session cache keys " + path);
+        }
+
+        cipherKey = new SecretKeySpec(keys, 0, CIPHER_KEY_LENGTH, "AES");
+        macKey = new SecretKeySpec(keys, CIPHER_KEY_LENGTH, MAC_KEY_LENGTH, "HmacSHA256");
+    }
+
+    /**
+     * @param clientToken A client token
+     *
+     * @return The file of its session
+     */
+    protected File getFile(String clientToken)
+    {
+        MessageDigest digest = Hashing.digest("SHA-256");
+        return new File(directory, Hashing.hex(digest.digest(clientToken.getBytes(StandardCharsets.UTF_8))) + EXTENSION);
+    }
+
+    /**
+     * @return The cache directory
+     */
+    public File getDirectory()
+    {
+        return directory;
+    }
+}
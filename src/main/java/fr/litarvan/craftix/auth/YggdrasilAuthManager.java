@@ -0,0 +1,233 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.auth;
+
+import fr.litarvan.craftix.CraftixServer;
+import fr.litarvan.craftix.util.Http;
+import fr.litarvan.openauth.AuthenticationException;
+import fr.litarvan.openauth.model.AuthError;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import net.wytrem.logging.Logger;
+import net.wytrem.logging.LoggerFactory;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The Yggdrasil Auth Manager
+ *
+ *
+ * Mojang-like server authentication talking directly to the
+ * Yggdrasil endpoints. Unlike {@link OpenAuthManager} it reads
+ * every response body, so the JDK keeps the connection alive
+ * for the next call, and its errors carry the HTTP status (see
+ * {@link AuthServerException}) so they can be retried.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class YggdrasilAuthManager implements AuthManager<AuthenticationException>
+{
+    private static final Logger logger = LoggerFactory.getLogger(YggdrasilAuthManager.class);
+
+    /**
+     * The authentication server URL
+     */
+    private final String authServer;
+
+    /**
+     * Yggdrasil auth manager, using the default authentication server
+     * (see {@link OpenAuthManager#getDefaultAuthServer()})
+     */
+    public YggdrasilAuthManager()
+    {
+        this(OpenAuthManager.getDefaultAuthServer());
+    }
+
+    /**
+     * Yggdrasil auth manager
+     *
+     * @param authServer The authentication server URL
+     */
+    public YggdrasilAuthManager(String authServer)
+    {
+        this.authServer = authServer.endsWith("/") ? authServer : authServer + "/";
+    }
+
+    @Override
+    public AuthResult authenticate(CraftixServer server, String username, String password, String clientToken) throws AuthenticationException
+    {
+        logger.info("Authenticating '" + username + "' (" + authServer + "authenticate)");
+
+        JSONObject agent = new JSONObject();
+        agent.put("name", "Minecraft");
+        agent.put("version", 1);
+
+        JSONObject request = new JSONObject();
+        request.put("agent", agent);
+        request.put("username", username);
+        request.put("password", password);
+
+        if (clientToken != null)
+        {
+            request.put("clientToken", clientToken);
+        }
+
+        return result(send("authenticate", request));
+    }
+
+    @Override
+    public AuthResult refresh(CraftixServer server, String accessToken, String clientToken) throws AuthenticationException
+    {
+        logger.info("Refreshing session (" + authServer + "refresh)");
+
+        JSONObject request = new JSONObject();
+        request.put("accessToken", accessToken);
+        request.put("clientToken", clientToken);
+
+        return result(send("refresh", request));
+    }
+
+    @Override
+    public boolean logout(CraftixServer server, String accessToken, String clientToken) throws AuthenticationException
+    {
+        logger.info("Terminating session (" + authServer + "invalidate)");
+
+        JSONObject request = new JSONObject();
+        request.put("accessToken", accessToken);
+        request.put("clientToken", clientToken);
+
+        send("invalidate", request);
+
+        logger.info("Logged out !");
+
+        return true;
+    }
+
+    protected AuthResult result(JSONObject response) throws AuthenticationException
+    {
+        JSONObject profile = response != null ? response.optJSONObject("selectedProfile") : null;
+
+        if (profile == null)
+        {
+            throw new AuthenticationException(new AuthError("NoProfileException", "This account doesn't own Minecraft", null));
+        }
+
+        logger.info("Success ! Player '" + profile.getString("name") + "' (" + profile.getString("id") + ") connected !");
+
+        return new AuthResult(profile.getString("name"), profile.getString("id"), response.getString("accessToken"), response.getString("clientToken"));
+    }
+
+    /**
+     * Send a request to the authentication server
+     *
+     * @param point The endpoint to send it to
+     * @param request The request content
+     *
+     * @return The response content, or null if there is none
+     *
+     * @throws AuthServerException If the server answered an error, or couldn't be reached
+     */
+    protected JSONObject send(String point, JSONObject request) throws AuthServerException
+    {
+        HttpURLConnection connection;
+
+        try
+        {
+            connection = Http.post(new URL(authServer + point), "application/json", request.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        catch (IOException e)
+        {
+            throw failure(e, AuthServerException.NOT_SENT);
+        }
+
+        int status = AuthServerException.NO_RESPONSE;
+
+        try
+        {
+            status = connection.getResponseCode();
+
+            String body = new String(Http.read(connection), StandardCharsets.UTF_8).trim();
+
+            if (status >= 200 && status < 300)
+            {
+                return body.isEmpty() ? null : new JSONObject(body);
+            }
+
+            throw new AuthServerException(error(status, body), status, retryAfter(connection));
+        }
+        catch (IOException e)
+        {
+            // The request may have been processed, the caller decides if it can be sent again
+            throw failure(e, AuthServerException.NO_RESPONSE);
+        }
+        catch (JSONException e)
+        {
+            throw failure(e, status);
+        }
+    }
+
+    protected AuthServerException failure(Exception cause, int status)
+    {
+        AuthServerException exception = new AuthServerException(new AuthError(cause.getClass().getSimpleName(), cause.getMessage(), null), status, -1);
+        exception.initCause(cause);
+
+        return exception;
+    }
+
+    protected AuthError error(int status, String body)
+    {
+        try
+        {
+            JSONObject error = new JSONObject(body);
+            return new AuthError(error.optString("error", "HTTP " + status), error.optString("errorMessage", null), error.optString("cause", null));
+        }
+        catch (JSONException e)
+        {
+            return new AuthError("HTTP " + status, body.isEmpty() ? null : body, null);
+        }
+    }
+
+    protected long retryAfter(HttpURLConnection connection)
+    {
+        String header = connection.getHeaderField("Retry-After");
+
+        try
+        {
+            return header != null ? TimeUnit.SECONDS.toMillis(Long.parseLong(header.trim())) : -1;
+        }
+        catch (NumberFormatException e)
+        {
+            // HTTP dates aren't supported, the backoff delay is used instead
+            return -1;
+        }
+    }
+
+    /**
+     * @return The authentication server used
+     */
+    public String getAuthServer()
+    {
+        return authServer;
+    }
+}
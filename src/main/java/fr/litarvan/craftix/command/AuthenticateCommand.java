@@ -1,6 +1,7 @@
 package fr.litarvan.craftix.command;
 
 import fr.litarvan.craftix.CraftixCommand;
+import fr.litarvan.craftix.CraftixRequest;
 import fr.litarvan.craftix.CraftixServer;
 import fr.litarvan.craftix.auth.AuthManager;
 import fr.litarvan.craftix.auth.AuthResult;
@@ -17,11 +18,29 @@ public class AuthenticateCommand extends CraftixCommand
     @Override
     public JSONObject call(CraftixServer server, JSONObject params) throws Exception
     {
-        AuthManager auth = server.getAuthManager();
-        AuthResult result = auth.authenticate(server, params.getString("username"), params.getString("password"), params.getString("clientToken"));
+        AuthResult result = authenticate(server, params);
+
+        server.setAuthResult(result);
+
+        return result.toJSON();
+    }
+
+    @Override
+    public JSONObject call(CraftixServer server, CraftixRequest request) throws Exception
+    {
+        AuthResult result = authenticate(server, request.getParams());
 
+        // Each launcher keeps its own account, the server one is only kept for the calls without connection
+        request.getConnection().setAuthResult(result);
         server.setAuthResult(result);
 
-        return new JSONObject(result);
+        request.respond(result);
+        return null;
+    }
+
+    protected AuthResult authenticate(CraftixServer server, JSONObject params) throws Exception
+    {
+        AuthManager auth = server.getAuthManager();
+        return auth.authenticate(server, params.optString("username", null), params.optString("password", null), params.getString("clientToken"));
     }
 }
@@ -0,0 +1,32 @@
+package fr.litarvan.craftix.command;
+
+import fr.litarvan.craftix.CraftixCommand;
+import fr.litarvan.craftix.CraftixRequest;
+import fr.litarvan.craftix.CraftixServer;
+import org.json.JSONObject;
+
+public class CancelCommand extends CraftixCommand
+{
+    @Override
+    public String getIdentifier()
+    {
+        return "cancel";
+    }
+
+    @Override
+    public JSONObject call(CraftixServer server, JSONObject params) throws Exception
+    {
+        throw new IllegalStateException("The cancel command can only be called by a launcher");
+    }
+
+    @Override
+    public JSONObject call(CraftixServer server, CraftixRequest request) throws Exception
+    {
+        CraftixRequest target = request.getConnection().getRequest(request.getParams().getString("id"));
+
+        JSONObject result = new JSONObject();
+        result.put("cancelled", target != null && target.cancel());
+
+        return result;
+    }
+}
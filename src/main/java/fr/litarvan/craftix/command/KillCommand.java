@@ -0,0 +1,23 @@
+package fr.litarvan.craftix.command;
+
+import fr.litarvan.craftix.CraftixCommand;
+import fr.litarvan.craftix.CraftixServer;
+import org.json.JSONObject;
+
+public class KillCommand extends CraftixCommand
+{
+    @Override
+    public String getIdentifier()
+    {
+        return "kill";
+    }
+
+    @Override
+    public JSONObject call(CraftixServer server, JSONObject params) throws Exception
+    {
+        JSONObject result = new JSONObject();
+        result.put("killed", server.getSupervisor().kill(params.getString("instance"), params.optBoolean("force", false)));
+
+        return result;
+    }
+}
@@ -1,8 +1,11 @@
 package fr.litarvan.craftix.command;
 
 import fr.litarvan.craftix.CraftixCommand;
+import fr.litarvan.craftix.CraftixRequest;
 import fr.litarvan.craftix.CraftixServer;
+import fr.litarvan.craftix.auth.AuthResult;
 import fr.litarvan.craftix.launch.CraftixLauncher;
+import fr.litarvan.craftix.launch.GameInstance;
 import fr.litarvan.craftix.launch.LaunchConfig;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -18,19 +21,66 @@ public class LaunchCommand extends CraftixCommand
     @Override
     public JSONObject call(CraftixServer server, JSONObject params) throws Exception
     {
+        return launch(server, params, server.getAuthResult());
+    }
+
+    @Override
+    public JSONObject call(CraftixServer server, CraftixRequest request) throws Exception
+    {
+        return launch(server, request.getParams(), request.getConnection().getAuthResult());
+    }
+
+    protected JSONObject launch(CraftixServer server, JSONObject params, AuthResult auth) throws Exception
+    {
+        // Another launcher's session must never be used
+        if (auth == null)
+        {
+            throw new IllegalStateException("Not authenticated, send an 'authenticate' command first");
+        }
+
         CraftixLauncher launcher = server.getLauncher();
-        LaunchConfig config = new LaunchConfig(params.getString("name"),
-                                               params.getString("version"),
-                                               toArray(params.getJSONArray("params")),
-                                               toArray(params.getJSONArray("vmParams")),
-                                               toArray(params.getJSONArray("tweaks")));
+        LaunchConfig config = getConfig(params);
+
+        awaitUpdate(server, config);
 
-        launcher.launch(server, config, server.getAuthResult());
+        // Unless the launcher wants to wait for the game exit, the response is sent once the game is running
+        if (!params.optBoolean("wait", false))
+        {
+            GameInstance instance = launcher.start(server, config, auth);
+
+            JSONObject result = new JSONObject();
+            result.put("success", true);
+
+            if (instance != null)
+            {
+                result.put("instance", instance.getId());
+            }
+
+            return result;
+        }
+
+        launcher.launch(server, config, auth);
 
         return CraftixServer.SUCCESS;
     }
 
-    private String[] toArray(JSONArray array)
+    protected void awaitUpdate(CraftixServer server, LaunchConfig config) throws Exception
+    {
+        // The game can start while the assets are still downloading, not before its required files
+        server.getUpdateManager().awaitRequired(config.getName());
+    }
+
+    protected LaunchConfig getConfig(JSONObject params)
+    {
+        return new LaunchConfig(params.getString("name"),
+                                params.getString("version"),
+                                toArray(params.getJSONArray("params")),
+                                toArray(params.getJSONArray("vmParams")),
+                                toArray(params.getJSONArray("tweaks")),
+                                params.optBoolean("tune", true));
+    }
+
+    protected String[] toArray(JSONArray array)
     {
         String[] result = new String[array.length()];
 
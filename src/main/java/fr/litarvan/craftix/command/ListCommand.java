@@ -0,0 +1,35 @@
+package fr.litarvan.craftix.command;
+
+import fr.litarvan.craftix.CraftixCommand;
+import fr.litarvan.craftix.CraftixServer;
+import fr.litarvan.craftix.launch.GameInstance;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+public class ListCommand extends CraftixCommand
+{
+    @Override
+    public String getIdentifier()
+    {
+        return "list";
+    }
+
+    @Override
+    public JSONObject call(CraftixServer server, JSONObject params) throws Exception
+    {
+        JSONArray instances = new JSONArray();
+
+        for (GameInstance instance : server.getSupervisor().list())
+        {
+            if (instance.isRunning() || params.optBoolean("all", false))
+            {
+                instances.put(instance.toJSON());
+            }
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("instances", instances);
+
+        return result;
+    }
+}
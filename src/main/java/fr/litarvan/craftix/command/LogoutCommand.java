@@ -0,0 +1,53 @@
+package fr.litarvan.craftix.command;
+
+import fr.litarvan.craftix.CraftixCommand;
+import fr.litarvan.craftix.CraftixRequest;
+import fr.litarvan.craftix.CraftixServer;
+import fr.litarvan.craftix.auth.AuthManager;
+import fr.litarvan.craftix.auth.AuthResult;
+import org.json.JSONObject;
+
+public class LogoutCommand extends CraftixCommand
+{
+    @Override
+    public String getIdentifier()
+    {
+        return "logout";
+    }
+
+    @Override
+    public JSONObject call(CraftixServer server, JSONObject params) throws Exception
+    {
+        return logout(server, params, server.getAuthResult());
+    }
+
+    @Override
+    public JSONObject call(CraftixServer server, CraftixRequest request) throws Exception
+    {
+        JSONObject result = logout(server, request.getParams(), request.getConnection().getAuthResult());
+        request.getConnection().setAuthResult(null);
+
+        return result;
+    }
+
+    protected JSONObject logout(CraftixServer server, JSONObject params, AuthResult current) throws Exception
+    {
+        AuthManager auth = server.getAuthManager();
+
+        String accessToken = current != null && !params.has("accessToken") ? current.getAccessToken() : params.getString("accessToken");
+        String clientToken = current != null && !params.has("accessToken") ? current.getClientToken() : params.getString("clientToken");
+
+        JSONObject result = new JSONObject();
+        result.put("success", auth.logout(server, accessToken, clientToken));
+
+        // The server session is kept if it belongs to another launcher
+        AuthResult session = server.getAuthResult();
+
+        if (session != null && session.getAccessToken().equals(accessToken))
+        {
+            server.setAuthResult(null);
+        }
+
+        return result;
+    }
+}
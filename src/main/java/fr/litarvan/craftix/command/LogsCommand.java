@@ -0,0 +1,54 @@
+package fr.litarvan.craftix.command;
+
+import fr.litarvan.craftix.CraftixCommand;
+import fr.litarvan.craftix.CraftixRequest;
+import fr.litarvan.craftix.CraftixServer;
+import fr.litarvan.craftix.launch.GameInstance;
+import fr.litarvan.craftix.launch.GameLog;
+import fr.litarvan.craftix.launch.LogSubscriber;
+import org.json.JSONObject;
+
+public class LogsCommand extends CraftixCommand
+{
+    @Override
+    public String getIdentifier()
+    {
+        return "logs";
+    }
+
+    @Override
+    public JSONObject call(CraftixServer server, JSONObject params) throws Exception
+    {
+        throw new IllegalStateException("The logs command can only be called by a launcher");
+    }
+
+    @Override
+    public JSONObject call(CraftixServer server, CraftixRequest request) throws Exception
+    {
+        JSONObject params = request.getParams();
+        GameInstance instance = server.getSupervisor().get(params.getString("instance"));
+
+        if (instance == null)
+        {
+            throw new IllegalArgumentException("Unknown game instance '" + params.getString("instance") + "'");
+        }
+
+        GameLog log = instance.getLog();
+        JSONObject result = new JSONObject();
+
+        if (params.optBoolean("stop", false))
+        {
+            result.put("unsubscribed", log.unsubscribe(request.getConnection()));
+            return result;
+        }
+
+        LogSubscriber.Policy policy = LogSubscriber.Policy.valueOf(params.optString("policy", "drop").toUpperCase());
+        long position = params.optBoolean("history", true) ? log.getOldest() : log.getWritten();
+
+        server.getSupervisor().subscribe(instance, new LogSubscriber(request.getConnection(), request.getId(), instance.getId(), policy, position));
+
+        result.put("subscribed", true);
+
+        return result;
+    }
+}
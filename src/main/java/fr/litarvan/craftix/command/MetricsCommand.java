@@ -0,0 +1,43 @@
+package fr.litarvan.craftix.command;
+
+import fr.litarvan.craftix.CommandMetrics;
+import fr.litarvan.craftix.CraftixCommand;
+import fr.litarvan.craftix.CraftixServer;
+import org.json.JSONObject;
+
+public class MetricsCommand extends CraftixCommand
+{
+    @Override
+    public String getIdentifier()
+    {
+        return "metrics";
+    }
+
+    @Override
+    public JSONObject call(CraftixServer server, JSONObject params) throws Exception
+    {
+        String name = params.optString("command", null);
+        JSONObject commands = new JSONObject();
+
+        for (CommandMetrics metrics : server.getCommandMetrics())
+        {
+            String identifier = metrics.getCommand().getIdentifier();
+
+            if (name == null || name.equals(identifier))
+            {
+                commands.put(identifier, metrics.toJSON());
+            }
+        }
+
+        if (name != null && commands.length() == 0)
+        {
+            throw new IllegalArgumentException("Unknown command '" + name + "'");
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("commands", commands);
+        result.put("pending", server.getPendingCommands());
+
+        return result;
+    }
+}
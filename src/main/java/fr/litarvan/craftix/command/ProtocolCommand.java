@@ -0,0 +1,42 @@
+package fr.litarvan.craftix.command;
+
+import fr.litarvan.craftix.CraftixCommand;
+import fr.litarvan.craftix.CraftixRequest;
+import fr.litarvan.craftix.CraftixServer;
+import fr.litarvan.craftix.net.Protocol;
+import org.json.JSONObject;
+
+public class ProtocolCommand extends CraftixCommand
+{
+    @Override
+    public String getIdentifier()
+    {
+        return "protocol";
+    }
+
+    @Override
+    public JSONObject call(CraftixServer server, JSONObject params) throws Exception
+    {
+        throw new IllegalStateException("The protocol command can only be called by a launcher");
+    }
+
+    @Override
+    public JSONObject call(CraftixServer server, CraftixRequest request) throws Exception
+    {
+        String name = request.getParams().getString("name");
+        Protocol protocol = Protocol.of(name);
+
+        if (protocol == null)
+        {
+            throw new IllegalArgumentException("Unknown protocol '" + name + "'");
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("protocol", protocol.getName());
+
+        // Sends the response with the current protocol, everything after it uses the new one
+        request.getConnection().switchProtocol(protocol, request, result);
+
+        return result;
+    }
+}
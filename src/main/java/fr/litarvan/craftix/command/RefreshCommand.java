@@ -0,0 +1,52 @@
+package fr.litarvan.craftix.command;
+
+import fr.litarvan.craftix.CraftixCommand;
+import fr.litarvan.craftix.CraftixRequest;
+import fr.litarvan.craftix.CraftixServer;
+import fr.litarvan.craftix.auth.AuthManager;
+import fr.litarvan.craftix.auth.AuthResult;
+import org.json.JSONObject;
+
+public class RefreshCommand extends CraftixCommand
+{
+    @Override
+    public String getIdentifier()
+    {
+        return "refresh";
+    }
+
+    @Override
+    public JSONObject call(CraftixServer server, JSONObject params) throws Exception
+    {
+        AuthResult result = refresh(server, params, server.getAuthResult());
+
+        server.setAuthResult(result);
+
+        return result.toJSON();
+    }
+
+    @Override
+    public JSONObject call(CraftixServer server, CraftixRequest request) throws Exception
+    {
+        AuthResult result = refresh(server, request.getParams(), request.getConnection().getAuthResult());
+
+        request.getConnection().setAuthResult(result);
+        server.setAuthResult(result);
+
+        request.respond(result);
+        return null;
+    }
+
+    protected AuthResult refresh(CraftixServer server, JSONObject params, AuthResult current) throws Exception
+    {
+        AuthManager auth = server.getAuthManager();
+
+        // Without tokens, the current session is refreshed
+        if (current != null && !params.has("accessToken"))
+        {
+            return auth.refresh(server, current.getAccessToken(), current.getClientToken());
+        }
+
+        return auth.refresh(server, params.getString("accessToken"), params.getString("clientToken"));
+    }
+}
@@ -0,0 +1,28 @@
+package fr.litarvan.craftix.command;
+
+import fr.litarvan.craftix.CraftixServer;
+import fr.litarvan.craftix.launch.LaunchConfig;
+import org.json.JSONObject;
+
+public class StandbyCommand extends LaunchCommand
+{
+    @Override
+    public String getIdentifier()
+    {
+        return "standby";
+    }
+
+    @Override
+    public JSONObject call(CraftixServer server, JSONObject params) throws Exception
+    {
+        LaunchConfig config = getConfig(params);
+        awaitUpdate(server, config);
+
+        boolean ready = server.getLauncher().prepare(config);
+
+        JSONObject result = new JSONObject();
+        result.put("ready", ready);
+
+        return result;
+    }
+}
@@ -0,0 +1,45 @@
+package fr.litarvan.craftix.command;
+
+import fr.litarvan.craftix.CraftixCommand;
+import fr.litarvan.craftix.CraftixRequest;
+import fr.litarvan.craftix.CraftixServer;
+import fr.litarvan.craftix.launch.MetricsSampler;
+import org.json.JSONObject;
+
+public class StatsCommand extends CraftixCommand
+{
+    @Override
+    public String getIdentifier()
+    {
+        return "stats";
+    }
+
+    @Override
+    public JSONObject call(CraftixServer server, JSONObject params) throws Exception
+    {
+        return server.getMetrics().getStats(params.optString("instance", null));
+    }
+
+    @Override
+    public JSONObject call(CraftixServer server, CraftixRequest request) throws Exception
+    {
+        JSONObject params = request.getParams();
+        MetricsSampler metrics = server.getMetrics();
+
+        if (params.optBoolean("stop", false))
+        {
+            JSONObject result = new JSONObject();
+            result.put("unsubscribed", metrics.unsubscribe(request.getConnection()));
+
+            return result;
+        }
+
+        if (params.optBoolean("subscribe", false))
+        {
+            metrics.subscribe(request.getConnection(), request.getId(), params.optString("instance", null),
+                              params.optLong("interval", metrics.getInterval()));
+        }
+
+        return call(server, params);
+    }
+}
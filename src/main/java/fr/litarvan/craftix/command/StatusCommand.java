@@ -0,0 +1,28 @@
+package fr.litarvan.craftix.command;
+
+import fr.litarvan.craftix.CraftixCommand;
+import fr.litarvan.craftix.CraftixServer;
+import fr.litarvan.craftix.launch.GameInstance;
+import org.json.JSONObject;
+
+public class StatusCommand extends CraftixCommand
+{
+    @Override
+    public String getIdentifier()
+    {
+        return "status";
+    }
+
+    @Override
+    public JSONObject call(CraftixServer server, JSONObject params) throws Exception
+    {
+        GameInstance instance = server.getSupervisor().get(params.getString("instance"));
+
+        if (instance == null)
+        {
+            throw new IllegalArgumentException("Unknown game instance '" + params.getString("instance") + "'");
+        }
+
+        return instance.toJSON();
+    }
+}
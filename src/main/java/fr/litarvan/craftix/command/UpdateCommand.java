@@ -17,7 +17,13 @@ public class UpdateCommand extends CraftixCommand
     public JSONObject call(CraftixServer server, JSONObject params) throws Exception
     {
         UpdateManager updater = server.getUpdateManager();
-        //updater.update(server, params);
+
+        if (updater == null)
+        {
+            throw new IllegalStateException("No update manager is set");
+        }
+
+        updater.update(server, params);
 
         return CraftixServer.SUCCESS;
     }
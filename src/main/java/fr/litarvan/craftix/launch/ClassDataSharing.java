@@ -0,0 +1,276 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.launch;
+
+import fr.litarvan.craftix.util.Hashing;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import net.wytrem.logging.Logger;
+import net.wytrem.logging.LoggerFactory;
+
+/**
+ * Class Data Sharing
+ *
+ *
+ * Maintains a dynamic AppCDS archive of the classes loaded by a
+ * game, so the next launches map them instead of loading them
+ * from the jars. The first launch dumps the archive when the game
+ * exits normally, the next ones use it.
+ *
+ * The archives are stored next to the game directory, keyed by
+ * the launch profile key (version, tweaks, fingerprint of the
+ * indexed files), the classpath and the Java VM, so any change
+ * creates a new archive and deletes the old ones. Dynamic archives
+ * need Java 13 or higher, nothing is done on older versions, when
+ * the classpath has folders (the VM refuses to start with an
+ * archive then), when the user gives their own sharing options,
+ * or when the <code>craftix.cds</code> system property is false.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class ClassDataSharing
+{
+    private static final Logger logger = LoggerFactory.getLogger(ClassDataSharing.class);
+
+    /**
+     * First Java version supporting dynamic archives
+     */
+    public static final int DYNAMIC_ARCHIVE_VERSION = 13;
+
+    /**
+     * First Java version creating and updating the archive itself
+     */
+    public static final int AUTO_ARCHIVE_VERSION = 19;
+
+    private static final String EXTENSION = ".jsa";
+
+    /**
+     * The folder of the archives
+     */
+    private final File folder;
+
+    /**
+     * The archive of this launch
+     */
+    private final File archive;
+
+    /**
+     * Where the archive is dumped before being validated by a normal exit
+     */
+    private final File dump;
+
+    /**
+     * If the archive is dumped by this launch
+     */
+    private boolean dumping;
+
+    /**
+     * Class data sharing of a launch
+     *
+     * @param folder The folder of the archives
+     * @param key The archive key
+     */
+    public ClassDataSharing(File folder, String key)
+    {
+        this.folder = folder;
+        this.archive = new File(folder, key + EXTENSION);
+        this.dump = new File(folder, key + EXTENSION + ".tmp");
+    }
+
+    /**
+     * @param gameDir The game directory
+     * @param profileKey The launch profile key (see {@link LaunchProfileCache#key(LaunchConfig, File)})
+     * @param classPath The resolved classpath
+     *
+     * @return The class data sharing of a launch, or null if it isn't supported
+     */
+    public static ClassDataSharing of(File gameDir, String profileKey, String classPath)
+    {
+        if (!isSupported())
+        {
+            return null;
+        }
+
+        for (String path : classPath.split(File.pathSeparator))
+        {
+            String[] files = new File(path).list();
+
+            if (files != null && files.length > 0)
+            {
+                logger.info("Classpath has a folder (" + path + "), not using class data sharing");
+                return null;
+            }
+        }
+
+        String key = profileKey + '\n' + classPath + '\n' + System.getProperty("java.home") + '\n' + System.getProperty("java.vm.version");
+
+        return new ClassDataSharing(new File(gameDir.getAbsoluteFile().getParentFile(), gameDir.getName() + ".cds"),
+                                    Hashing.hex(Hashing.digest("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * @return If the current Java version (used to launch the game) supports dynamic archives
+     */
+    public static boolean isSupported()
+    {
+        return !"false".equals(System.getProperty("craftix.cds")) && getJavaVersion() >= DYNAMIC_ARCHIVE_VERSION;
+    }
+
+    /**
+     * @return The major version of the current Java (8 for 1.8)
+     */
+    public static int getJavaVersion()
+    {
+        String version = System.getProperty("java.specification.version", "1.6");
+
+        if (version.startsWith("1."))
+        {
+            version = version.substring(2);
+        }
+
+        try
+        {
+            return Integer.parseInt(version);
+        }
+        catch (NumberFormatException e)
+        {
+            return 0;
+        }
+    }
+
+    /**
+     * Give the VM arguments using (or creating) the archive
+     *
+     * @param vmArgs The other VM arguments of the game
+     *
+     * @return The arguments to add
+     */
+    public List<String> getVmArgs(List<String> vmArgs) throws IOException
+    {
+        List<String> args = new ArrayList<String>();
+
+        for (String arg : vmArgs)
+        {
+            if (arg.startsWith("-Xshare") || arg.contains("SharedArchiveFile") || arg.contains("ArchiveClassesAtExit"))
+            {
+                logger.info("Class data sharing options given (" + arg + "), not using an archive");
+                return args;
+            }
+        }
+
+        Files.createDirectories(folder.toPath());
+
+        if (archive.isFile())
+        {
+            logger.info("Using class data sharing archive " + archive.getAbsolutePath());
+        }
+        else
+        {
+            clean();
+        }
+
+        if (getJavaVersion() >= AUTO_ARCHIVE_VERSION)
+        {
+            // The VM validates the archive, and rewrites it if it is outdated
+            args.add("-XX:+AutoCreateSharedArchive");
+            args.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+        }
+        else if (archive.isFile())
+        {
+            args.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+        }
+        else
+        {
+            logger.info("Creating class data sharing archive " + archive.getAbsolutePath());
+
+            Files.deleteIfExists(dump.toPath());
+            args.add("-XX:ArchiveClassesAtExit=" + dump.getAbsolutePath());
+
+            dumping = true;
+        }
+
+        return args;
+    }
+
+    /**
+     * Keep the dumped archive if the game exited normally
+     *
+     * @param exitCode The game exit code
+     */
+    public void exited(int exitCode)
+    {
+        if (!dumping)
+        {
+            return;
+        }
+
+        try
+        {
+            if (exitCode == 0 && dump.isFile())
+            {
+                Files.move(dump.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                logger.info("Success ! Created class data sharing archive " + archive.getAbsolutePath() + " (" + archive.length() / 1024 + " KB)");
+            }
+            else
+            {
+                Files.deleteIfExists(dump.toPath());
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Couldn't save the class data sharing archive " + archive.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Delete the archives of the other keys
+     */
+    protected void clean() throws IOException
+    {
+        File[] files = folder.listFiles();
+
+        if (files == null)
+        {
+            return;
+        }
+
+        for (File file : files)
+        {
+            if (!file.equals(archive) && !file.equals(dump))
+            {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    /**
+     * @return The archive of this launch
+     */
+    public File getArchive()
+    {
+        return archive;
+    }
+}
@@ -21,6 +21,7 @@ package fr.litarvan.craftix.launch;
 import fr.litarvan.craftix.CraftixServer;
 import fr.litarvan.craftix.auth.AuthManager;
 import fr.litarvan.craftix.auth.AuthResult;
+import java.io.IOException;
 
 /**
  * A Craftix Launcher
@@ -28,7 +29,8 @@ import fr.litarvan.craftix.auth.AuthResult;
  *
  * The object that launches Minecraft with the given params,
  * default is {@link OpenLauncherLibLauncher}, but a plugin
- * can set another one.
+ * can set another one (extending {@link LauncherAdapter} only
+ * requires {@link #launch(CraftixServer, LaunchConfig, AuthResult)}).
  *
  * @author Litarvan
  * @version 1.0.0
@@ -44,4 +46,28 @@ public interface CraftixLauncher<E extends Exception>
      * @param auth Authentication result from the {@link AuthManager}
      */
     void launch(CraftixServer server, LaunchConfig config, AuthResult auth) throws E;
+
+    /**
+     * Launches Minecraft without waiting for it to exit.
+     *
+     * @param server The current Craftix server
+     * @param config Launch config sent by the client
+     * @param auth Authentication result from the {@link AuthManager}
+     *
+     * @return The instance of the started game, or null if the game isn't
+     *         followed by the server (then only returning once it exited)
+     */
+    GameInstance start(CraftixServer server, LaunchConfig config, AuthResult auth) throws E;
+
+    /**
+     * Prepares the launch of a profile, so its next launch (with the
+     * same config) is faster.
+     *
+     * @param config The launch config
+     *
+     * @return If the launch is prepared (false when the system doesn't allow it now)
+     *
+     * @throws UnsupportedOperationException If the launcher can't prepare launches
+     */
+    boolean prepare(LaunchConfig config) throws E, IOException;
 }
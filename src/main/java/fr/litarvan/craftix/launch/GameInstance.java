@@ -0,0 +1,303 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.launch;
+
+import fr.litarvan.craftix.CraftixConnection;
+import fr.litarvan.craftix.util.ProcFs;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+
+/**
+ * A Game Instance
+ *
+ *
+ * A game process followed by the {@link ProcessSupervisor},
+ * identified by a handle given to the launcher. Its output is
+ * kept in a {@link GameLog}. When the game exits, a "game" event
+ * is sent to the connection that launched it (if still open).
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class GameInstance
+{
+    /**
+     * The state of a game instance
+     */
+    public enum State
+    {
+        RUNNING,
+        EXITED,
+        KILLED
+    }
+
+    /**
+     * The instance handle
+     */
+    private final String id;
+
+    /**
+     * The profile (server) name
+     */
+    private final String name;
+
+    /**
+     * The player name
+     */
+    private final String username;
+
+    /**
+     * The game process
+     */
+    private final Process process;
+
+    /**
+     * The game process id (-1 if unknown)
+     */
+    private final long pid;
+
+    /**
+     * When the game was started (in milliseconds)
+     */
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * The class data sharing of the launch (can be null)
+     */
+    private final ClassDataSharing cds;
+
+    /**
+     * The game output
+     */
+    private final GameLog log;
+
+    /**
+     * The game resource usage
+     */
+    private final GameMetrics metrics;
+
+    /**
+     * The connection that launched the game (can be null)
+     */
+    private final CraftixConnection connection;
+
+    /**
+     * The id of the launch request (can be null)
+     */
+    private final String requestId;
+
+    /**
+     * Released when the game exited
+     */
+    private final CountDownLatch exit = new CountDownLatch(1);
+
+    private volatile State state = State.RUNNING;
+    private volatile int exitCode;
+    private volatile long exitTime;
+
+    /**
+     * Game instance
+     *
+     * @param id The instance handle
+     * @param name The profile (server) name
+     * @param username The player name
+     * @param process The game process
+     * @param cds The class data sharing of the launch (can be null)
+     * @param connection The connection that launched the game (can be null)
+     * @param requestId The id of the launch request (can be null)
+     */
+    public GameInstance(String id, String name, String username, Process process, ClassDataSharing cds, CraftixConnection connection, String requestId)
+    {
+        this.id = id;
+        this.name = name;
+        this.username = username;
+        this.process = process;
+        this.pid = ProcFs.getPid(process);
+        this.cds = cds;
+        this.log = new GameLog(GameLog.DEFAULT_CAPACITY, LogArchive.of(name, id, startTime));
+        this.metrics = new GameMetrics(pid);
+        this.connection = connection;
+        this.requestId = requestId;
+    }
+
+    void exited(int exitCode)
+    {
+        this.exitCode = exitCode;
+        this.exitTime = System.currentTimeMillis();
+
+        if (state == State.RUNNING)
+        {
+            state = State.EXITED;
+        }
+
+        if (cds != null)
+        {
+            cds.exited(exitCode);
+        }
+
+        exit.countDown();
+
+        if (connection != null)
+        {
+            connection.emit(requestId, "game", toJSON());
+        }
+    }
+
+    void killed()
+    {
+        state = State.KILLED;
+    }
+
+    /**
+     * Wait until the game exits
+     *
+     * @return The game exit code
+     */
+    public int waitFor() throws InterruptedException
+    {
+        exit.await();
+        return exitCode;
+    }
+
+    /**
+     * Wait until the game exits, or the timeout
+     *
+     * @param timeout The maximum time to wait
+     * @param unit The timeout unit
+     *
+     * @return If the game exited
+     */
+    public boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return exit.await(timeout, unit);
+    }
+
+    /**
+     * @return The instance status, sent to the launchers
+     */
+    public JSONObject toJSON()
+    {
+        JSONObject object = new JSONObject();
+
+        object.put("instance", id);
+        object.put("name", name);
+        object.put("username", username);
+        object.put("pid", pid);
+        object.put("state", state.name().toLowerCase());
+        object.put("startTime", startTime);
+        object.put("uptime", (isRunning() ? System.currentTimeMillis() : exitTime) - startTime);
+
+        if (!isRunning())
+        {
+            object.put("exitCode", exitCode);
+        }
+
+        return object;
+    }
+
+    /**
+     * @return If the game is still running
+     */
+    public boolean isRunning()
+    {
+        return exit.getCount() > 0;
+    }
+
+    /**
+     * @return The instance handle
+     */
+    public String getId()
+    {
+        return id;
+    }
+
+    /**
+     * @return The profile (server) name
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return The player name
+     */
+    public String getUsername()
+    {
+        return username;
+    }
+
+    /**
+     * @return The game process
+     */
+    public Process getProcess()
+    {
+        return process;
+    }
+
+    /**
+     * @return The game output
+     */
+    public GameLog getLog()
+    {
+        return log;
+    }
+
+    /**
+     * @return The game resource usage
+     */
+    public GameMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * @return The game process id (-1 if unknown)
+     */
+    public long getPid()
+    {
+        return pid;
+    }
+
+    /**
+     * @return When the game was started (in milliseconds)
+     */
+    public long getStartTime()
+    {
+        return startTime;
+    }
+
+    /**
+     * @return The instance state
+     */
+    public State getState()
+    {
+        return state;
+    }
+
+    /**
+     * @return The game exit code (only when not running)
+     */
+    public int getExitCode()
+    {
+        return exitCode;
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.launch;
+
+import fr.litarvan.craftix.CraftixConnection;
+import fr.litarvan.craftix.net.LineDecoder;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import net.wytrem.logging.Logger;
+import net.wytrem.logging.LoggerFactory;
+
+/**
+ * A Game Log
+ *
+ *
+ * The output of a game, kept in a bounded off-heap ring buffer.
+ * The {@link ProcessSupervisor} writes to it without ever waiting,
+ * overwriting the oldest output when the buffer is full, so a game
+ * printing a lot can't block on its output or fill the Craftix
+ * memory.
+ *
+ * The output is then read from the buffer by a flush task, which
+ * sends it to the subscribed launchers (see {@link LogSubscriber})
+ * and writes it to the archive of the game (see {@link LogArchive}).
+ * A reader too slow to follow loses the overwritten output.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class GameLog
+{
+    private static final Logger logger = LoggerFactory.getLogger(GameLog.class);
+
+    /**
+     * Default size of the ring buffer (in bytes)
+     */
+    public static final int DEFAULT_CAPACITY = 2 * 1024 * 1024;
+
+    /**
+     * The ring buffer
+     */
+    private final ByteBuffer ring;
+
+    /**
+     * Size of the ring buffer
+     */
+    private final int capacity;
+
+    /**
+     * The launchers receiving the output
+     */
+    private final List<LogSubscriber> subscribers = new CopyOnWriteArrayList<LogSubscriber>();
+
+    /**
+     * Buffer used to archive the output (flush task only)
+     */
+    private final byte[] buffer = new byte[64 * 1024];
+
+    /**
+     * The archive of the output (null if disabled or failed)
+     */
+    private LogArchive archive;
+
+    /**
+     * Position of the next byte to archive
+     */
+    private long archived;
+
+    /**
+     * Number of bytes written since the game started
+     */
+    private long written;
+
+    private volatile boolean closed;
+    private volatile boolean finished;
+
+    /**
+     * Game log
+     *
+     * @param capacity Size of the ring buffer (in bytes)
+     * @param archive The archive of the output (can be null)
+     */
+    public GameLog(int capacity, LogArchive archive)
+    {
+        this.ring = ByteBuffer.allocateDirect(capacity);
+        this.capacity = capacity;
+        this.archive = archive;
+    }
+
+    /**
+     * Add output of the game, overwriting the oldest one if needed
+     *
+     * @param bytes The buffer containing the output
+     * @param offset The output offset in the buffer
+     * @param length The output length
+     */
+    public synchronized void write(byte[] bytes, int offset, int length)
+    {
+        if (length > capacity)
+        {
+            written += length - capacity;
+            offset += length - capacity;
+            length = capacity;
+        }
+
+        int index = (int) (written % capacity);
+        int first = Math.min(length, capacity - index);
+
+        ring.position(index);
+        ring.put(bytes, offset, first);
+
+        if (first < length)
+        {
+            ring.position(0);
+            ring.put(bytes, offset + first, length - first);
+        }
+
+        written += length;
+    }
+
+    /**
+     * Copy output from the buffer
+     *
+     * @param position Position of the first byte to copy (at least {@link #getOldest()})
+     * @param bytes The destination buffer
+     * @param offset The offset in the destination buffer
+     * @param length Maximum number of bytes to copy
+     *
+     * @return The number of copied bytes
+     */
+    public synchronized int read(long position, byte[] bytes, int offset, int length)
+    {
+        if (position < written - capacity)
+        {
+            throw new IllegalArgumentException("Position " + position + " was overwritten");
+        }
+
+        length = (int) Math.min(length, written - position);
+
+        int index = (int) (position % capacity);
+        int first = Math.min(length, capacity - index);
+
+        ring.position(index);
+        ring.get(bytes, offset, first);
+
+        if (first < length)
+        {
+            ring.position(0);
+            ring.get(bytes, offset + first, length - first);
+        }
+
+        return length;
+    }
+
+    /**
+     * Send the game output to a launcher, from the next flush
+     *
+     * @param subscriber The subscriber to add
+     */
+    public void subscribe(LogSubscriber subscriber)
+    {
+        subscribers.add(subscriber);
+        finished = false;
+    }
+
+    /**
+     * Stop sending the game output to a launcher
+     *
+     * @param connection The launcher to unsubscribe
+     *
+     * @return If it was subscribed
+     */
+    public boolean unsubscribe(CraftixConnection connection)
+    {
+        boolean removed = false;
+
+        for (LogSubscriber subscriber : subscribers)
+        {
+            if (subscriber.getConnection() == connection)
+            {
+                subscriber.cancel();
+                removed |= subscribers.remove(subscriber);
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * Send the new output to the subscribers and the archive (flush task only)
+     */
+    public void flush()
+    {
+        // Read before the output, so the last flush after closing has everything
+        boolean last = closed;
+
+        archive();
+
+        for (LogSubscriber subscriber : subscribers)
+        {
+            if (!subscriber.flush(this))
+            {
+                subscribers.remove(subscriber);
+            }
+        }
+
+        if (last)
+        {
+            if (archive != null)
+            {
+                try
+                {
+                    archive.close();
+                }
+                catch (IOException e)
+                {
+                    logger.error("Couldn't close the game log archive", e);
+                }
+
+                archive = null;
+            }
+
+            finished = subscribers.isEmpty();
+        }
+    }
+
+    protected void archive()
+    {
+        if (archive == null)
+        {
+            return;
+        }
+
+        try
+        {
+            while (true)
+            {
+                long dropped;
+                int read;
+
+                // The game keeps writing while archiving, so skip what it overwrote since the last read
+                synchronized (this)
+                {
+                    dropped = Math.max(0, getOldest() - archived);
+                    archived += dropped;
+                    read = read(archived, buffer, 0, buffer.length);
+                }
+
+                if (dropped > 0)
+                {
+                    archive.write(("\n[Craftix] " + dropped + " bytes of output dropped\n").getBytes(LineDecoder.UTF_8));
+                }
+
+                if (read <= 0)
+                {
+                    break;
+                }
+
+                archive.write(buffer, 0, read);
+                archived += read;
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Couldn't archive the game log, stopping its archive", e);
+
+            try
+            {
+                archive.close();
+            }
+            catch (IOException ignored)
+            {
+            }
+
+            archive = null;
+        }
+    }
+
+    /**
+     * Mark the output as complete, once the game exited
+     */
+    public void close()
+    {
+        closed = true;
+    }
+
+    /**
+     * @return Position of the oldest byte still in the buffer
+     */
+    public synchronized long getOldest()
+    {
+        return Math.max(0, written - capacity);
+    }
+
+    /**
+     * @return Number of bytes written since the game started
+     */
+    public synchronized long getWritten()
+    {
+        return written;
+    }
+
+    /**
+     * @return Size of the ring buffer (in bytes)
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * @return If the game exited (no more output)
+     */
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * @return If the whole output was archived and sent to the
+     *         subscribers, after the game exited
+     */
+    public boolean isFinished()
+    {
+        return finished;
+    }
+}
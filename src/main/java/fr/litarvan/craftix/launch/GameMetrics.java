@@ -0,0 +1,232 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.launch;
+
+import fr.litarvan.craftix.util.PerfData;
+import fr.litarvan.craftix.util.ProcessProbe;
+import org.json.JSONObject;
+
+/**
+ * Game Metrics
+ *
+ *
+ * The resource usage of a running game : CPU, memory, threads and
+ * disk I/O (from /proc, see {@link ProcessProbe}), and the garbage
+ * collections and safepoints of its JVM (from its perf data, see
+ * {@link PerfData}). Sampled by the {@link MetricsSampler}.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class GameMetrics
+{
+    /**
+     * The collectors stopping the game (young and old, the next ones are concurrent)
+     */
+    private static final int PAUSE_COLLECTORS = 2;
+
+    /**
+     * Delay between two attempts to find the perf data of the game (in milliseconds)
+     */
+    private static final long PERF_DATA_RETRY = 2000;
+
+    /**
+     * The game process
+     */
+    private final ProcessProbe probe;
+
+    /**
+     * The perf data of the game JVM (null until found)
+     */
+    private PerfData perf;
+
+    private int[] gcCounts = new int[PAUSE_COLLECTORS];
+    private int[] gcTimes = new int[PAUSE_COLLECTORS];
+    private int safepointTime;
+    private long frequency;
+    private long nextPerfAttempt;
+
+    private long lastSample;
+    private long lastCpuTime;
+    private long lastReadBytes;
+    private long lastWriteBytes;
+    private long lastGcTime;
+
+    private boolean sampled;
+    private boolean closed;
+
+    private double cpu;
+    private double readRate;
+    private double writeRate;
+    private long gcCount;
+    private long gcTime;
+    private long gcPause;
+    private long safepoint;
+
+    /**
+     * Game metrics
+     *
+     * @param pid The game process id
+     */
+    public GameMetrics(long pid)
+    {
+        this.probe = new ProcessProbe(pid);
+    }
+
+    /**
+     * Sample the game resource usage
+     *
+     * @param now The current time (in milliseconds)
+     */
+    public synchronized void sample(long now)
+    {
+        if (closed || !probe.sample())
+        {
+            return;
+        }
+
+        if (perf == null && now >= nextPerfAttempt)
+        {
+            nextPerfAttempt = now + PERF_DATA_RETRY;
+            findPerfData();
+        }
+
+        long elapsed = now - lastSample;
+
+        if (sampled && elapsed > 0)
+        {
+            cpu = (probe.getCpuTime() - lastCpuTime) * 1000.0 * 100 / ProcessProbe.CLOCK_TICKS / elapsed;
+            readRate = (probe.getReadBytes() - lastReadBytes) * 1000.0 / elapsed;
+            writeRate = (probe.getWriteBytes() - lastWriteBytes) * 1000.0 / elapsed;
+        }
+
+        if (perf != null)
+        {
+            long count = 0;
+            long ticks = 0;
+
+            for (int i = 0; i < PAUSE_COLLECTORS; i++)
+            {
+                count += perf.get(gcCounts[i]);
+                ticks += perf.get(gcTimes[i]);
+            }
+
+            gcCount = count;
+            gcTime = ticks * 1000 / frequency;
+            gcPause = sampled ? gcTime - lastGcTime : 0;
+            safepoint = perf.get(safepointTime) * 1000 / frequency;
+
+            lastGcTime = gcTime;
+        }
+
+        lastSample = now;
+        lastCpuTime = probe.getCpuTime();
+        lastReadBytes = probe.getReadBytes();
+        lastWriteBytes = probe.getWriteBytes();
+        sampled = true;
+    }
+
+    private void findPerfData()
+    {
+        PerfData data = PerfData.open(probe.getPid());
+
+        // The counters are created while the JVM starts, it may be too early
+        if (data == null || data.find("sun.os.hrt.frequency") < 0 || data.find("sun.gc.collector.0.time") < 0)
+        {
+            return;
+        }
+
+        for (int i = 0; i < PAUSE_COLLECTORS; i++)
+        {
+            gcCounts[i] = data.find("sun.gc.collector." + i + ".invocations");
+            gcTimes[i] = data.find("sun.gc.collector." + i + ".time");
+        }
+
+        safepointTime = data.find("sun.rt.safepointTime");
+        frequency = Math.max(1, data.get(data.find("sun.os.hrt.frequency")));
+        perf = data;
+    }
+
+    /**
+     * Stop sampling, once the game exited
+     */
+    public synchronized void close()
+    {
+        closed = true;
+        perf = null;
+        probe.close();
+    }
+
+    /**
+     * @return The last sampled values, sent to the launchers
+     */
+    public synchronized JSONObject toJSON()
+    {
+        JSONObject object = new JSONObject();
+
+        object.put("cpu", Math.round(cpu * 10) / 10.0);
+        object.put("memory", probe.getResidentMemory());
+        object.put("threads", probe.getThreads());
+
+        JSONObject io = new JSONObject();
+        io.put("read", probe.getReadBytes());
+        io.put("write", probe.getWriteBytes());
+        io.put("readRate", Math.round(readRate));
+        io.put("writeRate", Math.round(writeRate));
+        object.put("io", io);
+
+        if (perf != null)
+        {
+            JSONObject gc = new JSONObject();
+            gc.put("count", gcCount);
+            gc.put("time", gcTime);
+            gc.put("pause", gcPause);
+            object.put("gc", gc);
+
+            object.put("safepointTime", safepoint);
+        }
+
+        return object;
+    }
+
+    /**
+     * @return The CPU usage since the previous sample (in percent of one core)
+     */
+    public synchronized double getCpu()
+    {
+        return cpu;
+    }
+
+    /**
+     * @return The garbage collection pauses since the previous sample (in milliseconds)
+     */
+    public synchronized long getGcPause()
+    {
+        return gcPause;
+    }
+
+    /**
+     * @return The game process sampler
+     */
+    public ProcessProbe getProbe()
+    {
+        return probe;
+    }
+}
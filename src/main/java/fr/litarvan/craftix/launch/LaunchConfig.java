@@ -56,6 +56,11 @@ public class LaunchConfig
      */
     private String[] tweaks;
 
+    /**
+     * If the JVM arguments are tuned for the system (see {@link VmTuner})
+     */
+    private boolean tune;
+
     /**
      * Launch configuration
      *
@@ -66,12 +71,28 @@ public class LaunchConfig
      * @param tweaks The Game tweaks (ex: forge) to load
      */
     public LaunchConfig(String name, String version, String[] params, String[] vmParams, String[] tweaks)
+    {
+        this(name, version, params, vmParams, tweaks, false);
+    }
+
+    /**
+     * Launch configuration
+     *
+     * @param name Server name, used as title and folder name
+     * @param version Minecraft version to use
+     * @param params Minecraft parameters to add (ex: --server play.bestserveroftheworld.eu)
+     * @param vmParams Java VM parameters to add (ex: -Xms1024M)
+     * @param tweaks The Game tweaks (ex: forge) to load
+     * @param tune If the JVM arguments are tuned for the system (see {@link VmTuner})
+     */
+    public LaunchConfig(String name, String version, String[] params, String[] vmParams, String[] tweaks, boolean tune)
     {
         this.name = name;
         this.version = version;
         this.params = params;
         this.vmParams = vmParams;
         this.tweaks = tweaks;
+        this.tune = tune;
     }
 
     /**
@@ -113,4 +134,12 @@ public class LaunchConfig
     {
         return tweaks;
     }
+
+    /**
+     * @return If the JVM arguments are tuned for the system (see {@link VmTuner})
+     */
+    public boolean isTuned()
+    {
+        return tune;
+    }
 }
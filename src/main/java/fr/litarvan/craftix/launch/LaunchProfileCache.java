@@ -0,0 +1,306 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.launch;
+
+import fr.litarvan.craftix.CraftixServer;
+import fr.litarvan.craftix.update.FileIndex;
+import fr.litarvan.craftix.update.UpdatePriority;
+import fr.litarvan.craftix.util.Hashing;
+import fr.theshark34.openlauncherlib.external.ExternalLaunchProfile;
+import fr.theshark34.openlauncherlib.minecraft.AuthInfos;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import net.wytrem.logging.Logger;
+import net.wytrem.logging.LoggerFactory;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The Launch Profile Cache
+ *
+ *
+ * Remembers the last resolved external launch profile (main
+ * class, classpath, natives, arguments) of a game directory, so
+ * relaunching an unchanged game doesn't resolve it again.
+ *
+ * The profile is stored next to the game directory, with a key
+ * made of the version, the tweaks, the fingerprint of the indexed
+ * launch files (see {@link FileIndex#fingerprint(File, UpdatePriority)})
+ * and the state of the libraries and natives folders. The
+ * authentication infos are replaced by placeholders, so the access
+ * token is never written.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class LaunchProfileCache
+{
+    private static final Logger logger = LoggerFactory.getLogger(LaunchProfileCache.class);
+
+    private static final String USERNAME = "${auth_player_name}";
+    private static final String ACCESS_TOKEN = "${auth_access_token}";
+    private static final String UUID = "${auth_uuid}";
+
+    /**
+     * Authentication infos made of the placeholders, to resolve a
+     * profile before knowing the real ones (see {@link #fill(List, AuthInfos)})
+     */
+    public static final AuthInfos PLACEHOLDERS = new AuthInfos(USERNAME, ACCESS_TOKEN, UUID);
+
+    /**
+     * The files and folders read when resolving a profile,
+     * relative to the game directory
+     */
+    private static final String[] RESOLVED_FILES = {"libs", "natives", "minecraft.jar"};
+
+    /**
+     * The cache file
+     */
+    private final File file;
+
+    /**
+     * Launch profile cache
+     *
+     * @param file The cache file
+     */
+    public LaunchProfileCache(File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * @param gameDir A game directory
+     *
+     * @return The cache of its launch profile, stored next to it
+     */
+    public static LaunchProfileCache of(File gameDir)
+    {
+        return new LaunchProfileCache(new File(gameDir.getAbsoluteFile().getParentFile(), gameDir.getName() + ".launch"));
+    }
+
+    /**
+     * Compute the key of a profile, that changes when anything
+     * used to resolve it changes
+     *
+     * @param config The launch config
+     * @param gameDir The game directory
+     *
+     * @return The profile key
+     */
+    public static String key(LaunchConfig config, File gameDir) throws IOException
+    {
+        MessageDigest digest = Hashing.digest("SHA-1");
+        StringBuilder key = new StringBuilder(CraftixServer.VERSION).append('\n');
+
+        key.append(config.getVersion().trim()).append('\n');
+
+        for (String tweak : config.getTweaks())
+        {
+            key.append(tweak.trim()).append(',');
+        }
+
+        key.append('\n').append(FileIndex.fingerprint(gameDir, UpdatePriority.CRITICAL)).append('\n');
+
+        for (String path : RESOLVED_FILES)
+        {
+            File file = new File(gameDir, path);
+            key.append(path).append(':').append(file.length()).append(':').append(file.lastModified()).append('\n');
+        }
+
+        return Hashing.hex(digest.digest(key.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Read the cached profile
+     *
+     * @param key The expected profile key
+     * @param auth The authentication infos to put in the profile
+     *
+     * @return The cached profile, or null if there is none or if its key is different
+     */
+    public ExternalLaunchProfile get(String key, AuthInfos auth)
+    {
+        if (!file.isFile())
+        {
+            return null;
+        }
+
+        try
+        {
+            JSONObject object = new JSONObject(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+
+            if (!key.equals(object.getString("key")))
+            {
+                return null;
+            }
+
+            String directory = object.optString("directory", null);
+
+            return new ExternalLaunchProfile(object.getString("mainClass"),
+                                             object.getString("classPath"),
+                                             fromJSON(object.getJSONArray("vmArgs"), auth),
+                                             fromJSON(object.getJSONArray("args"), auth),
+                                             object.getBoolean("redirectErrorStream"),
+                                             object.optString("macDockName", null),
+                                             directory != null ? new File(directory) : null);
+        }
+        catch (IOException | JSONException e)
+        {
+            logger.error("Couldn't read the cached launch profile " + file.getAbsolutePath() + ", ignoring it", e);
+            return null;
+        }
+    }
+
+    /**
+     * Cache a resolved profile
+     *
+     * @param key The profile key
+     * @param profile The resolved profile
+     * @param auth The authentication infos used in the profile
+     */
+    public void put(String key, ExternalLaunchProfile profile, AuthInfos auth) throws IOException
+    {
+        JSONObject object = new JSONObject();
+
+        object.put("key", key);
+        object.put("mainClass", profile.getMainClass());
+        object.put("classPath", profile.getClassPath());
+        object.put("vmArgs", toJSON(profile.getVmArgs(), auth));
+        object.put("args", toJSON(profile.getArgs(), auth));
+        object.put("redirectErrorStream", profile.isRedirectErrorStream());
+
+        if (profile.getMacDockName() != null)
+        {
+            object.put("macDockName", profile.getMacDockName());
+        }
+
+        if (profile.getDirectory() != null)
+        {
+            object.put("directory", profile.getDirectory().getAbsolutePath());
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+
+        Files.write(temp.toPath(), object.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Remove the cached profile
+     */
+    public void invalidate() throws IOException
+    {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    protected JSONArray toJSON(List<String> args, AuthInfos auth)
+    {
+        JSONArray array = new JSONArray();
+
+        if (args == null)
+        {
+            return array;
+        }
+
+        String username = valueOf(auth.getUsername());
+        String accessToken = valueOf(auth.getAccessToken());
+        String uuid = valueOf(auth.getUuid());
+
+        for (String arg : args)
+        {
+            // Only whole arguments for the username, it can be as short as a version number
+            if (!username.isEmpty() && arg.equals(username))
+            {
+                arg = USERNAME;
+            }
+
+            if (!accessToken.isEmpty())
+            {
+                arg = arg.replace(accessToken, ACCESS_TOKEN);
+            }
+
+            if (!uuid.isEmpty())
+            {
+                arg = arg.replace(uuid, UUID);
+            }
+
+            array.put(arg);
+        }
+
+        return array;
+    }
+
+    protected List<String> fromJSON(JSONArray array, AuthInfos auth)
+    {
+        List<String> args = new ArrayList<String>(array.length());
+
+        for (int i = 0; i < array.length(); i++)
+        {
+            args.add(array.getString(i));
+        }
+
+        return fill(args, auth);
+    }
+
+    /**
+     * Replace the authentication placeholders of some arguments
+     *
+     * @param args Arguments with placeholders
+     * @param auth The authentication infos
+     *
+     * @return The arguments with the authentication infos
+     */
+    public static List<String> fill(List<String> args, AuthInfos auth)
+    {
+        List<String> result = new ArrayList<String>(args.size());
+
+        for (String arg : args)
+        {
+            if (arg.equals(USERNAME))
+            {
+                arg = valueOf(auth.getUsername());
+            }
+
+            result.add(arg.replace(ACCESS_TOKEN, valueOf(auth.getAccessToken())).replace(UUID, valueOf(auth.getUuid())));
+        }
+
+        return result;
+    }
+
+    private static String valueOf(String value)
+    {
+        return value != null ? value : "";
+    }
+
+    /**
+     * @return The cache file
+     */
+    public File getFile()
+    {
+        return file;
+    }
+}
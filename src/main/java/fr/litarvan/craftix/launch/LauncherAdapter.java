@@ -0,0 +1,50 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.launch;
+
+import fr.litarvan.craftix.CraftixServer;
+import fr.litarvan.craftix.auth.AuthResult;
+
+/**
+ * The Launcher Adapter
+ *
+ *
+ * A {@link CraftixLauncher} with the default behaviour : the games
+ * aren't followed by the server, so {@link #start(CraftixServer, LaunchConfig, AuthResult)}
+ * waits for the game exit, and the launches can't be prepared.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public abstract class LauncherAdapter<E extends Exception> implements CraftixLauncher<E>
+{
+    @Override
+    public GameInstance start(CraftixServer server, LaunchConfig config, AuthResult auth) throws E
+    {
+        launch(server, config, auth);
+        return null;
+    }
+
+    @Override
+    public boolean prepare(LaunchConfig config) throws E
+    {
+        throw new UnsupportedOperationException("The current launcher doesn't support standby JVMs");
+    }
+}
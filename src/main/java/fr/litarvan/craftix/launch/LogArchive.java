@@ -0,0 +1,237 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.launch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A Log Archive
+ *
+ *
+ * Writes the output of a game to gzip files, in a directory per
+ * profile (~/.craftix/logs/(name), or the 'craftix.logs' system
+ * property). A new file is started every {@link #MAX_FILE_SIZE}
+ * bytes of output, and only the {@link #MAX_FILES} last files of
+ * a profile are kept.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class LogArchive implements Closeable
+{
+    /**
+     * Output written in a file before starting the next one (in bytes, uncompressed)
+     */
+    public static final long MAX_FILE_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Number of files kept per profile
+     */
+    public static final int MAX_FILES = 20;
+
+    /**
+     * The directory of the profile archives
+     */
+    private final File directory;
+
+    /**
+     * The start of the file names
+     */
+    private final String prefix;
+
+    /**
+     * The current file stream (null until the next output)
+     */
+    private OutputStream out;
+
+    /**
+     * Output written to the current file (in bytes, uncompressed)
+     */
+    private long size;
+
+    /**
+     * Number of the next file
+     */
+    private int part = 1;
+
+    /**
+     * Log archive
+     *
+     * @param directory The directory of the profile archives
+     * @param prefix The start of the file names
+     */
+    public LogArchive(File directory, String prefix)
+    {
+        this.directory = directory;
+        this.prefix = prefix;
+    }
+
+    /**
+     * Log archive of a game instance
+     *
+     * @param name The profile name
+     * @param instance The instance handle
+     * @param startTime When the game was started (in milliseconds)
+     *
+     * @return The archive of the game instance output
+     */
+    public static LogArchive of(String name, String instance, long startTime)
+    {
+        String date = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date(startTime));
+        return new LogArchive(new File(getDefaultRoot(), name), date + "-" + instance);
+    }
+
+    /**
+     * @param bytes The output to write
+     */
+    public void write(byte[] bytes) throws IOException
+    {
+        write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @param bytes The buffer containing the output
+     * @param offset The output offset in the buffer
+     * @param length The output length
+     */
+    public void write(byte[] bytes, int offset, int length) throws IOException
+    {
+        if (out == null)
+        {
+            open();
+        }
+
+        int count = length;
+
+        if (size + length >= MAX_FILE_SIZE)
+        {
+            // Ends the file on a complete line when possible
+            while (count > 0 && bytes[offset + count - 1] != '\n')
+            {
+                count--;
+            }
+
+            if (count == 0)
+            {
+                count = length;
+            }
+        }
+
+        out.write(bytes, offset, count);
+        size += count;
+
+        if (size >= MAX_FILE_SIZE || count < length)
+        {
+            close();
+        }
+
+        if (count < length)
+        {
+            write(bytes, offset + count, length - count);
+        }
+    }
+
+    protected void open() throws IOException
+    {
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Couldn't create the log directory " + directory.getAbsolutePath());
+        }
+
+        File file = new File(directory, prefix + "-" + part++ + ".log.gz");
+
+        out = new GZIPOutputStream(new FileOutputStream(file), 64 * 1024);
+        size = 0;
+
+        prune();
+    }
+
+    /**
+     * Delete the oldest files of the profile, to keep only {@link #MAX_FILES}
+     */
+    protected void prune()
+    {
+        File[] files = directory.listFiles(new FileFilter()
+        {
+            @Override
+            public boolean accept(File file)
+            {
+                return file.isFile() && file.getName().endsWith(".log.gz");
+            }
+        });
+
+        if (files == null || files.length <= MAX_FILES)
+        {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>()
+        {
+            @Override
+            public int compare(File a, File b)
+            {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+
+        for (int i = 0; i < files.length - MAX_FILES; i++)
+        {
+            files[i].delete();
+        }
+    }
+
+    /**
+     * Finish the current file, the next output starts a new one
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (out != null)
+        {
+            try
+            {
+                out.close();
+            }
+            finally
+            {
+                out = null;
+            }
+        }
+    }
+
+    /**
+     * @return The default archive directory (~/.craftix/logs, or the 'craftix.logs' system property)
+     */
+    public static File getDefaultRoot()
+    {
+        String path = System.getProperty("craftix.logs");
+        return path != null ? new File(path) : new File(System.getProperty("user.home"), ".craftix" + File.separator + "logs");
+    }
+}
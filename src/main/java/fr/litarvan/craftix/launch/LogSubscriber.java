@@ -0,0 +1,320 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.launch;
+
+import fr.litarvan.craftix.CraftixConnection;
+import fr.litarvan.craftix.net.LineDecoder;
+import java.io.ByteArrayOutputStream;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * A Log Subscriber
+ *
+ *
+ * A launcher receiving the output of a game, as "log" events of
+ * its subscribe request :
+ *
+ * <code>
+ *     {
+ *         "instance": "(instance handle)",
+ *         "lines": ["(output lines)"],
+ *         "dropped": (bytes lost since the last event),
+ *         "sampled": (lines skipped since the last event),
+ *         "end": (true for the last event, once the game exited)
+ *     }
+ * </code>
+ *
+ * The output is sent by batches, and only while the launcher reads
+ * its messages fast enough. Otherwise its output is left in the
+ * {@link GameLog} buffer, where the oldest one is overwritten (and
+ * counted as dropped). With the {@link Policy#SAMPLE} policy, only a
+ * part of the lines is sent when too far behind, so the launcher
+ * still receives the recent output.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class LogSubscriber
+{
+    /**
+     * What to do when the launcher can't follow the game output
+     */
+    public enum Policy
+    {
+        /**
+         * Send everything, losing what is overwritten in the buffer
+         */
+        DROP,
+
+        /**
+         * Skip a part of the lines, more as the backlog grows
+         */
+        SAMPLE
+    }
+
+    /**
+     * Maximum output sent in one event (in bytes)
+     */
+    public static final int BATCH_SIZE = 256 * 1024;
+
+    /**
+     * Size of the messages waiting to be sent to the launcher above
+     * which no output is sent to it (in bytes)
+     */
+    public static final long MAX_PENDING = 1024 * 1024;
+
+    /**
+     * Maximum length of a line, longer ones are split
+     */
+    public static final int MAX_LINE_LENGTH = 16 * 1024;
+
+    /**
+     * The launcher receiving the output
+     */
+    private final CraftixConnection connection;
+
+    /**
+     * The id of the subscribe request (can be null)
+     */
+    private final String requestId;
+
+    /**
+     * The game instance handle
+     */
+    private final String instance;
+
+    /**
+     * What to do when the launcher can't follow
+     */
+    private final Policy policy;
+
+    /**
+     * Buffer used to read the output
+     */
+    private final byte[] buffer = new byte[BATCH_SIZE];
+
+    /**
+     * The start of a line not complete yet
+     */
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+    /**
+     * Position of the next byte to send
+     */
+    private long position;
+
+    private long dropped;
+    private long sampled;
+    private volatile boolean cancelled;
+
+    /**
+     * Log subscriber
+     *
+     * @param connection The launcher receiving the output
+     * @param requestId The id of the subscribe request (can be null)
+     * @param instance The game instance handle
+     * @param policy What to do when the launcher can't follow
+     * @param position Position of the first byte to send (0 for the whole kept output)
+     */
+    public LogSubscriber(CraftixConnection connection, String requestId, String instance, Policy policy, long position)
+    {
+        this.connection = connection;
+        this.requestId = requestId;
+        this.instance = instance;
+        this.policy = policy;
+        this.position = position;
+    }
+
+    /**
+     * Send the new output of a game (flush task only)
+     *
+     * @param log The game log
+     *
+     * @return If the subscriber should still be flushed, false once
+     *         cancelled, disconnected, or after the end of the output
+     */
+    public synchronized boolean flush(GameLog log)
+    {
+        if (cancelled || !connection.isOpen())
+        {
+            return false;
+        }
+
+        boolean closed = log.isClosed();
+
+        if (connection.getPendingBytes() > MAX_PENDING)
+        {
+            // The launcher is too slow, the buffer will drop the output for it
+            skip(log);
+            return true;
+        }
+
+        long backlog;
+        int read;
+
+        // The game keeps writing while flushing, so skip and read without letting it overwrite in between
+        synchronized (log)
+        {
+            skip(log);
+
+            backlog = log.getWritten() - position;
+            read = log.read(position, buffer, 0, buffer.length);
+        }
+
+        int step = 1;
+
+        if (policy == Policy.SAMPLE && backlog > log.getCapacity() / 2)
+        {
+            step = (int) (backlog / (log.getCapacity() / 4));
+        }
+
+        position += read;
+
+        JSONArray lines = new JSONArray();
+        int count = 0;
+        int start = 0;
+
+        for (int i = 0; i < read; i++)
+        {
+            if (buffer[i] != '\n' && i - start + line.size() < MAX_LINE_LENGTH)
+            {
+                continue;
+            }
+
+            int end = buffer[i] == '\n' ? i : i + 1;
+
+            if (count++ % step == 0)
+            {
+                lines.put(decode(start, end));
+            }
+            else
+            {
+                sampled++;
+            }
+
+            line.reset();
+            start = end == i ? i + 1 : end;
+        }
+
+        line.write(buffer, start, read - start);
+
+        boolean end = closed && position == log.getWritten();
+
+        if (end && line.size() > 0)
+        {
+            lines.put(decode(0, 0));
+            line.reset();
+        }
+
+        if (lines.length() > 0 || dropped > 0 || end)
+        {
+            JSONObject data = new JSONObject();
+            data.put("instance", instance);
+            data.put("lines", lines);
+            data.put("dropped", dropped);
+            data.put("sampled", sampled);
+            data.put("end", end);
+
+            connection.emit(requestId, "log", data);
+
+            dropped = 0;
+            sampled = 0;
+        }
+
+        return !end;
+    }
+
+    /**
+     * Skip the output overwritten since the last flush, counting it as dropped
+     */
+    private void skip(GameLog log)
+    {
+        long oldest = log.getOldest();
+
+        if (position < oldest)
+        {
+            dropped += oldest - position;
+            position = oldest;
+            line.reset();
+        }
+    }
+
+    /**
+     * @return A line from its start (if incomplete at the last flush) and the buffer
+     */
+    private String decode(int start, int end)
+    {
+        int length = end - start;
+
+        if (length > 0 && buffer[end - 1] == '\r')
+        {
+            length--;
+        }
+
+        if (line.size() == 0)
+        {
+            return new String(buffer, start, length, LineDecoder.UTF_8);
+        }
+
+        line.write(buffer, start, length);
+        byte[] bytes = line.toByteArray();
+        int size = bytes.length;
+
+        if (size > 0 && bytes[size - 1] == '\r')
+        {
+            size--;
+        }
+
+        return new String(bytes, 0, size, LineDecoder.UTF_8);
+    }
+
+    /**
+     * Stop sending the output
+     */
+    public void cancel()
+    {
+        this.cancelled = true;
+    }
+
+    /**
+     * @return The launcher receiving the output
+     */
+    public CraftixConnection getConnection()
+    {
+        return connection;
+    }
+
+    /**
+     * @return The game instance handle
+     */
+    public String getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * @return What to do when the launcher can't follow
+     */
+    public Policy getPolicy()
+    {
+        return policy;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.launch;
+
+import fr.litarvan.craftix.CraftixConnection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * The Metrics Sampler
+ *
+ *
+ * Periodically samples the resource usage of the running games
+ * (see {@link GameMetrics}), every second by default or every
+ * 'craftix.metrics.interval' milliseconds (at least 100). The
+ * subscribed launchers receive the samples as "stats" events :
+ *
+ * <code>
+ *     {
+ *         "instances": [(game metrics, with its "instance" handle and "name")]
+ *     }
+ * </code>
+ *
+ * The "cpu" usage, the I/O rates and the "gc" "pause" time are the
+ * ones since the previous sample, the other values are totals.
+ * A subscription to one game ends with it. The samples are not
+ * sent to a launcher while too many of its messages are waiting.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class MetricsSampler implements Runnable
+{
+    /**
+     * Default delay between two samples (in milliseconds)
+     */
+    public static final long DEFAULT_INTERVAL = 1000;
+
+    /**
+     * Minimum delay between two samples (in milliseconds)
+     */
+    public static final long MIN_INTERVAL = 100;
+
+    /**
+     * Size of the messages waiting to be sent to a launcher above
+     * which no samples are sent to it (in bytes)
+     */
+    public static final long MAX_PENDING = 64 * 1024;
+
+    /**
+     * The supervisor following the games
+     */
+    private final ProcessSupervisor supervisor;
+
+    /**
+     * Delay between two samples (in milliseconds)
+     */
+    private final long interval;
+
+    /**
+     * The launchers receiving the samples
+     */
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+
+    /**
+     * Metrics sampler
+     *
+     * @param supervisor The supervisor following the games
+     * @param interval Delay between two samples (in milliseconds, at least {@link #MIN_INTERVAL})
+     */
+    public MetricsSampler(ProcessSupervisor supervisor, long interval)
+    {
+        this.supervisor = supervisor;
+        this.interval = Math.max(MIN_INTERVAL, interval);
+    }
+
+    /**
+     * Metrics sampler, with the interval from the 'craftix.metrics.interval'
+     * system property (or {@link #DEFAULT_INTERVAL})
+     *
+     * @param supervisor The supervisor following the games
+     */
+    public MetricsSampler(ProcessSupervisor supervisor)
+    {
+        this(supervisor, Long.getLong("craftix.metrics.interval", DEFAULT_INTERVAL));
+    }
+
+    @Override
+    public void run()
+    {
+        long now = System.currentTimeMillis();
+
+        for (GameInstance instance : supervisor.list())
+        {
+            if (instance.isRunning())
+            {
+                instance.getMetrics().sample(now);
+            }
+            else
+            {
+                instance.getMetrics().close();
+            }
+        }
+
+        for (Subscription subscription : subscriptions)
+        {
+            if (!subscription.connection.isOpen())
+            {
+                subscriptions.remove(subscription);
+            }
+            else if (now - subscription.lastSent >= subscription.interval)
+            {
+                JSONObject stats = getStats(subscription.instance);
+                subscription.lastSent = now;
+
+                // A launcher not reading its events misses samples instead of queuing them
+                if (stats.getJSONArray("instances").length() > 0 && subscription.connection.getPendingBytes() <= MAX_PENDING)
+                {
+                    subscription.connection.emit(subscription.requestId, "stats", stats);
+                }
+
+                GameInstance instance = subscription.instance != null ? supervisor.get(subscription.instance) : null;
+
+                if (subscription.instance != null && (instance == null || !instance.isRunning()))
+                {
+                    subscriptions.remove(subscription);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param id The instance handle (null for every running game)
+     *
+     * @return The last samples of the game(s)
+     */
+    public JSONObject getStats(String id)
+    {
+        JSONArray instances = new JSONArray();
+
+        for (GameInstance instance : supervisor.list())
+        {
+            if (id == null ? instance.isRunning() : id.equals(instance.getId()))
+            {
+                JSONObject stats = instance.getMetrics().toJSON();
+                stats.put("instance", instance.getId());
+                stats.put("name", instance.getName());
+
+                instances.put(stats);
+            }
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("instances", instances);
+
+        return result;
+    }
+
+    /**
+     * Send the samples to a launcher
+     *
+     * @param connection The launcher
+     * @param requestId The id of the subscribe request (can be null)
+     * @param instance The instance handle (null for every running game)
+     * @param interval Minimum delay between two events (in milliseconds)
+     */
+    public void subscribe(CraftixConnection connection, String requestId, String instance, long interval)
+    {
+        subscriptions.add(new Subscription(connection, requestId, instance, interval));
+    }
+
+    /**
+     * Stop sending the samples to a launcher
+     *
+     * @param connection The launcher
+     *
+     * @return If it was subscribed
+     */
+    public boolean unsubscribe(CraftixConnection connection)
+    {
+        boolean removed = false;
+
+        for (Subscription subscription : subscriptions)
+        {
+            if (subscription.connection == connection)
+            {
+                removed |= subscriptions.remove(subscription);
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * @return Delay between two samples (in milliseconds)
+     */
+    public long getInterval()
+    {
+        return interval;
+    }
+
+    private static class Subscription
+    {
+        private final CraftixConnection connection;
+        private final String requestId;
+        private final String instance;
+        private final long interval;
+        private long lastSent;
+
+        private Subscription(CraftixConnection connection, String requestId, String instance, long interval)
+        {
+            this.connection = connection;
+            this.requestId = requestId;
+            this.instance = instance;
+            this.interval = interval;
+        }
+    }
+}
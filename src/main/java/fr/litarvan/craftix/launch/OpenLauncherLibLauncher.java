@@ -18,6 +18,7 @@
  */
 package fr.litarvan.craftix.launch;
 
+import fr.litarvan.craftix.CraftixRequest;
 import fr.litarvan.craftix.CraftixServer;
 import fr.litarvan.craftix.auth.AuthResult;
 import fr.theshark34.openlauncherlib.LaunchException;
@@ -25,19 +26,42 @@ import fr.theshark34.openlauncherlib.external.*;
 import fr.theshark34.openlauncherlib.internal.*;
 import fr.theshark34.openlauncherlib.minecraft.*;
 import fr.theshark34.openlauncherlib.minecraft.util.GameDirGenerator;
-import fr.theshark34.openlauncherlib.util.ProcessLogManager;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import net.wytrem.logging.Logger;
 import net.wytrem.logging.LoggerFactory;
+import org.json.JSONObject;
 
 /**
  * OpenLauncherLib Craftix Launcher
  *
  *
- * Launches Minecraft using the OpenLauncherLib.
+ * Launches Minecraft using the OpenLauncherLib. The game state
+ * ("starting", then "running") is sent to the launcher as "game"
+ * events of the launch request.
+ *
+ * The externally launched games are followed by the server
+ * {@link ProcessSupervisor} : {@link #start(CraftixServer, LaunchConfig, AuthResult)}
+ * returns as soon as the game is running, and its exit is sent
+ * later as a last "game" event (see {@link GameInstance}), so
+ * several games can run at once.
+ *
+ * The resolved external launch profiles are cached (see
+ * {@link LaunchProfileCache}), so relaunching an unchanged game
+ * directly starts the Java process, using the class data sharing
+ * archive of the game when the Java version supports it (see
+ * {@link ClassDataSharing}). A profile can also be prepared in a
+ * standby JVM, started from it when launched (see {@link StandbyPool}).
+ *
+ * Unless the launcher disables it, the game JVM is tuned for the
+ * system (see {@link VmTuner}), so the game is always launched
+ * externally then.
  *
  * @author Litarvan
  * @version 1.0.0
@@ -47,16 +71,283 @@ public class OpenLauncherLibLauncher implements CraftixLauncher<LaunchException>
 {
     private static final Logger logger = LoggerFactory.getLogger(OpenLauncherLibLauncher.class);
 
+    /**
+     * The standby JVMs of the profiles prepared with {@link #prepare(LaunchConfig)}
+     */
+    private StandbyPool standbys = new StandbyPool();
+
+    /**
+     * The names of the profiles prepared with {@link #prepare(LaunchConfig)}
+     */
+    private Set<String> prepared = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Tunes the JVM of the games launched with {@link LaunchConfig#isTuned()}
+     */
+    private VmTuner tuner = new VmTuner();
+
     @Override
     public void launch(CraftixServer server, LaunchConfig config, AuthResult auth) throws LaunchException
+    {
+        GameInstance instance = start(server, config, auth);
+
+        if (instance == null)
+        {
+            return;
+        }
+
+        try
+        {
+            instance.waitFor();
+        }
+        catch (InterruptedException e)
+        {
+            logger.info("Launch cancelled, stopping Minecraft : " + config.getName());
+
+            server.getSupervisor().kill(instance.getId(), false);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Launch Minecraft without waiting for it to exit
+     *
+     * @param server The current Craftix server
+     * @param config Launch config sent by the client
+     * @param auth Authentication result from the {@link fr.litarvan.craftix.auth.AuthManager}
+     *
+     * @return The instance of the started game, or null if it was launched internally
+     *         (then only returning once the game exited)
+     */
+    @Override
+    public GameInstance start(CraftixServer server, final LaunchConfig config, AuthResult auth) throws LaunchException
     {
         logger.info("Launching Minecraft using OpenLauncherLib");
 
         AuthInfos authInfos = new AuthInfos(auth.getUsername(), auth.getAccessToken(), auth.getUuid());
+
+        if (!isExternal(config))
+        {
+            GameInfos infos = getGameInfos(config);
+
+            emitState("starting", null);
+
+            logger.info("Using internal launching");
+            internalLaunch(infos, authInfos);
+
+            return null;
+        }
+
+        logger.info("Using external launching");
+
+        File gameDir = getGameDir(config.getName());
+        String key = getProfileKey(config, gameDir);
+        ExternalLaunchProfile profile = resolveProfile(config, gameDir, key, authInfos);
+        List<String> vmArgs = getVmArgs(profile, config);
+        StandbyPool.Standby standby = key != null ? standbys.release(config.getName(), key, vmArgs) : null;
+        Process process = null;
+
+        emitState("starting", null);
+
+        if (standby != null)
+        {
+            try
+            {
+                process = standby.start(profile.getArgs());
+                logger.info("Launched Minecraft from its standby JVM (pid " + standby.getPid() + ") : " + config.getName());
+            }
+            catch (IOException e)
+            {
+                logger.error("Couldn't start the standby JVM, launching a new one", e);
+            }
+        }
+
+        GameInstance instance;
+
+        if (process != null)
+        {
+            instance = supervise(server, config.getName(), auth.getUsername(), process, null);
+        }
+        else
+        {
+            instance = externalLaunch(server, config.getName(), auth.getUsername(), profile, vmArgs, key != null ? ClassDataSharing.of(gameDir, key, profile.getClassPath()) : null);
+        }
+
+        if (prepared.contains(config.getName()))
+        {
+            server.getSupervisor().addExitListener(instance, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        prepare(config);
+                    }
+                    catch (Exception e)
+                    {
+                        logger.error("Couldn't prepare the next launch of '" + config.getName() + "'", e);
+                    }
+                }
+            });
+        }
+
+        return instance;
+    }
+
+    /**
+     * Start a standby JVM for a profile, so its next launch (with the
+     * same config) only has to start the game. The profile gets a new
+     * standby JVM after each launch.
+     *
+     * @param config The launch config (must have VM params)
+     *
+     * @return If the standby JVM is running (false when the memory doesn't allow it)
+     *
+     * @see StandbyPool
+     */
+    @Override
+    public boolean prepare(LaunchConfig config) throws LaunchException, IOException
+    {
+        if (!isExternal(config))
+        {
+            throw new LaunchException("Only the external launches (with VM params or tuning) can be prepared");
+        }
+
+        File gameDir = getGameDir(config.getName());
+        String key = LaunchProfileCache.key(config, gameDir);
+        ExternalLaunchProfile profile = resolveProfile(config, gameDir, key, LaunchProfileCache.PLACEHOLDERS);
+
+        prepared.add(config.getName());
+
+        return standbys.prepare(config.getName(), key, profile, getVmArgs(profile, config));
+    }
+
+    /**
+     * @param config The launch config
+     * @param gameDir The game directory
+     *
+     * @return The key of the launch profile, or null if it couldn't be computed
+     */
+    protected String getProfileKey(LaunchConfig config, File gameDir)
+    {
+        try
+        {
+            return LaunchProfileCache.key(config, gameDir);
+        }
+        catch (IOException e)
+        {
+            logger.error("Couldn't compute the launch profile key, not using the cache", e);
+            return null;
+        }
+    }
+
+    /**
+     * Resolve the external profile of a launch, from the cache when possible
+     *
+     * @param config The launch config
+     * @param gameDir The game directory
+     * @param key The launch profile key (null to not use the cache)
+     * @param auth The authentication infos
+     *
+     * @return The resolved profile
+     */
+    protected ExternalLaunchProfile resolveProfile(LaunchConfig config, File gameDir, String key, AuthInfos auth) throws LaunchException
+    {
+        LaunchProfileCache cache = LaunchProfileCache.of(gameDir);
+        ExternalLaunchProfile profile = key != null ? cache.get(key, auth) : null;
+
+        if (profile != null)
+        {
+            logger.info("Using cached launch profile " + cache.getFile().getAbsolutePath());
+            return profile;
+        }
+
+        profile = MinecraftLauncher.createExternalProfile(getGameInfos(config), getGameFolder(), auth);
+
+        if (key != null)
+        {
+            try
+            {
+                cache.put(key, profile, auth);
+            }
+            catch (IOException e)
+            {
+                logger.error("Couldn't cache the launch profile", e);
+            }
+        }
+
+        return profile;
+    }
+
+    /**
+     * @param config The launch config
+     *
+     * @return If the game is launched in a new JVM, which is needed to
+     *         give it VM params or to tune it
+     */
+    protected boolean isExternal(LaunchConfig config)
+    {
+        return config.isTuned() || (config.getVmParams() != null && config.getVmParams().length > 0);
+    }
+
+    /**
+     * @param profile The resolved profile
+     * @param config The launch config
+     *
+     * @return All the VM arguments of the game
+     */
+    protected List<String> getVmArgs(ExternalLaunchProfile profile, LaunchConfig config)
+    {
+        List<String> args = new ArrayList<String>();
+        String[] vmParams = config.getVmParams() != null ? config.getVmParams() : new String[0];
+
+        if (profile.getVmArgs() != null)
+        {
+            args.addAll(profile.getVmArgs());
+        }
+
+        if (config.isTuned())
+        {
+            args.addAll(tuner.tune(config.getVersion(), config.getTweaks(), vmParams));
+        }
+        else
+        {
+            args.addAll(Arrays.asList(vmParams));
+        }
+
+        return args;
+    }
+
+    /**
+     * Resolve the game infos of a launch config
+     *
+     * @param config The launch config
+     *
+     * @return The game infos
+     */
+    protected GameInfos getGameInfos(LaunchConfig config)
+    {
         GameType type = getGameType(config);
 
         logger.info("GameType detected : " + type.getName());
 
+        GameTweak[] tweaks = getTweaks(config);
+        GameInfos infos = new GameInfos(config.getName(), getGameDir(config.getName()), new GameVersion(config.getVersion(), type), tweaks);
+        logger.info("From directory : " + infos.getGameDir().getAbsolutePath());
+
+        return infos;
+    }
+
+    /**
+     * Resolve the tweaks of a launch config
+     *
+     * @param config The launch config
+     *
+     * @return The game tweaks
+     */
+    public GameTweak[] getTweaks(LaunchConfig config)
+    {
         ArrayList<GameTweak> tweaks = new ArrayList<GameTweak>();
 
         for (String str : config.getTweaks())
@@ -79,19 +370,7 @@ public class OpenLauncherLibLauncher implements CraftixLauncher<LaunchException>
             logger.info("Adding tweak : " + tweaks.get(tweaks.size() - 1).getName());
         }
 
-        GameInfos infos = new GameInfos(config.getName(), getGameDir(config.getName()), new GameVersion(config.getVersion(), type), tweaks.toArray(new GameTweak[tweaks.size()]));
-        logger.info("From directory : " + infos.getGameDir().getAbsolutePath());
-
-        if (config.getVmParams() == null || config.getVmParams().length == 0)
-        {
-            logger.info("Using internal launching");
-            internalLaunch(infos, authInfos);
-        }
-        else
-        {
-            logger.info("Using external launching");
-            externalLaunch(infos, config.getVmParams(), authInfos);
-        }
+        return tweaks.toArray(new GameTweak[tweaks.size()]);
     }
 
     protected void internalLaunch(GameInfos infos, AuthInfos authInfos) throws LaunchException
@@ -100,38 +379,85 @@ public class OpenLauncherLibLauncher implements CraftixLauncher<LaunchException>
         InternalLauncher launcher = new InternalLauncher(profile);
 
         logger.info("Launching Minecraft : " + infos.getServerName());
+        emitState("running", null);
+
         launcher.launch();
     }
 
-    protected void externalLaunch(GameInfos infos, String[] vmParams, AuthInfos authInfos) throws LaunchException
+    protected GameInstance externalLaunch(CraftixServer server, String name, String username, ExternalLaunchProfile profile, List<String> vmArgs, ClassDataSharing cds) throws LaunchException
     {
-        ExternalLaunchProfile profile = MinecraftLauncher.createExternalProfile(infos, getGameFolder(), authInfos);
+        List<String> params = new ArrayList<String>(vmArgs);
 
-        List<String> params = Arrays.asList(vmParams);
-
-        if (profile.getVmArgs() != null)
+        if (cds != null)
         {
-            profile.getVmArgs().addAll(params);
-        }
-        else
-        {
-            profile.setVmArgs(params);
+            try
+            {
+                params.addAll(cds.getVmArgs(params));
+            }
+            catch (IOException e)
+            {
+                logger.error("Couldn't prepare the class data sharing archive, launching without it", e);
+                cds = null;
+            }
         }
 
+        profile.setVmArgs(params);
+
         ExternalLauncher launcher = new ExternalLauncher(profile);
         Process p = launcher.launch();
-        ProcessLogManager manager = new ProcessLogManager(p.getInputStream());
 
-        logger.info("Launched Minecraft : " + infos.getServerName());
-        manager.start();
+        logger.info("Launched Minecraft : " + name);
 
-        try
+        return supervise(server, name, username, p, cds);
+    }
+
+    /**
+     * Give a started game to the server supervisor
+     *
+     * @param server The current Craftix server
+     * @param name The profile name
+     * @param username The player name
+     * @param p The game process
+     * @param cds The class data sharing of the launch (can be null)
+     *
+     * @return The game instance
+     */
+    protected GameInstance supervise(CraftixServer server, String name, String username, Process p, ClassDataSharing cds)
+    {
+        CraftixRequest request = CraftixRequest.current();
+        GameInstance instance = server.getSupervisor().register(name, username, p, cds,
+                                                                request != null ? request.getConnection() : null,
+                                                                request != null ? request.getId() : null);
+
+        emitState("running", instance);
+
+        return instance;
+    }
+
+    /**
+     * Send a "game" event to the launcher, if the game is launched by a request
+     *
+     * @param state The game state
+     * @param instance The game instance (null if not followed)
+     */
+    protected void emitState(String state, GameInstance instance)
+    {
+        CraftixRequest request = CraftixRequest.current();
+
+        if (request == null)
         {
-            p.waitFor();
+            return;
         }
-        catch (InterruptedException ignored)
+
+        JSONObject data = new JSONObject();
+        data.put("state", state);
+
+        if (instance != null)
         {
+            data.put("instance", instance.getId());
         }
+
+        request.emit("game", data);
     }
 
     public GameType getGameType(LaunchConfig config)
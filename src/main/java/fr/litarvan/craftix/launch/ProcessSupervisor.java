@@ -0,0 +1,524 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.launch;
+
+import fr.litarvan.craftix.CraftixConnection;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.wytrem.logging.Logger;
+import net.wytrem.logging.LoggerFactory;
+
+/**
+ * The Process Supervisor
+ *
+ *
+ * Follows every running game of the server, so one Craftix server
+ * can run several games at once (for example one per account).
+ *
+ * The output of each game is read continuously by a small reader
+ * thread, so a game writing a lot (like Forge loading its mods)
+ * never fills its pipe and blocks. It is only copied to the
+ * {@link GameLog} of the game, so reading it never waits for a
+ * launcher or the disk. A single periodic task (on the server
+ * scheduler) reaps the games that exited, and requests the flushes
+ * that send and archive the output. The flushes and the exit
+ * listeners run on the given executor.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class ProcessSupervisor
+{
+    private static final Logger logger = LoggerFactory.getLogger(ProcessSupervisor.class);
+
+    /**
+     * Delay between two checks of the games (in milliseconds)
+     */
+    public static final long POLL_INTERVAL = 50;
+
+    /**
+     * Time given to a game output reader to reach the end of the output
+     * after the game exited (in milliseconds), a child process could keep
+     * the pipe open
+     */
+    public static final long DRAIN_TIMEOUT = 2000;
+
+    /**
+     * Stack size of the output reader threads, they only copy bytes
+     */
+    private static final long READER_STACK_SIZE = 64 * 1024;
+
+    /**
+     * Delay between two flushes of the games output (in milliseconds)
+     */
+    public static final long FLUSH_INTERVAL = 100;
+
+    /**
+     * Number of exited instances kept for the status requests
+     */
+    public static final int MAX_EXITED = 32;
+
+    private static final AtomicInteger counter = new AtomicInteger(1);
+
+    /**
+     * The executor running the supervision task
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * The executor calling the exit listeners
+     */
+    private final Executor executor;
+
+    /**
+     * The followed instances by handle, in launch order
+     */
+    private final Map<String, GameInstance> instances = new LinkedHashMap<String, GameInstance>();
+
+    /**
+     * The exit listeners of the running instances
+     */
+    private final Map<GameInstance, List<Runnable>> listeners = new LinkedHashMap<GameInstance, List<Runnable>>();
+
+    /**
+     * The output reader thread of the running instances
+     */
+    private final Map<GameInstance, Thread> readers = new LinkedHashMap<GameInstance, Thread>();
+
+    /**
+     * When the running instances were seen exited (supervision task only)
+     */
+    private final Map<GameInstance, Long> exits = new LinkedHashMap<GameInstance, Long>();
+
+    /**
+     * The supervision task, only scheduled while a game is running
+     * or its output is not completely flushed
+     */
+    private ScheduledFuture<?> task;
+
+    /**
+     * If the flush task is running
+     */
+    private final AtomicBoolean flushing = new AtomicBoolean();
+
+    /**
+     * If the flush task should run again
+     */
+    private volatile boolean flushRequested;
+
+    /**
+     * When the last flush was requested (supervision task only)
+     */
+    private long lastFlush;
+
+    private final Runnable flush = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            do
+            {
+                flushRequested = false;
+
+                for (GameInstance instance : list())
+                {
+                    GameLog log = instance.getLog();
+
+                    if (!log.isFinished())
+                    {
+                        log.flush();
+                    }
+                }
+
+                flushing.set(false);
+            }
+            while (flushRequested && flushing.compareAndSet(false, true));
+        }
+    };
+
+    /**
+     * Process supervisor
+     *
+     * @param scheduler The executor running the supervision task
+     * @param executor The executor calling the exit listeners
+     */
+    public ProcessSupervisor(ScheduledExecutorService scheduler, Executor executor)
+    {
+        this.scheduler = scheduler;
+        this.executor = executor;
+    }
+
+    /**
+     * Follow a started game
+     *
+     * @param name The profile (server) name
+     * @param username The player name
+     * @param process The game process
+     * @param cds The class data sharing of the launch (can be null)
+     * @param connection The connection that launched the game, receiving its exit event (can be null)
+     * @param requestId The id of the launch request (can be null)
+     *
+     * @return The game instance
+     */
+    public synchronized GameInstance register(String name, String username, Process process, ClassDataSharing cds, CraftixConnection connection, String requestId)
+    {
+        GameInstance instance = new GameInstance(String.valueOf(counter.getAndIncrement()), name, username, process, cds, connection, requestId);
+
+        instances.put(instance.getId(), instance);
+        listeners.put(instance, new ArrayList<Runnable>());
+        readers.put(instance, startReader(instance));
+
+        logger.info("Following Minecraft '" + name + "' as instance " + instance.getId() + " (pid " + instance.getPid() + ")");
+        schedule();
+
+        return instance;
+    }
+
+    /**
+     * Send the output of a game to a launcher
+     *
+     * @param instance The game instance
+     * @param subscriber The launcher subscription
+     */
+    public synchronized void subscribe(GameInstance instance, LogSubscriber subscriber)
+    {
+        instance.getLog().subscribe(subscriber);
+        schedule();
+    }
+
+    private void schedule()
+    {
+        if (task == null)
+        {
+            task = scheduler.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    poll();
+                }
+            }, 0, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Call a listener once a game exited (directly if it already did)
+     *
+     * @param instance The game instance
+     * @param listener The listener to call
+     */
+    public synchronized void addExitListener(GameInstance instance, Runnable listener)
+    {
+        List<Runnable> list = listeners.get(instance);
+
+        if (list != null)
+        {
+            list.add(listener);
+        }
+        else
+        {
+            executor.execute(listener);
+        }
+    }
+
+    /**
+     * Stop a game
+     *
+     * @param id The instance handle
+     * @param force If the game should be killed instead of asked to stop
+     *
+     * @return If a running game was stopped
+     */
+    public boolean kill(String id, boolean force)
+    {
+        GameInstance instance = get(id);
+
+        if (instance == null || !instance.isRunning() || getExitCode(instance.getProcess()) != null)
+        {
+            return false;
+        }
+
+        logger.info((force ? "Killing" : "Stopping") + " Minecraft instance " + id + " (pid " + instance.getPid() + ")");
+
+        instance.killed();
+        destroy(instance.getProcess(), force);
+
+        return true;
+    }
+
+    /**
+     * Ask every running game to stop
+     */
+    public void killAll()
+    {
+        for (GameInstance instance : list())
+        {
+            kill(instance.getId(), false);
+        }
+    }
+
+    /**
+     * @param id The instance handle
+     *
+     * @return The instance, or null if unknown
+     */
+    public synchronized GameInstance get(String id)
+    {
+        return instances.get(id);
+    }
+
+    /**
+     * @return The followed instances (running, and the last exited ones), in launch order
+     */
+    public synchronized GameInstance[] list()
+    {
+        return instances.values().toArray(new GameInstance[instances.size()]);
+    }
+
+    /**
+     * Start the thread reading the output of a game until its end
+     *
+     * @param instance The game instance
+     *
+     * @return The started thread
+     */
+    protected Thread startReader(final GameInstance instance)
+    {
+        Thread thread = new Thread(null, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                read(instance);
+            }
+        }, "Craftix Game Output #" + instance.getId(), READER_STACK_SIZE);
+
+        thread.setDaemon(true);
+        thread.start();
+
+        return thread;
+    }
+
+    /**
+     * Reap the games that exited, once their whole output was read
+     */
+    protected void poll()
+    {
+        GameInstance[] running;
+
+        synchronized (this)
+        {
+            running = listeners.keySet().toArray(new GameInstance[listeners.size()]);
+        }
+
+        long now = System.currentTimeMillis();
+
+        for (GameInstance instance : running)
+        {
+            Integer exitCode = getExitCode(instance.getProcess());
+
+            if (exitCode == null)
+            {
+                continue;
+            }
+
+            Thread reader;
+            Long exit = exits.get(instance);
+
+            synchronized (this)
+            {
+                reader = readers.get(instance);
+            }
+
+            if (exit == null)
+            {
+                exits.put(instance, exit = now);
+            }
+
+            if (reader.isAlive() && now - exit < DRAIN_TIMEOUT)
+            {
+                continue;
+            }
+
+            exits.remove(instance);
+            reap(instance, exitCode);
+        }
+
+        if (now - lastFlush >= FLUSH_INTERVAL)
+        {
+            lastFlush = now;
+            flushRequested = true;
+
+            if (flushing.compareAndSet(false, true))
+            {
+                executor.execute(flush);
+            }
+        }
+
+        synchronized (this)
+        {
+            if (listeners.isEmpty() && task != null && isFlushed())
+            {
+                task.cancel(false);
+                task = null;
+            }
+        }
+    }
+
+    private boolean isFlushed()
+    {
+        for (GameInstance instance : instances.values())
+        {
+            if (!instance.getLog().isFinished())
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Read the output of a game until its end (on its reader thread)
+     *
+     * @param instance The game instance
+     */
+    protected void read(GameInstance instance)
+    {
+        InputStream in = instance.getProcess().getInputStream();
+        byte[] buffer = new byte[8192];
+
+        try
+        {
+            int read;
+
+            while ((read = in.read(buffer)) != -1 && !instance.getLog().isClosed())
+            {
+                output(instance, buffer, 0, read);
+            }
+        }
+        catch (IOException e)
+        {
+            // The pipe is closed once the process is destroyed, or the game reaped
+        }
+    }
+
+    /**
+     * Handle an output of a game, added to its log by default
+     *
+     * @param instance The game instance
+     * @param buffer The buffer containing the output
+     * @param offset The output offset in the buffer
+     * @param length The output length
+     */
+    protected void output(GameInstance instance, byte[] buffer, int offset, int length)
+    {
+        instance.getLog().write(buffer, offset, length);
+    }
+
+    protected void reap(GameInstance instance, int exitCode)
+    {
+        List<Runnable> exitListeners;
+
+        synchronized (this)
+        {
+            exitListeners = listeners.remove(instance);
+            readers.remove(instance);
+            prune();
+        }
+
+        logger.info("Minecraft instance " + instance.getId() + " '" + instance.getName() + "' exited with code " + exitCode);
+
+        instance.getLog().close();
+        instance.exited(exitCode);
+
+        try
+        {
+            instance.getProcess().getInputStream().close();
+        }
+        catch (IOException ignored)
+        {
+        }
+
+        for (Runnable listener : exitListeners)
+        {
+            executor.execute(listener);
+        }
+    }
+
+    private void prune()
+    {
+        int exited = instances.size() - listeners.size();
+        Iterator<GameInstance> iterator = instances.values().iterator();
+
+        while (exited > MAX_EXITED && iterator.hasNext())
+        {
+            if (!listeners.containsKey(iterator.next()))
+            {
+                iterator.remove();
+                exited--;
+            }
+        }
+    }
+
+    protected static Integer getExitCode(Process process)
+    {
+        try
+        {
+            return process.exitValue();
+        }
+        catch (IllegalThreadStateException e)
+        {
+            return null;
+        }
+    }
+
+    protected static void destroy(Process process, boolean force)
+    {
+        if (force)
+        {
+            try
+            {
+                // Java 8+
+                Method destroyForcibly = Process.class.getMethod("destroyForcibly");
+                destroyForcibly.invoke(process);
+
+                return;
+            }
+            catch (ReflectiveOperationException ignored)
+            {
+            }
+        }
+
+        process.destroy();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.launch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Enumeration;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * The Standby Main
+ *
+ *
+ * Main class of the standby game JVMs (see {@link StandbyPool}).
+ * It loads the game main class and the libraries classes, then
+ * waits for the game arguments on the standard input to call
+ * the game main method :
+ *
+ * <code>
+ *     (number of arguments)
+ *     (argument)
+ *     ...
+ * </code>
+ *
+ * The JVM exits if the standard input is closed before.
+ *
+ * Arguments : (game main class) [library jars to preload...]
+ *
+ * This class is started on the game classpath, so it must only
+ * use the Java API.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public final class StandbyMain
+{
+    private StandbyMain()
+    {
+    }
+
+    public static void main(String[] args) throws Throwable
+    {
+        ClassLoader loader = StandbyMain.class.getClassLoader();
+        Method main = Class.forName(args[0], false, loader).getMethod("main", String[].class);
+
+        for (int i = 1; i < args.length; i++)
+        {
+            preload(new File(args[i]), loader);
+        }
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+        String count = in.readLine();
+
+        if (count == null)
+        {
+            System.exit(0);
+        }
+
+        String[] gameArgs = new String[Integer.parseInt(count.trim())];
+
+        for (int i = 0; i < gameArgs.length; i++)
+        {
+            gameArgs[i] = in.readLine();
+        }
+
+        try
+        {
+            main.invoke(null, (Object) gameArgs);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Load (without initializing them) the classes of a jar
+     */
+    private static void preload(File file, ClassLoader loader)
+    {
+        try (JarFile jar = new JarFile(file))
+        {
+            Enumeration<JarEntry> entries = jar.entries();
+
+            while (entries.hasMoreElements())
+            {
+                String name = entries.nextElement().getName();
+
+                if (!name.endsWith(".class") || name.contains("-"))
+                {
+                    continue;
+                }
+
+                try
+                {
+                    Class.forName(name.substring(0, name.length() - 6).replace('/', '.'), false, loader);
+                }
+                catch (Throwable e)
+                {
+                    // Optional dependency missing, the game won't need it either
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            System.err.println("Couldn't preload " + file + " : " + e);
+        }
+    }
+}
@@ -0,0 +1,550 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.launch;
+
+import fr.litarvan.craftix.util.NamedThreadFactory;
+import fr.litarvan.craftix.util.ProcFs;
+import fr.theshark34.openlauncherlib.external.ExternalLaunchProfile;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import net.wytrem.logging.Logger;
+import net.wytrem.logging.LoggerFactory;
+
+/**
+ * The Standby Pool
+ *
+ *
+ * Keeps at most one standby game JVM per profile, already started
+ * with the resolved profile and parked before the game main class
+ * (see {@link StandbyMain}). Launching the profile then only sends
+ * the game arguments (with the authentication infos) to it.
+ *
+ * The standby JVMs are started without the initial heap size and
+ * pre-touch of the game (see {@link VmTuner#getStandbyArgs(List)}),
+ * so they stay small while waiting. They have a memory budget :
+ * their resident memory can't exceed it (the oldest ones are
+ * stopped first), and none is started or kept when the available
+ * memory of the system goes below {@link #MEMORY_RESERVE}. They are
+ * also stopped after being unused for some time.
+ *
+ * The budget is checked when starting a standby JVM, with the last
+ * measured memory of its profile, and again once it had the time
+ * to start (see {@link #MEASURE_DELAY}), then every
+ * {@link #CHECK_INTERVAL}.
+ *
+ * The budget is 1/8 of the system memory (at most 1 GB), or the
+ * <code>craftix.standby.budget</code> system property (in MB).
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class StandbyPool
+{
+    private static final Logger logger = LoggerFactory.getLogger(StandbyPool.class);
+
+    /**
+     * Memory of a standby JVM before it is measured (in bytes)
+     */
+    public static final long DEFAULT_ESTIMATE = 256L * 1024 * 1024;
+
+    /**
+     * Available system memory always left to the games (in bytes)
+     */
+    public static final long MEMORY_RESERVE = 1024L * 1024 * 1024;
+
+    /**
+     * Default time after which an unused standby JVM is stopped (in milliseconds)
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(15);
+
+    /**
+     * Interval between two checks of the memory and the idle times (in milliseconds)
+     */
+    public static final long CHECK_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Delay before measuring a new standby JVM (in milliseconds), once it
+     * loaded the game libraries
+     */
+    public static final long MEASURE_DELAY = TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * Maximum resident memory of all the standby JVMs (in bytes)
+     */
+    private final long budget;
+
+    /**
+     * Time after which an unused standby JVM is stopped (in milliseconds)
+     */
+    private final long idleTimeout;
+
+    /**
+     * The standby JVMs by profile name, the oldest first
+     */
+    private final Map<String, Standby> standbys = new LinkedHashMap<String, Standby>();
+
+    /**
+     * The last measured memory of the standby JVM of each profile
+     */
+    private final Map<String, Long> measured = new HashMap<String, Long>();
+
+    /**
+     * Checks the memory and the idle times, started with the first standby JVM
+     */
+    private ScheduledThreadPoolExecutor checker;
+
+    /**
+     * Standby pool with the default budget and idle timeout
+     */
+    public StandbyPool()
+    {
+        this(getDefaultBudget(), DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Standby pool
+     *
+     * @param budget Maximum resident memory of all the standby JVMs (in bytes)
+     * @param idleTimeout Time after which an unused standby JVM is stopped (in milliseconds)
+     */
+    public StandbyPool(long budget, long idleTimeout)
+    {
+        this.budget = budget;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @return The default memory budget (in bytes)
+     */
+    public static long getDefaultBudget()
+    {
+        String property = System.getProperty("craftix.standby.budget");
+
+        if (property != null)
+        {
+            return Long.parseLong(property) * 1024 * 1024;
+        }
+
+        long total = ProcFs.getTotalMemory();
+        return total > 0 ? Math.min(1024L * 1024 * 1024, total / 8) : 512L * 1024 * 1024;
+    }
+
+    /**
+     * Start the standby JVM of a profile, if it doesn't already have
+     * an up to date one and if the memory allows it
+     *
+     * @param name The profile name
+     * @param key The launch profile key (see {@link LaunchProfileCache#key(LaunchConfig, File)})
+     * @param profile The resolved profile, with the authentication placeholders
+     * @param vmArgs All the VM arguments of the game
+     *
+     * @return If the profile has a standby JVM
+     */
+    public synchronized boolean prepare(String name, String key, ExternalLaunchProfile profile, List<String> vmArgs) throws IOException
+    {
+        Standby current = standbys.get(name);
+
+        if (current != null)
+        {
+            if (current.matches(key, vmArgs) && current.isAlive())
+            {
+                current.used = System.currentTimeMillis();
+                return true;
+            }
+
+            stop(current, "outdated");
+        }
+
+        Long last = measured.get(name);
+        long estimate = last != null ? last : DEFAULT_ESTIMATE;
+
+        if (estimate > budget)
+        {
+            logger.info("Not starting a standby JVM for '" + name + "', it would exceed the memory budget");
+            return false;
+        }
+
+        while (getUsedMemory() + estimate > budget)
+        {
+            stop(standbys.values().iterator().next(), "memory budget");
+        }
+
+        long available = ProcFs.getAvailableMemory();
+
+        if (available >= 0 && available - estimate < MEMORY_RESERVE)
+        {
+            logger.info("Not starting a standby JVM for '" + name + "', not enough available memory (" + available / (1024 * 1024) + " MB)");
+            return false;
+        }
+
+        ProcessBuilder builder = new ProcessBuilder(getCommand(profile, vmArgs));
+
+        if (profile.getDirectory() != null)
+        {
+            builder.directory(profile.getDirectory());
+        }
+
+        Process process = builder.redirectErrorStream(profile.isRedirectErrorStream()).start();
+        Standby standby = new Standby(name, key, vmArgs, process, estimate);
+
+        standbys.put(name, standby);
+        startChecker();
+
+        // Enforce the budget as soon as its real size is known, not at the next periodic check
+        checker.schedule(new CheckTask(), MEASURE_DELAY, TimeUnit.MILLISECONDS);
+
+        logger.info("Started standby JVM for '" + name + "' (pid " + standby.getPid() + ")");
+
+        return true;
+    }
+
+    /**
+     * Take the standby JVM of a profile, if it was started with the
+     * same profile and VM arguments
+     *
+     * @param name The profile name
+     * @param key The launch profile key
+     * @param vmArgs All the VM arguments of the game
+     *
+     * @return The standby JVM, to start with {@link Standby#start(List)}, or null
+     */
+    public synchronized Standby release(String name, String key, List<String> vmArgs)
+    {
+        Standby standby = standbys.remove(name);
+
+        if (standby == null)
+        {
+            return null;
+        }
+
+        if (!standby.matches(key, vmArgs) || !standby.isAlive())
+        {
+            stop(standby, "outdated");
+            return null;
+        }
+
+        return standby;
+    }
+
+    /**
+     * Stop every standby JVM
+     */
+    public synchronized void clear()
+    {
+        while (!standbys.isEmpty())
+        {
+            stop(standbys.values().iterator().next(), "cleared");
+        }
+    }
+
+    /**
+     * Measure the standby JVMs, and stop the idle ones and the ones
+     * exceeding the memory budget
+     */
+    protected synchronized void check()
+    {
+        long now = System.currentTimeMillis();
+        Iterator<Standby> iterator = new ArrayList<Standby>(standbys.values()).iterator();
+
+        while (iterator.hasNext())
+        {
+            Standby standby = iterator.next();
+
+            if (!standby.isAlive())
+            {
+                stop(standby, "exited with code " + standby.process.exitValue());
+            }
+            else if (now - standby.used > idleTimeout)
+            {
+                stop(standby, "unused");
+            }
+            else
+            {
+                long memory = ProcFs.getResidentMemory(standby.getPid());
+
+                if (memory > 0)
+                {
+                    standby.memory = memory;
+                    measured.put(standby.getName(), memory);
+                }
+            }
+        }
+
+        while (!standbys.isEmpty() && getUsedMemory() > budget)
+        {
+            stop(standbys.values().iterator().next(), "memory budget");
+        }
+
+        long available = ProcFs.getAvailableMemory();
+
+        if (available >= 0 && available < MEMORY_RESERVE && !standbys.isEmpty())
+        {
+            stop(standbys.values().iterator().next(), "low memory");
+        }
+
+        if (standbys.isEmpty() && checker != null)
+        {
+            checker.shutdown();
+            checker = null;
+        }
+    }
+
+    protected void startChecker()
+    {
+        if (checker != null)
+        {
+            return;
+        }
+
+        checker = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("Craftix Standby"));
+        checker.scheduleWithFixedDelay(new CheckTask(), CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    protected void stop(Standby standby, String reason)
+    {
+        standbys.remove(standby.getName());
+        standby.stop();
+
+        logger.info("Stopped standby JVM for '" + standby.getName() + "' (" + reason + ")");
+    }
+
+    /**
+     * Build the command of a standby JVM : the game one, with
+     * {@link StandbyMain} as main class and without allocating the
+     * whole heap at startup
+     *
+     * @param profile The resolved profile
+     * @param vmArgs All the VM arguments of the game
+     *
+     * @return The command
+     */
+    public static List<String> getCommand(ExternalLaunchProfile profile, List<String> vmArgs) throws IOException
+    {
+        List<String> command = new ArrayList<String>();
+
+        command.add(new File(System.getProperty("java.home"), "bin" + File.separator + "java").getAbsolutePath());
+        command.addAll(VmTuner.getStandbyArgs(vmArgs));
+        command.add("-cp");
+        command.add(profile.getClassPath() + File.pathSeparator + getCraftixPath());
+        command.add(StandbyMain.class.getName());
+        command.add(profile.getMainClass());
+
+        for (String path : profile.getClassPath().split(File.pathSeparator))
+        {
+            // The game jar is loaded again by the Forge class loader, only the libraries are preloaded
+            if (path.endsWith(".jar") && !path.endsWith("minecraft.jar"))
+            {
+                command.add(path);
+            }
+        }
+
+        return command;
+    }
+
+    /**
+     * @return The path of the Craftix jar (or classes folder)
+     */
+    protected static String getCraftixPath() throws IOException
+    {
+        try
+        {
+            return new File(StandbyMain.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath();
+        }
+        catch (URISyntaxException e)
+        {
+            throw new IOException("Couldn't find the Craftix jar", e);
+        }
+    }
+
+    /**
+     * @return The resident memory of the standby JVMs (in bytes, estimated when not measured yet)
+     */
+    public synchronized long getUsedMemory()
+    {
+        long used = 0;
+
+        for (Standby standby : standbys.values())
+        {
+            used += standby.memory;
+        }
+
+        return used;
+    }
+
+    /**
+     * @return Maximum resident memory of all the standby JVMs (in bytes)
+     */
+    public long getBudget()
+    {
+        return budget;
+    }
+
+    /**
+     * Runs {@link #check()} on the checker thread
+     */
+    protected class CheckTask implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            try
+            {
+                check();
+            }
+            catch (Exception e)
+            {
+                logger.error("Couldn't check the standby JVMs", e);
+            }
+        }
+    }
+
+    /**
+     * A standby game JVM
+     */
+    public static class Standby
+    {
+        private final String name;
+        private final String key;
+        private final List<String> vmArgs;
+        private final Process process;
+        private final long pid;
+
+        private volatile long used = System.currentTimeMillis();
+        private volatile long memory;
+
+        Standby(String name, String key, List<String> vmArgs, Process process, long estimate)
+        {
+            this.name = name;
+            this.key = key;
+            this.vmArgs = new ArrayList<String>(vmArgs);
+            this.process = process;
+            this.pid = ProcFs.getPid(process);
+            this.memory = estimate;
+        }
+
+        /**
+         * @param key A launch profile key
+         * @param vmArgs All the VM arguments of a launch
+         *
+         * @return If the JVM was started for this launch
+         */
+        public boolean matches(String key, List<String> vmArgs)
+        {
+            return this.key.equals(key) && this.vmArgs.equals(vmArgs);
+        }
+
+        /**
+         * Start the game
+         *
+         * @param args The game arguments
+         *
+         * @return The game process
+         */
+        public Process start(List<String> args) throws IOException
+        {
+            StringBuilder message = new StringBuilder().append(args.size()).append('\n');
+
+            for (String arg : args)
+            {
+                message.append(arg.replace('\n', ' ')).append('\n');
+            }
+
+            OutputStream out = process.getOutputStream();
+
+            out.write(message.toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            return process;
+        }
+
+        void stop()
+        {
+            try
+            {
+                // Makes it exit by itself, if it is waiting for the arguments
+                process.getOutputStream().close();
+            }
+            catch (IOException ignored)
+            {
+            }
+
+            process.destroy();
+        }
+
+        /**
+         * @return If the JVM is still running
+         */
+        public boolean isAlive()
+        {
+            try
+            {
+                process.exitValue();
+                return false;
+            }
+            catch (IllegalThreadStateException e)
+            {
+                return true;
+            }
+        }
+
+        /**
+         * @return The profile name
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * @return The JVM process
+         */
+        public Process getProcess()
+        {
+            return process;
+        }
+
+        /**
+         * @return The JVM process id (-1 if unknown)
+         */
+        public long getPid()
+        {
+            return pid;
+        }
+
+        /**
+         * @return The last measured resident memory of the JVM (in bytes, estimated before the first measure)
+         */
+        public long getMemory()
+        {
+            return memory;
+        }
+    }
+}
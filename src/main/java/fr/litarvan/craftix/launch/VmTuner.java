@@ -0,0 +1,587 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.launch;
+
+import fr.litarvan.craftix.util.ProcFs;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import net.wytrem.logging.Logger;
+import net.wytrem.logging.LoggerFactory;
+
+/**
+ * The VM Tuner
+ *
+ *
+ * Computes the game JVM arguments from the system memory, the
+ * number of cores and the game. The heap size starts from the
+ * target of the game profile :
+ *
+ * <code>
+ *     Profile  | Game                        | Heap target
+ *     ---------+-----------------------------+------------
+ *     LEGACY   | before 1.7.10, no Forge     | 1 GB
+ *     VANILLA  | 1.7.10 and higher, no Forge | 2 GB
+ *              | (and the snapshots)         |
+ *     MODDED   | Forge                       | 4 GB
+ *     (+ 1 GB with the OptiFine or shader tweaks)
+ * </code>
+ *
+ * It is then limited to 2/3 of the memory left after the system
+ * reserve (a quarter of the memory, between 1.5 and 4 GB), to 1 GB
+ * on a 32 bits JVM (which can't reserve a bigger heap), and is
+ * never below 512 MB. The other arguments :
+ *
+ * <code>
+ *     Memory        | -Xms        | Pre-touch
+ *     --------------+-------------+----------
+ *     8 GB and more | heap        | yes
+ *     less          | heap / 2    | no
+ *
+ *     Cores | Collector
+ *     ------+-------------------------------------------------
+ *     1     | Serial
+ *     more  | G1, 50 ms pause target, young gen 30-40%, early
+ *           | marking (15%), explicit GC disabled, region size :
+ *           | 4 MB (heap < 4 GB), 8 MB (< 8 GB), 16 MB (< 16 GB),
+ *           | 32 MB, ParallelGCThreads = cores - 1 (at most 8),
+ *           | ConcGCThreads = cores / 4
+ * </code>
+ *
+ * The arguments given by the user always win : a tuned argument
+ * is dropped when the user gives the same option, both heap sizes
+ * are dropped when the user gives one, and all the collector
+ * arguments are dropped when the user chooses a collector.
+ * Only the total memory is used (not the available one), so the
+ * same game always gets the same arguments.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class VmTuner
+{
+    private static final Logger logger = LoggerFactory.getLogger(VmTuner.class);
+
+    private static final long MB = 1024L * 1024;
+    private static final long GB = 1024 * MB;
+
+    /**
+     * Minimum heap size (in bytes)
+     */
+    public static final long MIN_HEAP = 512 * MB;
+
+    /**
+     * Heap added for OptiFine and shaders (in bytes)
+     */
+    public static final long SHADERS_HEAP = GB;
+
+    /**
+     * Maximum heap size of a 32 bits JVM (in bytes), its address space
+     * can't hold a bigger one on every system
+     */
+    public static final long MAX_32_BITS_HEAP = GB;
+
+    /**
+     * System memory from which the whole heap is allocated and touched at startup (in bytes)
+     */
+    public static final long PRE_TOUCH_MEMORY = 8 * GB;
+
+    /**
+     * First version of the {@link Profile#VANILLA} profile
+     */
+    private static final int[] VANILLA_VERSION = {1, 7, 10};
+
+    /**
+     * Options selecting the garbage collector
+     */
+    private static final Set<String> COLLECTORS = new HashSet<String>(Arrays.asList(
+        "UseSerialGC", "UseParallelGC", "UseParallelOldGC", "UseConcMarkSweepGC", "UseG1GC", "UseZGC", "UseShenandoahGC", "UseEpsilonGC"
+    ));
+
+    /**
+     * Game profiles of the table
+     */
+    public enum Profile
+    {
+        LEGACY(GB),
+        VANILLA(2 * GB),
+        MODDED(4 * GB);
+
+        private final long heap;
+
+        Profile(long heap)
+        {
+            this.heap = heap;
+        }
+
+        /**
+         * @return The heap target of the profile (in bytes)
+         */
+        public long getHeap()
+        {
+            return heap;
+        }
+    }
+
+    /**
+     * The system memory (in bytes)
+     */
+    private final long totalMemory;
+
+    /**
+     * The number of cores
+     */
+    private final int cores;
+
+    /**
+     * If the game JVM is a 64 bits one
+     */
+    private final boolean is64Bits;
+
+    /**
+     * VM tuner for the current system
+     */
+    public VmTuner()
+    {
+        this(getSystemMemory(), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * VM tuner, for the current JVM (the games use it)
+     *
+     * @param totalMemory The system memory (in bytes)
+     * @param cores The number of cores
+     */
+    public VmTuner(long totalMemory, int cores)
+    {
+        this(totalMemory, cores, isJvm64Bits());
+    }
+
+    /**
+     * VM tuner
+     *
+     * @param totalMemory The system memory (in bytes)
+     * @param cores The number of cores
+     * @param is64Bits If the game JVM is a 64 bits one
+     */
+    public VmTuner(long totalMemory, int cores, boolean is64Bits)
+    {
+        this.totalMemory = totalMemory;
+        this.cores = cores;
+        this.is64Bits = is64Bits;
+    }
+
+    /**
+     * @return If the current JVM is a 64 bits one (assumed when unknown)
+     */
+    public static boolean isJvm64Bits()
+    {
+        String model = System.getProperty("sun.arch.data.model");
+
+        if (model != null)
+        {
+            return !model.equals("32");
+        }
+
+        return System.getProperty("os.arch", "").contains("64");
+    }
+
+    /**
+     * @return The system memory (in bytes), 4 GB if it can't be read
+     */
+    public static long getSystemMemory()
+    {
+        long memory = ProcFs.getTotalMemory();
+
+        if (memory > 0)
+        {
+            return memory;
+        }
+
+        OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+
+        try
+        {
+            // Not on every JVM, but on all the ones players use
+            Method method = bean.getClass().getMethod("getTotalPhysicalMemorySize");
+            method.setAccessible(true);
+
+            return (Long) method.invoke(bean);
+        }
+        catch (Exception e)
+        {
+            logger.error("Couldn't read the system memory, assuming 4 GB", e);
+            return 4 * GB;
+        }
+    }
+
+    /**
+     * Tune the JVM of a game
+     *
+     * @param version The Minecraft version
+     * @param tweaks The game tweaks
+     * @param userArgs The arguments given by the user (can be empty)
+     *
+     * @return The tuned arguments, followed by the user ones
+     */
+    public List<String> tune(String version, String[] tweaks, String[] userArgs)
+    {
+        Profile profile = getProfile(version, tweaks);
+        long heap = getHeap(profile, hasTweak(tweaks, "optifine") || hasTweak(tweaks, "shader"));
+
+        List<String> tuned = new ArrayList<String>();
+
+        tuned.add("-Xmx" + heap / MB + "M");
+        tuned.add("-Xms" + (totalMemory >= PRE_TOUCH_MEMORY ? heap : heap / 2) / MB + "M");
+
+        if (cores <= 1)
+        {
+            tuned.add("-XX:+UseSerialGC");
+        }
+        else
+        {
+            tuned.add("-XX:+UseG1GC");
+            tuned.add("-XX:MaxGCPauseMillis=50");
+            tuned.add("-XX:G1HeapRegionSize=" + getRegionSize(heap) / MB + "M");
+            tuned.add("-XX:+UnlockExperimentalVMOptions");
+            tuned.add("-XX:G1NewSizePercent=30");
+            tuned.add("-XX:G1MaxNewSizePercent=40");
+            tuned.add("-XX:G1ReservePercent=20");
+            tuned.add("-XX:InitiatingHeapOccupancyPercent=15");
+            tuned.add("-XX:+ParallelRefProcEnabled");
+            tuned.add("-XX:ParallelGCThreads=" + Math.max(1, Math.min(8, cores - 1)));
+            tuned.add("-XX:ConcGCThreads=" + Math.max(1, cores / 4));
+        }
+
+        tuned.add("-XX:+DisableExplicitGC");
+
+        if (totalMemory >= PRE_TOUCH_MEMORY)
+        {
+            tuned.add("-XX:+AlwaysPreTouch");
+        }
+
+        List<String> args = merge(tuned, userArgs);
+
+        logger.info("Tuned the JVM for a " + profile + " game (" + totalMemory / MB + " MB, " + cores + " cores" + (is64Bits ? "" : ", 32 bits JVM") + ") : " + args);
+
+        return args;
+    }
+
+    /**
+     * Find the profile of a game in the table
+     *
+     * @param version The Minecraft version
+     * @param tweaks The game tweaks
+     *
+     * @return The game profile
+     */
+    public Profile getProfile(String version, String[] tweaks)
+    {
+        if (hasTweak(tweaks, "forge"))
+        {
+            return Profile.MODDED;
+        }
+
+        int[] numbers = parseVersion(version);
+
+        for (int i = 0; i < numbers.length && i < VANILLA_VERSION.length; i++)
+        {
+            if (numbers[i] != VANILLA_VERSION[i])
+            {
+                return numbers[i] < VANILLA_VERSION[i] ? Profile.LEGACY : Profile.VANILLA;
+            }
+        }
+
+        // Snapshots (no numbers) and 1.7.10 itself are vanilla, 1.7 is older
+        return numbers.length != 0 && numbers.length < VANILLA_VERSION.length ? Profile.LEGACY : Profile.VANILLA;
+    }
+
+    /**
+     * @param version A Minecraft version (ex: 1.12.2, 1.13-pre1, 17w43a)
+     *
+     * @return Its numbers (ex: {1, 12, 2} for 1.12.2, {1, 13} for 1.13-pre1),
+     *         none for a snapshot or an invalid version
+     */
+    public static int[] parseVersion(String version)
+    {
+        version = version.trim();
+
+        if (version.matches("[0-9]+w.*"))
+        {
+            return new int[0];
+        }
+
+        String[] parts = version.split("[^0-9.]", 2)[0].split("\\.");
+        int[] numbers = new int[parts.length];
+
+        for (int i = 0; i < parts.length; i++)
+        {
+            try
+            {
+                numbers[i] = Integer.parseInt(parts[i]);
+            }
+            catch (NumberFormatException e)
+            {
+                return new int[0];
+            }
+        }
+
+        return numbers;
+    }
+
+    /**
+     * @param profile The game profile
+     * @param shaders If the game uses OptiFine or shaders
+     *
+     * @return The heap size (in bytes)
+     */
+    public long getHeap(Profile profile, boolean shaders)
+    {
+        long reserve = Math.max(1536 * MB, Math.min(4 * GB, totalMemory / 4));
+        long max = (totalMemory - reserve) * 2 / 3;
+        long heap = Math.min(profile.getHeap() + (shaders ? SHADERS_HEAP : 0), is64Bits ? max : Math.min(max, MAX_32_BITS_HEAP));
+
+        return Math.max(MIN_HEAP, heap / (256 * MB) * (256 * MB));
+    }
+
+    /**
+     * @param heap The heap size (in bytes)
+     *
+     * @return The G1 region size (in bytes)
+     */
+    public long getRegionSize(long heap)
+    {
+        if (heap < 4 * GB)
+        {
+            return 4 * MB;
+        }
+        else if (heap < 8 * GB)
+        {
+            return 8 * MB;
+        }
+        else if (heap < 16 * GB)
+        {
+            return 16 * MB;
+        }
+
+        return 32 * MB;
+    }
+
+    /**
+     * Add the user arguments to the tuned ones, dropping the tuned
+     * arguments that the user gives too
+     *
+     * @param tuned The tuned arguments
+     * @param userArgs The user arguments
+     *
+     * @return The merged arguments
+     */
+    protected List<String> merge(List<String> tuned, String[] userArgs)
+    {
+        Set<String> given = new HashSet<String>();
+        boolean collector = false;
+
+        for (String arg : userArgs)
+        {
+            String option = getOption(arg);
+
+            given.add(option);
+            collector |= COLLECTORS.contains(option);
+
+            if (option.equals("Xmx") && parseSize(arg.substring(4)) > totalMemory * 3 / 4)
+            {
+                logger.info("Warning ! The given heap size (" + arg + ") is too big for this system (" + totalMemory / MB + " MB), the game may stutter");
+            }
+            else if (option.equals("Xmx") && !is64Bits && parseSize(arg.substring(4)) > MAX_32_BITS_HEAP)
+            {
+                logger.info("Warning ! The given heap size (" + arg + ") is too big for a 32 bits JVM, the game may not start");
+            }
+        }
+
+        if (given.contains("Xmx") || given.contains("Xms"))
+        {
+            // A tuned initial heap could be bigger than the given maximum one
+            given.add("Xmx");
+            given.add("Xms");
+        }
+
+        List<String> args = new ArrayList<String>();
+
+        for (String arg : tuned)
+        {
+            String option = getOption(arg);
+
+            if (given.contains(option) || (collector && isCollectorOption(option)))
+            {
+                continue;
+            }
+
+            args.add(arg);
+        }
+
+        args.addAll(Arrays.asList(userArgs));
+
+        return args;
+    }
+
+    /**
+     * Remove the arguments allocating the whole heap at startup, from
+     * the arguments of a JVM waiting for its game (see {@link StandbyPool}),
+     * so it stays small until the game starts
+     *
+     * @param args The game JVM arguments
+     *
+     * @return The arguments without the initial heap size and pre-touch
+     */
+    public static List<String> getStandbyArgs(List<String> args)
+    {
+        List<String> standby = new ArrayList<String>();
+
+        for (String arg : args)
+        {
+            if (!arg.startsWith("-Xms") && !arg.equals("-XX:+AlwaysPreTouch"))
+            {
+                standby.add(arg);
+            }
+        }
+
+        return standby;
+    }
+
+    /**
+     * @param arg A JVM argument
+     *
+     * @return Its option (ex: 'Xmx' for '-Xmx2G', 'UseG1GC' for '-XX:-UseG1GC')
+     */
+    public static String getOption(String arg)
+    {
+        if (arg.startsWith("-XX:"))
+        {
+            String option = arg.substring(4);
+
+            if (option.startsWith("+") || option.startsWith("-"))
+            {
+                return option.substring(1);
+            }
+
+            int equals = option.indexOf('=');
+            return equals == -1 ? option : option.substring(0, equals);
+        }
+
+        for (String prefix : new String[] {"-Xmx", "-Xms", "-Xmn", "-Xss"})
+        {
+            if (arg.startsWith(prefix))
+            {
+                return prefix.substring(1);
+            }
+        }
+
+        int equals = arg.indexOf('=');
+        return equals == -1 ? arg : arg.substring(0, equals);
+    }
+
+    /**
+     * @param size A JVM memory size (ex: 2G, 512m, 1048576)
+     *
+     * @return The size in bytes, or -1 if it is invalid
+     */
+    public static long parseSize(String size)
+    {
+        if (size.isEmpty())
+        {
+            return -1;
+        }
+
+        long unit = 1;
+
+        switch (Character.toLowerCase(size.charAt(size.length() - 1)))
+        {
+            case 'k':
+                unit = 1024;
+                break;
+            case 'm':
+                unit = MB;
+                break;
+            case 'g':
+                unit = GB;
+                break;
+            case 't':
+                unit = 1024 * GB;
+                break;
+        }
+
+        try
+        {
+            return Long.parseLong(unit == 1 ? size : size.substring(0, size.length() - 1)) * unit;
+        }
+        catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
+    protected boolean isCollectorOption(String option)
+    {
+        return COLLECTORS.contains(option) || option.startsWith("G1") || option.contains("GCThreads") || option.equals("MaxGCPauseMillis")
+               || option.equals("InitiatingHeapOccupancyPercent") || option.equals("ParallelRefProcEnabled");
+    }
+
+    protected static boolean hasTweak(String[] tweaks, String tweak)
+    {
+        for (String str : tweaks)
+        {
+            if (str.trim().equals(tweak))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return The system memory (in bytes)
+     */
+    public long getTotalMemory()
+    {
+        return totalMemory;
+    }
+
+    /**
+     * @return The number of cores
+     */
+    public int getCores()
+    {
+        return cores;
+    }
+
+    /**
+     * @return If the game JVM is a 64 bits one
+     */
+    public boolean is64Bits()
+    {
+        return is64Bits;
+    }
+}
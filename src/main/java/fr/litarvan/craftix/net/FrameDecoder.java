@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A Frame Decoder
+ *
+ *
+ * Incrementally splits the bytes received from a launcher into
+ * length-prefixed frames (4 bytes big endian length, then the
+ * message). Like the {@link LineDecoder}, the bytes of an
+ * incomplete frame are kept until the rest is received.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class FrameDecoder
+{
+    /**
+     * The size of the frame length
+     */
+    public static final int HEADER_LENGTH = 4;
+
+    /**
+     * The maximum size of a frame, in bytes
+     */
+    private final int maxLength;
+
+    /**
+     * The bytes of the frame being received
+     */
+    private byte[] pending = new byte[256];
+
+    /**
+     * The number of bytes in {@link #pending}
+     */
+    private int length;
+
+    /**
+     * The length of the frame being received (-1 while reading its header)
+     */
+    private int expected = -1;
+
+    /**
+     * The received bytes of the header
+     */
+    private int header;
+    private int headerLength;
+
+    /**
+     * Frame decoder
+     *
+     * @param maxLength The maximum size of a frame, in bytes
+     */
+    public FrameDecoder(int maxLength)
+    {
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Read the bytes of the given buffer until a frame is completed
+     *
+     * @param in The received bytes (flipped)
+     *
+     * @return The completed frame content (only valid until the next
+     *         call), or null if every byte was read without completing one
+     *
+     * @throws IOException If a frame is longer than the maximum length
+     */
+    public ByteBuffer next(ByteBuffer in) throws IOException
+    {
+        while (expected < 0)
+        {
+            if (!in.hasRemaining())
+            {
+                return null;
+            }
+
+            header = (header << 8) | (in.get() & 0xff);
+
+            if (++headerLength < HEADER_LENGTH)
+            {
+                continue;
+            }
+
+            if (header < 0 || header > maxLength)
+            {
+                throw new IOException("Received a frame of " + (header & 0xffffffffL) + " bytes (maximum is " + maxLength + ")");
+            }
+
+            if (header > pending.length)
+            {
+                pending = new byte[Math.min(maxLength, Math.max(pending.length * 2, header))];
+            }
+
+            expected = header;
+            length = 0;
+            header = 0;
+            headerLength = 0;
+        }
+
+        int count = Math.min(in.remaining(), expected - length);
+
+        in.get(pending, length, count);
+        length += count;
+
+        if (length < expected)
+        {
+            return null;
+        }
+
+        expected = -1;
+
+        return ByteBuffer.wrap(pending, 0, length);
+    }
+}
@@ -0,0 +1,553 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.net;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A JSON Reader
+ *
+ *
+ * Reads a JSON text value by value, so the parts of a message that
+ * are not needed can be skipped without creating any object (like
+ * the params of a command, only parsed when the command reads them).
+ *
+ * <code>
+ *     reader.beginObject();
+ *
+ *     while (reader.hasNext())
+ *     {
+ *         String name = reader.nextName();
+ *         ...
+ *     }
+ *
+ *     reader.endObject();
+ * </code>
+ *
+ * {@link #hasNext()} must be called once before each value of an
+ * object or array. Syntax errors throw a {@link JSONException}.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class JsonReader
+{
+    /**
+     * Maximum nesting of the objects and arrays
+     */
+    public static final int MAX_DEPTH = 64;
+
+    /**
+     * The JSON text
+     */
+    private final String source;
+
+    /**
+     * The end of the read part of the text
+     */
+    private final int end;
+
+    /**
+     * The position of the next character
+     */
+    private int position;
+
+    /**
+     * If the next value is the first of its object or array, by depth
+     */
+    private final boolean[] first = new boolean[MAX_DEPTH + 1];
+
+    /**
+     * The number of objects and arrays being read
+     */
+    private int depth;
+
+    /**
+     * JSON reader
+     *
+     * @param source The JSON text
+     */
+    public JsonReader(String source)
+    {
+        this(source, 0, source.length());
+    }
+
+    /**
+     * JSON reader of a part of a text
+     *
+     * @param source The text
+     * @param start The start of the JSON value
+     * @param end The end of the JSON value
+     */
+    public JsonReader(String source, int start, int end)
+    {
+        this.source = source;
+        this.position = start;
+        this.end = end;
+    }
+
+    /**
+     * Start reading an object
+     */
+    public void beginObject()
+    {
+        begin('{');
+    }
+
+    /**
+     * Finish reading an object, after its last value
+     */
+    public void endObject()
+    {
+        finish('}');
+    }
+
+    /**
+     * Start reading an array
+     */
+    public void beginArray()
+    {
+        begin('[');
+    }
+
+    /**
+     * Finish reading an array, after its last value
+     */
+    public void endArray()
+    {
+        finish(']');
+    }
+
+    /**
+     * @return If the current object or array has another value
+     */
+    public boolean hasNext()
+    {
+        char c = peek();
+
+        if (c == '}' || c == ']')
+        {
+            return false;
+        }
+
+        if (!first[depth])
+        {
+            expect(',');
+            peek();
+        }
+
+        first[depth] = false;
+
+        return true;
+    }
+
+    /**
+     * @return The name of the next object value
+     */
+    public String nextName()
+    {
+        if (peek() != '"')
+        {
+            throw error("Expected a name");
+        }
+
+        String name = readString();
+        expect(':');
+
+        return name;
+    }
+
+    /**
+     * @return The next value as a string (numbers and booleans are
+     *         given as written), or null if it is null
+     */
+    public String nextString()
+    {
+        char c = peek();
+
+        if (c == '"')
+        {
+            return readString();
+        }
+
+        if (c == '{' || c == '[')
+        {
+            throw error("Expected a string");
+        }
+
+        String literal = readLiteral();
+        return literal.equals("null") ? null : literal;
+    }
+
+    /**
+     * Skip the next value, without creating any object
+     */
+    public void skipValue()
+    {
+        char c = peek();
+
+        if (c == '"')
+        {
+            skipString();
+        }
+        else if (c == '{' || c == '[')
+        {
+            int level = 0;
+
+            do
+            {
+                c = peek();
+
+                if (c == '"')
+                {
+                    skipString();
+                    continue;
+                }
+
+                if (c == '{' || c == '[')
+                {
+                    level++;
+                }
+                else if (c == '}' || c == ']')
+                {
+                    level--;
+                }
+
+                position++;
+            }
+            while (level > 0);
+        }
+        else
+        {
+            int start = position;
+
+            while (position < end && !isDelimiter(source.charAt(position)))
+            {
+                position++;
+            }
+
+            if (position == start)
+            {
+                throw error("Expected a value");
+            }
+        }
+    }
+
+    /**
+     * @return The next value, as an org.json value ({@link JSONObject}, {@link JSONArray},
+     *         String, Integer, Long, Double, Boolean, or {@link JSONObject#NULL})
+     */
+    public Object nextValue()
+    {
+        char c = peek();
+
+        if (c == '"')
+        {
+            return readString();
+        }
+
+        if (c == '{')
+        {
+            JSONObject object = new JSONObject();
+            beginObject();
+
+            while (hasNext())
+            {
+                String name = nextName();
+                object.put(name, nextValue());
+            }
+
+            endObject();
+            return object;
+        }
+
+        if (c == '[')
+        {
+            JSONArray array = new JSONArray();
+            beginArray();
+
+            while (hasNext())
+            {
+                array.put(nextValue());
+            }
+
+            endArray();
+            return array;
+        }
+
+        String literal = readLiteral();
+
+        switch (literal)
+        {
+            case "true":
+                return Boolean.TRUE;
+            case "false":
+                return Boolean.FALSE;
+            case "null":
+                return JSONObject.NULL;
+        }
+
+        return parseNumber(literal);
+    }
+
+    /**
+     * @return The next value as an object
+     */
+    public JSONObject nextObject()
+    {
+        if (peek() != '{')
+        {
+            throw error("Expected an object");
+        }
+
+        return (JSONObject) nextValue();
+    }
+
+    /**
+     * @return The position of the next value (skipping the whitespaces)
+     */
+    public int position()
+    {
+        if (position < end)
+        {
+            peek();
+        }
+
+        return position;
+    }
+
+    /**
+     * Check that the whole text was read
+     */
+    public void close()
+    {
+        while (position < end && Character.isWhitespace(source.charAt(position)))
+        {
+            position++;
+        }
+
+        if (position < end)
+        {
+            throw error("Unexpected text after the value");
+        }
+    }
+
+    private void begin(char c)
+    {
+        expect(c);
+
+        if (++depth > MAX_DEPTH)
+        {
+            throw error("Value nested more than " + MAX_DEPTH + " times");
+        }
+
+        first[depth] = true;
+    }
+
+    private void finish(char c)
+    {
+        expect(c);
+        depth--;
+    }
+
+    private char peek()
+    {
+        while (position < end)
+        {
+            char c = source.charAt(position);
+
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r')
+            {
+                return c;
+            }
+
+            position++;
+        }
+
+        throw error("Unexpected end of text");
+    }
+
+    private void expect(char c)
+    {
+        if (peek() != c)
+        {
+            throw error("Expected '" + c + "'");
+        }
+
+        position++;
+    }
+
+    private String readString()
+    {
+        int start = ++position;
+
+        // Without escapes, the string is only a part of the text
+        while (position < end)
+        {
+            char c = source.charAt(position);
+
+            if (c == '"')
+            {
+                return source.substring(start, position++);
+            }
+
+            if (c == '\\')
+            {
+                break;
+            }
+
+            position++;
+        }
+
+        StringBuilder builder = new StringBuilder(position - start + 16).append(source, start, position);
+
+        while (position < end)
+        {
+            char c = source.charAt(position++);
+
+            if (c == '"')
+            {
+                return builder.toString();
+            }
+
+            if (c != '\\')
+            {
+                builder.append(c);
+                continue;
+            }
+
+            if (position >= end)
+            {
+                break;
+            }
+
+            char escaped = source.charAt(position++);
+
+            switch (escaped)
+            {
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    if (position + 4 > end)
+                    {
+                        throw error("Invalid unicode escape");
+                    }
+
+                    try
+                    {
+                        builder.append((char) Integer.parseInt(source.substring(position, position + 4), 16));
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        throw error("Invalid unicode escape");
+                    }
+
+                    position += 4;
+                    break;
+                default:
+                    builder.append(escaped);
+            }
+        }
+
+        throw error("Unterminated string");
+    }
+
+    private void skipString()
+    {
+        position++;
+
+        while (position < end)
+        {
+            char c = source.charAt(position++);
+
+            if (c == '"')
+            {
+                return;
+            }
+
+            if (c == '\\')
+            {
+                position++;
+            }
+        }
+
+        throw error("Unterminated string");
+    }
+
+    private String readLiteral()
+    {
+        int start = position;
+
+        while (position < end && !isDelimiter(source.charAt(position)))
+        {
+            position++;
+        }
+
+        if (position == start)
+        {
+            throw error("Expected a value");
+        }
+
+        return source.substring(start, position);
+    }
+
+    private Object parseNumber(String literal)
+    {
+        try
+        {
+            if (literal.indexOf('.') == -1 && literal.indexOf('e') == -1 && literal.indexOf('E') == -1 && literal.length() < 19)
+            {
+                long value = Long.parseLong(literal);
+                return value == (int) value ? (Object) (int) value : (Object) value;
+            }
+
+            return Double.valueOf(literal);
+        }
+        catch (NumberFormatException e)
+        {
+            throw error("Invalid value '" + literal + "'");
+        }
+    }
+
+    private static boolean isDelimiter(char c)
+    {
+        return c == ',' || c == '}' || c == ']' || c == ':' || c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private JSONException error(String message)
+    {
+        return new JSONException(message + " at character " + position);
+    }
+}
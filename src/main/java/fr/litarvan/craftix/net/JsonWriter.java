@@ -0,0 +1,511 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.net;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONString;
+
+/**
+ * A JSON Writer
+ *
+ *
+ * Writes JSON directly as UTF-8 bytes into a reused buffer, without
+ * building intermediate strings : the messages are written once,
+ * then copied to the buffer queued for the launcher. Every thread
+ * has its own writer (see {@link #get()}).
+ *
+ * <code>
+ *     writer.beginObject().name("id").value(id).name("data").value(data).endObject();
+ * </code>
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class JsonWriter
+{
+    /**
+     * Size above which the buffer is not kept after a message
+     */
+    public static final int MAX_KEPT_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<JsonWriter> writers = new ThreadLocal<JsonWriter>()
+    {
+        @Override
+        protected JsonWriter initialValue()
+        {
+            return new JsonWriter();
+        }
+    };
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(LineDecoder.UTF_8);
+
+    /**
+     * The written bytes
+     */
+    private byte[] bytes = new byte[256];
+
+    /**
+     * The number of written bytes
+     */
+    private int position;
+
+    /**
+     * If a comma is needed before the next name or value
+     */
+    private boolean separate;
+
+    /**
+     * @return The writer of the current thread, emptied
+     */
+    public static JsonWriter get()
+    {
+        JsonWriter writer = writers.get();
+        writer.reset();
+
+        return writer;
+    }
+
+    /**
+     * Empty the writer
+     */
+    public void reset()
+    {
+        if (bytes.length > MAX_KEPT_SIZE)
+        {
+            bytes = new byte[256];
+        }
+
+        position = 0;
+        separate = false;
+    }
+
+    /**
+     * Start an object
+     */
+    public JsonWriter beginObject()
+    {
+        separator();
+        put('{');
+        separate = false;
+
+        return this;
+    }
+
+    /**
+     * End the current object
+     */
+    public JsonWriter endObject()
+    {
+        put('}');
+        separate = true;
+
+        return this;
+    }
+
+    /**
+     * Start an array
+     */
+    public JsonWriter beginArray()
+    {
+        separator();
+        put('[');
+        separate = false;
+
+        return this;
+    }
+
+    /**
+     * End the current array
+     */
+    public JsonWriter endArray()
+    {
+        put(']');
+        separate = true;
+
+        return this;
+    }
+
+    /**
+     * Write the name of the next object value
+     *
+     * @param name The value name
+     */
+    public JsonWriter name(String name)
+    {
+        separator();
+        string(name);
+        put(':');
+        separate = false;
+
+        return this;
+    }
+
+    /**
+     * Write a string value, or null
+     */
+    public JsonWriter value(String value)
+    {
+        if (value == null)
+        {
+            return nullValue();
+        }
+
+        separator();
+        string(value);
+        separate = true;
+
+        return this;
+    }
+
+    /**
+     * Write an integral number
+     */
+    public JsonWriter value(long value)
+    {
+        separator();
+        number(value);
+        separate = true;
+
+        return this;
+    }
+
+    /**
+     * Write a number, NaN and infinities are written as null
+     */
+    public JsonWriter value(double value)
+    {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+        {
+            return nullValue();
+        }
+
+        if (value == (long) value && Math.abs(value) < 1e15)
+        {
+            // Like org.json, integral numbers are written without decimals
+            return value((long) value);
+        }
+
+        return raw(Double.toString(value));
+    }
+
+    /**
+     * Write a boolean
+     */
+    public JsonWriter value(boolean value)
+    {
+        return raw(value ? "true" : "false");
+    }
+
+    /**
+     * Write null
+     */
+    public JsonWriter nullValue()
+    {
+        return raw("null");
+    }
+
+    /**
+     * Write any JSON value : {@link JSONObject}, {@link JSONArray},
+     * {@link JsonWritable}, string, number, boolean, null, map or collection
+     *
+     * @param value The value to write
+     */
+    public JsonWriter value(Object value)
+    {
+        if (value == null || value == JSONObject.NULL)
+        {
+            return nullValue();
+        }
+        else if (value instanceof String)
+        {
+            return value((String) value);
+        }
+        else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+        {
+            return value(((Number) value).longValue());
+        }
+        else if (value instanceof Double || value instanceof Float)
+        {
+            return value(((Number) value).doubleValue());
+        }
+        else if (value instanceof Boolean)
+        {
+            return value(((Boolean) value).booleanValue());
+        }
+        else if (value instanceof JSONObject)
+        {
+            JSONObject object = (JSONObject) value;
+            beginObject();
+
+            for (String key : object.keySet())
+            {
+                name(key).value(object.opt(key));
+            }
+
+            return endObject();
+        }
+        else if (value instanceof JSONArray)
+        {
+            JSONArray array = (JSONArray) value;
+            beginArray();
+
+            for (int i = 0; i < array.length(); i++)
+            {
+                value(array.opt(i));
+            }
+
+            return endArray();
+        }
+        else if (value instanceof JsonWritable)
+        {
+            ((JsonWritable) value).write(this);
+            return this;
+        }
+        else if (value instanceof JSONString)
+        {
+            return raw(((JSONString) value).toJSONString());
+        }
+        else if (value instanceof Number)
+        {
+            return raw(JSONObject.numberToString((Number) value));
+        }
+        else if (value instanceof Map)
+        {
+            beginObject();
+
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet())
+            {
+                name(String.valueOf(entry.getKey())).value(entry.getValue());
+            }
+
+            return endObject();
+        }
+        else if (value instanceof Collection)
+        {
+            beginArray();
+
+            for (Object element : (Collection<?>) value)
+            {
+                value(element);
+            }
+
+            return endArray();
+        }
+        else if (value instanceof Enum)
+        {
+            return value(((Enum<?>) value).name());
+        }
+
+        // Arrays and beans, converted like org.json does
+        return value(JSONObject.wrap(value));
+    }
+
+    /**
+     * @return The written bytes, followed by a line break (like the received messages)
+     */
+    public ByteBuffer toBuffer()
+    {
+        byte[] message = new byte[position + 1];
+
+        System.arraycopy(bytes, 0, message, 0, position);
+        message[position] = '\n';
+
+        return ByteBuffer.wrap(message);
+    }
+
+    @Override
+    public String toString()
+    {
+        return new String(bytes, 0, position, LineDecoder.UTF_8);
+    }
+
+    /**
+     * @param value A value (see {@link #value(Object)})
+     *
+     * @return Its JSON text
+     */
+    public static String toString(Object value)
+    {
+        return new JsonWriter().value(value).toString();
+    }
+
+    private JsonWriter raw(String text)
+    {
+        separator();
+        ensure(text.length());
+
+        for (int i = 0; i < text.length(); i++)
+        {
+            bytes[position++] = (byte) text.charAt(i);
+        }
+
+        separate = true;
+
+        return this;
+    }
+
+    private void separator()
+    {
+        if (separate)
+        {
+            put(',');
+        }
+    }
+
+    private void number(long value)
+    {
+        if (value == Long.MIN_VALUE)
+        {
+            raw(Long.toString(value));
+            return;
+        }
+
+        ensure(20);
+
+        if (value < 0)
+        {
+            bytes[position++] = '-';
+            value = -value;
+        }
+
+        int start = position;
+
+        do
+        {
+            bytes[position++] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        while (value > 0);
+
+        // Digits were written backwards
+        for (int i = start, j = position - 1; i < j; i++, j--)
+        {
+            byte b = bytes[i];
+            bytes[i] = bytes[j];
+            bytes[j] = b;
+        }
+    }
+
+    private void string(String value)
+    {
+        int length = value.length();
+
+        // Worst case : every char escaped as \\uXXXX
+        ensure(length * 6 + 2);
+        bytes[position++] = '"';
+
+        for (int i = 0; i < length; i++)
+        {
+            char c = value.charAt(i);
+
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\')
+            {
+                bytes[position++] = (byte) c;
+            }
+            else if (c == '"' || c == '\\')
+            {
+                bytes[position++] = '\\';
+                bytes[position++] = (byte) c;
+            }
+            else if (c < 0x20)
+            {
+                escape(c);
+            }
+            else if (c < 0x800)
+            {
+                bytes[position++] = (byte) (0xc0 | (c >> 6));
+                bytes[position++] = (byte) (0x80 | (c & 0x3f));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1)))
+            {
+                int code = Character.toCodePoint(c, value.charAt(++i));
+
+                bytes[position++] = (byte) (0xf0 | (code >> 18));
+                bytes[position++] = (byte) (0x80 | ((code >> 12) & 0x3f));
+                bytes[position++] = (byte) (0x80 | ((code >> 6) & 0x3f));
+                bytes[position++] = (byte) (0x80 | (code & 0x3f));
+            }
+            else if (Character.isSurrogate(c))
+            {
+                // Lone surrogate, not valid UTF-8
+                escape(c);
+            }
+            else
+            {
+                bytes[position++] = (byte) (0xe0 | (c >> 12));
+                bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                bytes[position++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+
+        bytes[position++] = '"';
+    }
+
+    private void escape(char c)
+    {
+        bytes[position++] = '\\';
+
+        switch (c)
+        {
+            case '\n':
+                bytes[position++] = 'n';
+                break;
+            case '\r':
+                bytes[position++] = 'r';
+                break;
+            case '\t':
+                bytes[position++] = 't';
+                break;
+            case '\b':
+                bytes[position++] = 'b';
+                break;
+            case '\f':
+                bytes[position++] = 'f';
+                break;
+            default:
+                bytes[position++] = 'u';
+                bytes[position++] = HEX[(c >> 12) & 0xf];
+                bytes[position++] = HEX[(c >> 8) & 0xf];
+                bytes[position++] = HEX[(c >> 4) & 0xf];
+                bytes[position++] = HEX[c & 0xf];
+        }
+    }
+
+    private void put(char c)
+    {
+        ensure(1);
+        bytes[position++] = (byte) c;
+    }
+
+    private void ensure(int count)
+    {
+        if (position + count > bytes.length)
+        {
+            byte[] grown = new byte[Math.max(bytes.length * 2, position + count)];
+            System.arraycopy(bytes, 0, grown, 0, position);
+
+            bytes = grown;
+        }
+    }
+}
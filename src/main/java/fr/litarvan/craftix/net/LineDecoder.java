@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * A Line Decoder
+ *
+ *
+ * Incrementally splits the bytes received from a launcher into
+ * newline-delimited messages. Bytes of an incomplete message are
+ * kept until the rest of it is received, so the read buffers can
+ * be given back to the pool right after each read.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class LineDecoder
+{
+    /**
+     * The charset of the messages
+     */
+    public static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The maximum size of a message, in bytes
+     */
+    private final int maxLength;
+
+    /**
+     * The bytes of the message being received
+     */
+    private byte[] pending = new byte[256];
+
+    /**
+     * The number of bytes in {@link #pending}
+     */
+    private int length;
+
+    /**
+     * Line decoder
+     *
+     * @param maxLength The maximum size of a message, in bytes
+     */
+    public LineDecoder(int maxLength)
+    {
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Read all the available bytes of the given buffer, and add
+     * every completed message to the output list
+     *
+     * @param in The received bytes (flipped)
+     * @param out The list where the completed messages are added
+     *
+     * @throws IOException If a message is longer than the maximum length
+     */
+    public void decode(ByteBuffer in, List<String> out) throws IOException
+    {
+        String message;
+
+        while ((message = next(in)) != null)
+        {
+            out.add(message);
+        }
+    }
+
+    /**
+     * Read the bytes of the given buffer until a message is completed
+     *
+     * @param in The received bytes (flipped)
+     *
+     * @return The completed message, or null if every byte was read
+     *         without completing one
+     *
+     * @throws IOException If a message is longer than the maximum length
+     */
+    public String next(ByteBuffer in) throws IOException
+    {
+        while (in.hasRemaining())
+        {
+            int start = in.position();
+            int end = start;
+
+            while (end < in.limit() && in.get(end) != '\n')
+            {
+                end++;
+            }
+
+            append(in, end - start);
+
+            if (end == in.limit())
+            {
+                break;
+            }
+
+            in.get(); // '\n'
+
+            int size = length > 0 && pending[length - 1] == '\r' ? length - 1 : length;
+            length = 0;
+
+            if (size > 0)
+            {
+                return new String(pending, 0, size, UTF_8);
+            }
+        }
+
+        return null;
+    }
+
+    private void append(ByteBuffer in, int count) throws IOException
+    {
+        if (length + count > maxLength)
+        {
+            length = 0;
+            throw new IOException("Received a message bigger than " + maxLength + " bytes");
+        }
+
+        if (length + count > pending.length)
+        {
+            byte[] grown = new byte[Math.min(maxLength, Math.max(pending.length * 2, length + count))];
+            System.arraycopy(pending, 0, grown, 0, length);
+
+            pending = grown;
+        }
+
+        in.get(pending, length, count);
+        length += count;
+    }
+}
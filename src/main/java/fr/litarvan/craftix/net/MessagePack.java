@@ -0,0 +1,477 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.net;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * MessagePack
+ *
+ *
+ * Converts the JSON messages to MessagePack (https://msgpack.org)
+ * and back, for the {@link Protocol#MSGPACK} protocol. The JSON
+ * objects and arrays are written as maps and arrays, the numbers
+ * with their smallest format, so the messages are smaller and faster
+ * to write and read than JSON texts.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public final class MessagePack
+{
+    /**
+     * Maximum nesting of the received maps and arrays
+     */
+    public static final int MAX_DEPTH = 64;
+
+    private MessagePack()
+    {
+    }
+
+    /**
+     * @param message The message to write (JSON object or {@link JsonWritable})
+     *
+     * @return The message frame : its length (4 bytes, big endian) then its MessagePack form
+     */
+    public static ByteBuffer frame(Object message)
+    {
+        Writer writer = new Writer();
+
+        writer.position = FrameDecoder.HEADER_LENGTH;
+        writer.write(message);
+
+        int length = writer.position - FrameDecoder.HEADER_LENGTH;
+        ByteBuffer buffer = ByteBuffer.wrap(writer.bytes, 0, writer.position);
+        buffer.putInt(0, length);
+
+        return buffer;
+    }
+
+    /**
+     * @param value The value to write (JSON object, array, or value)
+     *
+     * @return Its MessagePack form
+     */
+    public static byte[] encode(Object value)
+    {
+        Writer writer = new Writer();
+        writer.write(value);
+
+        byte[] bytes = new byte[writer.position];
+        System.arraycopy(writer.bytes, 0, bytes, 0, bytes.length);
+
+        return bytes;
+    }
+
+    /**
+     * Read a value
+     *
+     * @param in The MessagePack bytes
+     *
+     * @return The value ({@link JSONObject}, {@link JSONArray}, String, Integer, Long,
+     *         Double, Boolean, or {@link JSONObject#NULL})
+     *
+     * @throws IOException If the bytes are not a valid MessagePack value
+     */
+    public static Object decode(ByteBuffer in) throws IOException
+    {
+        try
+        {
+            return read(in, 0);
+        }
+        catch (BufferUnderflowException | IllegalArgumentException e)
+        {
+            throw new IOException("Invalid MessagePack value", e);
+        }
+    }
+
+    private static Object read(ByteBuffer in, int depth) throws IOException
+    {
+        if (depth > MAX_DEPTH)
+        {
+            throw new IOException("MessagePack value nested more than " + MAX_DEPTH + " times");
+        }
+
+        int b = in.get() & 0xff;
+
+        if (b <= 0x7f)
+        {
+            return b;
+        }
+        else if (b >= 0xe0)
+        {
+            return (int) (byte) b;
+        }
+        else if (b <= 0x8f)
+        {
+            return readMap(in, b & 0x0f, depth);
+        }
+        else if (b <= 0x9f)
+        {
+            return readArray(in, b & 0x0f, depth);
+        }
+        else if (b <= 0xbf)
+        {
+            return readString(in, b & 0x1f);
+        }
+
+        switch (b)
+        {
+            case 0xc0:
+                return JSONObject.NULL;
+            case 0xc2:
+                return false;
+            case 0xc3:
+                return true;
+            case 0xca:
+                return (double) in.getFloat();
+            case 0xcb:
+                return in.getDouble();
+            case 0xcc:
+                return in.get() & 0xff;
+            case 0xcd:
+                return in.getShort() & 0xffff;
+            case 0xce:
+                return number(in.getInt() & 0xffffffffL);
+            case 0xcf:
+                return number(in.getLong());
+            case 0xd0:
+                return (int) in.get();
+            case 0xd1:
+                return (int) in.getShort();
+            case 0xd2:
+                return in.getInt();
+            case 0xd3:
+                return number(in.getLong());
+            case 0xd9:
+                return readString(in, in.get() & 0xff);
+            case 0xda:
+                return readString(in, in.getShort() & 0xffff);
+            case 0xdb:
+                return readString(in, length(in));
+            case 0xdc:
+                return readArray(in, in.getShort() & 0xffff, depth);
+            case 0xdd:
+                return readArray(in, length(in), depth);
+            case 0xde:
+                return readMap(in, in.getShort() & 0xffff, depth);
+            case 0xdf:
+                return readMap(in, length(in), depth);
+            default:
+                throw new IOException("Unsupported MessagePack type 0x" + Integer.toHexString(b));
+        }
+    }
+
+    private static Object number(long value)
+    {
+        return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE ? (Object) (int) value : (Object) value;
+    }
+
+    private static int length(ByteBuffer in) throws IOException
+    {
+        int length = in.getInt();
+
+        if (length < 0 || length > in.remaining())
+        {
+            throw new IOException("Invalid MessagePack length " + (length & 0xffffffffL));
+        }
+
+        return length;
+    }
+
+    private static String readString(ByteBuffer in, int length)
+    {
+        if (length > in.remaining())
+        {
+            throw new BufferUnderflowException();
+        }
+
+        String string = new String(in.array(), in.arrayOffset() + in.position(), length, LineDecoder.UTF_8);
+        in.position(in.position() + length);
+
+        return string;
+    }
+
+    private static JSONArray readArray(ByteBuffer in, int size, int depth) throws IOException
+    {
+        JSONArray array = new JSONArray();
+
+        for (int i = 0; i < size; i++)
+        {
+            array.put(read(in, depth + 1));
+        }
+
+        return array;
+    }
+
+    private static JSONObject readMap(ByteBuffer in, int size, int depth) throws IOException
+    {
+        JSONObject object = new JSONObject();
+
+        for (int i = 0; i < size; i++)
+        {
+            Object key = read(in, depth + 1);
+            object.put(key instanceof String ? (String) key : String.valueOf(key), read(in, depth + 1));
+        }
+
+        return object;
+    }
+
+    private static class Writer
+    {
+        private byte[] bytes = new byte[256];
+        private int position;
+
+        private void write(Object value)
+        {
+            if (value == null || value == JSONObject.NULL)
+            {
+                put(0xc0);
+            }
+            else if (value instanceof String)
+            {
+                writeString((String) value);
+            }
+            else if (value instanceof Boolean)
+            {
+                put((Boolean) value ? 0xc3 : 0xc2);
+            }
+            else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+            {
+                writeLong(((Number) value).longValue());
+            }
+            else if (value instanceof Float)
+            {
+                ensure(5);
+                put(0xca);
+                putInt(Float.floatToIntBits((Float) value));
+            }
+            else if (value instanceof Double || value instanceof BigDecimal)
+            {
+                ensure(9);
+                put(0xcb);
+                putLong(Double.doubleToLongBits(((Number) value).doubleValue()));
+            }
+            else if (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64)
+            {
+                writeLong(((BigInteger) value).longValue());
+            }
+            else if (value instanceof JSONObject)
+            {
+                JSONObject object = (JSONObject) value;
+
+                writeHeader(object.length(), 0x80, 0xde, 0xdf);
+
+                for (String key : object.keySet())
+                {
+                    writeString(key);
+                    write(object.opt(key));
+                }
+            }
+            else if (value instanceof JSONArray)
+            {
+                JSONArray array = (JSONArray) value;
+
+                writeHeader(array.length(), 0x90, 0xdc, 0xdd);
+
+                for (int i = 0; i < array.length(); i++)
+                {
+                    write(array.opt(i));
+                }
+            }
+            else if (value instanceof JsonWritable)
+            {
+                // Written as JSON first, since the MessagePack maps start with their size
+                write(new JsonReader(JsonWriter.toString(value)).nextValue());
+            }
+            else if (value instanceof Map)
+            {
+                write(new JSONObject((Map<?, ?>) value));
+            }
+            else if (value instanceof Collection)
+            {
+                write(new JSONArray((Collection<?>) value));
+            }
+            else if (value.getClass().isArray())
+            {
+                write(JSONObject.wrap(value));
+            }
+            else if (value instanceof Enum)
+            {
+                writeString(((Enum<?>) value).name());
+            }
+            else
+            {
+                writeString(value.toString());
+            }
+        }
+
+        private void writeLong(long value)
+        {
+            ensure(9);
+
+            if (value >= 0)
+            {
+                if (value < 0x80)
+                {
+                    put((int) value);
+                }
+                else if (value <= 0xff)
+                {
+                    put(0xcc);
+                    put((int) value);
+                }
+                else if (value <= 0xffff)
+                {
+                    put(0xcd);
+                    putShort((int) value);
+                }
+                else if (value <= 0xffffffffL)
+                {
+                    put(0xce);
+                    putInt((int) value);
+                }
+                else
+                {
+                    put(0xcf);
+                    putLong(value);
+                }
+            }
+            else if (value >= -32)
+            {
+                put((int) value);
+            }
+            else if (value >= Byte.MIN_VALUE)
+            {
+                put(0xd0);
+                put((int) value);
+            }
+            else if (value >= Short.MIN_VALUE)
+            {
+                put(0xd1);
+                putShort((int) value);
+            }
+            else if (value >= Integer.MIN_VALUE)
+            {
+                put(0xd2);
+                putInt((int) value);
+            }
+            else
+            {
+                put(0xd3);
+                putLong(value);
+            }
+        }
+
+        private void writeString(String string)
+        {
+            byte[] utf8 = string.getBytes(LineDecoder.UTF_8);
+            int length = utf8.length;
+
+            ensure(5 + length);
+
+            if (length < 32)
+            {
+                put(0xa0 | length);
+            }
+            else if (length <= 0xff)
+            {
+                put(0xd9);
+                put(length);
+            }
+            else if (length <= 0xffff)
+            {
+                put(0xda);
+                putShort(length);
+            }
+            else
+            {
+                put(0xdb);
+                putInt(length);
+            }
+
+            System.arraycopy(utf8, 0, bytes, position, length);
+            position += length;
+        }
+
+        private void writeHeader(int size, int fix, int size16, int size32)
+        {
+            ensure(5);
+
+            if (size < 16)
+            {
+                put(fix | size);
+            }
+            else if (size <= 0xffff)
+            {
+                put(size16);
+                putShort(size);
+            }
+            else
+            {
+                put(size32);
+                putInt(size);
+            }
+        }
+
+        private void ensure(int count)
+        {
+            if (position + count > bytes.length)
+            {
+                byte[] grown = new byte[Math.max(bytes.length * 2, position + count)];
+                System.arraycopy(bytes, 0, grown, 0, position);
+
+                bytes = grown;
+            }
+        }
+
+        private void put(int b)
+        {
+            ensure(1);
+            bytes[position++] = (byte) b;
+        }
+
+        private void putShort(int value)
+        {
+            put(value >>> 8);
+            put(value);
+        }
+
+        private void putInt(int value)
+        {
+            putShort(value >>> 16);
+            putShort(value);
+        }
+
+        private void putLong(long value)
+        {
+            putInt((int) (value >>> 32));
+            putInt((int) value);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.net;
+
+/**
+ * A Protocol
+ *
+ *
+ * How the messages are written on the launcher connection. Every
+ * connection starts with {@link #JSON}, a launcher can then switch
+ * to another one of the "protocols" listed in the status message
+ * with the "protocol" command.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public enum Protocol
+{
+    /**
+     * JSON texts, each followed by a line break (or in a text message with a WebSocket)
+     */
+    JSON("json"),
+
+    /**
+     * MessagePack documents, each preceded by its length (4 bytes, big endian),
+     * see {@link MessagePack} and {@link FrameDecoder} (or in a binary message with a WebSocket)
+     */
+    MSGPACK("msgpack");
+
+    /**
+     * The protocol name, as given to the "protocol" command
+     */
+    private final String name;
+
+    Protocol(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * @param name A protocol name
+     *
+     * @return The protocol with this name, or null if unknown
+     */
+    public static Protocol of(String name)
+    {
+        for (Protocol protocol : values())
+        {
+            if (protocol.name.equalsIgnoreCase(name))
+            {
+                return protocol;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return The protocol name, as given to the "protocol" command
+     */
+    public String getName()
+    {
+        return name;
+    }
+}
@@ -0,0 +1,890 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.net;
+
+import java.net.ProtocolException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A WebSocket
+ *
+ *
+ * The RFC 6455 side of a launcher connection : it answers the
+ * HTTP upgrade request, then splits the received bytes into
+ * messages (joining the fragments, unmasking and inflating
+ * them) and wraps the sent messages into frames. The
+ * permessage-deflate extension (RFC 7692) is used when the
+ * launcher offers it.
+ *
+ * Like the {@link FrameDecoder}, the bytes of an incomplete
+ * frame are kept until the rest is received. Only one thread
+ * may read, and only one thread at a time may write.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class WebSocket
+{
+    /**
+     * The GUID appended to the key of the launcher to compute the accept header
+     */
+    public static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    /**
+     * Frame continuing a fragmented message
+     */
+    public static final int CONTINUATION = 0x0;
+
+    /**
+     * Text message (a JSON text)
+     */
+    public static final int TEXT = 0x1;
+
+    /**
+     * Binary message (a MessagePack document)
+     */
+    public static final int BINARY = 0x2;
+
+    /**
+     * Closing handshake
+     */
+    public static final int CLOSE = 0x8;
+
+    /**
+     * Ping, answered by a pong with the same content
+     */
+    public static final int PING = 0x9;
+
+    /**
+     * Pong
+     */
+    public static final int PONG = 0xA;
+
+    /**
+     * Close code of a connection closed by the launcher or the server
+     */
+    public static final int NORMAL_CLOSURE = 1000;
+
+    /**
+     * Close code of a connection closed because the launcher broke the protocol
+     */
+    public static final int PROTOCOL_ERROR = 1002;
+
+    /**
+     * Maximum size of the HTTP upgrade request
+     */
+    public static final int MAX_HANDSHAKE_LENGTH = 8 * 1024;
+
+    /**
+     * Size under which the sent messages are not compressed
+     */
+    public static final int MIN_DEFLATE_SIZE = 128;
+
+    /**
+     * The sub-protocol selected when the launcher asks for it
+     */
+    public static final String SUBPROTOCOL = "craftix";
+
+    /**
+     * System property giving the web page origins allowed to connect, separated
+     * by commas ("*" for any). Launchers without origin, local files and local
+     * pages are always allowed.
+     */
+    public static final String ORIGINS_PROPERTY = "craftix.origins";
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final byte[] DEFLATE_TAIL = {0, 0, (byte) 0xff, (byte) 0xff};
+
+    /**
+     * The maximum size of a message, in bytes (after decompression)
+     */
+    private final int maxLength;
+
+    /**
+     * The received part of the upgrade request
+     */
+    private StringBuilder request = new StringBuilder();
+
+    /**
+     * If the upgrade request was accepted
+     */
+    private boolean open;
+
+    /**
+     * Compresses the sent messages (null without permessage-deflate)
+     */
+    private Deflater deflater;
+
+    /**
+     * Decompresses the received messages (null without permessage-deflate)
+     */
+    private Inflater inflater;
+
+    /**
+     * If the deflater is reset after each message, as asked by the launcher
+     */
+    private boolean resetDeflater;
+
+    /**
+     * Output of the deflater
+     */
+    private byte[] compressed = new byte[256];
+
+    /**
+     * Checks the received text messages
+     */
+    private final CharsetDecoder utf8 = LineDecoder.UTF_8.newDecoder();
+
+    /**
+     * The header of the frame being received : 2 bytes, the extended length, then the mask
+     */
+    private final byte[] header = new byte[14];
+    private int headerLength;
+    private int headerSize = 2;
+
+    /**
+     * The frame being received
+     */
+    private int frameOpcode;
+    private boolean finalFrame;
+    private long remaining;
+    private int maskIndex;
+
+    /**
+     * The content of the control frame being received
+     */
+    private final byte[] control = new byte[125];
+    private int controlLength;
+
+    /**
+     * The content of the message being received, from all its frames
+     */
+    private byte[] message = new byte[256];
+    private int messageLength;
+
+    /**
+     * The type of the message being received (-1 between two messages)
+     */
+    private int messageOpcode = -1;
+
+    /**
+     * If the message being received is compressed
+     */
+    private boolean messageCompressed;
+
+    /**
+     * Output of the inflater
+     */
+    private byte[] inflated = new byte[256];
+
+    /**
+     * The type of the last returned message
+     */
+    private int opcode;
+
+    /**
+     * WebSocket
+     *
+     * @param maxLength The maximum size of a received message, in bytes
+     */
+    public WebSocket(int maxLength)
+    {
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Read the upgrade request until it is complete
+     *
+     * @param in The received bytes (flipped), the bytes after the request are not read
+     *
+     * @return The HTTP response to send (see {@link #isOpen()} to know if the
+     *         upgrade was accepted), or null if the request is incomplete
+     */
+    public ByteBuffer handshake(ByteBuffer in)
+    {
+        if (request == null)
+        {
+            return null;
+        }
+
+        while (in.hasRemaining())
+        {
+            request.append((char) (in.get() & 0xff));
+
+            int length = request.length();
+
+            if (length >= 4 && request.charAt(length - 1) == '\n' && request.charAt(length - 2) == '\r' && request.charAt(length - 3) == '\n' && request.charAt(length - 4) == '\r')
+            {
+                String text = request.toString();
+                request = null;
+
+                return upgrade(text);
+            }
+
+            if (length > MAX_HANDSHAKE_LENGTH)
+            {
+                request = null;
+                return response("400 Bad Request", "");
+            }
+        }
+
+        return null;
+    }
+
+    protected ByteBuffer upgrade(String text)
+    {
+        String[] lines = text.split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+
+        if (requestLine.length != 3 || !requestLine[0].equals("GET") || !requestLine[2].startsWith("HTTP/1."))
+        {
+            return response("400 Bad Request", "");
+        }
+
+        Map<String, String> headers = new HashMap<String, String>();
+
+        for (int i = 1; i < lines.length; i++)
+        {
+            int colon = lines[i].indexOf(':');
+
+            if (colon <= 0)
+            {
+                continue;
+            }
+
+            String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = lines[i].substring(colon + 1).trim();
+            String previous = headers.get(name);
+
+            // A repeated header is the same as a single one with a list of values
+            headers.put(name, previous == null ? value : previous + ", " + value);
+        }
+
+        if (!contains(headers.get("upgrade"), "websocket") || !contains(headers.get("connection"), "upgrade")
+            || !"13".equals(headers.get("sec-websocket-version")))
+        {
+            return response("426 Upgrade Required", "Upgrade: websocket\r\nSec-WebSocket-Version: 13\r\n");
+        }
+
+        String key = headers.get("sec-websocket-key");
+
+        if (key == null || key.length() != 24)
+        {
+            return response("400 Bad Request", "");
+        }
+
+        if (!isAllowedOrigin(headers.get("origin")))
+        {
+            return response("403 Forbidden", "");
+        }
+
+        StringBuilder response = new StringBuilder("HTTP/1.1 101 Switching Protocols\r\n");
+        response.append("Upgrade: websocket\r\n");
+        response.append("Connection: Upgrade\r\n");
+        response.append("Sec-WebSocket-Accept: ").append(accept(key)).append("\r\n");
+
+        if (contains(headers.get("sec-websocket-protocol"), SUBPROTOCOL))
+        {
+            response.append("Sec-WebSocket-Protocol: ").append(SUBPROTOCOL).append("\r\n");
+        }
+
+        String extension = negotiate(headers.get("sec-websocket-extensions"));
+
+        if (extension != null)
+        {
+            response.append("Sec-WebSocket-Extensions: ").append(extension).append("\r\n");
+        }
+
+        open = true;
+
+        return ByteBuffer.wrap(response.append("\r\n").toString().getBytes(ASCII));
+    }
+
+    /**
+     * Accept the first permessage-deflate offer that can be honored
+     *
+     * @param offers The extensions offered by the launcher (can be null)
+     *
+     * @return The accepted extension, or null if none
+     */
+    protected String negotiate(String offers)
+    {
+        if (offers == null)
+        {
+            return null;
+        }
+
+        for (String offer : offers.split(","))
+        {
+            String[] params = offer.split(";");
+
+            if (!params[0].trim().equalsIgnoreCase("permessage-deflate"))
+            {
+                continue;
+            }
+
+            boolean serverNoContext = false;
+            boolean clientNoContext = false;
+            boolean valid = true;
+
+            for (int i = 1; i < params.length; i++)
+            {
+                String param = params[i].trim();
+                int equals = param.indexOf('=');
+                String name = equals == -1 ? param : param.substring(0, equals).trim();
+                String value = equals == -1 ? null : param.substring(equals + 1).trim().replace("\"", "");
+
+                if (name.equalsIgnoreCase("server_no_context_takeover"))
+                {
+                    serverNoContext = true;
+                }
+                else if (name.equalsIgnoreCase("client_no_context_takeover"))
+                {
+                    clientNoContext = true;
+                }
+                else if (name.equalsIgnoreCase("client_max_window_bits"))
+                {
+                    // The inflater reads any window size
+                }
+                else if (!(name.equalsIgnoreCase("server_max_window_bits") && "15".equals(value)))
+                {
+                    // The deflater always uses a 32 KB window
+                    valid = false;
+                }
+            }
+
+            if (!valid)
+            {
+                continue;
+            }
+
+            deflater = new Deflater(Deflater.BEST_SPEED, true);
+            inflater = new Inflater(true);
+            resetDeflater = serverNoContext;
+
+            return "permessage-deflate" + (serverNoContext ? "; server_no_context_takeover" : "") + (clientNoContext ? "; client_no_context_takeover" : "");
+        }
+
+        return null;
+    }
+
+    /**
+     * Read the bytes of the given buffer until a message is completed,
+     * see {@link #getOpcode()} for its type. The control frames are
+     * returned too, even in the middle of a fragmented message.
+     *
+     * @param in The received bytes (flipped)
+     *
+     * @return The completed message content (only valid until the next
+     *         call), or null if every byte was read without completing one
+     *
+     * @throws ProtocolException If the launcher doesn't follow the protocol
+     */
+    public ByteBuffer next(ByteBuffer in) throws ProtocolException
+    {
+        while (true)
+        {
+            if (headerLength < headerSize)
+            {
+                if (!in.hasRemaining())
+                {
+                    return null;
+                }
+
+                header[headerLength++] = in.get();
+
+                if (headerLength == 2)
+                {
+                    if ((header[1] & 0x80) == 0)
+                    {
+                        throw new ProtocolException("The frames sent by a launcher must be masked");
+                    }
+
+                    int length = header[1] & 0x7f;
+                    headerSize = 2 + (length == 126 ? 2 : length == 127 ? 8 : 0) + 4;
+                }
+
+                if (headerLength < headerSize)
+                {
+                    continue;
+                }
+
+                startFrame();
+            }
+
+            if (remaining > 0)
+            {
+                if (!in.hasRemaining())
+                {
+                    return null;
+                }
+
+                int count = (int) Math.min(in.remaining(), remaining);
+                byte[] target = frameOpcode >= CLOSE ? control : message;
+                int offset = frameOpcode >= CLOSE ? controlLength : messageLength;
+
+                in.get(target, offset, count);
+
+                for (int i = offset; i < offset + count; i++)
+                {
+                    target[i] ^= header[headerSize - 4 + (maskIndex++ & 3)];
+                }
+
+                if (frameOpcode >= CLOSE)
+                {
+                    controlLength += count;
+                }
+                else
+                {
+                    messageLength += count;
+                }
+
+                remaining -= count;
+
+                if (remaining > 0)
+                {
+                    return null;
+                }
+            }
+
+            headerLength = 0;
+            headerSize = 2;
+
+            ByteBuffer result = endFrame();
+
+            if (result != null)
+            {
+                return result;
+            }
+        }
+    }
+
+    private void startFrame() throws ProtocolException
+    {
+        int first = header[0] & 0xff;
+        boolean compressed = (first & 0x40) != 0;
+
+        finalFrame = (first & 0x80) != 0;
+        frameOpcode = first & 0x0f;
+
+        if ((first & 0x30) != 0)
+        {
+            throw new ProtocolException("Received a frame with reserved bits set");
+        }
+
+        long length = header[1] & 0x7f;
+
+        if (length == 126)
+        {
+            length = ((header[2] & 0xff) << 8) | (header[3] & 0xff);
+        }
+        else if (length == 127)
+        {
+            length = 0;
+
+            for (int i = 2; i < 10; i++)
+            {
+                length = (length << 8) | (header[i] & 0xff);
+            }
+        }
+
+        if (frameOpcode >= CLOSE)
+        {
+            if (frameOpcode > PONG || !finalFrame || compressed || length > control.length)
+            {
+                throw new ProtocolException("Received an invalid control frame (" + frameOpcode + ")");
+            }
+
+            controlLength = 0;
+        }
+        else if (frameOpcode == CONTINUATION)
+        {
+            if (messageOpcode == -1 || compressed)
+            {
+                throw new ProtocolException("Received an unexpected continuation frame");
+            }
+        }
+        else if (frameOpcode == TEXT || frameOpcode == BINARY)
+        {
+            if (messageOpcode != -1)
+            {
+                throw new ProtocolException("Received a new message before the end of a fragmented one");
+            }
+
+            if (compressed && inflater == null)
+            {
+                throw new ProtocolException("Received a compressed message without permessage-deflate");
+            }
+
+            messageOpcode = frameOpcode;
+            messageCompressed = compressed;
+            messageLength = 0;
+        }
+        else
+        {
+            throw new ProtocolException("Received a frame of unknown type (" + frameOpcode + ")");
+        }
+
+        if (frameOpcode < CLOSE)
+        {
+            if (length < 0 || messageLength + length > maxLength)
+            {
+                throw new ProtocolException("Received a message bigger than " + maxLength + " bytes");
+            }
+
+            if (messageLength + length > message.length)
+            {
+                message = Arrays.copyOf(message, (int) Math.min(maxLength + DEFLATE_TAIL.length, Math.max(message.length * 2, messageLength + length)));
+            }
+        }
+
+        remaining = length;
+        maskIndex = 0;
+    }
+
+    private ByteBuffer endFrame() throws ProtocolException
+    {
+        if (frameOpcode >= CLOSE)
+        {
+            opcode = frameOpcode;
+            return ByteBuffer.wrap(control, 0, controlLength);
+        }
+
+        if (!finalFrame)
+        {
+            return null;
+        }
+
+        opcode = messageOpcode;
+        messageOpcode = -1;
+
+        return messageCompressed ? inflate() : ByteBuffer.wrap(message, 0, messageLength);
+    }
+
+    private ByteBuffer inflate() throws ProtocolException
+    {
+        // The sender removed the end of the flushed block
+        if (messageLength + DEFLATE_TAIL.length > message.length)
+        {
+            message = Arrays.copyOf(message, messageLength + DEFLATE_TAIL.length);
+        }
+
+        System.arraycopy(DEFLATE_TAIL, 0, message, messageLength, DEFLATE_TAIL.length);
+        inflater.setInput(message, 0, messageLength + DEFLATE_TAIL.length);
+
+        int length = 0;
+
+        try
+        {
+            while (true)
+            {
+                if (length == inflated.length)
+                {
+                    if (length > maxLength)
+                    {
+                        throw new ProtocolException("Received a message bigger than " + maxLength + " bytes");
+                    }
+
+                    inflated = Arrays.copyOf(inflated, Math.min(inflated.length * 2, maxLength + 1));
+                }
+
+                int count = inflater.inflate(inflated, length, inflated.length - length);
+
+                if (count == 0)
+                {
+                    break;
+                }
+
+                length += count;
+            }
+        }
+        catch (DataFormatException e)
+        {
+            throw new ProtocolException("Received an invalid compressed message (" + e.getMessage() + ")");
+        }
+
+        if (inflater.needsDictionary())
+        {
+            throw new ProtocolException("Received a compressed message needing a dictionary");
+        }
+
+        if (inflater.finished())
+        {
+            // The launcher ended its deflate stream, the next message starts a new one
+            inflater.reset();
+        }
+
+        return ByteBuffer.wrap(inflated, 0, length);
+    }
+
+    /**
+     * @param content A text message content
+     *
+     * @return The message text
+     *
+     * @throws ProtocolException If the message isn't valid UTF-8
+     */
+    public String text(ByteBuffer content) throws ProtocolException
+    {
+        try
+        {
+            return utf8.decode(content).toString();
+        }
+        catch (CharacterCodingException e)
+        {
+            throw new ProtocolException("Received a text message that isn't valid UTF-8");
+        }
+    }
+
+    /**
+     * Wrap a message into a frame, compressed if permessage-deflate is used
+     *
+     * @param opcode The message type
+     * @param content The message content (from its position to its limit)
+     *
+     * @return The frame to send
+     */
+    public ByteBuffer frame(int opcode, ByteBuffer content)
+    {
+        boolean compress = deflater != null && opcode < CLOSE && content.remaining() >= MIN_DEFLATE_SIZE;
+        int length = compress ? deflate(content) : content.remaining();
+        int headerSize = length < 126 ? 2 : length <= 0xffff ? 4 : 10;
+
+        byte[] frame = new byte[headerSize + length];
+        frame[0] = (byte) (0x80 | (compress ? 0x40 : 0) | opcode);
+
+        if (length < 126)
+        {
+            frame[1] = (byte) length;
+        }
+        else if (length <= 0xffff)
+        {
+            frame[1] = 126;
+            frame[2] = (byte) (length >>> 8);
+            frame[3] = (byte) length;
+        }
+        else
+        {
+            frame[1] = 127;
+
+            for (int i = 0; i < 8; i++)
+            {
+                frame[2 + i] = (byte) ((long) length >>> (56 - 8 * i));
+            }
+        }
+
+        if (compress)
+        {
+            System.arraycopy(compressed, 0, frame, headerSize, length);
+
+            if (compressed.length > JsonWriter.MAX_KEPT_SIZE)
+            {
+                compressed = new byte[256];
+            }
+        }
+        else
+        {
+            content.get(frame, headerSize, length);
+        }
+
+        return ByteBuffer.wrap(frame);
+    }
+
+    private int deflate(ByteBuffer content)
+    {
+        deflater.setInput(content.array(), content.arrayOffset() + content.position(), content.remaining());
+
+        int length = 0;
+
+        while (true)
+        {
+            length += deflater.deflate(compressed, length, compressed.length - length, Deflater.SYNC_FLUSH);
+
+            // The flush is complete once the output is not full
+            if (length < compressed.length)
+            {
+                break;
+            }
+
+            compressed = Arrays.copyOf(compressed, compressed.length * 2);
+        }
+
+        if (resetDeflater)
+        {
+            deflater.reset();
+        }
+
+        // The flush ends with an empty block (00 00 ff ff), added back by the launcher
+        return length - DEFLATE_TAIL.length;
+    }
+
+    /**
+     * @param code The close code
+     *
+     * @return The close frame to send
+     */
+    public ByteBuffer close(int code)
+    {
+        return frame(CLOSE, ByteBuffer.wrap(new byte[]{(byte) (code >>> 8), (byte) code}));
+    }
+
+    /**
+     * Free the compression memory, once the connection is closed
+     */
+    public void end()
+    {
+        if (deflater != null)
+        {
+            deflater.end();
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return If the upgrade request was accepted
+     */
+    public boolean isOpen()
+    {
+        return open;
+    }
+
+    /**
+     * @return If permessage-deflate is used
+     */
+    public boolean isCompressed()
+    {
+        return deflater != null;
+    }
+
+    /**
+     * @return The type of the last message returned by {@link #next(ByteBuffer)}
+     */
+    public int getOpcode()
+    {
+        return opcode;
+    }
+
+    /**
+     * @param key The key sent by the launcher
+     *
+     * @return The value of the accept header
+     */
+    public static String accept(String key)
+    {
+        byte[] hash;
+
+        try
+        {
+            hash = MessageDigest.getInstance("SHA-1").digest((key + GUID).getBytes(ASCII));
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+
+        StringBuilder result = new StringBuilder();
+
+        for (int i = 0; i < hash.length; i += 3)
+        {
+            int bits = (hash[i] & 0xff) << 16 | (i + 1 < hash.length ? (hash[i + 1] & 0xff) << 8 : 0) | (i + 2 < hash.length ? hash[i + 2] & 0xff : 0);
+
+            result.append(BASE64[bits >>> 18 & 0x3f]);
+            result.append(BASE64[bits >>> 12 & 0x3f]);
+            result.append(i + 1 < hash.length ? BASE64[bits >>> 6 & 0x3f] : '=');
+            result.append(i + 2 < hash.length ? BASE64[bits & 0x3f] : '=');
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * @param origin The origin header of the upgrade request (can be null)
+     *
+     * @return If the page can connect, other web sites would otherwise be able to use the server
+     */
+    public static boolean isAllowedOrigin(String origin)
+    {
+        if (origin == null || origin.equals("file://"))
+        {
+            return true;
+        }
+
+        String allowed = System.getProperty(ORIGINS_PROPERTY);
+
+        if (allowed != null)
+        {
+            for (String entry : allowed.split(","))
+            {
+                if (entry.trim().equals("*") || entry.trim().equalsIgnoreCase(origin))
+                {
+                    return true;
+                }
+            }
+        }
+
+        try
+        {
+            String host = new URI(origin).getHost();
+            return host != null && (host.equals("localhost") || host.equals("127.0.0.1") || host.equals("[::1]"));
+        }
+        catch (URISyntaxException e)
+        {
+            return false;
+        }
+    }
+
+    private static boolean contains(String list, String token)
+    {
+        if (list == null)
+        {
+            return false;
+        }
+
+        for (String value : list.split(","))
+        {
+            if (value.trim().equalsIgnoreCase(token))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static ByteBuffer response(String status, String headers)
+    {
+        return ByteBuffer.wrap(("HTTP/1.1 " + status + "\r\n" + headers + "Connection: close\r\nContent-Length: 0\r\n\r\n").getBytes(ASCII));
+    }
+}
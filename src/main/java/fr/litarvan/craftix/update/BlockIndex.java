@@ -0,0 +1,383 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.update;
+
+import fr.litarvan.craftix.util.Hashing;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A Block Index
+ *
+ *
+ * The checksums of the fixed size blocks of a file, published
+ * next to it on the update server (see the "blocks" field of
+ * {@link UpdateFile}). A client having an older version of the
+ * file finds the unchanged blocks in it using the weak rolling
+ * checksums, confirms them with the strong ones, and only
+ * downloads the other blocks (see {@link DeltaDownload}).
+ *
+ * Binary format : magic, version, block size, file size, block
+ * count, then a weak checksum (int) and an MD5 (16 bytes) for
+ * each block.
+ *
+ * The index of a file can be generated using
+ * <code>java -cp craftix.jar fr.litarvan.craftix.update.BlockIndex (files...)</code>
+ * that writes a '.blocks' file next to each given file.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class BlockIndex
+{
+    private static final int MAGIC = 0x43584253; // CXBS
+    private static final int VERSION = 1;
+
+    /**
+     * Default block size
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    /**
+     * Size of the window read at once from the other version when matching
+     */
+    public static final int WINDOW_SIZE = 1024 * 1024;
+
+    /**
+     * The block size
+     */
+    private final int blockSize;
+
+    /**
+     * The file size
+     */
+    private final long fileSize;
+
+    /**
+     * The weak checksum of each block
+     */
+    private final int[] weak;
+
+    /**
+     * The MD5 of each block
+     */
+    private final byte[][] strong;
+
+    /**
+     * Block index
+     *
+     * @param blockSize The block size
+     * @param fileSize The file size
+     * @param weak The weak checksum of each block
+     * @param strong The MD5 of each block
+     */
+    public BlockIndex(int blockSize, long fileSize, int[] weak, byte[][] strong)
+    {
+        this.blockSize = blockSize;
+        this.fileSize = fileSize;
+        this.weak = weak;
+        this.strong = strong;
+    }
+
+    /**
+     * Compute the index of a file
+     *
+     * @param file The file
+     * @param blockSize The block size
+     *
+     * @return The file block index
+     */
+    public static BlockIndex generate(File file, int blockSize) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int count = (int) ((channel.size() + blockSize - 1) / blockSize);
+
+            int[] weak = new int[count];
+            byte[][] strong = new byte[count][];
+
+            for (int i = 0; i < count; i++)
+            {
+                int offset = i * blockSize;
+                int length = (int) Math.min(blockSize, channel.size() - offset);
+
+                weak[i] = RollingChecksum.of(data, offset, length);
+                strong[i] = md5(data, offset, length);
+            }
+
+            return new BlockIndex(blockSize, channel.size(), weak, strong);
+        }
+    }
+
+    /**
+     * Read an index
+     *
+     * @param input The stream to read (not closed)
+     *
+     * @return The read index
+     */
+    public static BlockIndex read(InputStream input) throws IOException
+    {
+        DataInputStream in = new DataInputStream(input);
+
+        if (in.readInt() != MAGIC || in.readInt() != VERSION)
+        {
+            throw new IOException("Not a block index");
+        }
+
+        int blockSize = in.readInt();
+        long fileSize = in.readLong();
+        int count = in.readInt();
+
+        if (blockSize <= 0 || count != (fileSize + blockSize - 1) / blockSize)
+        {
+            throw new IOException("Invalid block index (" + count + " blocks of " + blockSize + " bytes for " + fileSize + " bytes)");
+        }
+
+        int[] weak = new int[count];
+        byte[][] strong = new byte[count][16];
+
+        for (int i = 0; i < count; i++)
+        {
+            weak[i] = in.readInt();
+            in.readFully(strong[i]);
+        }
+
+        return new BlockIndex(blockSize, fileSize, weak, strong);
+    }
+
+    /**
+     * Write the index
+     *
+     * @param output The stream to write to (not closed)
+     */
+    public void write(OutputStream output) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(output);
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(blockSize);
+        out.writeLong(fileSize);
+        out.writeInt(weak.length);
+
+        for (int i = 0; i < weak.length; i++)
+        {
+            out.writeInt(weak[i]);
+            out.write(strong[i]);
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Find the blocks of the file in another version of it. Only
+     * the full blocks are searched (the last one is always downloaded).
+     *
+     * The other version is read through a window of {@link #WINDOW_SIZE}
+     * bytes (at least two blocks), so it is never mapped and can be of
+     * any size.
+     *
+     * @param local The other version
+     *
+     * @return The offset of each block in the other version, or -1 for the blocks not found
+     */
+    public long[] match(FileChannel local) throws IOException
+    {
+        long[] found = new long[weak.length];
+        Arrays.fill(found, -1);
+
+        int full = (int) (fileSize / blockSize);
+
+        if (full == 0 || local.size() < blockSize)
+        {
+            return found;
+        }
+
+        ByteBuffer window = ByteBuffer.allocate(Math.max(WINDOW_SIZE, blockSize * 2));
+        long base = 0;
+        boolean end = fill(local, window, base);
+
+        if (window.limit() < blockSize)
+        {
+            return found;
+        }
+
+        Map<Integer, int[]> table = new HashMap<Integer, int[]>(full * 2);
+
+        for (int i = 0; i < full; i++)
+        {
+            int[] previous = table.get(weak[i]);
+            int[] blocks = previous == null ? new int[1] : Arrays.copyOf(previous, previous.length + 1);
+            blocks[blocks.length - 1] = i;
+
+            table.put(weak[i], blocks);
+        }
+
+        RollingChecksum checksum = new RollingChecksum();
+        checksum.reset(window, 0, blockSize);
+
+        int position = 0;
+
+        while (true)
+        {
+            int[] candidates = table.get(checksum.get());
+            boolean matched = false;
+
+            if (candidates != null)
+            {
+                byte[] hash = md5(window, position, blockSize);
+
+                for (int block : candidates)
+                {
+                    if (found[block] == -1 && Arrays.equals(hash, strong[block]))
+                    {
+                        found[block] = base + position;
+                        matched = true;
+                    }
+                }
+            }
+
+            if (!end && position + blockSize * 2 > window.limit())
+            {
+                // Slide the window, keeping the bytes from the current position
+                window.position(position);
+                window.compact();
+
+                base += position;
+                position = 0;
+                end = fill(local, window, base);
+            }
+
+            int limit = window.limit();
+
+            if (matched && position + blockSize * 2 <= limit)
+            {
+                position += blockSize;
+                checksum.reset(window, position, blockSize);
+            }
+            else if (position + blockSize < limit)
+            {
+                checksum.roll(window.get(position), window.get(position + blockSize), blockSize);
+                position++;
+            }
+            else
+            {
+                break;
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Fill the rest of a window
+     *
+     * @param channel The file to read
+     * @param window The window, its content starting at the given offset of the file
+     * @param base The offset of the window in the file
+     *
+     * @return If the end of the file was reached
+     */
+    private static boolean fill(FileChannel channel, ByteBuffer window, long base) throws IOException
+    {
+        boolean end = false;
+
+        while (window.hasRemaining())
+        {
+            if (channel.read(window, base + window.position()) == -1)
+            {
+                end = true;
+                break;
+            }
+        }
+
+        window.flip();
+        return end;
+    }
+
+    private static byte[] md5(ByteBuffer data, int offset, int length)
+    {
+        ByteBuffer block = data.duplicate();
+        block.limit(offset + length).position(offset);
+
+        MessageDigest digest = Hashing.digest("MD5");
+        digest.update(block);
+
+        return digest.digest();
+    }
+
+    /**
+     * @return The block size
+     */
+    public int getBlockSize()
+    {
+        return blockSize;
+    }
+
+    /**
+     * @return The file size
+     */
+    public long getFileSize()
+    {
+        return fileSize;
+    }
+
+    /**
+     * @return The number of blocks
+     */
+    public int getBlockCount()
+    {
+        return weak.length;
+    }
+
+    /**
+     * Write the block index of each given file next to it (file.blocks)
+     *
+     * @param args The files
+     */
+    public static void main(String[] args) throws IOException
+    {
+        for (String path : args)
+        {
+            File file = new File(path);
+
+            try (OutputStream out = new FileOutputStream(path + ".blocks"))
+            {
+                generate(file, DEFAULT_BLOCK_SIZE).write(out);
+            }
+
+            System.out.println("Wrote " + path + ".blocks");
+        }
+    }
+}
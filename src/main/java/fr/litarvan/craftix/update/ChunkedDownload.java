@@ -0,0 +1,428 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.update;
+
+import fr.litarvan.craftix.CraftixProgress;
+import fr.litarvan.craftix.util.BufferPool;
+import fr.litarvan.craftix.util.Hashing;
+import fr.litarvan.craftix.util.Http;
+import fr.litarvan.craftix.util.RateLimiter;
+import fr.litarvan.craftix.util.NamedThreadFactory;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import net.wytrem.logging.Logger;
+import net.wytrem.logging.LoggerFactory;
+
+/**
+ * A Chunked Download
+ *
+ *
+ * Downloads a big file as several chunks fetched in parallel
+ * with HTTP range requests. Each chunk is written at its place
+ * in the preallocated file, from pooled direct buffers.
+ *
+ * The progress of each chunk is saved in a journal next to the
+ * partial file, so a download interrupted by a network error,
+ * a cancellation or a crash of the server continues where it
+ * stopped instead of restarting from zero. The whole file is
+ * verified once every chunk is complete.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class ChunkedDownload
+{
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedDownload.class);
+
+    /**
+     * Minimum size of a chunk
+     */
+    public static final long MIN_CHUNK_SIZE = 4L * 1024 * 1024;
+
+    /**
+     * Maximum number of chunks of a file
+     */
+    public static final int MAX_CHUNKS = 64;
+
+    /**
+     * Written bytes after which the file and the journal are synced
+     * to the disk
+     */
+    public static final long SYNC_INTERVAL = 8L * 1024 * 1024;
+
+    private static final int JOURNAL_MAGIC = 0x43584A4E; // CXJN
+    private static final int JOURNAL_HEADER = 64;
+
+    /**
+     * The file to download
+     */
+    private final UpdateFile file;
+
+    /**
+     * The partial file
+     */
+    private final File part;
+
+    /**
+     * The journal of the partial file
+     */
+    private final File journal;
+
+    /**
+     * The bandwidth limiter (can be null)
+     */
+    private final RateLimiter limiter;
+
+    /**
+     * The progress the transferred bytes are counted in (can be null)
+     */
+    private final CraftixProgress progress;
+
+    /**
+     * The buffers the chunks are read into
+     */
+    private final BufferPool buffers;
+
+    /**
+     * The maximum number of chunks downloaded at the same time
+     */
+    private final int connections;
+
+    /**
+     * The size of the chunks (except the last one)
+     */
+    private final long chunkSize;
+
+    /**
+     * The number of chunks
+     */
+    private final int chunks;
+
+    /**
+     * Chunked download
+     *
+     * @param file The file to download
+     * @param part The partial file (and its journal, with '.journal' added)
+     * @param buffers The buffers the chunks are read into
+     * @param connections The maximum number of chunks downloaded at the same time
+     * @param limiter The bandwidth limiter (can be null)
+     * @param progress The progress the transferred bytes are counted in (can be null)
+     */
+    public ChunkedDownload(UpdateFile file, File part, BufferPool buffers, int connections, RateLimiter limiter, CraftixProgress progress)
+    {
+        this.limiter = limiter;
+        this.progress = progress;
+        this.file = file;
+        this.part = part;
+        this.journal = new File(part.getPath() + ".journal");
+        this.buffers = buffers;
+        this.connections = connections;
+
+        long size = Math.max(MIN_CHUNK_SIZE, (file.getSize() + MAX_CHUNKS - 1) / MAX_CHUNKS);
+        this.chunkSize = Math.max(size, (file.getSize() + connections - 1) / connections);
+        this.chunks = (int) ((file.getSize() + chunkSize - 1) / chunkSize);
+    }
+
+    /**
+     * Download the file, continuing a previous download if there
+     * is one, then verify it
+     *
+     * @return False if the server doesn't accept range requests, or refused the HEAD request (nothing was done)
+     *
+     * @throws IOException If the download failed (it can be continued), or the file is invalid (it was deleted)
+     */
+    public boolean download() throws IOException
+    {
+        if (!Http.acceptsRanges(file.getUrl(), file.getSize()))
+        {
+            return false;
+        }
+
+        boolean valid;
+
+        try (FileChannel out = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileChannel log = FileChannel.open(journal.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            long[] progress = resume(out, log);
+            long remaining = 0;
+
+            for (int i = 0; i < chunks; i++)
+            {
+                remaining += end(i) - start(i) - progress[i];
+            }
+
+            logger.info("Downloading '" + file.getPath() + "' in " + chunks + " chunks (" + (file.getSize() - remaining) + "/" + file.getSize() + " bytes already downloaded)");
+
+            fetch(out, log, progress);
+            valid = verify(out);
+        }
+
+        Files.deleteIfExists(journal.toPath());
+
+        if (!valid)
+        {
+            Files.deleteIfExists(part.toPath());
+            throw new IOException("Invalid file '" + file.getPath() + "', expected " + file.getHash());
+        }
+
+        return true;
+    }
+
+    /**
+     * Read the journal if it matches this download, or reset the
+     * partial file and the journal
+     *
+     * @return The downloaded bytes of each chunk
+     */
+    protected long[] resume(FileChannel out, FileChannel log) throws IOException
+    {
+        long[] progress = new long[chunks];
+        byte[] hash = Hashing.unhex(file.getHash());
+
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER);
+        ByteBuffer saved = ByteBuffer.allocate(JOURNAL_HEADER + chunks * 8);
+
+        header.putInt(JOURNAL_MAGIC).putLong(file.getSize()).putLong(chunkSize).putInt(chunks).put((byte) hash.length).put(hash);
+        header.clear();
+
+        if (out.size() == file.getSize() && log.size() == saved.capacity())
+        {
+            while (saved.hasRemaining() && log.read(saved, saved.position()) > 0)
+            {
+                // Reading the whole journal
+            }
+
+            saved.flip();
+
+            ByteBuffer savedHeader = saved.duplicate();
+            savedHeader.limit(JOURNAL_HEADER);
+
+            if (savedHeader.equals(header))
+            {
+                saved.position(JOURNAL_HEADER);
+
+                for (int i = 0; i < chunks; i++)
+                {
+                    progress[i] = Math.max(0, Math.min(saved.getLong(), end(i) - start(i)));
+                }
+
+                return progress;
+            }
+        }
+
+        out.truncate(0);
+        out.write(ByteBuffer.wrap(new byte[1]), file.getSize() - 1);
+
+        log.truncate(0);
+
+        ByteBuffer reset = ByteBuffer.allocate(JOURNAL_HEADER + chunks * 8);
+        reset.put(header);
+        reset.clear();
+
+        while (reset.hasRemaining())
+        {
+            log.write(reset, reset.position());
+        }
+
+        log.force(false);
+
+        return progress;
+    }
+
+    protected void fetch(final FileChannel out, final FileChannel log, final long[] progress) throws IOException
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(connections, chunks), new NamedThreadFactory("Craftix Chunk"));
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(chunks);
+
+        for (int i = 0; i < chunks; i++)
+        {
+            if (progress[i] == end(i) - start(i))
+            {
+                continue;
+            }
+
+            final int chunk = i;
+
+            futures.add(pool.submit(new Callable<Void>()
+            {
+                @Override
+                public Void call() throws Exception
+                {
+                    fetch(out, log, chunk, progress[chunk]);
+                    return null;
+                }
+            }));
+        }
+
+        try
+        {
+            for (Future<Void> future : futures)
+            {
+                future.get();
+            }
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+
+            throw new IOException("Couldn't download '" + file.getPath() + "'", e.getCause());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Download of '" + file.getPath() + "' cancelled");
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Download the rest of a chunk
+     *
+     * @param out The partial file
+     * @param log The journal
+     * @param chunk The chunk index
+     * @param done The bytes of the chunk already downloaded
+     */
+    protected void fetch(FileChannel out, FileChannel log, int chunk, long done) throws IOException
+    {
+        long start = start(chunk);
+        long end = end(chunk);
+        long position = start + done;
+        long synced = position;
+
+        ByteBuffer buffer = buffers.acquire();
+        ByteBuffer entry = ByteBuffer.allocate(8);
+
+        try (ReadableByteChannel in = Channels.newChannel(Http.get(file.getUrl(), position, end - 1).getInputStream()))
+        {
+            while (position < end)
+            {
+                if (Thread.interrupted())
+                {
+                    throw new InterruptedIOException("Download of '" + file.getPath() + "' cancelled");
+                }
+
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+
+                if (in.read(buffer) == -1)
+                {
+                    throw new EOFException("Connection closed before the end of chunk " + chunk + " of '" + file.getPath() + "'");
+                }
+
+                RateLimiter.acquire(limiter, buffer.position());
+
+                if (progress != null)
+                {
+                    progress.transferred(buffer.position());
+                }
+
+                buffer.flip();
+
+                while (buffer.hasRemaining())
+                {
+                    position += out.write(buffer, position);
+                }
+
+                if (position - synced >= SYNC_INTERVAL || position == end)
+                {
+                    // The journal never claims bytes that are not on the disk yet
+                    out.force(false);
+                    synced = position;
+
+                    entry.clear();
+                    entry.putLong(0, position - start);
+                    log.write(entry, JOURNAL_HEADER + chunk * 8L);
+                }
+            }
+        }
+        finally
+        {
+            buffers.release(buffer);
+        }
+    }
+
+    protected boolean verify(FileChannel out) throws IOException
+    {
+        MessageDigest digest = Hashing.digest(file.getAlgorithm());
+        ByteBuffer buffer = buffers.acquire();
+
+        try
+        {
+            long position = 0;
+
+            while (position < file.getSize())
+            {
+                buffer.clear();
+
+                int read = out.read(buffer, position);
+
+                if (read == -1)
+                {
+                    return false;
+                }
+
+                buffer.flip();
+                digest.update(buffer);
+
+                position += read;
+            }
+        }
+        finally
+        {
+            buffers.release(buffer);
+        }
+
+        return Arrays.equals(digest.digest(), Hashing.unhex(file.getHash()));
+    }
+
+    private long start(int chunk)
+    {
+        return chunk * chunkSize;
+    }
+
+    private long end(int chunk)
+    {
+        return Math.min(file.getSize(), (chunk + 1) * chunkSize);
+    }
+}
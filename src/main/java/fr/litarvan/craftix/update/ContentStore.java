@@ -0,0 +1,302 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.update;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import net.wytrem.logging.Logger;
+import net.wytrem.logging.LoggerFactory;
+
+/**
+ * The Content Store
+ *
+ *
+ * Machine-wide store of the downloaded files, addressed by their
+ * hash and shared by every server profile. A file is downloaded
+ * once in the store, then installed in each game directory as a
+ * hard link, a copy-on-write clone (reflink) when hard links are
+ * not possible, or a plain copy as a last resort.
+ *
+ * The store keeps its own {@link FileIndex} so objects are only
+ * hashed again when they were modified, and a modified (corrupted)
+ * object is removed and downloaded again.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class ContentStore
+{
+    private static final Logger logger = LoggerFactory.getLogger(ContentStore.class);
+
+    /**
+     * The store directory
+     */
+    private final File root;
+
+    /**
+     * The index of the objects
+     */
+    private FileIndex index;
+
+    /**
+     * Locks of the objects being downloaded (striped by hash)
+     */
+    private final Object[] locks = new Object[256];
+
+    /**
+     * If copy-on-write clones are worth trying
+     */
+    private volatile boolean reflinks = System.getProperty("os.name").toLowerCase().contains("linux");
+
+    /**
+     * Content store
+     *
+     * @param root The store directory
+     */
+    public ContentStore(File root)
+    {
+        this.root = root;
+
+        for (int i = 0; i < locks.length; i++)
+        {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * @return The default store directory (~/.craftix/store, or the 'craftix.store' system property)
+     */
+    public static File getDefaultRoot()
+    {
+        String path = System.getProperty("craftix.store");
+        return path != null ? new File(path) : new File(System.getProperty("user.home"), ".craftix" + File.separator + "store");
+    }
+
+    /**
+     * @param file A file of the manifest
+     *
+     * @return The path of its object, relative to the store directory
+     */
+    public String getKey(UpdateFile file)
+    {
+        String algorithm = file.getAlgorithm().replace("-", "").toLowerCase();
+        return "objects/" + algorithm + "/" + file.getHash().substring(0, 2) + "/" + file.getHash();
+    }
+
+    /**
+     * @param file A file of the manifest
+     *
+     * @return The object of the file (that may not exist)
+     */
+    public File getObject(UpdateFile file)
+    {
+        return new File(root, getKey(file));
+    }
+
+    /**
+     * Check if the store has a valid object for a file, a
+     * corrupted object is deleted
+     *
+     * @param file A file of the manifest
+     *
+     * @return If the object exists and has the right hash
+     */
+    public boolean contains(UpdateFile file) throws IOException
+    {
+        File object = getObject(file);
+        FileIndex.Entry state = FileIndex.stat(object);
+
+        if (state == null)
+        {
+            return false;
+        }
+
+        FileIndex index = getIndex();
+        String key = getKey(file);
+
+        if (state.getSize() == file.getSize() && index.hash(key, state, object, file.getAlgorithm()).equals(file.getHash()))
+        {
+            return true;
+        }
+
+        logger.error("Object of '" + file.getPath() + "' was modified, deleting it");
+
+        index.remove(key);
+        Files.deleteIfExists(object.toPath());
+
+        return false;
+    }
+
+    /**
+     * @param file A file of the manifest
+     *
+     * @return The temporary file in the store where the file is downloaded,
+     * always the same so an interrupted download can be continued
+     */
+    public File getTempFile(UpdateFile file)
+    {
+        return new File(root, "tmp" + File.separator + file.getHash());
+    }
+
+    /**
+     * @param file A file of the manifest
+     *
+     * @return The lock to hold while checking and downloading its object
+     */
+    public Object getLock(UpdateFile file)
+    {
+        return locks[(file.getHash().hashCode() & 0x7FFFFFFF) % locks.length];
+    }
+
+    /**
+     * Add a verified file to the store
+     *
+     * @param file The file of the manifest
+     * @param verified The downloaded file (moved into the store)
+     */
+    public void add(UpdateFile file, File verified) throws IOException
+    {
+        File object = getObject(file);
+        Files.createDirectories(object.getParentFile().toPath());
+
+        Files.move(verified.toPath(), object.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        getIndex().put(getKey(file), object, file.getAlgorithm(), file.getHash());
+    }
+
+    /**
+     * Install the object of a file at the given place, replacing
+     * any existing file
+     *
+     * @param file The file of the manifest (its object must be in the store)
+     * @param target Where to install it
+     *
+     * @return How it was installed ('link', 'reflink' or 'copy')
+     */
+    public String install(UpdateFile file, File target) throws IOException
+    {
+        Path object = getObject(file).toPath();
+        Path temp = new File(target.getPath() + ".link").toPath();
+        String method = "link";
+
+        Files.createDirectories(temp.getParent());
+        Files.deleteIfExists(temp);
+
+        try
+        {
+            Files.createLink(temp, object);
+        }
+        catch (IOException | UnsupportedOperationException e)
+        {
+            method = "reflink";
+
+            if (!reflink(object, temp))
+            {
+                method = "copy";
+                Files.copy(object, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        return method;
+    }
+
+    /**
+     * Clone a file with 'cp --reflink=always', disabled after the
+     * first failure (file system without copy-on-write support)
+     */
+    protected boolean reflink(Path source, Path target)
+    {
+        if (!reflinks)
+        {
+            return false;
+        }
+
+        try
+        {
+            Process process = new ProcessBuilder("cp", "--reflink=always", source.toString(), target.toString()).redirectErrorStream(true).start();
+
+            try (InputStream in = process.getInputStream())
+            {
+                while (in.read() != -1)
+                {
+                    // Ignoring output
+                }
+            }
+
+            if (process.waitFor() == 0)
+            {
+                return true;
+            }
+        }
+        catch (IOException ignored)
+        {
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        logger.info("Copy-on-write clones are not supported by the store file system, falling back to copies");
+        reflinks = false;
+
+        return false;
+    }
+
+    /**
+     * @return The index of the objects (opened on first use)
+     */
+    protected synchronized FileIndex getIndex() throws IOException
+    {
+        if (index == null)
+        {
+            Files.createDirectories(root.toPath());
+            index = FileIndex.open(new File(root, "objects.index"));
+        }
+
+        return index;
+    }
+
+    /**
+     * Close the index of the objects (compacting it if needed), it is
+     * opened again if the store is used after that
+     */
+    public synchronized void close() throws IOException
+    {
+        if (index != null)
+        {
+            index.close();
+            index = null;
+        }
+    }
+
+    /**
+     * @return The store directory
+     */
+    public File getRoot()
+    {
+        return root;
+    }
+}
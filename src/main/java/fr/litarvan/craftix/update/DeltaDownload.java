@@ -0,0 +1,278 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.update;
+
+import fr.litarvan.craftix.CraftixProgress;
+import fr.litarvan.craftix.util.BufferPool;
+import fr.litarvan.craftix.util.Hashing;
+import fr.litarvan.craftix.util.Http;
+import fr.litarvan.craftix.util.RateLimiter;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import net.wytrem.logging.Logger;
+import net.wytrem.logging.LoggerFactory;
+
+/**
+ * A Delta Download
+ *
+ *
+ * Builds the new version of a file from an older local copy of
+ * it, only downloading the blocks that changed (zsync-like). The
+ * {@link BlockIndex} of the new version is downloaded first, the
+ * blocks found in the local copy are copied, and the missing ones
+ * are downloaded with HTTP range requests (consecutive missing
+ * blocks in a single request).
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class DeltaDownload
+{
+    private static final Logger logger = LoggerFactory.getLogger(DeltaDownload.class);
+
+    /**
+     * The file to download
+     */
+    private final UpdateFile file;
+
+    /**
+     * The older local version of the file
+     */
+    private final File basis;
+
+    /**
+     * The file to write
+     */
+    private final File part;
+
+    /**
+     * The bandwidth limiter (can be null)
+     */
+    private final RateLimiter limiter;
+
+    /**
+     * The progress the transferred bytes are counted in (can be null)
+     */
+    private final CraftixProgress progress;
+
+    /**
+     * The buffers the downloaded blocks are read into
+     */
+    private final BufferPool buffers;
+
+    /**
+     * Delta download
+     *
+     * @param file The file to download (with a blocks URL)
+     * @param basis The older local version of the file
+     * @param part The file to write
+     * @param buffers The buffers the downloaded blocks are read into
+     * @param limiter The bandwidth limiter (can be null)
+     * @param progress The progress the transferred bytes are counted in (can be null)
+     */
+    public DeltaDownload(UpdateFile file, File basis, File part, BufferPool buffers, RateLimiter limiter, CraftixProgress progress)
+    {
+        this.limiter = limiter;
+        this.progress = progress;
+        this.file = file;
+        this.basis = basis;
+        this.part = part;
+        this.buffers = buffers;
+    }
+
+    /**
+     * Build the file, then verify it
+     *
+     * @return The number of downloaded bytes (block index excluded)
+     *
+     * @throws IOException If the file couldn't be built or is invalid (a full download should be done)
+     */
+    public long download() throws IOException
+    {
+        BlockIndex index;
+
+        try (InputStream in = Http.get(file.getBlocksUrl()).getInputStream())
+        {
+            index = BlockIndex.read(in);
+        }
+
+        if (index.getFileSize() != file.getSize())
+        {
+            throw new IOException("Block index of '" + file.getPath() + "' is outdated (" + index.getFileSize() + " bytes, expected " + file.getSize() + ")");
+        }
+
+        long downloaded = 0;
+        int reused = 0;
+        boolean valid;
+
+        try (FileChannel local = FileChannel.open(basis.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            // Never mapped : the part file is moved over the local copy once built
+            long[] found = index.match(local);
+
+            int size = index.getBlockSize();
+            ByteBuffer source = ByteBuffer.allocate(size);
+            int block = 0;
+
+            while (block < found.length)
+            {
+                if (found[block] != -1)
+                {
+                    source.clear();
+                    read(local, source, found[block]);
+                    source.flip();
+
+                    write(out, source, (long) block * size);
+
+                    reused++;
+                    block++;
+
+                    continue;
+                }
+
+                int first = block;
+
+                while (block < found.length && found[block] == -1)
+                {
+                    block++;
+                }
+
+                long from = (long) first * size;
+                long to = Math.min(file.getSize(), (long) block * size);
+
+                fetch(out, from, to);
+                downloaded += to - from;
+            }
+
+            valid = verify(out);
+        }
+
+        if (!valid)
+        {
+            Files.deleteIfExists(part.toPath());
+            throw new IOException("Invalid file '" + file.getPath() + "' after delta update, expected " + file.getHash());
+        }
+
+        logger.info("Delta update of '" + file.getPath() + "' : reused " + reused + "/" + index.getBlockCount() + " blocks, downloaded " + downloaded + "/" + file.getSize() + " bytes");
+
+        return downloaded;
+    }
+
+    protected void fetch(FileChannel out, long from, long to) throws IOException
+    {
+        ByteBuffer buffer = buffers.acquire();
+        long position = from;
+
+        try (ReadableByteChannel in = Channels.newChannel(Http.get(file.getUrl(), from, to - 1).getInputStream()))
+        {
+            while (position < to)
+            {
+                if (Thread.interrupted())
+                {
+                    throw new InterruptedIOException("Download of '" + file.getPath() + "' cancelled");
+                }
+
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), to - position));
+
+                if (in.read(buffer) == -1)
+                {
+                    throw new EOFException("Connection closed before the end of range " + from + "-" + to + " of '" + file.getPath() + "'");
+                }
+
+                RateLimiter.acquire(limiter, buffer.position());
+
+                if (progress != null)
+                {
+                    progress.transferred(buffer.position());
+                }
+
+                buffer.flip();
+                position += write(out, buffer, position);
+            }
+        }
+        finally
+        {
+            buffers.release(buffer);
+        }
+    }
+
+    private void read(FileChannel in, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            if (in.read(buffer, position + buffer.position()) == -1)
+            {
+                throw new EOFException("Local copy of '" + file.getPath() + "' changed during the delta update");
+            }
+        }
+    }
+
+    private int write(FileChannel out, ByteBuffer buffer, long position) throws IOException
+    {
+        int written = 0;
+
+        while (buffer.hasRemaining())
+        {
+            written += out.write(buffer, position + written);
+        }
+
+        return written;
+    }
+
+    protected boolean verify(FileChannel out) throws IOException
+    {
+        MessageDigest digest = Hashing.digest(file.getAlgorithm());
+        ByteBuffer buffer = buffers.acquire();
+
+        try
+        {
+            long position = 0;
+            int read;
+
+            while ((read = out.read(buffer, position)) > 0)
+            {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+
+                position += read;
+            }
+
+            return position == file.getSize() && Arrays.equals(digest.digest(), Hashing.unhex(file.getHash()));
+        }
+        finally
+        {
+            buffers.release(buffer);
+        }
+    }
+}
@@ -0,0 +1,889 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.update;
+
+import fr.litarvan.craftix.util.Hashing;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The File Index
+ *
+ *
+ * Remembers the state (size, modification time, inode) and the
+ * hash of the files of a game directory, so a file is only
+ * hashed again when its state changed since it was verified.
+ *
+ * The index is an append-only log of binary records, read at
+ * once when opened : loading it costs a single sequential scan,
+ * and recording a file only appends a few bytes. It is never
+ * memory mapped, as a mapped file can't be truncated or replaced
+ * on Windows until the mapping is garbage collected. The log
+ * is rewritten when it contains more outdated records than
+ * live ones. A record cut by a crash (or otherwise malformed)
+ * ends the log : it is dropped with everything after it when
+ * the index is opened again.
+ *
+ * An index can be shared by several processes (ex: the objects
+ * index of the {@link ContentStore}) : the records are appended
+ * at the real end of the file, and the file is only truncated or
+ * rewritten, while holding an exclusive lock on it. The records
+ * appended by the other processes are not read until the index
+ * is opened again, which only costs hashing those files again.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class FileIndex implements Closeable
+{
+    private static final int MAGIC = 0x43584958; // CXIX
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    private static final byte SHA1 = 1;
+    private static final byte SHA256 = 2;
+
+    /**
+     * On file systems with a one second (or worse) precision, files
+     * modified this close to their indexing are not indexed, as a new
+     * change could keep the same modification time
+     */
+    private static final long RACY_DELAY = TimeUnit.SECONDS.toNanos(2);
+
+    private static Boolean unixAttributes;
+
+    /**
+     * The monitors held with the file locks, by index file, as a file lock
+     * can't be taken twice in the same JVM
+     */
+    private static final ConcurrentMap<String, Object> monitors = new ConcurrentHashMap<String, Object>();
+
+    /**
+     * The index file
+     */
+    private final File file;
+
+    /**
+     * The file opened for appending
+     */
+    private FileChannel channel;
+
+    /**
+     * The key of the opened file (null if not supported), to know if
+     * another process replaced it when compacting
+     */
+    private Object fileKey;
+
+    /**
+     * The monitor held with the file lock
+     */
+    private final Object monitor;
+
+    /**
+     * The indexed files, by relative path
+     */
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * The number of records in the log (including the outdated ones)
+     */
+    private int records;
+
+    /**
+     * The number of files hashed by {@link #hash(String, Entry, File, String)}
+     */
+    private int hashed;
+
+    /**
+     * Reused buffer for the records to append
+     */
+    private ByteBuffer buffer = ByteBuffer.allocate(512);
+
+    private FileIndex(File file)
+    {
+        this.file = file;
+
+        String key = file.getAbsolutePath();
+        monitors.putIfAbsent(key, new Object());
+
+        this.monitor = monitors.get(key);
+    }
+
+    /**
+     * Open (or create) the index of a game directory, stored next to it
+     *
+     * @param gameDir The game directory
+     *
+     * @return The opened index
+     */
+    public static FileIndex of(File gameDir) throws IOException
+    {
+        return open(getFile(gameDir));
+    }
+
+    /**
+     * @param gameDir A game directory
+     *
+     * @return The file of its index, stored next to it
+     */
+    public static File getFile(File gameDir)
+    {
+        return new File(gameDir.getAbsoluteFile().getParentFile(), gameDir.getName() + ".index");
+    }
+
+    /**
+     * Open (or create) an index
+     *
+     * @param file The index file
+     *
+     * @return The opened index
+     */
+    public static FileIndex open(File file) throws IOException
+    {
+        FileIndex index = new FileIndex(file);
+        index.load();
+
+        return index;
+    }
+
+    private void load() throws IOException
+    {
+        records = 0;
+
+        synchronized (monitor)
+        {
+            while (true)
+            {
+                fileKey = getFileKey();
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+                FileLock lock = channel.lock();
+
+                try
+                {
+                    // The file may have been replaced before it was opened
+                    if (!replaced())
+                    {
+                        fileKey = getFileKey();
+                        load(channel.size());
+
+                        return;
+                    }
+                }
+                finally
+                {
+                    lock.release();
+                }
+
+                channel.close();
+            }
+        }
+    }
+
+    private void load(long size) throws IOException
+    {
+        long end = HEADER_SIZE;
+
+        if (size >= HEADER_SIZE)
+        {
+            ByteBuffer content = readFully(channel, size);
+
+            if (content.remaining() >= HEADER_SIZE && content.getInt() == MAGIC && content.getInt() == VERSION)
+            {
+                end = read(content);
+            }
+        }
+
+        if (end == HEADER_SIZE)
+        {
+            entries.clear();
+            records = 0;
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+
+            channel.write(header, 0);
+        }
+
+        channel.truncate(end);
+    }
+
+    /**
+     * Compute a fingerprint of the indexed files of a game directory
+     * having the given priority, that changes each time one of them
+     * is installed, updated or removed. The index is only read, so
+     * this can be done while an update is writing it.
+     *
+     * @param gameDir The game directory
+     * @param priority The priority of the files (see {@link UpdatePriority#of(String)})
+     *
+     * @return The fingerprint, or null if the game directory has no index
+     */
+    public static String fingerprint(File gameDir, UpdatePriority priority) throws IOException
+    {
+        File file = getFile(gameDir);
+
+        if (!file.isFile())
+        {
+            return null;
+        }
+
+        FileIndex index = new FileIndex(file);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer content = readFully(channel, channel.size());
+
+            if (content.remaining() < HEADER_SIZE || content.getInt() != MAGIC || content.getInt() != VERSION)
+            {
+                return null;
+            }
+
+            index.read(content);
+        }
+
+        List<String> paths = new ArrayList<String>();
+
+        for (String path : index.entries.keySet())
+        {
+            if (UpdatePriority.of(path) == priority)
+            {
+                paths.add(path);
+            }
+        }
+
+        Collections.sort(paths);
+
+        MessageDigest digest = Hashing.digest("SHA-1");
+
+        for (String path : paths)
+        {
+            digest.update(path.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(index.entries.get(path).getHash().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+
+        return Hashing.hex(digest.digest());
+    }
+
+    /**
+     * Read the start of a file into a heap buffer
+     *
+     * @param channel The file channel
+     * @param size The number of bytes to read
+     *
+     * @return The read bytes, flipped (shorter if the file is)
+     */
+    private static ByteBuffer readFully(FileChannel channel, long size) throws IOException
+    {
+        if (size > Integer.MAX_VALUE)
+        {
+            throw new IOException("Index file too big (" + size + " bytes)");
+        }
+
+        ByteBuffer content = ByteBuffer.allocate((int) size);
+
+        while (content.hasRemaining())
+        {
+            if (channel.read(content, content.position()) == -1)
+            {
+                break;
+            }
+        }
+
+        content.flip();
+        return content;
+    }
+
+    private long read(ByteBuffer content)
+    {
+        long end = content.position();
+
+        while (content.remaining() >= 4)
+        {
+            int length = content.getInt();
+
+            if (length <= 0 || length > content.remaining())
+            {
+                break;
+            }
+
+            ByteBuffer record = content.slice();
+            record.limit(length);
+            content.position(content.position() + length);
+
+            // The inner lengths are checked too, a malformed record ends the log like a cut one
+            try
+            {
+                if (!parse(record))
+                {
+                    break;
+                }
+            }
+            catch (BufferUnderflowException e)
+            {
+                break;
+            }
+
+            records++;
+            end = content.position();
+        }
+
+        return end;
+    }
+
+    private boolean parse(ByteBuffer record)
+    {
+        byte type = record.get();
+
+        if (type != PUT && type != REMOVE)
+        {
+            return false;
+        }
+
+        byte[] path = new byte[record.getShort() & 0xFFFF];
+        record.get(path);
+
+        String key = new String(path, StandardCharsets.UTF_8);
+
+        if (type == REMOVE)
+        {
+            if (record.hasRemaining())
+            {
+                return false;
+            }
+
+            entries.remove(key);
+            return true;
+        }
+
+        long fileSize = record.getLong();
+        long modified = record.getLong();
+        long inode = record.getLong();
+        String algorithm = record.get() == SHA256 ? "SHA-256" : "SHA-1";
+        byte[] hash = new byte[record.get() & 0xFF];
+        record.get(hash);
+
+        if (record.hasRemaining())
+        {
+            return false;
+        }
+
+        entries.put(key, new Entry(fileSize, modified, inode, algorithm, Hashing.hex(hash)));
+        return true;
+    }
+
+    /**
+     * @param path The file path, relative to the game directory
+     *
+     * @return The indexed state of the file, or null if it is not indexed
+     */
+    public synchronized Entry get(String path)
+    {
+        return entries.get(path);
+    }
+
+    /**
+     * Get the indexed hash of a file, if the file didn't change
+     * since it was indexed
+     *
+     * @param path The file path, relative to the game directory
+     * @param state The current state of the file (see {@link #stat(File)})
+     * @param algorithm The wanted hash algorithm
+     *
+     * @return The indexed hash, or null if the file must be hashed again
+     */
+    public synchronized String getHash(String path, Entry state, String algorithm)
+    {
+        Entry indexed = entries.get(path);
+
+        if (indexed == null || !indexed.sameState(state) || !indexed.getAlgorithm().equals(algorithm))
+        {
+            return null;
+        }
+
+        return indexed.getHash();
+    }
+
+    /**
+     * Get the hash of a file, from the index if the file didn't change
+     * since it was indexed, or by hashing (and indexing) it if it did
+     *
+     * @param path The file path, relative to the game directory
+     * @param state The current state of the file (see {@link #stat(File)})
+     * @param local The file
+     * @param algorithm The wanted hash algorithm
+     *
+     * @return The file hash
+     */
+    public String hash(String path, Entry state, File local, String algorithm) throws IOException
+    {
+        String hash = getHash(path, state, algorithm);
+
+        if (hash == null)
+        {
+            hash = Hashing.hash(local, algorithm);
+            put(path, state.withHash(algorithm, hash));
+
+            synchronized (this)
+            {
+                hashed++;
+            }
+        }
+
+        return hash;
+    }
+
+    /**
+     * Index a file with a known hash (ex: just downloaded and verified)
+     *
+     * @param path The file path, relative to the game directory
+     * @param local The file
+     * @param algorithm The hash algorithm
+     * @param hash The file hash
+     */
+    public void put(String path, File local, String algorithm, String hash) throws IOException
+    {
+        Entry state = stat(local);
+
+        if (state != null)
+        {
+            put(path, state.withHash(algorithm, hash));
+        }
+    }
+
+    /**
+     * Index a file state
+     *
+     * @param path The file path, relative to the game directory
+     * @param entry The file state, with its hash
+     */
+    public synchronized void put(String path, Entry entry) throws IOException
+    {
+        long age = System.currentTimeMillis() * 1000000L - entry.getModified();
+
+        if (entry.getModified() % 1000000000L == 0 && age < RACY_DELAY)
+        {
+            remove(path);
+            return;
+        }
+
+        if (entry.equals(entries.get(path)))
+        {
+            return;
+        }
+
+        byte[] key = path.getBytes(StandardCharsets.UTF_8);
+        byte[] hash = Hashing.unhex(entry.getHash());
+
+        ByteBuffer record = record(4 + 1 + 2 + key.length + 8 * 3 + 2 + hash.length);
+        record.putInt(record.capacity() - 4);
+        record.put(PUT).putShort((short) key.length).put(key);
+        record.putLong(entry.getSize()).putLong(entry.getModified()).putLong(entry.getInode());
+        record.put(entry.getAlgorithm().equals("SHA-256") ? SHA256 : SHA1).put((byte) hash.length).put(hash);
+
+        append(record);
+        entries.put(path, entry);
+    }
+
+    /**
+     * Remove a file from the index
+     *
+     * @param path The file path, relative to the game directory
+     */
+    public synchronized void remove(String path) throws IOException
+    {
+        if (!entries.containsKey(path))
+        {
+            return;
+        }
+
+        byte[] key = path.getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer record = record(4 + 1 + 2 + key.length);
+        record.putInt(record.capacity() - 4);
+        record.put(REMOVE).putShort((short) key.length).put(key);
+
+        append(record);
+        entries.remove(path);
+    }
+
+    private ByteBuffer record(int size)
+    {
+        if (buffer.capacity() < size)
+        {
+            buffer = ByteBuffer.allocate(size);
+        }
+
+        buffer.clear();
+        buffer.limit(size);
+
+        return buffer.slice();
+    }
+
+    private void append(ByteBuffer record) throws IOException
+    {
+        if (channel == null)
+        {
+            throw new IOException("Index '" + file + "' is closed");
+        }
+
+        record.flip();
+
+        synchronized (monitor)
+        {
+            while (true)
+            {
+                FileLock lock = channel.lock();
+
+                try
+                {
+                    if (!replaced())
+                    {
+                        long end = channel.size();
+
+                        while (record.hasRemaining())
+                        {
+                            end += channel.write(record, end);
+                        }
+
+                        break;
+                    }
+                }
+                finally
+                {
+                    lock.release();
+                }
+
+                // Compacted by another process, the records are appended to the new file
+                channel.close();
+                load();
+            }
+        }
+
+        records++;
+    }
+
+    /**
+     * @return If the index file was replaced since it was opened (always false if file keys aren't supported)
+     */
+    private boolean replaced() throws IOException
+    {
+        if (fileKey == null)
+        {
+            return false;
+        }
+
+        return !fileKey.equals(getFileKey());
+    }
+
+    /**
+     * @return The key of the index file, or null if it doesn't exist or file keys aren't supported
+     */
+    private Object getFileKey() throws IOException
+    {
+        try
+        {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+        }
+        catch (NoSuchFileException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * @return The number of files that had to be hashed since the index was opened
+     */
+    public synchronized int getHashed()
+    {
+        return hashed;
+    }
+
+    /**
+     * @return The number of indexed files
+     */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Write the index on the disk, rewriting it if it has
+     * too many outdated records, then close it
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (channel == null)
+        {
+            return;
+        }
+
+        try
+        {
+            channel.force(false);
+
+            if (records > 1024 && records > entries.size() * 2)
+            {
+                synchronized (monitor)
+                {
+                    FileLock lock = channel.lock();
+
+                    try
+                    {
+                        compact();
+                    }
+                    finally
+                    {
+                        lock.release();
+                    }
+                }
+            }
+        }
+        finally
+        {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Rewrite the index with only its live records, the file being locked
+     */
+    private void compact() throws IOException
+    {
+        if (replaced())
+        {
+            return;
+        }
+
+        // Read again, to keep the records appended by the other processes
+        FileIndex current = new FileIndex(file);
+        ByteBuffer content = readFully(channel, channel.size());
+
+        if (content.remaining() >= HEADER_SIZE && content.getInt() == MAGIC && content.getInt() == VERSION)
+        {
+            current.read(content);
+        }
+
+        Path temp = new File(file.getPath() + ".tmp").toPath();
+        Files.deleteIfExists(temp);
+
+        FileIndex compacted = FileIndex.open(temp.toFile());
+
+        try
+        {
+            for (Map.Entry<String, Entry> entry : current.entries.entrySet())
+            {
+                compacted.put(entry.getKey(), entry.getValue());
+            }
+
+            compacted.channel.force(false);
+        }
+        finally
+        {
+            compacted.channel.close();
+        }
+
+        Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read the current state of a file
+     *
+     * @param file The file
+     *
+     * @return Its state (without hash), or null if it is not a regular file
+     */
+    public static Entry stat(File file) throws IOException
+    {
+        Path path = file.toPath();
+        BasicFileAttributes attributes;
+
+        try
+        {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        }
+        catch (NoSuchFileException e)
+        {
+            return null;
+        }
+
+        if (!attributes.isRegularFile())
+        {
+            return null;
+        }
+
+        return new Entry(attributes.size(), attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS), inode(path), null, null);
+    }
+
+    private static long inode(Path path) throws IOException
+    {
+        if (unixAttributes == null || unixAttributes)
+        {
+            try
+            {
+                Object inode = Files.getAttribute(path, "unix:ino", LinkOption.NOFOLLOW_LINKS);
+                unixAttributes = true;
+
+                return ((Number) inode).longValue();
+            }
+            catch (UnsupportedOperationException | IllegalArgumentException e)
+            {
+                unixAttributes = false;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * An indexed file state
+     */
+    public static class Entry
+    {
+        private final long size;
+        private final long modified;
+        private final long inode;
+        private final String algorithm;
+        private final String hash;
+
+        /**
+         * Index entry
+         *
+         * @param size The file size, in bytes
+         * @param modified The last modification time, in nanoseconds
+         * @param inode The file inode (0 if not available)
+         * @param algorithm The hash algorithm (SHA-1 or SHA-256)
+         * @param hash The lower case hexadecimal hash of the file
+         */
+        public Entry(long size, long modified, long inode, String algorithm, String hash)
+        {
+            this.size = size;
+            this.modified = modified;
+            this.inode = inode;
+            this.algorithm = algorithm;
+            this.hash = hash;
+        }
+
+        /**
+         * @param other Another state of the file
+         *
+         * @return If both states have the same size, modification time and inode
+         */
+        public boolean sameState(Entry other)
+        {
+            return size == other.size && modified == other.modified && inode == other.inode;
+        }
+
+        /**
+         * @return A copy of this state with the given hash
+         */
+        public Entry withHash(String algorithm, String hash)
+        {
+            return new Entry(size, modified, inode, algorithm, hash);
+        }
+
+        /**
+         * @return The file size, in bytes
+         */
+        public long getSize()
+        {
+            return size;
+        }
+
+        /**
+         * @return The last modification time, in nanoseconds
+         */
+        public long getModified()
+        {
+            return modified;
+        }
+
+        /**
+         * @return The file inode (0 if not available)
+         */
+        public long getInode()
+        {
+            return inode;
+        }
+
+        /**
+         * @return The hash algorithm (SHA-1 or SHA-256)
+         */
+        public String getAlgorithm()
+        {
+            return algorithm;
+        }
+
+        /**
+         * @return The lower case hexadecimal hash of the file
+         */
+        public String getHash()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Entry))
+            {
+                return false;
+            }
+
+            Entry other = (Entry) obj;
+            return sameState(other) && algorithm.equals(other.algorithm) && hash.equals(other.hash);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash.hashCode();
+        }
+    }
+}
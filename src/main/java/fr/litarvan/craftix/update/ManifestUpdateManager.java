@@ -0,0 +1,712 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.update;
+
+import fr.litarvan.craftix.CraftixProgress;
+import fr.litarvan.craftix.CraftixServer;
+import fr.litarvan.craftix.util.BufferPool;
+import fr.litarvan.craftix.util.Hashing;
+import fr.litarvan.craftix.util.Http;
+import fr.litarvan.craftix.util.NamedThreadFactory;
+import fr.litarvan.craftix.util.RateLimiter;
+import fr.theshark34.openlauncherlib.minecraft.util.GameDirGenerator;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import net.wytrem.logging.Logger;
+import net.wytrem.logging.LoggerFactory;
+import org.json.JSONObject;
+
+/**
+ * Manifest Update Manager
+ *
+ *
+ * Default update manager, downloads the missing or changed
+ * files of an {@link UpdateManifest} into the game directory.
+ * The files are downloaded in parallel, and hashed while they
+ * are received so they are verified as soon as they are
+ * complete. The files are shared between the server profiles
+ * using a {@link ContentStore}.
+ *
+ * The files are installed by {@link UpdatePriority}. In progressive
+ * mode the update returns as soon as the files required to launch
+ * the game are installed, and the others are downloaded in
+ * background with a limited bandwidth. The progress of each phase
+ * (check, download, then background) is sent to the launcher as
+ * {@link CraftixProgress} events. Params sent by the client :
+ *
+ * <code>
+ *     {
+ *         "name": "(server name, same as the launch one)",
+ *         "manifest": "(manifest URL)",
+ *         "connections": (optional, parallel downloads),
+ *         "progressive": (optional, false by default),
+ *         "backgroundRate": (optional, background bytes per second)
+ *     }
+ * </code>
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class ManifestUpdateManager implements UpdateManager<IOException>, Closeable
+{
+    private static final Logger logger = LoggerFactory.getLogger(ManifestUpdateManager.class);
+
+    /**
+     * Default number of parallel downloads
+     */
+    public static final int DEFAULT_CONNECTIONS = 8;
+
+    /**
+     * Number of tries for each file before giving up
+     */
+    public static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * Size from which files are downloaded in parallel chunks
+     */
+    public static final long CHUNKED_THRESHOLD = 16L * 1024 * 1024;
+
+    /**
+     * Number of parallel connections used for a chunked download
+     */
+    public static final int CHUNK_CONNECTIONS = 4;
+
+    /**
+     * Default bandwidth of the background downloads (bytes per second)
+     */
+    public static final long DEFAULT_BACKGROUND_RATE = 2L * 1024 * 1024;
+
+    /**
+     * Number of parallel background downloads
+     */
+    public static final int BACKGROUND_CONNECTIONS = 2;
+
+    /**
+     * The current (or last) update session of each server
+     */
+    private ConcurrentMap<String, UpdateSession> sessions = new ConcurrentHashMap<String, UpdateSession>();
+
+    /**
+     * Runs the background phases
+     */
+    private ExecutorService background = Executors.newCachedThreadPool(new NamedThreadFactory("Craftix Background Update"));
+
+    /**
+     * Buffers used by the chunked downloads
+     */
+    private BufferPool buffers = new BufferPool(256 * 1024, 32);
+
+    /**
+     * The store shared by the profiles (null to download directly in the game directories)
+     */
+    private ContentStore store;
+
+    /**
+     * Manifest update manager, using the default {@link ContentStore}
+     */
+    public ManifestUpdateManager()
+    {
+        this(new ContentStore(ContentStore.getDefaultRoot()));
+    }
+
+    /**
+     * Manifest update manager
+     *
+     * @param store The store shared by the profiles (null to download directly in the game directories)
+     */
+    public ManifestUpdateManager(ContentStore store)
+    {
+        this.store = store;
+    }
+
+    @Override
+    public void update(CraftixServer server, JSONObject params) throws IOException
+    {
+        String name = params.getString("name");
+        URL url = new URL(params.getString("manifest"));
+        int connections = Math.max(1, params.optInt("connections", DEFAULT_CONNECTIONS));
+        boolean progressive = params.optBoolean("progressive", false);
+        long rate = params.optLong("backgroundRate", DEFAULT_BACKGROUND_RATE);
+
+        final File gameDir = getGameDir(name);
+        final CraftixProgress progress = CraftixProgress.current();
+
+        logger.info("Updating '" + name + "' from " + url + " into " + gameDir.getAbsolutePath());
+
+        UpdateManifest manifest = UpdateManifest.fetch(url);
+        final UpdateSession session = start(name);
+
+        final FileIndex index;
+        final List<UpdateFile> later = new ArrayList<UpdateFile>();
+
+        try
+        {
+            index = FileIndex.of(gameDir);
+        }
+        catch (Throwable e)
+        {
+            failed(session, e);
+            throw e;
+        }
+
+        try
+        {
+            List<UpdateFile> outdated = check(gameDir, index, manifest, progress);
+            List<UpdateFile> required = new ArrayList<UpdateFile>();
+
+            for (UpdateFile file : outdated)
+            {
+                (file.getPriority().isRequired() ? required : later).add(file);
+            }
+
+            logger.info(outdated.size() + "/" + manifest.getFiles().size() + " files to download (" + required.size() + " required to launch)");
+
+            List<UpdateFile> now = progressive ? required : outdated;
+            progress.phase("download", now.size(), getSize(now));
+
+            download(gameDir, index, required, connections, null, progress);
+            session.requiredInstalled();
+
+            if (!progressive || later.isEmpty())
+            {
+                download(gameDir, index, later, connections, null, progress);
+            }
+        }
+        catch (Throwable e)
+        {
+            // Whatever went wrong, the launches waiting for this update must be released
+            failed(session, e);
+
+            try
+            {
+                index.close();
+            }
+            catch (IOException closeFailure)
+            {
+                logger.error("Couldn't save the file index of '" + name + "'", closeFailure);
+            }
+
+            throw e;
+        }
+
+        if (!progressive || later.isEmpty())
+        {
+            index.close();
+            session.finished();
+
+            logger.info("Update of '" + name + "' done !");
+            return;
+        }
+
+        final RateLimiter limiter = rate > 0 ? new RateLimiter(rate) : null;
+        final CraftixProgress backgroundProgress = new CraftixProgress(progress.getConnection(), progress.getRequestId());
+
+        progress.flush();
+
+        logger.info("Required files of '" + name + "' installed, downloading " + later.size() + " files in background");
+
+        session.setBackground(background.submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    backgroundProgress.phase("background", later.size(), getSize(later));
+                    download(gameDir, index, later, BACKGROUND_CONNECTIONS, limiter, backgroundProgress);
+                    backgroundProgress.phase("done", 0, 0);
+
+                    logger.info("Background update of '" + session.getName() + "' done !");
+                }
+                catch (InterruptedIOException e)
+                {
+                    logger.info("Background update of '" + session.getName() + "' stopped");
+                }
+                catch (IOException e)
+                {
+                    logger.error("Background update of '" + session.getName() + "' failed", e);
+                }
+                finally
+                {
+                    // Clearing the interrupt, otherwise the index channel would be closed before saving it
+                    Thread.interrupted();
+
+                    try
+                    {
+                        index.close();
+                    }
+                    catch (IOException e)
+                    {
+                        logger.error("Couldn't save the file index of '" + session.getName() + "'", e);
+                    }
+
+                    backgroundProgress.finish();
+                    session.finished();
+                }
+            }
+        }));
+    }
+
+    /**
+     * Start a new update session for a server, stopping the
+     * background phase of the previous one
+     *
+     * @param name The server name
+     *
+     * @return The new session
+     */
+    protected UpdateSession start(String name) throws IOException
+    {
+        UpdateSession session = new UpdateSession(name);
+        UpdateSession previous = sessions.put(name, session);
+
+        if (previous != null && !previous.isDone())
+        {
+            logger.info("Stopping the previous update of '" + name + "'");
+
+            try
+            {
+                previous.cancel();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                failed(session, new InterruptedIOException("Update cancelled"));
+
+                throw new InterruptedIOException("Update cancelled");
+            }
+        }
+
+        return session;
+    }
+
+    /**
+     * Fail an update session, releasing the launches waiting for it.
+     * The session is forgotten, so the next launches use the files
+     * already installed (ex: to play offline)
+     *
+     * @param session The failed session
+     * @param failure Why it failed
+     */
+    protected void failed(UpdateSession session, Throwable failure)
+    {
+        session.failed(failure);
+        sessions.remove(session.getName(), session);
+    }
+
+    /**
+     * Wait until the files required to launch a server are installed,
+     * if it is being updated
+     *
+     * @param name The server name
+     *
+     * @throws IOException If the required files couldn't be installed
+     */
+    @Override
+    public void awaitRequired(String name) throws IOException
+    {
+        UpdateSession session = sessions.get(name);
+
+        if (session != null)
+        {
+            session.awaitRequired();
+        }
+    }
+
+    /**
+     * @param name The server name
+     *
+     * @return The current (or last) update session of the server, or null
+     */
+    public UpdateSession getSession(String name)
+    {
+        return sessions.get(name);
+    }
+
+    /**
+     * @param files Some update files
+     *
+     * @return The total size of the files
+     */
+    protected static long getSize(List<UpdateFile> files)
+    {
+        long size = 0;
+
+        for (UpdateFile file : files)
+        {
+            size += file.getSize();
+        }
+
+        return size;
+    }
+
+    /**
+     * List the files of the manifest that are missing or
+     * different in the game directory, only hashing the files
+     * that changed since they were indexed
+     *
+     * @param gameDir The game directory
+     * @param index The game directory file index
+     * @param manifest The update manifest
+     * @param progress The update progress
+     *
+     * @return The files to download
+     */
+    public List<UpdateFile> check(File gameDir, FileIndex index, UpdateManifest manifest, CraftixProgress progress) throws IOException
+    {
+        List<UpdateFile> outdated = new ArrayList<UpdateFile>();
+        int hashed = index.getHashed();
+
+        progress.phase("check", manifest.getFiles().size(), getSize(manifest.getFiles()));
+
+        for (UpdateFile file : manifest.getFiles())
+        {
+            File local = file.getFile(gameDir);
+            FileIndex.Entry state = FileIndex.stat(local);
+
+            if (state == null || state.getSize() != file.getSize() || !index.hash(file.getPath(), state, local, file.getAlgorithm()).equals(file.getHash()))
+            {
+                outdated.add(file);
+            }
+
+            progress.done(file.getPath(), file.getSize());
+        }
+
+        logger.info("Checked " + manifest.getFiles().size() + " files (" + (index.getHashed() - hashed) + " hashed)");
+
+        return outdated;
+    }
+
+    /**
+     * Download the given files by priority, using the given number
+     * of parallel connections
+     *
+     * @param gameDir The game directory
+     * @param index The game directory file index
+     * @param files The files to download
+     * @param connections The maximum number of parallel downloads
+     * @param limiter The bandwidth limiter of the downloads (can be null)
+     * @param progress The update progress, each installed file is counted in it
+     *
+     * @throws IOException If at least one file couldn't be downloaded
+     */
+    public void download(final File gameDir, final FileIndex index, List<UpdateFile> files, int connections, final RateLimiter limiter, final CraftixProgress progress) throws IOException
+    {
+        if (files.isEmpty())
+        {
+            return;
+        }
+
+        files = new ArrayList<UpdateFile>(files);
+        Collections.sort(files, new Comparator<UpdateFile>()
+        {
+            @Override
+            public int compare(UpdateFile first, UpdateFile second)
+            {
+                return first.getPriority().compareTo(second.getPriority());
+            }
+        });
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(connections, files.size()), new NamedThreadFactory("Craftix Download"));
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(files.size());
+
+        for (final UpdateFile file : files)
+        {
+            futures.add(pool.submit(new Callable<Void>()
+            {
+                @Override
+                public Void call() throws Exception
+                {
+                    File target = file.getFile(gameDir);
+
+                    install(file, target, limiter, progress);
+                    index.put(file.getPath(), target, file.getAlgorithm(), file.getHash());
+
+                    progress.done(file.getPath(), file.getSize());
+
+                    return null;
+                }
+            }));
+        }
+
+        IOException failure = null;
+        int failed = 0;
+
+        try
+        {
+            for (int i = 0; i < futures.size(); i++)
+            {
+                try
+                {
+                    futures.get(i).get();
+                }
+                catch (ExecutionException e)
+                {
+                    logger.error("Couldn't download '" + files.get(i).getPath() + "'", e.getCause());
+
+                    failed++;
+                    if (failure == null)
+                    {
+                        failure = new IOException("Couldn't download '" + files.get(i).getPath() + "'", e.getCause());
+                    }
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Update cancelled");
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+
+        if (failure != null)
+        {
+            throw new IOException(failed + " file(s) couldn't be downloaded, first error : " + failure.getMessage(), failure.getCause());
+        }
+    }
+
+    /**
+     * Install a file in the game directory, from the store if it
+     * already has it, or by downloading it
+     *
+     * @param file The file to install
+     * @param target Where to install it
+     * @param limiter The bandwidth limiter of the download (can be null)
+     * @param progress The progress the transferred bytes are counted in (can be null)
+     */
+    protected void install(UpdateFile file, File target, RateLimiter limiter, CraftixProgress progress) throws IOException
+    {
+        File basis = target.isFile() ? target : null;
+
+        if (store == null || !isShareable(file))
+        {
+            download(file, target, basis, limiter, progress);
+            return;
+        }
+
+        synchronized (store.getLock(file))
+        {
+            if (!store.contains(file))
+            {
+                File temp = store.getTempFile(file);
+
+                download(file, temp, basis, limiter, progress);
+                store.add(file, temp);
+            }
+        }
+
+        String method = store.install(file, target);
+        logger.info("Installed '" + file.getPath() + "' from the store (" + method + ")");
+    }
+
+    /**
+     * Files modified by the game (like its configuration) must not be
+     * shared between the profiles
+     *
+     * @param file A file of the manifest
+     *
+     * @return If the file can be installed from the shared store
+     */
+    protected boolean isShareable(UpdateFile file)
+    {
+        return file.getPath().contains("/") && !file.getPath().startsWith("config/") && !file.getPath().startsWith("saves/");
+    }
+
+    /**
+     * Download a file, retrying up to {@link #MAX_ATTEMPTS} times
+     *
+     * @param file The file to download
+     * @param target Where to save it
+     * @param basis An older local version of the file (can be null)
+     * @param limiter The bandwidth limiter of the download (can be null)
+     * @param progress The progress the transferred bytes are counted in (can be null)
+     */
+    protected void download(UpdateFile file, File target, File basis, RateLimiter limiter, CraftixProgress progress) throws IOException
+    {
+        for (int attempt = 1; ; attempt++)
+        {
+            try
+            {
+                fetch(file, target, basis, limiter, progress);
+                return;
+            }
+            catch (InterruptedIOException e)
+            {
+                throw e;
+            }
+            catch (IOException e)
+            {
+                if (attempt == MAX_ATTEMPTS)
+                {
+                    throw e;
+                }
+
+                logger.error("Failed to download '" + file.getPath() + "' (try " + attempt + "/" + MAX_ATTEMPTS + "), retrying : " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Download a file into a temporary file, then move it to its
+     * place if it is valid. Files with a block index are built from
+     * their older version when there is one (see {@link DeltaDownload}),
+     * big files are downloaded in resumable chunks (see
+     * {@link ChunkedDownload}), the others are hashed while they
+     * are received.
+     *
+     * @param file The file to download
+     * @param target Where to save it
+     * @param basis An older local version of the file (can be null)
+     * @param limiter The bandwidth limiter of the download (can be null)
+     * @param progress The progress the transferred bytes are counted in (can be null)
+     */
+    protected void fetch(UpdateFile file, File target, File basis, RateLimiter limiter, CraftixProgress progress) throws IOException
+    {
+        File parent = target.getParentFile();
+
+        if (!parent.isDirectory() && !parent.mkdirs())
+        {
+            throw new IOException("Couldn't create directory " + parent.getAbsolutePath());
+        }
+
+        File part = new File(target.getPath() + ".part");
+
+        if (basis != null && basis.isFile() && file.getBlocksUrl() != null)
+        {
+            try
+            {
+                new DeltaDownload(file, basis, part, buffers, limiter, progress).download();
+                Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+                return;
+            }
+            catch (InterruptedIOException e)
+            {
+                throw e;
+            }
+            catch (IOException e)
+            {
+                logger.error("Delta update of '" + file.getPath() + "' failed, downloading the whole file : " + e.getMessage());
+            }
+        }
+
+        if (file.getSize() >= CHUNKED_THRESHOLD && new ChunkedDownload(file, part, buffers, CHUNK_CONNECTIONS, limiter, progress).download())
+        {
+            Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Downloaded '" + file.getPath() + "'");
+
+            return;
+        }
+
+        MessageDigest digest = Hashing.digest(file.getAlgorithm());
+        byte[] buffer = new byte[64 * 1024];
+        long size = 0;
+
+        try (InputStream in = Http.get(file.getUrl()).getInputStream(); OutputStream out = new FileOutputStream(part))
+        {
+            int read;
+            while ((read = in.read(buffer)) != -1)
+            {
+                if (Thread.interrupted())
+                {
+                    throw new InterruptedIOException("Download of '" + file.getPath() + "' cancelled");
+                }
+
+                RateLimiter.acquire(limiter, read);
+
+                if (progress != null)
+                {
+                    progress.transferred(read);
+                }
+
+                digest.update(buffer, 0, read);
+                out.write(buffer, 0, read);
+
+                size += read;
+            }
+        }
+
+        String hash = Hashing.hex(digest.digest());
+
+        if (size != file.getSize() || !hash.equals(file.getHash()))
+        {
+            Files.deleteIfExists(part.toPath());
+            throw new IOException("Invalid file '" + file.getPath() + "' (" + size + " bytes, " + hash + "), expected " + file.getSize() + " bytes, " + file.getHash());
+        }
+
+        Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Downloaded '" + file.getPath() + "'");
+    }
+
+    /**
+     * Stop the background downloads and close the store, when the server stops
+     */
+    @Override
+    public void close() throws IOException
+    {
+        background.shutdownNow();
+
+        if (store != null)
+        {
+            store.close();
+        }
+    }
+
+    /**
+     * @return The store shared by the profiles (null if not using one)
+     */
+    public ContentStore getStore()
+    {
+        return store;
+    }
+
+    /**
+     * @param serverName The server name
+     *
+     * @return The game directory of the given server
+     */
+    public File getGameDir(String serverName)
+    {
+        return GameDirGenerator.createGameDir(serverName);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.update;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A Rolling Checksum
+ *
+ *
+ * The rsync weak checksum of a window of bytes, that can be
+ * moved forward by one byte in constant time. Used to find the
+ * blocks of a {@link BlockIndex} at any offset of a local file.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class RollingChecksum
+{
+    private int a;
+    private int b;
+
+    /**
+     * Compute the checksum of a window
+     *
+     * @param data The data
+     * @param offset The window start
+     * @param length The window size
+     */
+    public void reset(ByteBuffer data, int offset, int length)
+    {
+        a = 0;
+        b = 0;
+
+        for (int i = 0; i < length; i++)
+        {
+            int value = data.get(offset + i) & 0xFF;
+
+            a += value;
+            b += (length - i) * value;
+        }
+    }
+
+    /**
+     * Move the window forward by one byte
+     *
+     * @param out The byte leaving the window
+     * @param in The byte entering the window
+     * @param length The window size
+     */
+    public void roll(byte out, byte in, int length)
+    {
+        int removed = out & 0xFF;
+
+        a += (in & 0xFF) - removed;
+        b += a - length * removed;
+    }
+
+    /**
+     * @return The checksum of the current window
+     */
+    public int get()
+    {
+        return ((b & 0xFFFF) << 16) | (a & 0xFFFF);
+    }
+
+    /**
+     * Compute the checksum of a block
+     *
+     * @param data The data
+     * @param offset The block start
+     * @param length The block size
+     *
+     * @return The checksum of the block
+     */
+    public static int of(ByteBuffer data, int offset, int length)
+    {
+        RollingChecksum checksum = new RollingChecksum();
+        checksum.reset(data, offset, length);
+
+        return checksum.get();
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.update;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.regex.Pattern;
+import org.json.JSONObject;
+
+/**
+ * An Update File
+ *
+ *
+ * A file of the update manifest, looks like that :
+ *
+ * <code>
+ *     {
+ *         "path": "mods/mymod.jar",
+ *         "size": 123456,
+ *         "sha1": "(hexadecimal SHA-1)",
+ *         "url": "(optional, default is the manifest base URL + path)",
+ *         "blocks": "(optional, URL of the file {@link BlockIndex}, relative to the base URL)",
+ *         "priority": "(optional, critical/mods/assets/optional, guessed from the path by default)"
+ *     }
+ * </code>
+ *
+ * A "sha256" field can be given instead of the "sha1" one. When
+ * a "blocks" URL is given, an older local copy of the file is
+ * updated by only downloading its changed blocks.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class UpdateFile
+{
+    private static final Pattern SHA1 = Pattern.compile("[0-9a-f]{40}");
+    private static final Pattern SHA256 = Pattern.compile("[0-9a-f]{64}");
+
+    /**
+     * The file path, relative to the game directory (with '/')
+     */
+    private String path;
+
+    /**
+     * Where to download the file
+     */
+    private URL url;
+
+    /**
+     * Where to download the file {@link BlockIndex} (can be null)
+     */
+    private URL blocksUrl;
+
+    /**
+     * When the file must be installed
+     */
+    private UpdatePriority priority;
+
+    /**
+     * The file size, in bytes
+     */
+    private long size;
+
+    /**
+     * The hash algorithm (SHA-1 or SHA-256)
+     */
+    private String algorithm;
+
+    /**
+     * The lower case hexadecimal hash of the file
+     */
+    private String hash;
+
+    /**
+     * Update file
+     *
+     * @param path The file path, relative to the game directory (with '/')
+     * @param url Where to download the file
+     * @param size The file size, in bytes
+     * @param algorithm The hash algorithm (SHA-1 or SHA-256)
+     * @param hash The hexadecimal hash of the file
+     */
+    public UpdateFile(String path, URL url, long size, String algorithm, String hash)
+    {
+        this.path = path;
+        this.url = url;
+        this.size = size;
+        this.algorithm = algorithm;
+        this.hash = hash.toLowerCase();
+        this.priority = UpdatePriority.of(path);
+    }
+
+    /**
+     * Update file
+     *
+     * @param path The file path, relative to the game directory (with '/')
+     * @param url Where to download the file
+     * @param blocksUrl Where to download the file {@link BlockIndex} (can be null)
+     * @param size The file size, in bytes
+     * @param algorithm The hash algorithm (SHA-1 or SHA-256)
+     * @param hash The hexadecimal hash of the file
+     */
+    public UpdateFile(String path, URL url, URL blocksUrl, long size, String algorithm, String hash)
+    {
+        this(path, url, size, algorithm, hash);
+        this.blocksUrl = blocksUrl;
+    }
+
+    /**
+     * Update file
+     *
+     * @param path The file path, relative to the game directory (with '/')
+     * @param url Where to download the file
+     * @param blocksUrl Where to download the file {@link BlockIndex} (can be null)
+     * @param priority When the file must be installed
+     * @param size The file size, in bytes
+     * @param algorithm The hash algorithm (SHA-1 or SHA-256)
+     * @param hash The hexadecimal hash of the file
+     */
+    public UpdateFile(String path, URL url, URL blocksUrl, UpdatePriority priority, long size, String algorithm, String hash)
+    {
+        this(path, url, blocksUrl, size, algorithm, hash);
+        this.priority = priority;
+    }
+
+    /**
+     * Read a file of the manifest
+     *
+     * @param baseUrl The URL the file path is relative to, if it has no "url"
+     * @param json The manifest file entry
+     *
+     * @return The read file
+     *
+     * @throws IOException If the path is not a relative one, or the URL is malformed
+     */
+    public static UpdateFile fromJSON(URL baseUrl, JSONObject json) throws IOException
+    {
+        String path = json.getString("path").replace('\\', '/');
+
+        if (path.startsWith("/") || path.contains(":") || ("/" + path + "/").contains("/../"))
+        {
+            throw new IOException("Invalid file path in the manifest '" + path + "'");
+        }
+
+        URL url = json.has("url") ? new URL(json.getString("url")) : new URL(baseUrl, path.replace(" ", "%20"));
+        URL blocksUrl = json.has("blocks") ? new URL(baseUrl, json.getString("blocks")) : null;
+        UpdatePriority priority = json.has("priority") ? UpdatePriority.valueOf(json.getString("priority").toUpperCase()) : UpdatePriority.of(path);
+
+        boolean sha256 = json.has("sha256");
+        String hash = json.getString(sha256 ? "sha256" : "sha1").toLowerCase();
+
+        // The hash names the files of the content store
+        if (!(sha256 ? SHA256 : SHA1).matcher(hash).matches())
+        {
+            throw new IOException("Invalid hash of '" + path + "' in the manifest '" + hash + "'");
+        }
+
+        return new UpdateFile(path, url, blocksUrl, priority, json.getLong("size"), sha256 ? "SHA-256" : "SHA-1", hash);
+    }
+
+    /**
+     * @param gameDir The game directory
+     *
+     * @return The local file
+     */
+    public File getFile(File gameDir)
+    {
+        return new File(gameDir, path);
+    }
+
+    /**
+     * @return The file path, relative to the game directory (with '/')
+     */
+    public String getPath()
+    {
+        return path;
+    }
+
+    /**
+     * @return Where to download the file
+     */
+    public URL getUrl()
+    {
+        return url;
+    }
+
+    /**
+     * @return Where to download the file {@link BlockIndex} (null if not published)
+     */
+    public URL getBlocksUrl()
+    {
+        return blocksUrl;
+    }
+
+    /**
+     * @return When the file must be installed
+     */
+    public UpdatePriority getPriority()
+    {
+        return priority;
+    }
+
+    /**
+     * @return The file size, in bytes
+     */
+    public long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * @return The hash algorithm (SHA-1 or SHA-256)
+     */
+    public String getAlgorithm()
+    {
+        return algorithm;
+    }
+
+    /**
+     * @return The lower case hexadecimal hash of the file
+     */
+    public String getHash()
+    {
+        return hash;
+    }
+}
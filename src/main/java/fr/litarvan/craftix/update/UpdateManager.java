@@ -25,7 +25,9 @@ import org.json.JSONObject;
  * The Update Manager
  *
  *
- * Manage the game updating, default is {@link SUpdateManager}.
+ * Manage the game updating, default is {@link ManifestUpdateManager}
+ * (extending {@link UpdateManagerAdapter} only requires
+ * {@link #update(CraftixServer, JSONObject)}).
  *
  * @author Litarvan
  * @version 1.0.0
@@ -42,4 +44,14 @@ public interface UpdateManager<E extends Exception>
      * @throws E Any exception
      */
     void update(CraftixServer server, JSONObject params) throws E;
+
+    /**
+     * Waits until the files required to launch a server are installed,
+     * if it is being updated
+     *
+     * @param name The server name
+     *
+     * @throws E If the required files couldn't be installed
+     */
+    void awaitRequired(String name) throws E;
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.update;
+
+import fr.litarvan.craftix.util.Http;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * The Update Manifest
+ *
+ *
+ * The list of the files of the game published on the update
+ * server, looks like that :
+ *
+ * <code>
+ *     {
+ *         "baseUrl": "(optional, default is the manifest URL)",
+ *         "files": [
+ *             (see {@link UpdateFile})
+ *         ]
+ *     }
+ * </code>
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class UpdateManifest
+{
+    /**
+     * The files of the game
+     */
+    private List<UpdateFile> files;
+
+    /**
+     * Update manifest
+     *
+     * @param files The files of the game
+     */
+    public UpdateManifest(List<UpdateFile> files)
+    {
+        this.files = Collections.unmodifiableList(files);
+    }
+
+    /**
+     * Download and read a manifest
+     *
+     * @param url The manifest URL
+     *
+     * @return The read manifest
+     */
+    public static UpdateManifest fetch(URL url) throws IOException
+    {
+        return fromJSON(url, new JSONObject(new String(Http.read(url), StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Read a manifest
+     *
+     * @param url The manifest URL (used to resolve the files URL)
+     * @param json The manifest content
+     *
+     * @return The read manifest
+     */
+    public static UpdateManifest fromJSON(URL url, JSONObject json) throws IOException
+    {
+        URL baseUrl = json.has("baseUrl") ? new URL(json.getString("baseUrl")) : url;
+        JSONArray array = json.getJSONArray("files");
+        List<UpdateFile> files = new ArrayList<UpdateFile>(array.length());
+
+        for (int i = 0; i < array.length(); i++)
+        {
+            files.add(UpdateFile.fromJSON(baseUrl, array.getJSONObject(i)));
+        }
+
+        return new UpdateManifest(files);
+    }
+
+    /**
+     * @return The files of the game
+     */
+    public List<UpdateFile> getFiles()
+    {
+        return files;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.update;
+
+/**
+ * An Update Priority
+ *
+ *
+ * When a file must be installed. The files required to start
+ * the game (libraries, natives, client jar, then mods and their
+ * configuration) are installed first, the game can be launched
+ * as soon as they are verified while the others (assets, then
+ * optional resource and shader packs) are still downloading.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public enum UpdatePriority
+{
+    /**
+     * Libraries, natives, client jar, asset indexes
+     */
+    CRITICAL(true),
+
+    /**
+     * Mods, their configuration, and the other game files
+     */
+    MODS(true),
+
+    /**
+     * Assets (textures, sounds, languages)
+     */
+    ASSETS(false),
+
+    /**
+     * Resource packs, shader packs
+     */
+    OPTIONAL(false);
+
+    /**
+     * If the file must be installed before launching the game
+     */
+    private final boolean required;
+
+    UpdatePriority(boolean required)
+    {
+        this.required = required;
+    }
+
+    /**
+     * @return If the file must be installed before launching the game
+     */
+    public boolean isRequired()
+    {
+        return required;
+    }
+
+    /**
+     * Guess the priority of a file from its path in the game directory
+     *
+     * @param path The file path, relative to the game directory (with '/')
+     *
+     * @return The file priority
+     */
+    public static UpdatePriority of(String path)
+    {
+        String lower = path.toLowerCase();
+
+        if (lower.startsWith("libs/") || lower.startsWith("libraries/") || lower.startsWith("natives/") || lower.startsWith("bin/")
+            || lower.startsWith("versions/") || lower.startsWith("assets/indexes/") || lower.equals("minecraft.jar"))
+        {
+            return CRITICAL;
+        }
+
+        if (lower.startsWith("assets/"))
+        {
+            return ASSETS;
+        }
+
+        if (lower.startsWith("resourcepacks/") || lower.startsWith("shaderpacks/"))
+        {
+            return OPTIONAL;
+        }
+
+        return MODS;
+    }
+}
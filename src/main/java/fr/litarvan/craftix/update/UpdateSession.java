@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.update;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+
+/**
+ * An Update Session
+ *
+ *
+ * An update of a game directory, in two phases : the files
+ * required to launch the game, then (possibly in background)
+ * the others. The launch waits for the first phase only.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class UpdateSession
+{
+    /**
+     * The updated server name
+     */
+    private final String name;
+
+    /**
+     * Released when the required files are installed (or failed)
+     */
+    private final CountDownLatch required = new CountDownLatch(1);
+
+    /**
+     * Released when every file is installed (or failed)
+     */
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    /**
+     * Why the required files couldn't be installed
+     */
+    private volatile Throwable failure;
+
+    /**
+     * The background phase task
+     */
+    private volatile Future<?> background;
+
+    /**
+     * Update session
+     *
+     * @param name The updated server name
+     */
+    public UpdateSession(String name)
+    {
+        this.name = name;
+    }
+
+    void requiredInstalled()
+    {
+        required.countDown();
+    }
+
+    void finished()
+    {
+        required.countDown();
+        done.countDown();
+    }
+
+    void failed(Throwable failure)
+    {
+        if (required.getCount() > 0)
+        {
+            this.failure = failure;
+        }
+
+        finished();
+    }
+
+    void setBackground(Future<?> background)
+    {
+        this.background = background;
+    }
+
+    /**
+     * Wait until the files required to launch the game are installed
+     *
+     * @throws IOException If they couldn't be installed
+     */
+    public void awaitRequired() throws IOException
+    {
+        try
+        {
+            required.await();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the update of '" + name + "'");
+        }
+
+        if (failure != null)
+        {
+            throw new IOException("Update of '" + name + "' failed", failure);
+        }
+    }
+
+    /**
+     * Stop the background phase (if running) and wait for the end of the session
+     */
+    public void cancel() throws InterruptedException
+    {
+        Future<?> background = this.background;
+
+        if (background != null)
+        {
+            background.cancel(true);
+        }
+
+        done.await();
+    }
+
+    /**
+     * @return If every file was installed (or the update failed)
+     */
+    public boolean isDone()
+    {
+        return done.getCount() == 0;
+    }
+
+    /**
+     * @return The updated server name
+     */
+    public String getName()
+    {
+        return name;
+    }
+}
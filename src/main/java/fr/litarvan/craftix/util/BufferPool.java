@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.util;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Buffer Pool
+ *
+ *
+ * Keeps a bounded amount of direct buffers of the same size
+ * so they can be reused instead of being allocated (and
+ * garbage collected) for each read.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class BufferPool
+{
+    /**
+     * The size of each buffer of the pool
+     */
+    private final int bufferSize;
+
+    /**
+     * The maximum number of idle buffers kept in the pool
+     */
+    private final int maxPooled;
+
+    /**
+     * The idle buffers
+     */
+    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    /**
+     * The number of idle buffers (queue size is not constant time)
+     */
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /**
+     * A Buffer Pool
+     *
+     * @param bufferSize The size of each buffer of the pool
+     * @param maxPooled The maximum number of idle buffers kept in the pool
+     */
+    public BufferPool(int bufferSize, int maxPooled)
+    {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Take a buffer from the pool, or allocate a new one if the pool is empty
+     *
+     * @return A cleared direct buffer of {@link #getBufferSize()} bytes
+     */
+    public ByteBuffer acquire()
+    {
+        ByteBuffer buffer = buffers.poll();
+
+        if (buffer == null)
+        {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        pooled.decrementAndGet();
+        buffer.clear();
+
+        return buffer;
+    }
+
+    /**
+     * Give a buffer back to the pool, it must not be used after that
+     *
+     * @param buffer The buffer got from {@link #acquire()}
+     */
+    public void release(ByteBuffer buffer)
+    {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != bufferSize)
+        {
+            return;
+        }
+
+        if (pooled.incrementAndGet() > maxPooled)
+        {
+            pooled.decrementAndGet();
+            return;
+        }
+
+        buffers.offer(buffer);
+    }
+
+    /**
+     * @return The size of each buffer of the pool
+     */
+    public int getBufferSize()
+    {
+        return bufferSize;
+    }
+}
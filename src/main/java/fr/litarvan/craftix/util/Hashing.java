@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hashing utils
+ *
+ *
+ * Hexadecimal digests of files, as published in the update
+ * manifests (SHA-1 or SHA-256).
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public final class Hashing
+{
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Hashing()
+    {
+    }
+
+    /**
+     * @param algorithm The digest algorithm (ex: SHA-1, SHA-256)
+     *
+     * @return A new message digest of the given algorithm
+     *
+     * @throws IllegalArgumentException If the algorithm is not supported
+     */
+    public static MessageDigest digest(String algorithm)
+    {
+        try
+        {
+            return MessageDigest.getInstance(algorithm);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalArgumentException("Unsupported hash algorithm '" + algorithm + "'", e);
+        }
+    }
+
+    /**
+     * Hash the content of a file
+     *
+     * @param file The file to hash
+     * @param algorithm The digest algorithm (ex: SHA-1, SHA-256)
+     *
+     * @return The lower case hexadecimal hash
+     */
+    public static String hash(File file, String algorithm) throws IOException
+    {
+        MessageDigest digest = digest(algorithm);
+        byte[] buffer = new byte[64 * 1024];
+
+        try (InputStream in = new FileInputStream(file))
+        {
+            int read;
+            while ((read = in.read(buffer)) != -1)
+            {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        return hex(digest.digest());
+    }
+
+    /**
+     * @param bytes Bytes to encode
+     *
+     * @return The lower case hexadecimal representation of the bytes
+     */
+    public static String hex(byte[] bytes)
+    {
+        char[] chars = new char[bytes.length * 2];
+
+        for (int i = 0; i < bytes.length; i++)
+        {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+
+        return new String(chars);
+    }
+
+    /**
+     * @param hex A hexadecimal string
+     *
+     * @return The decoded bytes
+     *
+     * @throws IllegalArgumentException If the string is not a valid hexadecimal one
+     */
+    public static byte[] unhex(String hex)
+    {
+        if (hex.length() % 2 != 0)
+        {
+            throw new IllegalArgumentException("Invalid hexadecimal string '" + hex + "'");
+        }
+
+        byte[] bytes = new byte[hex.length() / 2];
+
+        for (int i = 0; i < bytes.length; i++)
+        {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+
+            if (high == -1 || low == -1)
+            {
+                throw new IllegalArgumentException("Invalid hexadecimal string '" + hex + "'");
+            }
+
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+
+        return bytes;
+    }
+}
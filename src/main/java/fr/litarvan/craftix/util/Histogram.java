@@ -0,0 +1,187 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Histogram
+ *
+ *
+ * Records values (like durations in microseconds) in log-linear
+ * buckets, the same way as an HDR histogram : each power of two is
+ * split into {@link #SUB_BUCKETS} buckets, so the percentiles are
+ * precise to about 1.5% whatever the magnitude. Recording is lock
+ * free and never allocates, so it can be done on every command.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class Histogram
+{
+    /**
+     * Number of buckets per power of two
+     */
+    public static final int SUB_BUCKETS = 64;
+
+    /**
+     * Largest recorded value, larger ones are recorded as this one (about 19 hours in microseconds)
+     */
+    public static final long MAX_VALUE = (1L << 36) - 1;
+
+    private static final int SUB_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS) + 1;
+
+    /**
+     * The number of values in each bucket
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(index(MAX_VALUE) + 1);
+
+    /**
+     * The number of recorded values
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * The sum of the recorded values
+     */
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * The largest recorded value
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a value
+     *
+     * @param value The value (negative ones are recorded as 0)
+     */
+    public void record(long value)
+    {
+        value = Math.min(Math.max(value, 0), MAX_VALUE);
+
+        counts.incrementAndGet(index(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long current = max.get();
+
+        while (value > current && !max.compareAndSet(current, value))
+        {
+            current = max.get();
+        }
+    }
+
+    /**
+     * @param percentile The percentile (between 0 and 100)
+     *
+     * @return The highest value equivalent to the one at the given percentile, 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile)
+    {
+        long total = 0;
+        long[] snapshot = new long[counts.length()];
+
+        for (int i = 0; i < snapshot.length; i++)
+        {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+
+        if (total == 0)
+        {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100) / 100));
+        long seen = 0;
+
+        for (int i = 0; i < snapshot.length; i++)
+        {
+            seen += snapshot[i];
+
+            if (seen >= target)
+            {
+                return Math.min(highest(i), max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    /**
+     * @return The number of recorded values
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    /**
+     * @return The mean of the recorded values, 0 if nothing was recorded
+     */
+    public double getMean()
+    {
+        long count = this.count.get();
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    /**
+     * @return The largest recorded value
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * @param value A value
+     *
+     * @return The bucket of this value
+     */
+    static int index(long value)
+    {
+        if (value < SUB_BUCKETS * 2)
+        {
+            return (int) value;
+        }
+
+        // The highest bits of the value give the bucket, the lowest ones are dropped
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * @param index A bucket
+     *
+     * @return The highest value of this bucket
+     */
+    static long highest(int index)
+    {
+        if (index < SUB_BUCKETS * 2)
+        {
+            return index;
+        }
+
+        int shift = index / SUB_BUCKETS - 1;
+        return ((long) (index - shift * SUB_BUCKETS + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.util;
+
+import fr.litarvan.craftix.CraftixServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * HTTP utils
+ *
+ *
+ * Opens the connections used by the updater. Response bodies
+ * must be fully read and closed so the JDK can keep the
+ * connection alive and reuse it for the next file.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public final class Http
+{
+    /**
+     * Connection timeout, in milliseconds
+     */
+    public static final int CONNECT_TIMEOUT = 10000;
+
+    /**
+     * Read timeout, in milliseconds
+     */
+    public static final int READ_TIMEOUT = 30000;
+
+    /**
+     * The user agent sent to the servers
+     */
+    public static final String USER_AGENT = "Craftix/" + CraftixServer.VERSION;
+
+    private Http()
+    {
+    }
+
+    /**
+     * Send a GET request
+     *
+     * @param url The URL to get
+     *
+     * @return The connection, with a successful response code
+     *
+     * @throws IOException If the connection failed or the server didn't answer 2xx
+     */
+    public static HttpURLConnection get(URL url) throws IOException
+    {
+        return check(open(url));
+    }
+
+    /**
+     * Send a GET request for a part of a file
+     *
+     * @param url The URL to get
+     * @param from The first byte to get
+     * @param to The last byte to get (inclusive)
+     *
+     * @return The connection, with a 206 (partial content) response code
+     *
+     * @throws IOException If the connection failed or the server didn't send the range
+     */
+    public static HttpURLConnection get(URL url, long from, long to) throws IOException
+    {
+        HttpURLConnection connection = open(url);
+        connection.setRequestProperty("Range", "bytes=" + from + "-" + to);
+
+        if (check(connection).getResponseCode() != HttpURLConnection.HTTP_PARTIAL)
+        {
+            connection.disconnect();
+            throw new IOException("Server ignored the range request for " + url);
+        }
+
+        return connection;
+    }
+
+    /**
+     * Send a HEAD request to check if a server accepts range requests
+     *
+     * @param url The URL to check
+     * @param size The expected size of the file
+     *
+     * @return If the server accepts range requests for this file, and has the expected size
+     * (false if it didn't answer 2xx to the HEAD request)
+     *
+     * @throws IOException If the connection failed
+     */
+    public static boolean acceptsRanges(URL url, long size) throws IOException
+    {
+        HttpURLConnection connection = open(url);
+        connection.setRequestMethod("HEAD");
+
+        int code = connection.getResponseCode();
+
+        // Some servers refuse HEAD (405, 501) or only signed the GET URL (403), a plain GET can still work
+        if (code < 200 || code >= 300)
+        {
+            connection.disconnect();
+            return false;
+        }
+
+        InputStream in = connection.getInputStream();
+
+        try
+        {
+            String ranges = connection.getHeaderField("Accept-Ranges");
+            return ranges != null && ranges.contains("bytes") && connection.getHeaderFieldLong("Content-Length", -1) == size;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private static HttpURLConnection open(URL url) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        connection.setRequestProperty("User-Agent", USER_AGENT);
+
+        return connection;
+    }
+
+    /**
+     * Check the response code of a connection
+     *
+     * @param connection The connection to check
+     *
+     * @return The given connection
+     *
+     * @throws IOException If the server didn't answer 2xx (the connection is disconnected)
+     */
+    public static HttpURLConnection check(HttpURLConnection connection) throws IOException
+    {
+        int code = connection.getResponseCode();
+
+        if (code < 200 || code >= 300)
+        {
+            connection.disconnect();
+            throw new IOException("Server answered " + code + " for " + connection.getURL());
+        }
+
+        return connection;
+    }
+
+    /**
+     * Send a POST request
+     *
+     * @param url The URL to post to
+     * @param type The content type of the body
+     * @param body The request body
+     *
+     * @return The connection, whatever its response code is (read its body with {@link #read(HttpURLConnection)}
+     * so it can be reused)
+     *
+     * @throws IOException If the connection failed
+     */
+    public static HttpURLConnection post(URL url, String type, byte[] body) throws IOException
+    {
+        HttpURLConnection connection = open(url);
+
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.setRequestProperty("Content-Type", type);
+
+        try (OutputStream out = connection.getOutputStream())
+        {
+            out.write(body);
+        }
+
+        return connection;
+    }
+
+    /**
+     * Read the whole body of a response
+     *
+     * @param url The URL to get
+     *
+     * @return The response body
+     */
+    public static byte[] read(URL url) throws IOException
+    {
+        return read(get(url));
+    }
+
+    /**
+     * Read the whole body of a response, or of the error sent by the
+     * server, leaving the connection ready to be reused
+     *
+     * @param connection The connection to read
+     *
+     * @return The response body (empty if there is none)
+     */
+    public static byte[] read(HttpURLConnection connection) throws IOException
+    {
+        InputStream stream = connection.getResponseCode() >= 400 ? connection.getErrorStream() : connection.getInputStream();
+
+        if (stream == null)
+        {
+            return new byte[0];
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+
+        try (InputStream in = stream)
+        {
+            int read;
+            while ((read = in.read(buffer)) != -1)
+            {
+                out.write(buffer, 0, read);
+            }
+        }
+
+        return out.toByteArray();
+    }
+}
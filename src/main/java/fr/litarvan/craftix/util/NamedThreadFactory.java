@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Named Thread Factory
+ *
+ *
+ * Creates daemon threads named after a prefix and a counter
+ * (ex: 'Craftix Worker #3'), so the server threads are easy to
+ * find in a thread dump and never keep the JVM alive.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class NamedThreadFactory implements ThreadFactory
+{
+    /**
+     * The thread name prefix
+     */
+    private final String prefix;
+
+    /**
+     * The next thread number
+     */
+    private final AtomicInteger counter = new AtomicInteger(1);
+
+    /**
+     * Named thread factory
+     *
+     * @param prefix The thread name prefix (ex: 'Craftix Worker')
+     */
+    public NamedThreadFactory(String prefix)
+    {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable)
+    {
+        Thread thread = new Thread(runnable, prefix + " #" + counter.getAndIncrement());
+        thread.setDaemon(true);
+
+        return thread;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Perf Data
+ *
+ *
+ * Reads the performance counters that a HotSpot JVM publishes in
+ * its memory mapped /tmp/hsperfdata_(user)/(pid) file (the ones
+ * used by jstat), like the garbage collections count and time.
+ *
+ * The counters are found once with {@link #find(String)}, then
+ * read directly from the mapped file without creating any object.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class PerfData
+{
+    private static final int MAGIC = 0xcafec0c0;
+
+    /**
+     * The mapped file
+     */
+    private final MappedByteBuffer buffer;
+
+    /**
+     * The data offsets of the long counters, by name
+     */
+    private final Map<String, Integer> counters = new HashMap<String, Integer>();
+
+    protected PerfData(MappedByteBuffer buffer)
+    {
+        this.buffer = buffer;
+
+        parse();
+    }
+
+    /**
+     * Open the perf data of a JVM
+     *
+     * @param pid The JVM process id
+     *
+     * @return Its perf data, or null if not available (not started yet,
+     *         not a HotSpot JVM, or started with -XX:-UsePerfData)
+     */
+    public static PerfData open(long pid)
+    {
+        File file = new File(new File("/tmp", "hsperfdata_" + System.getProperty("user.name")), String.valueOf(pid));
+
+        if (pid < 0 || !file.isFile())
+        {
+            return null;
+        }
+
+        try (RandomAccessFile in = new RandomAccessFile(file, "r"))
+        {
+            MappedByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+
+            if (buffer.capacity() < 32 || buffer.getInt(0) != MAGIC)
+            {
+                return null;
+            }
+
+            return new PerfData(buffer);
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+
+    private void parse()
+    {
+        buffer.order(buffer.get(4) == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+
+        int offset = buffer.getInt(24);
+        int count = buffer.getInt(28);
+
+        for (int i = 0; i < count && offset + 20 <= buffer.capacity(); i++)
+        {
+            int length = buffer.getInt(offset);
+            int nameOffset = buffer.getInt(offset + 4);
+            int vectorLength = buffer.getInt(offset + 8);
+            byte type = buffer.get(offset + 12);
+            int dataOffset = buffer.getInt(offset + 16);
+
+            if (length <= 0)
+            {
+                break;
+            }
+
+            if (type == 'J' && vectorLength == 0)
+            {
+                counters.put(readName(offset + nameOffset), offset + dataOffset);
+            }
+
+            offset += length;
+        }
+    }
+
+    private String readName(int offset)
+    {
+        StringBuilder name = new StringBuilder();
+        byte b;
+
+        while (offset < buffer.capacity() && (b = buffer.get(offset++)) != 0)
+        {
+            name.append((char) b);
+        }
+
+        return name.toString();
+    }
+
+    /**
+     * @param name The counter name (like "sun.gc.collector.0.time")
+     *
+     * @return The counter offset, or -1 if the JVM doesn't have it
+     */
+    public int find(String name)
+    {
+        Integer offset = counters.get(name);
+        return offset != null ? offset : -1;
+    }
+
+    /**
+     * @param offset The counter offset, from {@link #find(String)}
+     *
+     * @return The counter value (0 if the offset is -1)
+     */
+    public long get(int offset)
+    {
+        return offset < 0 ? 0 : buffer.getLong(offset);
+    }
+}
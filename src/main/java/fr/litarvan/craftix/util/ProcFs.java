@@ -0,0 +1,168 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ProcFS
+ *
+ *
+ * Reads the system and processes infos of the Linux /proc file
+ * system. Every method returns -1 when the info is not available
+ * (other systems, or process already stopped).
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public final class ProcFs
+{
+    private static final File PROC = new File("/proc");
+
+    private ProcFs()
+    {
+    }
+
+    /**
+     * @return If the /proc file system is available
+     */
+    public static boolean isAvailable()
+    {
+        return new File(PROC, "meminfo").isFile();
+    }
+
+    /**
+     * @return The total memory of the system (in bytes)
+     */
+    public static long getTotalMemory()
+    {
+        return readKilobytes(new File(PROC, "meminfo"), "MemTotal:");
+    }
+
+    /**
+     * @return The memory that can be used without swapping (in bytes)
+     */
+    public static long getAvailableMemory()
+    {
+        return readKilobytes(new File(PROC, "meminfo"), "MemAvailable:");
+    }
+
+    /**
+     * @param pid A process id
+     *
+     * @return The memory of the process that is in RAM (in bytes)
+     */
+    public static long getResidentMemory(long pid)
+    {
+        return pid < 0 ? -1 : readKilobytes(new File(PROC, pid + "/status"), "VmRSS:");
+    }
+
+    /**
+     * Read a "Key:    value kB" line of a /proc file
+     *
+     * @param file The /proc file
+     * @param key The line key (with the colon)
+     *
+     * @return The value (in bytes), or -1
+     */
+    public static long readKilobytes(File file, String key)
+    {
+        for (String line : readLines(file))
+        {
+            if (!line.startsWith(key))
+            {
+                continue;
+            }
+
+            String value = line.substring(key.length()).trim();
+            int space = value.indexOf(' ');
+
+            try
+            {
+                return Long.parseLong(space == -1 ? value : value.substring(0, space)) * 1024;
+            }
+            catch (NumberFormatException e)
+            {
+                return -1;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @param file A /proc file
+     *
+     * @return Its lines, or an empty list if it can't be read
+     */
+    public static List<String> readLines(File file)
+    {
+        try
+        {
+            return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        }
+        catch (IOException e)
+        {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * @param process A process started by this JVM
+     *
+     * @return Its id, or -1 if it can't be known
+     */
+    public static long getPid(Process process)
+    {
+        try
+        {
+            // Java 9+
+            Method pid = Process.class.getMethod("pid");
+            return (Long) pid.invoke(process);
+        }
+        catch (NoSuchMethodException e)
+        {
+            // Older Java, where the Unix implementation keeps it in a field
+        }
+        catch (Exception e)
+        {
+            return -1;
+        }
+
+        try
+        {
+            Field pid = process.getClass().getDeclaredField("pid");
+            pid.setAccessible(true);
+
+            return pid.getInt(process);
+        }
+        catch (Exception e)
+        {
+            return -1;
+        }
+    }
+}
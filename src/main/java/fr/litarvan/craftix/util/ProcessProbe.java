@@ -0,0 +1,314 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * A Process Probe
+ *
+ *
+ * Samples the CPU time, memory, threads and disk I/O of a process
+ * from its /proc/(pid)/stat, status and io files. The files are
+ * kept open and read again into the same buffer at each sample, and
+ * parsed without creating any object, so a process can be sampled
+ * often without garbage.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class ProcessProbe implements Closeable
+{
+    /**
+     * Clock ticks per second of the CPU times (USER_HZ, 100 on every Linux)
+     */
+    public static final int CLOCK_TICKS = 100;
+
+    private static final byte[] VM_RSS = key("VmRSS:");
+    private static final byte[] READ_BYTES = key("read_bytes:");
+    private static final byte[] WRITE_BYTES = key("write_bytes:");
+
+    /**
+     * The process id
+     */
+    private final long pid;
+
+    /**
+     * Buffer reused to read the files
+     */
+    private final byte[] buffer = new byte[4096];
+
+    private RandomAccessFile stat;
+    private RandomAccessFile status;
+    private RandomAccessFile io;
+
+    private long cpuTime = -1;
+    private long residentMemory = -1;
+    private int threads = -1;
+    private long readBytes = -1;
+    private long writeBytes = -1;
+
+    /**
+     * Process probe
+     *
+     * @param pid The process id
+     */
+    public ProcessProbe(long pid)
+    {
+        this.pid = pid;
+    }
+
+    /**
+     * Read the current values of the process
+     *
+     * @return If the process could be sampled (false if it stopped, or no /proc)
+     */
+    public boolean sample()
+    {
+        if (pid < 0)
+        {
+            return false;
+        }
+
+        try
+        {
+            if (stat == null)
+            {
+                File dir = new File("/proc/" + pid);
+
+                status = new RandomAccessFile(new File(dir, "status"), "r");
+                stat = new RandomAccessFile(new File(dir, "stat"), "r");
+
+                try
+                {
+                    io = new RandomAccessFile(new File(dir, "io"), "r");
+                }
+                catch (IOException e)
+                {
+                    // Not readable without the ptrace permission
+                }
+            }
+
+            parseStat(read(stat));
+
+            long rss = find(buffer, read(status), VM_RSS);
+            residentMemory = rss < 0 ? -1 : rss * 1024;
+
+            if (io != null)
+            {
+                int length = read(io);
+
+                readBytes = find(buffer, length, READ_BYTES);
+                writeBytes = find(buffer, length, WRITE_BYTES);
+            }
+
+            return true;
+        }
+        catch (IOException e)
+        {
+            close();
+            return false;
+        }
+    }
+
+    private int read(RandomAccessFile file) throws IOException
+    {
+        file.seek(0);
+
+        int length = 0;
+        int read;
+
+        while (length < buffer.length && (read = file.read(buffer, length, buffer.length - length)) > 0)
+        {
+            length += read;
+        }
+
+        return length;
+    }
+
+    private void parseStat(int length)
+    {
+        // The process name (2nd field) is between parentheses and can contain spaces
+        int index = length - 1;
+
+        while (index >= 0 && buffer[index] != ')')
+        {
+            index--;
+        }
+
+        int field = 2;
+        long utime = 0;
+
+        for (int i = index + 1; i < length; i++)
+        {
+            if (buffer[i] != ' ')
+            {
+                continue;
+            }
+
+            field++;
+
+            if (field == 14)
+            {
+                utime = parseLong(buffer, i + 1, length);
+            }
+            else if (field == 15)
+            {
+                cpuTime = utime + parseLong(buffer, i + 1, length);
+            }
+            else if (field == 20)
+            {
+                threads = (int) parseLong(buffer, i + 1, length);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Find the value of a "key:    value" line
+     *
+     * @return The value, or -1 if not found
+     */
+    private static long find(byte[] buffer, int length, byte[] key)
+    {
+        outer:
+        for (int i = 0; i + key.length <= length; i++)
+        {
+            if (i > 0 && buffer[i - 1] != '\n')
+            {
+                continue;
+            }
+
+            for (int j = 0; j < key.length; j++)
+            {
+                if (buffer[i + j] != key[j])
+                {
+                    continue outer;
+                }
+            }
+
+            int start = i + key.length;
+
+            while (start < length && (buffer[start] == ' ' || buffer[start] == '\t'))
+            {
+                start++;
+            }
+
+            return parseLong(buffer, start, length);
+        }
+
+        return -1;
+    }
+
+    private static long parseLong(byte[] buffer, int start, int length)
+    {
+        long value = 0;
+
+        for (int i = start; i < length && buffer[i] >= '0' && buffer[i] <= '9'; i++)
+        {
+            value = value * 10 + (buffer[i] - '0');
+        }
+
+        return value;
+    }
+
+    private static byte[] key(String key)
+    {
+        byte[] bytes = new byte[key.length()];
+
+        for (int i = 0; i < bytes.length; i++)
+        {
+            bytes[i] = (byte) key.charAt(i);
+        }
+
+        return bytes;
+    }
+
+    @Override
+    public void close()
+    {
+        for (RandomAccessFile file : new RandomAccessFile[] { stat, status, io })
+        {
+            if (file != null)
+            {
+                try
+                {
+                    file.close();
+                }
+                catch (IOException ignored)
+                {
+                }
+            }
+        }
+
+        stat = status = io = null;
+    }
+
+    /**
+     * @return The process id
+     */
+    public long getPid()
+    {
+        return pid;
+    }
+
+    /**
+     * @return The CPU time used by the process (user and system, in {@link #CLOCK_TICKS}), or -1
+     */
+    public long getCpuTime()
+    {
+        return cpuTime;
+    }
+
+    /**
+     * @return The memory of the process that is in RAM (in bytes), or -1
+     */
+    public long getResidentMemory()
+    {
+        return residentMemory;
+    }
+
+    /**
+     * @return The number of threads of the process, or -1
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+     * @return The bytes read from the disk by the process, or -1
+     */
+    public long getReadBytes()
+    {
+        return readBytes;
+    }
+
+    /**
+     * @return The bytes written to the disk by the process, or -1
+     */
+    public long getWriteBytes()
+    {
+        return writeBytes;
+    }
+}
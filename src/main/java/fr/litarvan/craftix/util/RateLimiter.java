@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 Adrien "Litarvan" Navratil
+ *
+ * This file is part of Craftix.
+ *
+ * Craftix is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Craftix is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Craftix.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.litarvan.craftix.util;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Rate Limiter
+ *
+ *
+ * Limits the number of bytes per second transferred by all the
+ * threads sharing it. Transfers can burst up to one second worth
+ * of bytes after being idle.
+ *
+ * @author Litarvan
+ * @version 1.0.0
+ * @since 1.0.0
+ */
+public class RateLimiter
+{
+    private static final long BURST = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * The allowed bytes per second
+     */
+    private final long bytesPerSecond;
+
+    /**
+     * The time when all the acquired bytes will have been allowed
+     */
+    private long next = System.nanoTime();
+
+    /**
+     * Rate limiter
+     *
+     * @param bytesPerSecond The allowed bytes per second
+     */
+    public RateLimiter(long bytesPerSecond)
+    {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Wait until the given number of bytes can be transferred
+     *
+     * @param bytes The number of bytes to transfer
+     *
+     * @throws InterruptedIOException If the thread was interrupted while waiting
+     */
+    public void acquire(long bytes) throws InterruptedIOException
+    {
+        long wait;
+
+        synchronized (this)
+        {
+            long now = System.nanoTime();
+
+            next = Math.max(next, now - BURST) + bytes * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+            wait = next - now;
+        }
+
+        if (wait <= 0)
+        {
+            return;
+        }
+
+        try
+        {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+        }
+    }
+
+    /**
+     * Same as {@link #acquire(long)}, doing nothing if the limiter is null
+     *
+     * @param limiter A limiter (can be null)
+     * @param bytes The number of bytes to transfer
+     */
+    public static void acquire(RateLimiter limiter, long bytes) throws InterruptedIOException
+    {
+        if (limiter != null)
+        {
+            limiter.acquire(bytes);
+        }
+    }
+
+    /**
+     * @return The allowed bytes per second
+     */
+    public long getBytesPerSecond()
+    {
+        return bytesPerSecond;
+    }
+}
@@ -0,0 +1,252 @@
+package fr.litarvan.craftix.test;
+
+import fr.litarvan.craftix.CommandMetrics;
+import fr.litarvan.craftix.CraftixServer;
+import fr.litarvan.craftix.auth.CoalescingAuthManager;
+import fr.litarvan.craftix.auth.YggdrasilAuthManager;
+import fr.litarvan.craftix.util.Histogram;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONObject;
+
+/**
+ * Drives concurrent authenticate, refresh and logout flows through a
+ * Craftix server talking to a {@link MockAuthServer}, then prints the
+ * throughput and the latency percentiles of each command.
+ *
+ * Every client opens its own connection, waits for the server status,
+ * then runs its flows one after the other. A failed command ends the
+ * flow, the next one starting with a new authentication.
+ *
+ * Usage : AuthLoadTest [clients] [flows per client] [latency ms] [error rate] [throttle per second]
+ */
+public class AuthLoadTest
+{
+    private static final String[] COMMANDS = {"authenticate", "refresh", "logout"};
+
+    private final Histogram connect = new Histogram();
+    private final Histogram flow = new Histogram();
+    private final Histogram[] latencies = {new Histogram(), new Histogram(), new Histogram()};
+    private final AtomicLong[] failures = {new AtomicLong(), new AtomicLong(), new AtomicLong()};
+    private volatile String lastFailure;
+
+    public static void main(String[] args) throws Exception
+    {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int flows = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        long latency = args.length > 2 ? Long.parseLong(args[2]) : 50;
+
+        MockAuthServer mock = new MockAuthServer(0);
+        mock.setLatency(latency, latency / 5);
+        mock.setErrorRate(args.length > 3 ? Double.parseDouble(args[3]) : 0.01);
+        mock.setThrottle(args.length > 4 ? Integer.parseInt(args[4]) : 0);
+        mock.start();
+
+        int port = freePort();
+        final CraftixServer server = new CraftixServer(new InetSocketAddress("127.0.0.1", port), File.createTempFile("craftix-load", ".log"));
+        server.setAuthManager(new CoalescingAuthManager(new YggdrasilAuthManager(mock.getUrl())));
+
+        Thread loop = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    server.start();
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        }, "Craftix Server");
+        loop.start();
+
+        AuthLoadTest test = new AuthLoadTest();
+        long elapsed = test.run(port, clients, flows);
+
+        long done = 0;
+        for (Histogram histogram : test.latencies)
+        {
+            done += histogram.getCount();
+        }
+
+        System.out.println();
+        System.out.println(clients + " clients x " + flows + " flows in " + elapsed / 1000000 + " ms, " + done * 1000000000L / Math.max(elapsed, 1) + " commands/s, "
+                           + test.flow.getCount() * 1000000000L / Math.max(elapsed, 1) + " flows/s");
+        System.out.println(format("connect", test.connect, 0));
+        System.out.println(format("flow", test.flow, clients * flows - test.flow.getCount()));
+
+        for (int i = 0; i < COMMANDS.length; i++)
+        {
+            System.out.println(format(COMMANDS[i], test.latencies[i], test.failures[i].get()));
+        }
+
+        if (test.lastFailure != null)
+        {
+            System.out.println("Last failure : " + test.lastFailure);
+        }
+
+        System.out.println("Mock server : " + mock.getRequests() + " requests, " + mock.getErrors() + " failed, " + mock.getThrottled() + " throttled");
+
+        for (String command : COMMANDS)
+        {
+            CommandMetrics metrics = server.getCommandMetrics(command);
+            System.out.println("Server " + metrics);
+        }
+
+        server.stop();
+        mock.stop();
+        loop.join();
+    }
+
+    public long run(final int port, int clients, final int flows) throws InterruptedException
+    {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int i = 0; i < clients; i++)
+        {
+            final int client = i;
+            Thread thread = new Thread(null, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        client(port, client, flows);
+                    }
+                    catch (Exception e)
+                    {
+                        lastFailure = "client " + client + " : " + e;
+                    }
+                }
+            }, "Client " + i, 256 * 1024);
+
+            thread.start();
+            threads.add(thread);
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        return System.nanoTime() - begin;
+    }
+
+    protected void client(int port, int client, int flows) throws IOException
+    {
+        long begin = System.nanoTime();
+
+        try (Socket socket = new Socket("127.0.0.1", port))
+        {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+
+            if (!"ok".equals(new JSONObject(in.readLine()).optString("status")))
+            {
+                throw new IOException("Server didn't send its status");
+            }
+
+            connect.record((System.nanoTime() - begin) / 1000);
+
+            int id = 0;
+
+            for (int i = 0; i < flows; i++)
+            {
+                long flowStart = System.nanoTime();
+                boolean success = true;
+
+                for (int command = 0; command < COMMANDS.length && success; command++)
+                {
+                    JSONObject params = new JSONObject();
+
+                    if (command == 0)
+                    {
+                        params.put("username", "player" + client + "@craftix.test");
+                        params.put("password", "password");
+                        params.put("clientToken", "client-" + client);
+                    }
+
+                    JSONObject request = new JSONObject();
+                    request.put("id", String.valueOf(++id));
+                    request.put("command", COMMANDS[command]);
+                    request.put("params", params);
+
+                    long commandStart = System.nanoTime();
+
+                    out.write(request.toString() + "\n");
+                    out.flush();
+
+                    JSONObject response = await(in, String.valueOf(id));
+
+                    if (response.has("error"))
+                    {
+                        failures[command].incrementAndGet();
+                        lastFailure = COMMANDS[command] + " : " + response.optString("message");
+                        success = false;
+                    }
+                    else
+                    {
+                        latencies[command].record((System.nanoTime() - commandStart) / 1000);
+                    }
+                }
+
+                if (success)
+                {
+                    flow.record((System.nanoTime() - flowStart) / 1000);
+                }
+            }
+        }
+    }
+
+    protected static JSONObject await(BufferedReader in, String id) throws IOException
+    {
+        String line;
+
+        while ((line = in.readLine()) != null)
+        {
+            JSONObject message = new JSONObject(line);
+
+            if (id.equals(message.optString("id", null)) && !message.has("event"))
+            {
+                return message;
+            }
+        }
+
+        throw new IOException("Connection closed while waiting for request " + id);
+    }
+
+    protected static String format(String name, Histogram histogram, long failures)
+    {
+        return String.format("%-12s %7d ok %5d failed   p50 %8.2f ms   p99 %8.2f ms   p999 %8.2f ms   max %8.2f ms", name, histogram.getCount(), failures,
+                             histogram.getPercentile(50) / 1000.0, histogram.getPercentile(99) / 1000.0, histogram.getPercentile(99.9) / 1000.0, histogram.getMax() / 1000.0);
+    }
+
+    protected static int freePort() throws IOException
+    {
+        try (ServerSocket socket = new ServerSocket(0))
+        {
+            return socket.getLocalPort();
+        }
+    }
+}
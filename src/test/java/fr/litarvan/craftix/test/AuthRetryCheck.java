@@ -0,0 +1,99 @@
+package fr.litarvan.craftix.test;
+
+import fr.litarvan.craftix.auth.AuthResult;
+import fr.litarvan.craftix.auth.AuthServerException;
+import fr.litarvan.craftix.auth.CoalescingAuthManager;
+import fr.litarvan.craftix.auth.YggdrasilAuthManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks the retries of the {@link CoalescingAuthManager} against a
+ * {@link MockAuthServer} : identical calls failing with a 503 are
+ * sent once and retried once, a refresh is retried after a 503, but
+ * never when its response was lost (the server may have used its
+ * token already).
+ *
+ * Usage : AuthRetryCheck
+ */
+public class AuthRetryCheck
+{
+    private static final int CALLERS = 8;
+
+    public static void main(String[] args) throws Exception
+    {
+        MockAuthServer mock = new MockAuthServer(0);
+        mock.setLatency(200, 0);
+        mock.start();
+
+        final CoalescingAuthManager manager = new CoalescingAuthManager(new YggdrasilAuthManager(mock.getUrl()), 4, 10, 100);
+        ExecutorService pool = Executors.newFixedThreadPool(CALLERS);
+
+        try
+        {
+            // Coalesced call retried on a 503
+            mock.failNext(1);
+
+            List<Future<AuthResult>> results = new ArrayList<Future<AuthResult>>();
+
+            for (int i = 0; i < CALLERS; i++)
+            {
+                results.add(pool.submit(new Callable<AuthResult>()
+                {
+                    @Override
+                    public AuthResult call() throws Exception
+                    {
+                        return manager.authenticate(null, "player@craftix.test", "password", "client");
+                    }
+                }));
+            }
+
+            AuthResult session = results.get(0).get();
+
+            for (Future<AuthResult> result : results)
+            {
+                UpdateCheck.check(result.get().getAccessToken().equals(session.getAccessToken()), "The callers got different sessions");
+            }
+
+            UpdateCheck.check(mock.getRequests() == 2 && mock.getErrors() == 1, mock.getRequests() + " requests sent for " + CALLERS + " identical calls, expected 2");
+            System.out.println("OK   " + CALLERS + " coalesced calls retried once on a 503");
+
+            // Refresh retried on a 503, the server didn't use the token
+            mock.failNext(1);
+
+            long before = mock.getRequests();
+            AuthResult refreshed = manager.refresh(null, session.getAccessToken(), session.getClientToken());
+
+            UpdateCheck.check(mock.getRequests() - before == 2, "Refresh sent " + (mock.getRequests() - before) + " times, expected 2");
+            System.out.println("OK   refresh retried on a 503");
+
+            // Refresh not retried when its response was lost
+            mock.dropNext(1);
+            before = mock.getRequests();
+
+            try
+            {
+                manager.refresh(null, refreshed.getAccessToken(), refreshed.getClientToken());
+                throw new IllegalStateException("The refresh without response succeeded");
+            }
+            catch (AuthServerException e)
+            {
+                UpdateCheck.check(e.getStatus() == AuthServerException.NO_RESPONSE, "Unexpected error : " + e.getMessage());
+            }
+
+            UpdateCheck.check(mock.getRequests() - before == 1, "Refresh without response sent " + (mock.getRequests() - before) + " times, expected 1");
+            System.out.println("OK   refresh not retried after a lost response");
+
+            System.out.println("All auth retry checks passed");
+        }
+        finally
+        {
+            pool.shutdownNow();
+            mock.stop();
+        }
+    }
+}
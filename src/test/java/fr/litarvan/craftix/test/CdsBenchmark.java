@@ -0,0 +1,168 @@
+package fr.litarvan.craftix.test;
+
+import fr.litarvan.craftix.launch.ClassDataSharing;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Measures the startup time of a JVM loading every class of a
+ * classpath, without and with its class data sharing archive.
+ * Like a game classpath, the benchmarked one must only have jars.
+ *
+ * Usage : CdsBenchmark (classpath, default is this one) [runs]
+ */
+public class CdsBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        String classPath = args.length > 0 ? args[0] : System.getProperty("java.class.path");
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        if (!ClassDataSharing.isSupported())
+        {
+            System.out.println("Class data sharing archives need Java " + ClassDataSharing.DYNAMIC_ARCHIVE_VERSION + "+ (running " + ClassDataSharing.getJavaVersion() + ")");
+            return;
+        }
+
+        File folder = Files.createTempDirectory("craftix-cds").toFile();
+        ClassDataSharing cds = new ClassDataSharing(folder, "benchmark");
+
+        File workload = File.createTempFile("craftix-workload", ".jar");
+        classPath = createWorkloadJar(workload) + File.pathSeparator + classPath;
+
+        long cold = median(run(classPath, Collections.<String>emptyList(), runs));
+        System.out.println("Without archive : " + cold + " ms");
+
+        List<String> dump = cds.getVmArgs(Collections.<String>emptyList());
+        long start = System.nanoTime();
+        int code = start(classPath, dump);
+
+        cds.exited(code);
+        System.out.println("Archive created in " + (System.nanoTime() - start) / 1000000 + " ms (" + cds.getArchive().length() / 1024 + " KB)");
+
+        long warm = median(run(classPath, cds.getVmArgs(Collections.<String>emptyList()), runs));
+        System.out.println("With archive : " + warm + " ms");
+        System.out.println("Startup delta : " + (cold - warm) + " ms (" + (cold - warm) * 100 / cold + "%)");
+
+        for (File file : folder.listFiles())
+        {
+            file.delete();
+        }
+
+        folder.delete();
+        workload.delete();
+    }
+
+    private static long[] run(String classPath, List<String> vmArgs, int runs) throws IOException, InterruptedException
+    {
+        long[] times = new long[runs];
+
+        for (int i = 0; i < runs; i++)
+        {
+            long start = System.nanoTime();
+
+            if (start(classPath, vmArgs) != 0)
+            {
+                throw new IllegalStateException("Workload failed");
+            }
+
+            times[i] = (System.nanoTime() - start) / 1000000;
+        }
+
+        return times;
+    }
+
+    private static int start(String classPath, List<String> vmArgs) throws IOException, InterruptedException
+    {
+        List<String> command = new ArrayList<String>();
+
+        command.add(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+        command.addAll(vmArgs);
+        command.add("-cp");
+        command.add(classPath);
+        command.add(Workload.class.getName());
+        command.add(classPath);
+
+        return new ProcessBuilder(command).inheritIO().start().waitFor();
+    }
+
+    private static String createWorkloadJar(File jar) throws IOException
+    {
+        String name = Workload.class.getName().replace('.', '/') + ".class";
+
+        try (InputStream in = Workload.class.getClassLoader().getResourceAsStream(name);
+             JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar.toPath())))
+        {
+            out.putNextEntry(new JarEntry(name));
+
+            byte[] buffer = new byte[8192];
+            int read;
+
+            while ((read = in.read(buffer)) != -1)
+            {
+                out.write(buffer, 0, read);
+            }
+        }
+
+        return jar.getAbsolutePath();
+    }
+
+    private static long median(long[] times)
+    {
+        Arrays.sort(times);
+        return times[times.length / 2];
+    }
+
+    /**
+     * Loads (without initializing) every class of the jars of the given classpath
+     */
+    public static class Workload
+    {
+        public static void main(String[] args) throws IOException
+        {
+            ClassLoader loader = Workload.class.getClassLoader();
+
+            for (String path : args[0].split(File.pathSeparator))
+            {
+                if (!path.endsWith(".jar"))
+                {
+                    continue;
+                }
+
+                try (JarFile jar = new JarFile(path))
+                {
+                    Enumeration<JarEntry> entries = jar.entries();
+
+                    while (entries.hasMoreElements())
+                    {
+                        String name = entries.nextElement().getName();
+
+                        if (!name.endsWith(".class") || name.contains("-"))
+                        {
+                            continue;
+                        }
+
+                        try
+                        {
+                            Class.forName(name.substring(0, name.length() - 6).replace('/', '.'), false, loader);
+                        }
+                        catch (Throwable e)
+                        {
+                            // Missing optional dependency
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
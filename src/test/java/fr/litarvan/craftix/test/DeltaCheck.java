@@ -0,0 +1,90 @@
+package fr.litarvan.craftix.test;
+
+import fr.litarvan.craftix.update.BlockIndex;
+import fr.litarvan.craftix.update.DeltaDownload;
+import fr.litarvan.craftix.update.UpdateFile;
+import fr.litarvan.craftix.util.BufferPool;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Checks a delta update against a local {@link FileServer} : the
+ * new version of a file is built from an older local copy where
+ * blocks were changed, moved and shifted (across the windows the
+ * copy is read through), only downloading the changed ones.
+ *
+ * Usage : DeltaCheck
+ */
+public class DeltaCheck
+{
+    private static final int BLOCK = BlockIndex.DEFAULT_BLOCK_SIZE;
+
+    public static void main(String[] args) throws Exception
+    {
+        FileServer server = new FileServer();
+        File dir = Files.createTempDirectory("craftix-delta-check").toFile();
+
+        try
+        {
+            byte[] old = UpdateCheck.random(3 * BlockIndex.WINDOW_SIZE + 1234, 10);
+            byte[] current = change(old);
+
+            File basis = new File(dir, "basis.jar");
+            File blocks = new File(dir, "current.jar.blocks");
+            File part = new File(dir, "current.jar.part");
+
+            Files.write(basis.toPath(), old);
+            Files.write(new File(dir, "current.jar").toPath(), current);
+
+            try (OutputStream out = new FileOutputStream(blocks))
+            {
+                BlockIndex.generate(new File(dir, "current.jar"), BLOCK).write(out);
+            }
+
+            URL url = server.put("current.jar", current);
+            URL blocksUrl = server.put("current.jar.blocks", Files.readAllBytes(blocks.toPath()));
+
+            UpdateFile file = new UpdateFile("mods/current.jar", url, blocksUrl, current.length, "SHA-1", UpdateCheck.sha1(current));
+            long downloaded = new DeltaDownload(file, basis, part, new BufferPool(256 * 1024, 4), null, null).download();
+
+            UpdateCheck.check(Arrays.equals(Files.readAllBytes(part.toPath()), current), "The built file is different");
+            UpdateCheck.check(downloaded > 0 && downloaded <= 16 * BLOCK, "Downloaded " + downloaded + " bytes, expected only the changed blocks");
+
+            System.out.println("OK   delta update, downloaded " + downloaded + "/" + current.length + " bytes in " + server.getRanges().size() + " ranges");
+            System.out.println("All delta checks passed");
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
+    /**
+     * @return The new version : two blocks swapped, one byte changed in
+     *         two blocks, and 100 bytes inserted so the next blocks aren't
+     *         aligned anymore (some of them across two read windows)
+     */
+    protected static byte[] change(byte[] old) throws IOException
+    {
+        byte[] changed = old.clone();
+
+        System.arraycopy(old, 10 * BLOCK, changed, 20 * BLOCK, BLOCK);
+        System.arraycopy(old, 20 * BLOCK, changed, 10 * BLOCK, BLOCK);
+
+        changed[50 * BLOCK + 7] ^= 1;
+        changed[300 * BLOCK + 7] ^= 1;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(changed, 0, 100 * BLOCK);
+        out.write(UpdateCheck.random(100, 11));
+        out.write(changed, 100 * BLOCK, changed.length - 100 * BLOCK);
+
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,175 @@
+package fr.litarvan.craftix.test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process static file server, to test the downloads without
+ * a real update server.
+ *
+ * It answers HEAD and GET requests (with a single byte range or
+ * not) for the files put in it, and records the requested ranges.
+ * The body of the next GET responses can be cut after a given
+ * number of bytes, the connection being closed like a network
+ * failure would, and the HEAD requests can be refused.
+ */
+public class FileServer implements HttpHandler
+{
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final Map<String, byte[]> files = new ConcurrentHashMap<String, byte[]>();
+    private final List<String> ranges = new CopyOnWriteArrayList<String>();
+
+    private final AtomicLong served = new AtomicLong();
+
+    private volatile int cuts;
+    private volatile long cutAfter;
+
+    private volatile int headStatus;
+
+    public FileServer() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this);
+        server.start();
+    }
+
+    public void stop()
+    {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public URL put(String path, byte[] content) throws IOException
+    {
+        files.put(path, content);
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/" + path);
+    }
+
+    /**
+     * Cut the body of the next GET responses
+     *
+     * @param count The number of responses to cut
+     * @param after The number of bytes sent before cutting each one
+     */
+    public void cut(int count, long after)
+    {
+        this.cutAfter = after;
+        this.cuts = count;
+    }
+
+    /**
+     * Refuse the HEAD requests, like servers only allowing GET
+     *
+     * @param status The status answered to them (0 to answer them normally)
+     */
+    public void refuseHead(int status)
+    {
+        this.headStatus = status;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException
+    {
+        byte[] content = files.get(exchange.getRequestURI().getPath().substring(1));
+
+        if (content == null)
+        {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+
+            return;
+        }
+
+        exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+
+        if (exchange.getRequestMethod().equals("HEAD") && headStatus != 0)
+        {
+            exchange.sendResponseHeaders(headStatus, -1);
+            exchange.close();
+
+            return;
+        }
+
+        if (exchange.getRequestMethod().equals("HEAD"))
+        {
+            exchange.getResponseHeaders().add("Content-Length", String.valueOf(content.length));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+
+            return;
+        }
+
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        long start = 0;
+        long end = content.length - 1;
+
+        if (range != null && range.startsWith("bytes="))
+        {
+            String[] bounds = range.substring(6).split("-", -1);
+
+            start = Long.parseLong(bounds[0]);
+            end = bounds[1].isEmpty() ? end : Math.min(end, Long.parseLong(bounds[1]));
+
+            ranges.add(start + "-" + end);
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+        }
+
+        long length = end - start + 1;
+        long limit = length;
+
+        synchronized (this)
+        {
+            if (cuts > 0)
+            {
+                cuts--;
+                limit = Math.min(length, cutAfter);
+            }
+        }
+
+        exchange.sendResponseHeaders(range != null ? 206 : 200, length);
+
+        OutputStream out = exchange.getResponseBody();
+
+        try
+        {
+            out.write(content, (int) start, (int) limit);
+            served.addAndGet(limit);
+        }
+        finally
+        {
+            // Closing before the whole body was sent closes the connection
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return The ranges requested since the start ("start-end")
+     */
+    public List<String> getRanges()
+    {
+        return ranges;
+    }
+
+    /**
+     * @return The number of body bytes sent since the start
+     */
+    public long getServed()
+    {
+        return served.get();
+    }
+}
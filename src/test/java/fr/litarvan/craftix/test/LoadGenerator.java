@@ -0,0 +1,465 @@
+package fr.litarvan.craftix.test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import fr.litarvan.craftix.CommandMetrics;
+import fr.litarvan.craftix.CraftixServer;
+import fr.litarvan.craftix.auth.AuthResult;
+import fr.litarvan.craftix.auth.CoalescingAuthManager;
+import fr.litarvan.craftix.auth.YggdrasilAuthManager;
+import fr.litarvan.craftix.launch.LaunchConfig;
+import fr.litarvan.craftix.launch.LauncherAdapter;
+import fr.litarvan.craftix.update.ContentStore;
+import fr.litarvan.craftix.update.ManifestUpdateManager;
+import fr.litarvan.craftix.util.Hashing;
+import fr.litarvan.craftix.util.Histogram;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Opens many simulated launcher connections to an in-process Craftix
+ * server, and keeps them sending a weighted mix of commands for a
+ * given duration, to size a server shared by many launchers.
+ *
+ * The server authenticates against a {@link MockAuthServer}, updates
+ * from a local HTTP server serving a small manifest (the first update
+ * of each client downloads it, the next ones only check it), and
+ * launches with a launcher that only waits a little. Each client
+ * connects, waits for the status, authenticates, then runs the mix.
+ *
+ * Every 5 seconds the throughput, heap usage and GC activity are
+ * printed, then the connection times and the latency of each command.
+ * The clients run in the same JVM, so the heap and GC numbers include
+ * theirs (small next to the server's).
+ *
+ * Usage : LoadGenerator [clients] [seconds] [mix, ex: authenticate:4,refresh:2,update:2,launch:1,list:1] [think time ms]
+ */
+public class LoadGenerator
+{
+    private static final long REPORT_INTERVAL = 5000;
+
+    private static final int UPDATE_FILES = 20;
+    private static final int UPDATE_FILE_SIZE = 64 * 1024;
+
+    private final int port;
+    private final String manifest;
+    private final String[] mix;
+    private final long think;
+
+    private final Histogram connect = new Histogram();
+    private final Map<String, Histogram> latencies = new LinkedHashMap<String, Histogram>();
+    private final Map<String, AtomicLong> failures = new LinkedHashMap<String, AtomicLong>();
+    private final AtomicLong done = new AtomicLong();
+    private volatile String lastFailure;
+    private volatile boolean running = true;
+
+    public LoadGenerator(int port, String manifest, Map<String, Integer> weights, long think)
+    {
+        this.port = port;
+        this.manifest = manifest;
+        this.think = think;
+
+        List<String> mix = new ArrayList<String>();
+
+        for (Map.Entry<String, Integer> entry : weights.entrySet())
+        {
+            for (int i = 0; i < entry.getValue(); i++)
+            {
+                mix.add(entry.getKey());
+            }
+        }
+
+        this.mix = mix.toArray(new String[mix.size()]);
+
+        latencies.put("authenticate", new Histogram());
+        failures.put("authenticate", new AtomicLong());
+
+        for (String command : weights.keySet())
+        {
+            latencies.put(command, new Histogram());
+            failures.put(command, new AtomicLong());
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        long duration = (args.length > 1 ? Long.parseLong(args[1]) : 60) * 1000;
+        Map<String, Integer> weights = parseMix(args.length > 2 ? args[2] : "authenticate:4,refresh:2,update:2,launch:1,list:1");
+        long think = args.length > 3 ? Long.parseLong(args[3]) : 100;
+
+        File root = Files.createTempDirectory("craftix-load").toFile();
+
+        MockAuthServer auth = new MockAuthServer(0);
+        auth.setLatency(50, 10);
+        auth.start();
+
+        HttpServer files = serveUpdate();
+        String manifest = "http://127.0.0.1:" + files.getAddress().getPort() + "/manifest.json";
+
+        int port = AuthLoadTest.freePort();
+        final CraftixServer server = new CraftixServer(new InetSocketAddress("127.0.0.1", port), new File(root, "server.log"));
+
+        server.setAuthManager(new CoalescingAuthManager(new YggdrasilAuthManager(auth.getUrl())));
+        server.setUpdateManager(new LoadUpdateManager(root));
+        server.setLauncher(new LoadLauncher());
+
+        Thread loop = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    server.start();
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        }, "Craftix Server");
+        loop.start();
+
+        System.out.println(clients + " clients for " + duration / 1000 + "s, mix " + weights + ", think time " + think + " ms");
+
+        LoadGenerator generator = new LoadGenerator(port, manifest, weights, think);
+        generator.run(clients, duration);
+
+        for (String command : generator.latencies.keySet())
+        {
+            CommandMetrics metrics = server.getCommandMetrics(command);
+
+            if (metrics != null)
+            {
+                System.out.println("Server " + metrics);
+            }
+        }
+
+        server.stop();
+        loop.join();
+
+        auth.stop();
+        files.stop(0);
+    }
+
+    public void run(int clients, long duration) throws InterruptedException
+    {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int i = 0; i < clients; i++)
+        {
+            final int client = i;
+            Thread thread = new Thread(null, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        client(client);
+                    }
+                    catch (Exception e)
+                    {
+                        lastFailure = "client " + client + " : " + e;
+                    }
+                }
+            }, "Client " + i, 256 * 1024);
+
+            thread.start();
+            threads.add(thread);
+        }
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long[] gc = gcStats();
+        long maxHeap = 0;
+
+        long begin = System.currentTimeMillis();
+        long end = begin + duration;
+        long lastDone = 0;
+        long lastTime = begin;
+
+        start.countDown();
+
+        while (System.currentTimeMillis() < end)
+        {
+            Thread.sleep(Math.min(REPORT_INTERVAL, Math.max(1, end - System.currentTimeMillis())));
+
+            long now = System.currentTimeMillis();
+            long total = done.get();
+            long heap = memory.getHeapMemoryUsage().getUsed();
+            long[] current = gcStats();
+
+            maxHeap = Math.max(maxHeap, heap);
+
+            System.out.println(String.format("%4ds  %7d commands/s  %5d connected  heap %5d MB  gc %4d (%5d ms)", (now - begin) / 1000,
+                                             (total - lastDone) * 1000 / Math.max(1, now - lastTime), connect.getCount(), heap / (1024 * 1024),
+                                             current[0] - gc[0], current[1] - gc[1]));
+
+            lastDone = total;
+            lastTime = now;
+        }
+
+        running = false;
+
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        long elapsed = System.currentTimeMillis() - begin;
+        long[] current = gcStats();
+
+        System.out.println();
+        System.out.println(done.get() + " commands in " + elapsed + " ms, " + done.get() * 1000 / Math.max(1, elapsed) + " commands/s");
+        System.out.println("Heap : max " + maxHeap / (1024 * 1024) + " MB, committed " + memory.getHeapMemoryUsage().getCommitted() / (1024 * 1024) + " MB, "
+                           + (current[0] - gc[0]) + " collections taking " + (current[1] - gc[1]) + " ms");
+        System.out.println(AuthLoadTest.format("connect", connect, clients - connect.getCount()));
+
+        for (Map.Entry<String, Histogram> entry : latencies.entrySet())
+        {
+            System.out.println(AuthLoadTest.format(entry.getKey(), entry.getValue(), failures.get(entry.getKey()).get()));
+        }
+
+        if (lastFailure != null)
+        {
+            System.out.println("Last failure : " + lastFailure);
+        }
+    }
+
+    protected void client(int client) throws IOException, InterruptedException
+    {
+        long begin = System.nanoTime();
+
+        try (Socket socket = new Socket("127.0.0.1", port))
+        {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+
+            if (!"ok".equals(new JSONObject(in.readLine()).optString("status")))
+            {
+                throw new IOException("Server didn't send its status");
+            }
+
+            connect.record((System.nanoTime() - begin) / 1000);
+
+            int id = 0;
+            String command = "authenticate";
+
+            while (running)
+            {
+                JSONObject request = new JSONObject();
+                request.put("id", String.valueOf(++id));
+                request.put("command", command);
+                request.put("params", getParams(client, command));
+
+                long start = System.nanoTime();
+
+                out.write(request.toString() + "\n");
+                out.flush();
+
+                JSONObject response = AuthLoadTest.await(in, String.valueOf(id));
+
+                if (response.has("error"))
+                {
+                    failures.get(command).incrementAndGet();
+                    lastFailure = command + " : " + response.optString("message");
+                }
+                else
+                {
+                    latencies.get(command).record((System.nanoTime() - start) / 1000);
+                    done.incrementAndGet();
+                }
+
+                if (think > 0)
+                {
+                    Thread.sleep(ThreadLocalRandom.current().nextLong(think * 2 + 1));
+                }
+
+                command = mix[ThreadLocalRandom.current().nextInt(mix.length)];
+            }
+        }
+    }
+
+    protected JSONObject getParams(int client, String command)
+    {
+        JSONObject params = new JSONObject();
+
+        switch (command)
+        {
+            case "authenticate":
+                params.put("username", "player" + client + "@craftix.test");
+                params.put("password", "password");
+                params.put("clientToken", "client-" + client);
+                break;
+            case "update":
+                params.put("name", "load-" + client);
+                params.put("manifest", manifest);
+                break;
+            case "launch":
+                params.put("name", "load-" + client);
+                params.put("version", "1.12.2");
+                params.put("params", new JSONArray());
+                params.put("vmParams", new JSONArray().put("-Xmx2G"));
+                params.put("tweaks", new JSONArray().put("forge"));
+                break;
+        }
+
+        return params;
+    }
+
+    protected static Map<String, Integer> parseMix(String mix)
+    {
+        Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+
+        for (String part : mix.split(","))
+        {
+            String[] split = part.trim().split(":");
+            weights.put(split[0], split.length > 1 ? Integer.parseInt(split[1]) : 1);
+        }
+
+        return weights;
+    }
+
+    protected static long[] gcStats()
+    {
+        long count = 0;
+        long time = 0;
+
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            count += Math.max(0, collector.getCollectionCount());
+            time += Math.max(0, collector.getCollectionTime());
+        }
+
+        return new long[]{count, time};
+    }
+
+    /**
+     * Serve a manifest of random files
+     */
+    protected static HttpServer serveUpdate() throws IOException
+    {
+        final Map<String, byte[]> content = new LinkedHashMap<String, byte[]>();
+        JSONArray files = new JSONArray();
+        Random random = new Random(42);
+
+        for (int i = 0; i < UPDATE_FILES; i++)
+        {
+            byte[] bytes = new byte[UPDATE_FILE_SIZE];
+            random.nextBytes(bytes);
+
+            String path = (i == 0 ? "bin/minecraft.jar" : "mods/mod-" + i + ".jar");
+            content.put("/" + path, bytes);
+
+            JSONObject file = new JSONObject();
+            file.put("path", path);
+            file.put("size", bytes.length);
+            file.put("sha1", Hashing.hex(Hashing.digest("SHA-1").digest(bytes)));
+
+            files.put(file);
+        }
+
+        content.put("/manifest.json", new JSONObject().put("files", files).toString().getBytes(StandardCharsets.UTF_8));
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler()
+        {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                byte[] bytes = content.get(exchange.getRequestURI().getPath());
+
+                if (bytes == null)
+                {
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+
+                    return;
+                }
+
+                exchange.sendResponseHeaders(200, bytes.length);
+
+                try (OutputStream out = exchange.getResponseBody())
+                {
+                    out.write(bytes);
+                }
+            }
+        });
+        server.start();
+
+        return server;
+    }
+
+    /**
+     * Keeps the game directories and the shared store in a temporary folder
+     */
+    protected static class LoadUpdateManager extends ManifestUpdateManager
+    {
+        private final File root;
+
+        public LoadUpdateManager(File root)
+        {
+            super(new ContentStore(new File(root, "store")));
+            this.root = root;
+        }
+
+        @Override
+        public File getGameDir(String serverName)
+        {
+            File dir = new File(root, serverName);
+            dir.mkdirs();
+
+            return dir;
+        }
+    }
+
+    /**
+     * Pretends to start the game
+     */
+    protected static class LoadLauncher extends LauncherAdapter<RuntimeException>
+    {
+        @Override
+        public void launch(CraftixServer server, LaunchConfig config, AuthResult auth)
+        {
+            try
+            {
+                Thread.sleep(20);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
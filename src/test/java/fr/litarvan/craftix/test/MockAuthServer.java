@@ -0,0 +1,328 @@
+package fr.litarvan.craftix.test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * An in-process stand-in for a Yggdrasil (Mojang-like) authentication
+ * server, to test the auth managers without the real one.
+ *
+ * It answers authenticate, refresh, validate and invalidate like
+ * Mojang does, accepting any account whose password isn't "bad".
+ * Each request waits the given latency (plus a random jitter), fails
+ * with a 503 at the given rate, and gets a 429 once more requests
+ * than the throttle limit were received in the current second.
+ * The next requests can also be made to fail with a 503, or to be
+ * processed without sending their response.
+ *
+ * Usage : MockAuthServer [port] [latency ms] [error rate] [throttle per second]
+ */
+public class MockAuthServer implements HttpHandler
+{
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private volatile long latency;
+    private volatile long jitter;
+    private volatile double errorRate;
+    private volatile int throttle;
+
+    // Access token -> profile name, of the valid sessions
+    private final Map<String, String> sessions = new ConcurrentHashMap<String, String>();
+
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger drops = new AtomicInteger();
+
+    private final AtomicLong second = new AtomicLong();
+    private final AtomicInteger secondRequests = new AtomicInteger();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+
+    public MockAuthServer(int port) throws IOException
+    {
+        // Otherwise the body of each response waits for the delayed ACK of its headers, adding ~40ms
+        if (System.getProperty("sun.net.httpserver.nodelay") == null)
+        {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this);
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        MockAuthServer server = new MockAuthServer(args.length > 0 ? Integer.parseInt(args[0]) : 25580);
+
+        server.setLatency(args.length > 1 ? Long.parseLong(args[1]) : 50, args.length > 1 ? Long.parseLong(args[1]) / 5 : 10);
+        server.setErrorRate(args.length > 2 ? Double.parseDouble(args[2]) : 0);
+        server.setThrottle(args.length > 3 ? Integer.parseInt(args[3]) : 0);
+        server.start();
+
+        System.out.println("Mock auth server running on " + server.getUrl() + " (use -Dcraftix.auth.server=" + server.getUrl() + ")");
+    }
+
+    public void start()
+    {
+        server.start();
+    }
+
+    public void stop()
+    {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException
+    {
+        requests.incrementAndGet();
+
+        try
+        {
+            String point = exchange.getRequestURI().getPath().substring(1);
+            JSONObject request = new JSONObject(new String(read(exchange.getRequestBody()), StandardCharsets.UTF_8));
+
+            long delay = latency + (jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter + 1) : 0);
+
+            if (delay > 0)
+            {
+                Thread.sleep(delay);
+            }
+
+            if (isThrottled())
+            {
+                throttled.incrementAndGet();
+                exchange.getResponseHeaders().add("Retry-After", "1");
+
+                error(exchange, 429, "TooManyRequestsException", "Too many requests");
+                return;
+            }
+
+            if (take(failures) || (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate))
+            {
+                errors.incrementAndGet();
+                error(exchange, 503, "ServiceUnavailableException", "Simulated failure");
+                return;
+            }
+
+            switch (point)
+            {
+                case "authenticate":
+                    if ("bad".equals(request.optString("password")))
+                    {
+                        error(exchange, 403, "ForbiddenOperationException", "Invalid credentials. Invalid username or password.");
+                        return;
+                    }
+
+                    String name = request.getString("username").replaceAll("@.*", "");
+                    send(exchange, 200, session(name, request.optString("clientToken", UUID.randomUUID().toString())));
+                    return;
+                case "refresh":
+                    String previous = sessions.remove(request.getString("accessToken"));
+
+                    if (previous == null)
+                    {
+                        error(exchange, 403, "ForbiddenOperationException", "Invalid token.");
+                        return;
+                    }
+
+                    send(exchange, 200, session(previous, request.getString("clientToken")));
+                    return;
+                case "validate":
+                    send(exchange, sessions.containsKey(request.getString("accessToken")) ? 204 : 403, null);
+                    return;
+                case "invalidate":
+                    sessions.remove(request.getString("accessToken"));
+                    send(exchange, 204, null);
+                    return;
+                default:
+                    error(exchange, 404, "Not Found", "The server has not found anything matching the request URI");
+            }
+        }
+        catch (JSONException e)
+        {
+            error(exchange, 400, "IllegalArgumentException", e.getMessage());
+        }
+        catch (InterruptedException e)
+        {
+            exchange.close();
+        }
+    }
+
+    protected JSONObject session(String name, String clientToken)
+    {
+        String accessToken = UUID.randomUUID().toString().replace("-", "");
+        sessions.put(accessToken, name);
+
+        JSONObject profile = new JSONObject();
+        profile.put("id", UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)).toString().replace("-", ""));
+        profile.put("name", name);
+
+        JSONObject response = new JSONObject();
+        response.put("accessToken", accessToken);
+        response.put("clientToken", clientToken);
+        response.put("selectedProfile", profile);
+
+        return response;
+    }
+
+    protected boolean isThrottled()
+    {
+        if (throttle <= 0)
+        {
+            return false;
+        }
+
+        long now = System.currentTimeMillis() / 1000;
+        long current = second.get();
+
+        if (current != now && second.compareAndSet(current, now))
+        {
+            secondRequests.set(0);
+        }
+
+        return secondRequests.incrementAndGet() > throttle;
+    }
+
+    protected void error(HttpExchange exchange, int status, String error, String message) throws IOException
+    {
+        JSONObject object = new JSONObject();
+        object.put("error", error);
+        object.put("errorMessage", message);
+
+        send(exchange, status, object);
+    }
+
+    protected void send(HttpExchange exchange, int status, JSONObject content) throws IOException
+    {
+        if (take(drops))
+        {
+            // Closes the connection, like a network failure after the request was processed
+            exchange.close();
+            return;
+        }
+
+        if (content == null)
+        {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+
+            return;
+        }
+
+        byte[] bytes = content.toString().getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(bytes);
+        }
+    }
+
+    protected static boolean take(AtomicInteger counter)
+    {
+        int count;
+
+        do
+        {
+            count = counter.get();
+
+            if (count <= 0)
+            {
+                return false;
+            }
+        }
+        while (!counter.compareAndSet(count, count - 1));
+
+        return true;
+    }
+
+    protected static byte[] read(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+
+        int read;
+        while ((read = in.read(buffer)) != -1)
+        {
+            out.write(buffer, 0, read);
+        }
+
+        return out.toByteArray();
+    }
+
+    public String getUrl()
+    {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    public void setLatency(long latency, long jitter)
+    {
+        this.latency = latency;
+        this.jitter = jitter;
+    }
+
+    public void setErrorRate(double errorRate)
+    {
+        this.errorRate = errorRate;
+    }
+
+    public void setThrottle(int throttle)
+    {
+        this.throttle = throttle;
+    }
+
+    /**
+     * @param count The number of next requests answered with a 503, without being processed
+     */
+    public void failNext(int count)
+    {
+        failures.set(count);
+    }
+
+    /**
+     * @param count The number of next requests processed without sending their response
+     */
+    public void dropNext(int count)
+    {
+        drops.set(count);
+    }
+
+    public long getRequests()
+    {
+        return requests.get();
+    }
+
+    public long getErrors()
+    {
+        return errors.get();
+    }
+
+    public long getThrottled()
+    {
+        return throttled.get();
+    }
+}
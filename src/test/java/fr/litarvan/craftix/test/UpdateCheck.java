@@ -0,0 +1,211 @@
+package fr.litarvan.craftix.test;
+
+import fr.litarvan.craftix.update.ChunkedDownload;
+import fr.litarvan.craftix.update.ManifestUpdateManager;
+import fr.litarvan.craftix.update.UpdateFile;
+import fr.litarvan.craftix.util.BufferPool;
+import fr.litarvan.craftix.util.Hashing;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the downloads of the update manager against a local
+ * {@link FileServer} : files not matching their hash are never
+ * installed, an interrupted chunked download continues where
+ * its journal says it stopped, and big files are still downloaded
+ * from servers refusing HEAD requests.
+ *
+ * Usage : UpdateCheck
+ */
+public class UpdateCheck
+{
+    private static final int MB = 1024 * 1024;
+
+    private final FileServer server;
+    private final File dir;
+
+    public UpdateCheck(FileServer server, File dir)
+    {
+        this.server = server;
+        this.dir = dir;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        FileServer server = new FileServer();
+        File dir = Files.createTempDirectory("craftix-update-check").toFile();
+
+        try
+        {
+            UpdateCheck check = new UpdateCheck(server, dir);
+
+            check.hashMismatch();
+            check.chunkedHashMismatch();
+            check.resumedDownload();
+            check.headRefused();
+
+            System.out.println("All update checks passed");
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
+    public void hashMismatch() throws IOException
+    {
+        byte[] content = random(64 * 1024, 1);
+        byte[] other = random(64 * 1024, 2);
+
+        URL url = server.put("mods/mismatch.jar", content);
+        UpdateFile file = new UpdateFile("mods/mismatch.jar", url, content.length, "SHA-1", sha1(other));
+        File target = file.getFile(dir);
+
+        try
+        {
+            new CheckedUpdateManager().fetch(file, target);
+            throw new IllegalStateException("A file not matching its hash was installed");
+        }
+        catch (IOException e)
+        {
+            check(e.getMessage().startsWith("Invalid file"), "Unexpected error : " + e);
+        }
+
+        check(!target.exists(), "The invalid file was installed");
+        check(!new File(target.getPath() + ".part").exists(), "The invalid file was kept");
+
+        System.out.println("OK   hash mismatch");
+    }
+
+    public void chunkedHashMismatch() throws IOException
+    {
+        byte[] content = random(6 * MB, 3);
+        byte[] other = random(6 * MB, 4);
+
+        URL url = server.put("mismatch.bin", content);
+        File part = new File(dir, "mismatch.bin.part");
+        ChunkedDownload download = new ChunkedDownload(new UpdateFile("mismatch.bin", url, content.length, "SHA-1", sha1(other)), part, new BufferPool(256 * 1024, 4), 2, null, null);
+
+        try
+        {
+            download.download();
+            throw new IllegalStateException("A chunked file not matching its hash was accepted");
+        }
+        catch (IOException e)
+        {
+            check(e.getMessage().startsWith("Invalid file"), "Unexpected error : " + e);
+        }
+
+        check(!part.exists(), "The invalid chunked file was kept");
+        check(!new File(part.getPath() + ".journal").exists(), "The journal of the invalid chunked file was kept");
+
+        System.out.println("OK   chunked hash mismatch");
+    }
+
+    public void resumedDownload() throws IOException
+    {
+        // A single chunk, its progress saved about every 8 MB
+        byte[] content = random(24 * MB, 5);
+
+        URL url = server.put("resumed.bin", content);
+        File part = new File(dir, "resumed.bin.part");
+        ChunkedDownload download = new ChunkedDownload(new UpdateFile("resumed.bin", url, content.length, "SHA-1", sha1(content)), part, new BufferPool(256 * 1024, 4), 1, null, null);
+
+        server.getRanges().clear();
+        server.cut(1, 20 * MB);
+
+        try
+        {
+            download.download();
+            throw new IllegalStateException("The cut download succeeded");
+        }
+        catch (IOException e)
+        {
+            // Connection closed after 20 MB
+        }
+
+        check(part.isFile() && new File(part.getPath() + ".journal").isFile(), "The interrupted download wasn't kept");
+
+        check(download.download(), "The server doesn't accept ranges");
+        check(Arrays.equals(Files.readAllBytes(part.toPath()), content), "The resumed file is different");
+        // The journal is saved every SYNC_INTERVAL bytes received, at read boundaries
+        List<String> ranges = server.getRanges();
+        long resumed = ranges.size() == 2 ? Long.parseLong(ranges.get(1).split("-")[0]) : -1;
+
+        check(ranges.size() == 2 && ranges.get(0).equals("0-" + (content.length - 1)) && ranges.get(1).endsWith("-" + (content.length - 1))
+              && resumed >= ChunkedDownload.SYNC_INTERVAL && resumed <= 20 * MB,
+              "The download didn't continue from the journal : " + ranges);
+
+        Files.delete(part.toPath());
+
+        System.out.println("OK   resumed download " + server.getRanges());
+    }
+
+    public void headRefused() throws IOException
+    {
+        // Big enough to be downloaded in chunks if the server accepted HEAD
+        byte[] content = random((int) ManifestUpdateManager.CHUNKED_THRESHOLD + MB, 6);
+
+        URL url = server.put("mods/head.jar", content);
+        UpdateFile file = new UpdateFile("mods/head.jar", url, content.length, "SHA-1", sha1(content));
+        File target = file.getFile(dir);
+
+        server.getRanges().clear();
+        server.refuseHead(405);
+
+        try
+        {
+            new CheckedUpdateManager().fetch(file, target);
+        }
+        finally
+        {
+            server.refuseHead(0);
+        }
+
+        check(Arrays.equals(Files.readAllBytes(target.toPath()), content), "The downloaded file is different");
+        check(server.getRanges().isEmpty(), "Ranges were requested from a server refusing HEAD : " + server.getRanges());
+
+        Files.delete(target.toPath());
+
+        System.out.println("OK   HEAD refused, plain download");
+    }
+
+    protected static byte[] random(int size, long seed)
+    {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+
+        return bytes;
+    }
+
+    protected static String sha1(byte[] content)
+    {
+        return Hashing.hex(Hashing.digest("SHA-1").digest(content));
+    }
+
+    protected static void check(boolean condition, String message)
+    {
+        if (!condition)
+        {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    public static class CheckedUpdateManager extends ManifestUpdateManager
+    {
+        public CheckedUpdateManager()
+        {
+            super(null);
+        }
+
+        public void fetch(UpdateFile file, File target) throws IOException
+        {
+            fetch(file, target, null, null, null);
+        }
+    }
+}